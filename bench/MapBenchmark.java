@@ -0,0 +1,282 @@
+package bench;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.reflect.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+import org.openjdk.jol.info.*;
+import org.openjdk.jol.vm.*;
+
+/**
+ * JMH microbenchmarks for the maps and sets of this project,
+ * compared against <tt>java.util.HashMap</tt>.
+ *
+ * <p>Every benchmark is run for every implementation and every size
+ * of the ReadMe matrix (9 to 589824 mappings).  All scores are average
+ * time per single map operation; besides latency each run reports
+ * <tt>bytesPerEntry</tt>: the retained size of a map filled with
+ * <tt>size</tt> mappings, as measured by JOL, minus the keys themselves
+ * (keys are also used as values), divided by <tt>size</tt>.
+ *
+ * <p>Keys are <tt>Integer</tt>s with random values, lookups use
+ * equal but not identical instances so that <tt>equals</tt> is
+ * actually called.  Operations are:
+ * <ul>
+ * <li><tt>getHit</tt> - lookup of an existing key in random order
+ * <li><tt>getMiss</tt> - lookup of a missing key
+ * <li><tt>putOverwrite</tt> - replacing the value of an existing key
+ * <li><tt>putNew</tt> - adding a new key into a map which already has
+ *     enough capacity; it is cleared after each <tt>size</tt> puts
+ *     (<tt>FastHashMap2</tt> drops its arrays on <tt>clear</tt>,
+ *     so for it this is the same as <tt>resize</tt>)
+ * <li><tt>resize</tt> - adding a new key into a map created with the
+ *     default capacity, so this includes amortized resize cost;
+ *     a new map is created after each <tt>size</tt> puts
+ * <li><tt>remove</tt> - removing an existing key and putting it back,
+ *     subtract <tt>putNew</tt> to get the cost of removal
+ * <li><tt>iteration</tt> - one step of an entry (element for sets)
+ *     iterator, a new iterator is created when the old one is exhausted
+ * </ul>
+ *
+ * <p>The sources are compiled together with <tt>java/*.java</tt>,
+ * <tt>src/*.scala</tt> and JMH/JOL jars on the classpath, see ReadMe.
+ *
+ * @author  Alex Yakovlev
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MapBenchmark {
+
+    @Param({"FastHashMap", "FastHashMap2", "FastLinkedHashMap",
+            "FastHashSet", "CompactHashMap", "java.util.HashMap"})
+    String impl;
+
+    @Param({"9", "36", "144", "576", "2304", "9216",
+            "36864", "147456", "589824"})
+    int size;
+
+    /**
+     * Keys present in the map.
+     */
+    Integer[] keys;
+
+    /**
+     * Copies of <tt>keys</tt> in random order.
+     */
+    Integer[] hitKeys;
+
+    /**
+     * Keys not present in the map.
+     */
+    Integer[] missKeys;
+
+    /**
+     * Map with <tt>size</tt> mappings for lookups.
+     */
+    Target target;
+
+    /**
+     * Map for <tt>putNew</tt> and <tt>resize</tt>.
+     */
+    Target fillTarget;
+
+    Iterator<?> iterator;
+
+    Constructor<?> constructor;
+
+    int position;
+
+    double bytesPerEntry;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        constructor = Class.forName(impl).getConstructor();
+        Random rnd = new Random(size);
+        Set<Integer> used = new HashSet<Integer>();
+        keys = new Integer[size];
+        missKeys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            int k;
+            do k = rnd.nextInt(); while (!used.add(k));
+            keys[i] = Integer.valueOf(k);
+        }
+        for (int i = 0; i < size; i++) {
+            int k;
+            do k = rnd.nextInt(); while (!used.add(k));
+            missKeys[i] = Integer.valueOf(k);
+        }
+        hitKeys = new Integer[size];
+        for (int i = 0; i < size; i++)
+            hitKeys[i] = new Integer(keys[i].intValue());
+        Collections.shuffle(Arrays.asList(hitKeys), rnd);
+        target = create();
+        for (Integer key: keys)
+            target.put(key, key);
+        bytesPerEntry = (double)(GraphLayout.parseInstance(target.root()).totalSize() -
+            size * VM.current().sizeOf(keys[0])) / size;
+        fillTarget = create();
+        for (Integer key: keys)
+            fillTarget.put(key, key);
+        fillTarget.clear();
+        iterator = target.iterator();
+    }
+
+    /**
+     * Reports <tt>bytesPerEntry</tt> next to the latency of each benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        double value;
+
+        @Setup(Level.Iteration)
+        public void setup(MapBenchmark state) {
+            value = state.bytesPerEntry;
+        }
+
+        public double bytesPerEntry() {
+            return value;
+        }
+    }
+
+    final int next() {
+        int i = position;
+        position = i+1 == size ? 0 : i+1;
+        return i;
+    }
+
+    @Benchmark
+    public Object getHit(Footprint f) {
+        return target.get(hitKeys[next()]);
+    }
+
+    @Benchmark
+    public Object getMiss(Footprint f) {
+        return target.get(missKeys[next()]);
+    }
+
+    @Benchmark
+    public Object putOverwrite(Footprint f) {
+        Integer key = hitKeys[next()];
+        return target.put(key, key);
+    }
+
+    @Benchmark
+    public Object putNew(Footprint f) {
+        int i = next();
+        if (i == 0)
+            fillTarget.clear();
+        Integer key = keys[i];
+        return fillTarget.put(key, key);
+    }
+
+    @Benchmark
+    public Object resize(Footprint f) {
+        int i = next();
+        if (i == 0)
+            fillTarget = create();
+        Integer key = keys[i];
+        return fillTarget.put(key, key);
+    }
+
+    @Benchmark
+    public Object remove(Footprint f) {
+        Integer key = keys[next()];
+        target.remove(key);
+        return target.put(key, key);
+    }
+
+    @Benchmark
+    public Object iteration(Footprint f) {
+        Iterator<?> i = iterator;
+        if (!i.hasNext())
+            iterator = i = target.iterator();
+        return i.next();
+    }
+
+    /**
+     * Common interface of all benchmarked implementations,
+     * sets are treated as maps with values ignored.
+     */
+    static abstract class Target {
+        abstract Object get(Object key);
+        abstract Object put(Object key, Object value);
+        abstract Object remove(Object key);
+        abstract Iterator<?> iterator();
+        abstract void clear();
+        abstract Object root();
+    }
+
+    static final class MapTarget extends Target {
+        final Map<Object,Object> map;
+        MapTarget(Map<Object,Object> map) { this.map = map; }
+        Object get(Object key) { return map.get(key); }
+        Object put(Object key, Object value) { return map.put(key, value); }
+        Object remove(Object key) { return map.remove(key); }
+        Iterator<?> iterator() { return map.entrySet().iterator(); }
+        void clear() { map.clear(); }
+        Object root() { return map; }
+    }
+
+    static final class SetTarget extends Target {
+        final Set<Object> set;
+        SetTarget(Set<Object> set) { this.set = set; }
+        Object get(Object key) { return set.contains(key); }
+        Object put(Object key, Object value) { return set.add(key); }
+        Object remove(Object key) { return set.remove(key); }
+        Iterator<?> iterator() { return set.iterator(); }
+        void clear() { set.clear(); }
+        Object root() { return set; }
+    }
+
+    static final class CompactTarget extends Target {
+        final scala.collection.mutable.Map<Object,Object> map;
+        CompactTarget(scala.collection.mutable.Map<Object,Object> map) { this.map = map; }
+        Object get(Object key) { return map.apply(key); }
+        Object put(Object key, Object value) { map.update(key, value); return null; }
+        Object remove(Object key) { map.$minus$eq(key); return null; }
+        Iterator<?> iterator() {
+            final scala.Iterator<?> i = map.elements();
+            return new Iterator<Object>() {
+                public boolean hasNext() { return i.hasNext(); }
+                public Object next() { return i.next(); }
+                public void remove() { throw new UnsupportedOperationException(); }
+            };
+        }
+        void clear() { map.clear(); }
+        Object root() { return map; }
+    }
+
+    /**
+     * Creates an empty instance of the benchmarked class.
+     * Classes under test are in the default package and can not be
+     * referenced from here by name, so reflection is used.
+     */
+    @SuppressWarnings("unchecked")
+    Target create() {
+        Object o;
+        try {
+            o = constructor.newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        if (o instanceof Map<?,?>)
+            return new MapTarget((Map<Object,Object>)o);
+        if (o instanceof Set<?>)
+            return new SetTarget((Set<Object>)o);
+        return new CompactTarget((scala.collection.mutable.Map<Object,Object>)o);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(MapBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,537 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.io.*;
+
+/**
+ * A hash map which is not limited by the maximum array length:
+ * mappings are stored in {@link FastHashMap} chunks of bounded size,
+ * so it can hold several billion of them given enough heap.
+ *
+ * <p>A single <tt>FastHashMap</tt> keeps all keys and values in one
+ * array and can not grow beyond <tt>2<sup>30</sup></tt> entries,
+ * also the hash bits stored in its index vanish as it approaches
+ * this limit.  This class uses extendible hashing: the highest bits
+ * of a key hash select a slot of the <i>directory</i> pointing
+ * to a chunk, and when a chunk gets full only this chunk is split
+ * in two by the next hash bit, doubling the directory if needed.
+ * There is no global rehash: the cost of growth is spread over
+ * insertions, and the chunk itself selects its hash bucket by the
+ * lowest bits of its own hash, so chunks stay well distributed.
+ *
+ * <p>Since <tt>Map.size</tt> is an <tt>int</tt>, use
+ * {@link #mappingCount mappingCount} to get the number of mappings
+ * when it can exceed <tt>Integer.MAX_VALUE</tt>.
+ *
+ * <p>Key hash codes are still 32-bit, so a map of many billions
+ * keys will have colliding hash codes: they are resolved by
+ * <tt>equals</tt> inside a chunk and work correctly, but a chunk
+ * which can not be split any more just keeps growing.
+ *
+ * <p>Like <tt>FastHashMap</tt> this class permits <tt>null</tt>
+ * keys and values and is not synchronized.  Iteration follows the
+ * directory order, within a chunk it is the insertion order.
+ * Iterators are fail-fast: they throw
+ * {@link ConcurrentModificationException} if the map was structurally
+ * modified other than by the iterator's own <tt>remove</tt> method.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public class FastBigHashMap<K,V>
+    extends AbstractMap<K,V>
+    implements Serializable
+{
+    private static final long serialVersionUID = -2310375294611857904L;
+
+    /**
+     * The default maximum number of mappings in a chunk.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+
+    /**
+     * The maximum number of hash bits used by the directory,
+     * chunks are not split beyond it.
+     */
+    static final int MAX_DEPTH = 24;
+
+    /**
+     * The load factor of chunks.
+     *
+     * @serial
+     */
+    final float loadFactor;
+
+    /**
+     * Chunk size reaching which it is split.
+     *
+     * @serial
+     */
+    final int chunkSize;
+
+    /**
+     * Directory: chunk of each value of the highest
+     * <tt>globalDepth</tt> bits of a hash.  A chunk with local
+     * depth <tt>d</tt> occupies <tt>2<sup>globalDepth-d</sup></tt>
+     * adjacent slots.
+     */
+    transient FastHashMap<K,V>[] directory;
+
+    /**
+     * Number of hash bits used by each chunk, indexed like directory.
+     */
+    transient byte[] localDepth;
+
+    /**
+     * Number of hash bits selecting a directory slot.
+     */
+    transient int globalDepth;
+
+    /**
+     * The number of key-value mappings contained in this map.
+     */
+    transient long size;
+
+    /**
+     * The number of chunk splits, they invalidate iterators.
+     */
+    transient int splits;
+
+    /**
+     * Per-instance seed of the directory hash.
+     */
+    transient int hashSeed;
+
+    /**
+     * Constructs an empty map with the default load factor (0.75)
+     * and chunk size.
+     */
+    public FastBigHashMap() {
+        this(FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified load factor
+     * of its chunks.
+     *
+     * @param  loadFactor the load factor
+     * @throws IllegalArgumentException if the load factor is greater
+     *         than one or is too low
+     */
+    public FastBigHashMap(float loadFactor) {
+        this(loadFactor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new map containing the key-value mappings
+     * in the specified map.
+     *
+     * @param  m the map whose mappings are to be placed into this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public FastBigHashMap(Map<? extends K, ? extends V> m) {
+        this();
+        putAll(m);
+    }
+
+    /**
+     * Constructs an empty map with the specified load factor
+     * and chunk size, small chunks make tests split them.
+     */
+    FastBigHashMap(float loadFactor, int chunkSize) {
+        if (chunkSize < 2 || chunkSize > FastHashMap.MAXIMUM_CAPACITY)
+            throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+        // validates load factor
+        new FastHashMap<K,V>(0, loadFactor);
+        this.loadFactor = loadFactor;
+        this.chunkSize = chunkSize;
+        init();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init() {
+        directory = (FastHashMap<K,V>[]) new FastHashMap<?,?>[] { newChunk(0) };
+        localDepth = new byte[1];
+        globalDepth = 0;
+        size = 0;
+        hashSeed = ThreadLocalRandom.current().nextInt();
+    }
+
+    private FastHashMap<K,V> newChunk(int expectedSize) {
+        return new FastHashMap<K,V>((int)(expectedSize / loadFactor) + 1, loadFactor);
+    }
+
+    /**
+     * Directory hash, independent from the hash chunks use.
+     */
+    final int hash(Object key) {
+        if (key == null)
+            return 0;
+        int h = key.hashCode() ^ hashSeed;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Directory slot of a hash.
+     */
+    final int slotFor(int hc) {
+        return globalDepth == 0 ? 0 : hc >>> (32 - globalDepth);
+    }
+
+    final FastHashMap<K,V> chunkFor(Object key) {
+        return directory[slotFor(hash(key))];
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map,
+     * or <tt>Integer.MAX_VALUE</tt> if there are more of them.
+     *
+     * @return the number of key-value mappings in this map
+     * @see #mappingCount
+     */
+    public int size() {
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)size;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     * This method should be used instead of {@link #size}
+     * because a map may contain more mappings than can be
+     * represented as an int.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    public long mappingCount() {
+        return size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     */
+    public V get(Object key) {
+        return chunkFor(key).get(key);
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the
+     * specified key.
+     */
+    public boolean containsKey(Object key) {
+        return chunkFor(key).containsKey(key);
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.
+     */
+    public boolean containsValue(Object value) {
+        FastHashMap<K,V>[] dir = directory;
+        for (int i = 0; i < dir.length; i++)
+            if ((i == 0 || dir[i] != dir[i-1]) && dir[i].containsValue(value))
+                return true;
+        return false;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     */
+    public V put(K key, V value) {
+        int hc = hash(key);
+        int slot = slotFor(hc);
+        FastHashMap<K,V> chunk = directory[slot];
+        int oldSize = chunk.size();
+        V oldValue = chunk.put(key, value);
+        if (chunk.size() != oldSize) {
+            size++;
+            if (oldSize + 1 >= chunkSize && localDepth[slot] < MAX_DEPTH)
+                split(slot);
+        }
+        return oldValue;
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     */
+    public V remove(Object key) {
+        FastHashMap<K,V> chunk = chunkFor(key);
+        int oldSize = chunk.size();
+        V oldValue = chunk.remove(key);
+        if (chunk.size() != oldSize)
+            size--;
+        return oldValue;
+    }
+
+    /**
+     * Removes all of the mappings from this map,
+     * the directory shrinks to one empty chunk.
+     */
+    public void clear() {
+        int seed = hashSeed;
+        init();
+        hashSeed = seed;
+        splits++;
+    }
+
+    /**
+     * Splits the chunk of the directory slot in two
+     * by the next hash bit, doubling the directory if
+     * this chunk already uses all of its bits.
+     */
+    @SuppressWarnings("unchecked")
+    final void split(int slot) {
+        int depth = localDepth[slot];
+        if (depth == globalDepth) {
+            int n = directory.length;
+            FastHashMap<K,V>[] newDirectory =
+                (FastHashMap<K,V>[]) new FastHashMap<?,?>[n << 1];
+            byte[] newDepth = new byte[n << 1];
+            for (int i = 0; i < n; i++) {
+                newDirectory[i<<1] = newDirectory[(i<<1)+1] = directory[i];
+                newDepth[i<<1] = newDepth[(i<<1)+1] = localDepth[i];
+            }
+            directory = newDirectory;
+            localDepth = newDepth;
+            globalDepth++;
+            slot <<= 1;
+        }
+        FastHashMap<K,V> chunk = directory[slot];
+        FastHashMap<K,V> low = newChunk(chunk.size() >> 1);
+        FastHashMap<K,V> high = newChunk(chunk.size() >> 1);
+        int bit = 1 << (31 - depth);
+        for (int i = chunk.iterateFirst(); i != FastHashMap.NO_INDEX; i = chunk.iterateNext(i)) {
+            K key = chunk.keyAt(i);
+            ((hash(key) & bit) == 0 ? low : high).put(key, chunk.valueAt(i));
+        }
+        // the chunk occupies 2^(globalDepth-depth) slots, first half is low
+        int span = 1 << (globalDepth - depth);
+        int first = slot & -span;
+        for (int i = first; i < first + span; i++) {
+            directory[i] = i < first + (span >> 1) ? low : high;
+            localDepth[i] = (byte)(depth + 1);
+        }
+        splits++;
+    }
+
+    /**
+     * Returns the number of chunks.
+     */
+    final int chunks() {
+        int n = 0;
+        for (int i = 0; i < directory.length; i++)
+            if (i == 0 || directory[i] != directory[i-1])
+                n++;
+        return n;
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        FastHashMap<K,V>[] dir = directory;
+        int s = splits;
+        for (int i = 0; i < dir.length; i++) {
+            if (i == 0 || dir[i] != dir[i-1])
+                dir[i].forEach(action);
+            if (s != splits)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * Views, created on demand.
+     */
+    private transient Set<K> keySet;
+    private transient Set<Map.Entry<K,V>> entrySet;
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map.
+     * The set is backed by the map, it supports element removal,
+     * but not the <tt>add</tt> or <tt>addAll</tt> operations.
+     */
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null ? ks : (keySet = new KeySet()));
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map.
+     * The set is backed by the map, it supports element removal,
+     * but not the <tt>add</tt> or <tt>addAll</tt> operations.
+     * <tt>setValue</tt> of its entries writes through to the map.
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        Set<Map.Entry<K,V>> es = entrySet;
+        return (es != null ? es : (entrySet = new EntrySet()));
+    }
+
+    /**
+     * Iterator over the chunks in directory order,
+     * delegating to the chunk iterators.
+     */
+    abstract class ChunkIterator {
+        final FastHashMap<K,V>[] dir = directory;
+        final int expectedSplits = splits;
+        int nextSlot;
+        Iterator<Map.Entry<K,V>> current = Collections.emptyIterator();
+        Iterator<Map.Entry<K,V>> last;
+
+        ChunkIterator() {
+            advance();
+        }
+
+        final void advance() {
+            while (!current.hasNext() && nextSlot < dir.length) {
+                int i = nextSlot++;
+                if (i == 0 || dir[i] != dir[i-1])
+                    current = dir[i].entrySet().iterator();
+            }
+        }
+
+        public final boolean hasNext() {
+            return current.hasNext();
+        }
+
+        final Map.Entry<K,V> nextEntry() {
+            if (splits != expectedSplits)
+                throw new ConcurrentModificationException();
+            Map.Entry<K,V> e = current.next();
+            last = current;
+            advance();
+            return e;
+        }
+
+        public final void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            if (splits != expectedSplits)
+                throw new ConcurrentModificationException();
+            last.remove();
+            last = null;
+            size--;
+        }
+    }
+
+    final class KeyIterator extends ChunkIterator implements Iterator<K> {
+        public K next() {
+            return nextEntry().getKey();
+        }
+    }
+
+    final class EntryIterator extends ChunkIterator implements Iterator<Map.Entry<K,V>> {
+        public Map.Entry<K,V> next() {
+            return nextEntry();
+        }
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+        public int size() {
+            return FastBigHashMap.this.size();
+        }
+        public boolean isEmpty() {
+            return FastBigHashMap.this.isEmpty();
+        }
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+        public boolean remove(Object o) {
+            long oldSize = size;
+            FastBigHashMap.this.remove(o);
+            return size != oldSize;
+        }
+        public void clear() {
+            FastBigHashMap.this.clear();
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            return chunkFor(e.getKey()).entrySet().contains(e);
+        }
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            if (!chunkFor(e.getKey()).entrySet().remove(e))
+                return false;
+            size--;
+            return true;
+        }
+        public int size() {
+            return FastBigHashMap.this.size();
+        }
+        public boolean isEmpty() {
+            return FastBigHashMap.this.isEmpty();
+        }
+        public void clear() {
+            FastBigHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Save the state of the map to a stream.
+     *
+     * @serialData the number of mappings (long), followed by
+     * the key (Object) and value (Object) for each key-value mapping.
+     * The key-value mappings are emitted in no particular order.
+     */
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeLong(size);
+        FastHashMap<K,V>[] dir = directory;
+        for (int i = 0; i < dir.length; i++) {
+            if (i > 0 && dir[i] == dir[i-1])
+                continue;
+            FastHashMap<K,V> chunk = dir[i];
+            for (int j = chunk.iterateFirst(); j != FastHashMap.NO_INDEX; j = chunk.iterateNext(j)) {
+                s.writeObject(chunk.keyAt(j));
+                s.writeObject(chunk.valueAt(j));
+            }
+        }
+    }
+
+    /**
+     * Reconstitute the map from a stream.
+     */
+    private void readObject(ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        init();
+        for (long n = s.readLong(); n > 0; n--) {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            put(key, value);
+        }
+    }
+}
@@ -0,0 +1,722 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.io.*;
+
+/**
+ * A hash table supporting concurrent updates, built from a fixed number
+ * of independent {@link FastHashMap} segments, each guarded by its own
+ * {@link StampedLock}.  Threads that update keys in different segments
+ * do not block each other.
+ *
+ * <p>Retrieval operations (including <tt>get</tt>) first run
+ * optimistically without any locking, and validate the segment's stamp
+ * afterwards; only if a writer has modified the segment in between
+ * the lookup is repeated under the segment's read lock.
+ *
+ * <p>A key is mapped to a segment by the high bits of its hash,
+ * while each segment selects its hash bucket by the low bits,
+ * so keys of a segment still spread over all of its buckets.
+ *
+ * <p>Like {@link ConcurrentHashMap}, and unlike <tt>FastHashMap</tt>,
+ * this class does <em>not</em> allow <tt>null</tt> to be used
+ * as a key or value.
+ *
+ * <p>Iterators and enumerations of the collection views are
+ * <i>weakly consistent</i>: they take a snapshot of one segment at a time
+ * and never throw {@link ConcurrentModificationException}.
+ *
+ * <p><tt>size</tt>, <tt>isEmpty</tt> and <tt>containsValue</tt>
+ * inspect the segments one after another, so their results
+ * are only estimates when the map is being modified concurrently.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ * @see     ConcurrentHashMap
+ */
+public class FastConcurrentHashMap<K,V>
+    extends AbstractMap<K,V>
+    implements ConcurrentMap<K,V>, Serializable
+{
+    private static final long serialVersionUID = 7249069246763182397L;
+
+    /**
+     * The default number of segments.
+     */
+    static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * The maximum number of segments, MUST be a power of two.
+     */
+    static final int MAX_SEGMENTS = 1 << 16;
+
+    /**
+     * Segment of this map: a plain FastHashMap and its lock.
+     */
+    static final class Segment<K,V> extends StampedLock {
+        private static final long serialVersionUID = 2249069246763182397L;
+
+        final FastHashMap<K,V> map;
+
+        Segment(int initialCapacity, float loadFactor) {
+            map = new FastHashMap<K,V>(initialCapacity, loadFactor);
+        }
+
+        /**
+         * Copy of keys and values (alternating) of this segment.
+         */
+        Object[] snapshot() {
+            long stamp = readLock();
+            try {
+                Object[] result = new Object[map.size << 1];
+                int n = 0;
+                Object[] kv = map.keyValueTable;
+                for (int i = map.iterateFirst(); i != FastHashMap.NO_INDEX;
+                    i = map.iterateNext(i)) {
+                    result[n++] = kv[(i<<1)+1];
+                    result[n++] = kv[(i<<1)+2];
+                }
+                return result;
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Number of mappings in this segment.
+         */
+        int size() {
+            long stamp = tryOptimisticRead();
+            int size = map.size;
+            if (!validate(stamp)) {
+                stamp = readLock();
+                try {
+                    size = map.size;
+                } finally {
+                    unlockRead(stamp);
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The segments, power of two.
+     */
+    transient Segment<K,V>[] segments;
+
+    /**
+     * Shift to get segment index from the highest bits of the hash.
+     */
+    transient int segmentShift;
+
+    /**
+     * Mask for the segment index.
+     */
+    transient int segmentMask;
+
+    /**
+     * Creates a new, empty map with the specified initial
+     * capacity, load factor and concurrency level.
+     *
+     * @param initialCapacity the initial capacity, it is
+     * divided between the segments
+     * @param loadFactor  the load factor of each segment
+     * @param concurrencyLevel the estimated number of concurrently
+     * updating threads, the number of segments is the power of two
+     * not less than this value
+     * @throws IllegalArgumentException if the initial capacity is
+     * negative or the load factor or concurrencyLevel are
+     * nonpositive.
+     */
+    public FastConcurrentHashMap(int initialCapacity,
+        float loadFactor, int concurrencyLevel) {
+        if (!(loadFactor > 0) || initialCapacity < 0 || concurrencyLevel <= 0)
+            throw new IllegalArgumentException();
+        init(initialCapacity, loadFactor, concurrencyLevel);
+    }
+
+    /**
+     * Creates a new, empty map with the specified initial capacity,
+     * the default load factor (0.75) and concurrencyLevel (16).
+     *
+     * @param initialCapacity the initial capacity
+     * @throws IllegalArgumentException if the initial capacity
+     * is negative.
+     */
+    public FastConcurrentHashMap(int initialCapacity) {
+        this(initialCapacity, FastHashMap.DEFAULT_LOAD_FACTOR,
+            DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a new, empty map with the default initial capacity,
+     * load factor (0.75) and concurrencyLevel (16).
+     */
+    public FastConcurrentHashMap() {
+        this(FastHashMap.DEFAULT_INITIAL_CAPACITY * DEFAULT_CONCURRENCY_LEVEL,
+            FastHashMap.DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a new map with the same mappings as the given map.
+     *
+     * @param m the map
+     * @throws NullPointerException if the specified map
+     * or any of its keys or values is null
+     */
+    public FastConcurrentHashMap(Map<? extends K, ? extends V> m) {
+        this(Math.max((int) (m.size() / FastHashMap.DEFAULT_LOAD_FACTOR) + 1,
+                      FastHashMap.DEFAULT_INITIAL_CAPACITY * DEFAULT_CONCURRENCY_LEVEL),
+             FastHashMap.DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+        putAll(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init(int initialCapacity, float loadFactor, int concurrencyLevel) {
+        if (concurrencyLevel > MAX_SEGMENTS)
+            concurrencyLevel = MAX_SEGMENTS;
+        // Find power-of-two sizes best matching arguments
+        int sshift = 0;
+        int ssize = 1;
+        while (ssize < concurrencyLevel) {
+            ++sshift;
+            ssize <<= 1;
+        }
+        segmentShift = 32 - sshift;
+        segmentMask = ssize - 1;
+        int capacity = initialCapacity / ssize;
+        segments = (Segment<K,V>[]) new Segment<?,?>[ssize];
+        for (int i = 0; i < ssize; i++)
+            segments[i] = new Segment<K,V>(capacity, loadFactor);
+    }
+
+    /**
+     * Returns the segment for the given improved hash.
+     *
+     * <p>FastHashMap.hash() leaves the highest bits of keys like
+     * small Integers zero, so they are spread by a multiplication
+     * with the golden ratio first: its highest bits depend on all bits
+     * of the hash.  Segment maps select buckets with their own
+     * seeded hash of the key, see FastHashMap.hash(Object).
+     */
+    final Segment<K,V> segmentFor(int hc) {
+        return segments[((hc * 0x9E3779B9) >>> segmentShift) & segmentMask];
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int hc = FastHashMap.hash(key.hashCode());
+        Segment<K,V> s = segmentFor(hc);
+        long stamp = s.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                Object value = s.map.optimisticGet(key, s.map.hash(key), null);
+                if (s.validate(stamp))
+                    return (V)value;
+            } catch (RuntimeException e) {
+                // Inconsistent state seen, retry under the lock
+            }
+        }
+        stamp = s.readLock();
+        try {
+            return s.map.get(key);
+        } finally {
+            s.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>defaultValue</tt> if this map contains no mapping for the key.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Tests if the specified object is a key in this table.
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.  This method requires a full traversal.
+     *
+     * @throws NullPointerException if the specified value is null
+     */
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        for (Segment<K,V> s : segments) {
+            long stamp = s.readLock();
+            try {
+                if (s.map.containsValue(value))
+                    return true;
+            } finally {
+                s.unlockRead(stamp);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps the specified key to the specified value in this table.
+     * Neither the key nor the value can be null.
+     *
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V put(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.put(key, value);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or <tt>null</tt> if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V putIfAbsent(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.putIfAbsent(key, value);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this one.
+     *
+     * @param m mappings to be stored in this map
+     */
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Removes the key (and its corresponding value) from this map.
+     *
+     * @param  key the key that needs to be removed
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws NullPointerException if the specified key is null
+     */
+    public V remove(Object key) {
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.remove(key);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key is null
+     */
+    public boolean remove(Object key, Object value) {
+        if (value == null)
+            return false;
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.remove(key, value);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if any of the arguments are null
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.replace(key, oldValue, newValue);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the previous value associated with the specified key,
+     *         or <tt>null</tt> if there was no mapping for the key
+     * @throws NullPointerException if the specified key or value is null
+     */
+    public V replace(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.replace(key, value);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The segment of the key stays locked while the function
+     * is computed, so the function must be short and must not
+     * update this map.  The key is looked up only once.
+     *
+     * @throws NullPointerException if the specified key
+     *         or mappingFunction is null
+     */
+    public V computeIfAbsent(K key,
+        Function<? super K, ? extends V> mappingFunction)
+    {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.computeIfAbsent(key, mappingFunction);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The segment of the key stays locked while the function
+     * is computed, so the function must be short and must not
+     * update this map.  The key is looked up only once.
+     *
+     * @throws NullPointerException if the specified key
+     *         or remappingFunction is null
+     */
+    public V computeIfPresent(K key,
+        BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.computeIfPresent(key, remappingFunction);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The segment of the key stays locked while the function
+     * is computed, so the function must be short and must not
+     * update this map.  The key is looked up only once.
+     *
+     * @throws NullPointerException if the specified key
+     *         or remappingFunction is null
+     */
+    public V compute(K key,
+        BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.compute(key, remappingFunction);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The segment of the key stays locked while the function
+     * is computed, so the function must be short and must not
+     * update this map.  The key is looked up only once.
+     *
+     * @throws NullPointerException if the specified key, value
+     *         or remappingFunction is null
+     */
+    public V merge(K key, V value,
+        BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        if (value == null || remappingFunction == null)
+            throw new NullPointerException();
+        Segment<K,V> s = segmentFor(FastHashMap.hash(key.hashCode()));
+        long stamp = s.writeLock();
+        try {
+            return s.map.merge(key, value, remappingFunction);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     */
+    public void clear() {
+        for (Segment<K,V> s : segments) {
+            long stamp = s.writeLock();
+            try {
+                s.map.clear();
+            } finally {
+                s.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     */
+    public int size() {
+        long size = 0;
+        for (Segment<K,V> s : segments)
+            size += s.size();
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    public boolean isEmpty() {
+        for (Segment<K,V> s : segments)
+            if (s.size() != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Views, created on demand.
+     */
+    private transient Set<K> keySet;
+    private transient Set<Map.Entry<K,V>> entrySet;
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map.
+     * The set is backed by the map, it supports element removal,
+     * but not the <tt>add</tt> or <tt>addAll</tt> operations.
+     * Its iterator is weakly consistent.
+     */
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null ? ks : (keySet = new KeySet()));
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map.
+     * The set is backed by the map, it supports element removal,
+     * but not the <tt>add</tt> or <tt>addAll</tt> operations.
+     * Its iterator is weakly consistent, <tt>setValue</tt>
+     * of its entries writes through to the map.
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        Set<Map.Entry<K,V>> es = entrySet;
+        return (es != null ? es : (entrySet = new EntrySet()));
+    }
+
+    /**
+     * Iterator over the segment snapshots.
+     */
+    abstract class HashIterator {
+        int nextSegment;
+        Object[] snapshot = new Object[0];
+        int nextIndex;
+        K lastKey;
+        V lastValue;
+
+        HashIterator() {
+            advance();
+        }
+
+        final void advance() {
+            while (nextIndex >= snapshot.length && nextSegment < segments.length) {
+                snapshot = segments[nextSegment++].snapshot();
+                nextIndex = 0;
+            }
+        }
+
+        public final boolean hasNext() {
+            return nextIndex < snapshot.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        final void nextIndex() {
+            if (nextIndex >= snapshot.length)
+                throw new NoSuchElementException();
+            lastKey = (K)snapshot[nextIndex];
+            lastValue = (V)snapshot[nextIndex+1];
+            nextIndex += 2;
+            advance();
+        }
+
+        public final void remove() {
+            if (lastKey == null)
+                throw new IllegalStateException();
+            FastConcurrentHashMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    final class KeyIterator extends HashIterator implements Iterator<K> {
+        public K next() {
+            nextIndex();
+            return lastKey;
+        }
+    }
+
+    final class EntryIterator extends HashIterator implements Iterator<Map.Entry<K,V>> {
+        public Map.Entry<K,V> next() {
+            nextIndex();
+            return new WriteThroughEntry(lastKey, lastValue);
+        }
+    }
+
+    /**
+     * Entry returned by EntryIterator, setValue changes the map.
+     */
+    final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+        public V setValue(V value) {
+            if (value == null)
+                throw new NullPointerException();
+            V oldValue = super.setValue(value);
+            FastConcurrentHashMap.this.put(getKey(), value);
+            return oldValue;
+        }
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+        public int size() {
+            return FastConcurrentHashMap.this.size();
+        }
+        public boolean isEmpty() {
+            return FastConcurrentHashMap.this.isEmpty();
+        }
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+        public boolean remove(Object o) {
+            return FastConcurrentHashMap.this.remove(o) != null;
+        }
+        public void clear() {
+            FastConcurrentHashMap.this.clear();
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            V v = FastConcurrentHashMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            return FastConcurrentHashMap.this.remove(e.getKey(), e.getValue());
+        }
+        public int size() {
+            return FastConcurrentHashMap.this.size();
+        }
+        public boolean isEmpty() {
+            return FastConcurrentHashMap.this.isEmpty();
+        }
+        public void clear() {
+            FastConcurrentHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Save the state of the map to a stream.
+     *
+     * @serialData the number of segments (int), their load factor (float),
+     * followed by the key (Object) and value (Object)
+     * for each key-value mapping, followed by a null pair.
+     * The key-value mappings are emitted in no particular order.
+     */
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(segments.length);
+        s.writeFloat(segments[0].map.loadFactor);
+        for (Segment<K,V> seg : segments) {
+            Object[] snapshot = seg.snapshot();
+            for (int i = 0; i < snapshot.length; i++)
+                s.writeObject(snapshot[i]);
+        }
+        s.writeObject(null);
+        s.writeObject(null);
+    }
+
+    /**
+     * Reconstitute the map from a stream.
+     */
+    private void readObject(ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int numberOfSegments = s.readInt();
+        float loadFactor = s.readFloat();
+        init(0, loadFactor, numberOfSegments);
+        while (true) {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            if (key == null)
+                break;
+            put(key, value);
+        }
+    }
+}
@@ -0,0 +1,517 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.io.*;
+
+/**
+ * An immutable hash map, created by {@link FastHashMap#freeze freeze}
+ * of a <tt>FastHashMap</tt> or <tt>FastLinkedHashMap</tt>.
+ *
+ * <p>Since it is never modified its layout is optimized for reading:
+ * arrays have exactly one cell per mapping, there are no deleted
+ * positions, and keys of each hash bin are stored contiguously
+ * in bin order, so a lookup reads the bin bounds and scans adjacent
+ * cells.  Full hash codes of keys are kept in a separate int array
+ * and compared before <tt>equals</tt>.  There are no modification
+ * counters and iterators are not fail-fast: there is nothing to fail.
+ *
+ * <p>All fields are final, so an instance is safely published to other
+ * threads even through a data race, and any number of threads may read
+ * it without synchronization.  All modification methods throw
+ * <tt>UnsupportedOperationException</tt>.
+ *
+ * <p>A map frozen from a <tt>FastLinkedHashMap</tt> keeps its iteration
+ * order at the cost of an int per mapping, otherwise mappings are
+ * iterated in hash bin order.  Keys are hashed and compared by the
+ * {@link HashingStrategy} of the original map if it had one, and
+ * with SipHash if the original map switched to it after finding
+ * keys chosen to collide.  A map frozen from a
+ * {@link FastIdentityHashMap} compares values by reference and
+ * computes its hash code as <tt>IdentityHashMap</tt> does.
+ * <tt>null</tt> keys and values are permitted.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap#freeze
+ */
+public final class FastFrozenHashMap<K,V>
+    extends AbstractMap<K,V>
+    implements Serializable
+{
+    private static final long serialVersionUID = 1735601874262960413L;
+
+    /**
+     * Hash code and equality of keys, <tt>null</tt> for their own methods.
+     */
+    final HashingStrategy<Object> strategy;
+
+    /**
+     * Seed of the hash function.
+     */
+    final int hashSeed;
+
+    /**
+     * <tt>true</tt> if <tt>String</tt> keys are hashed with SipHash,
+     * or keys of a map with a strategy by its keyedHashCode,
+     * see FastHashMap.stringHashing.
+     */
+    final boolean stringHashing;
+
+    /**
+     * SipHash key, used when stringHashing is set.
+     */
+    final long sipKey0, sipKey1;
+
+    /**
+     * First position of each hash bin, and the number
+     * of positions after the last one.
+     */
+    final int[] binStart;
+
+    /**
+     * Full hash of the key at each position.
+     */
+    final int[] hashes;
+
+    /**
+     * Keys and values at each position, alternating.
+     */
+    final Object[] keyValues;
+
+    /**
+     * Positions in iteration order, NULL_INDEX for null key,
+     * or <tt>null</tt> for positions order.
+     */
+    final int[] order;
+
+    /**
+     * <tt>true</tt> if there is a mapping for null key.
+     */
+    final boolean nullKeyPresent;
+
+    /**
+     * Value of null key.
+     */
+    final Object nullValue;
+
+    /**
+     * Index of null key in order.
+     */
+    final static int NULL_INDEX = -1;
+
+    /**
+     * Builds the map.
+     *
+     * @param kv keys and values in iteration order, alternating
+     * @param strategy hashing strategy or <tt>null</tt>
+     * @param ordered <tt>true</tt> to keep iteration order of kv
+     * @param stringHashing <tt>true</tt> to hash keys with SipHash
+     * @param sipKey0 first half of SipHash key
+     * @param sipKey1 second half of SipHash key
+     */
+    FastFrozenHashMap(Object[] kv, HashingStrategy<Object> strategy, boolean ordered,
+        boolean stringHashing, long sipKey0, long sipKey1) {
+        this.strategy = strategy;
+        this.hashSeed = ThreadLocalRandom.current().nextInt();
+        this.stringHashing = stringHashing;
+        this.sipKey0 = sipKey0;
+        this.sipKey1 = sipKey1;
+        int n = kv.length >> 1;
+        boolean hasNull = false;
+        Object nullValue = null;
+        for (int i = 0; i < n; i++)
+            if (kv[i<<1] == null) {
+                hasNull = true;
+                nullValue = kv[(i<<1)+1];
+            }
+        int count = hasNull ? n - 1 : n;
+        int len = 1;
+        while (len < count)
+            len <<= 1;
+        // Counting sort by hash bin, stable
+        int[] hcs = new int[n];
+        int[] start = new int[len+1];
+        for (int i = 0; i < n; i++) {
+            Object key = kv[i<<1];
+            if (key != null) {
+                hcs[i] = hash(key);
+                start[(hcs[i] & (len-1)) + 1]++;
+            }
+        }
+        for (int b = 0; b < len; b++)
+            start[b+1] += start[b];
+        int[] next = Arrays.copyOf(start, len);
+        int[] hashes = new int[count];
+        Object[] keyValues = new Object[count << 1];
+        int[] order = ordered ? new int[n] : null;
+        for (int i = 0; i < n; i++) {
+            Object key = kv[i<<1];
+            if (key == null) {
+                if (ordered)
+                    order[i] = NULL_INDEX;
+                continue;
+            }
+            int p = next[hcs[i] & (len-1)]++;
+            hashes[p] = hcs[i];
+            keyValues[p<<1] = key;
+            keyValues[(p<<1)+1] = kv[(i<<1)+1];
+            if (ordered)
+                order[i] = p;
+        }
+        this.binStart = start;
+        this.hashes = hashes;
+        this.keyValues = keyValues;
+        this.order = order;
+        this.nullKeyPresent = hasNull;
+        this.nullValue = nullValue;
+    }
+
+    /**
+     * Improved hash of a not null key,
+     * the finalizer of MurmurHash3 with a random seed,
+     * see FastHashMap.hash(Object).
+     */
+    final int hash(Object key) {
+        int h = strategy != null ? (stringHashing ?
+            strategy.keyedHashCode(key, sipKey0, sipKey1) : strategy.hashCode(key)) :
+            stringHashing && key instanceof String ?
+            SipHash.hash(sipKey0, sipKey1, (String)key, false) : key.hashCode();
+        h ^= hashSeed;
+        h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+        h = (h ^ (h >>> 13)) * 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the position of a not null key or -1.
+     */
+    final int positionOf(Object key) {
+        int hc = hash(key);
+        int bin = hc & (binStart.length - 2);
+        int[] hashes = this.hashes;
+        Object[] kv = keyValues;
+        for (int p = binStart[bin], end = binStart[bin+1]; p < end; p++)
+            if (hashes[p] == hc) {
+                Object key1 = kv[p<<1];
+                if (key == key1 || (strategy == null ? key.equals(key1) :
+                    strategy.equals(key, key1)))
+                    return p;
+            }
+        return -1;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     */
+    public int size() {
+        return hashes.length + (nullKeyPresent ? 1 : 0);
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    public boolean isEmpty() {
+        return hashes.length == 0 && !nullKeyPresent;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null)
+            return (V)nullValue;
+        int p = positionOf(key);
+        return p < 0 ? null : (V)keyValues[(p<<1)+1];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        if (key == null)
+            return nullKeyPresent ? (V)nullValue : defaultValue;
+        int p = positionOf(key);
+        return p < 0 ? defaultValue : (V)keyValues[(p<<1)+1];
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the
+     * specified key.
+     */
+    public boolean containsKey(Object key) {
+        return key == null ? nullKeyPresent : positionOf(key) >= 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value, values of a map frozen from
+     * <tt>FastIdentityHashMap</tt> are compared by reference.
+     */
+    public boolean containsValue(Object value) {
+        if (nullKeyPresent && valueEquals(nullValue, value))
+            return true;
+        for (int i = 1; i < keyValues.length; i += 2)
+            if (valueEquals(keyValues[i], value))
+                return true;
+        return false;
+    }
+
+    private boolean valueEquals(Object v1, Object v2) {
+        return strategy == HashingStrategy.IDENTITY ? v1 == v2 : Objects.equals(v1, v2);
+    }
+
+    /**
+     * Returns the number of positions, including null key.
+     */
+    private int length() {
+        return order != null ? order.length : size();
+    }
+
+    /**
+     * Returns the position of i-th mapping in iteration order,
+     * NULL_INDEX for null key.
+     */
+    final int positionAt(int i) {
+        return order != null ? order[i] :
+            nullKeyPresent ? i - 1 : i;
+    }
+
+    @SuppressWarnings("unchecked")
+    final K keyAt(int p) {
+        return p == NULL_INDEX ? null : (K)keyValues[p<<1];
+    }
+
+    @SuppressWarnings("unchecked")
+    final V valueAt(int p) {
+        return p == NULL_INDEX ? (V)nullValue : (V)keyValues[(p<<1)+1];
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        for (int i = 0, n = length(); i < n; i++) {
+            int p = positionAt(i);
+            action.accept(keyAt(p), valueAt(p));
+        }
+    }
+
+    /**
+     * Returns the same hash code as the original map: a map frozen from
+     * <tt>FastIdentityHashMap</tt> sums identity hash codes of keys
+     * and values, as <tt>IdentityHashMap</tt> does.
+     */
+    public int hashCode() {
+        int h = 0;
+        if (strategy == HashingStrategy.IDENTITY) {
+            if (nullKeyPresent)
+                h = System.identityHashCode(nullValue);
+            for (int i = 0; i < keyValues.length; i += 2)
+                h += System.identityHashCode(keyValues[i]) ^
+                    System.identityHashCode(keyValues[i+1]);
+        } else {
+            if (nullKeyPresent)
+                h = Objects.hashCode(nullValue);
+            for (int i = 0; i < keyValues.length; i += 2)
+                h += keyValues[i].hashCode() ^ Objects.hashCode(keyValues[i+1]);
+        }
+        return h;
+    }
+
+    /**
+     * Views, created on demand.
+     */
+    private transient Set<K> keySet;
+    private transient Collection<V> values;
+    private transient Set<Map.Entry<K,V>> entrySet;
+
+    /**
+     * Returns an unmodifiable {@link Set} view of the keys
+     * contained in this map.
+     */
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null ? ks : (keySet = new KeySet()));
+    }
+
+    /**
+     * Returns an unmodifiable {@link Collection} view of the values
+     * contained in this map.
+     */
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return (vs != null ? vs : (values = new Values()));
+    }
+
+    /**
+     * Returns an unmodifiable {@link Set} view of the mappings
+     * contained in this map.
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        Set<Map.Entry<K,V>> es = entrySet;
+        return (es != null ? es : (entrySet = new EntrySet()));
+    }
+
+    abstract class FrozenIterator<E> implements Iterator<E> {
+        final int length = length();
+        int next;
+
+        public final boolean hasNext() {
+            return next < length;
+        }
+
+        final int nextPosition() {
+            if (next >= length)
+                throw new NoSuchElementException();
+            return positionAt(next++);
+        }
+    }
+
+    final class KeyIterator extends FrozenIterator<K> {
+        public K next() {
+            return keyAt(nextPosition());
+        }
+    }
+
+    final class ValueIterator extends FrozenIterator<V> {
+        public V next() {
+            return valueAt(nextPosition());
+        }
+    }
+
+    final class EntryIterator extends FrozenIterator<Map.Entry<K,V>> {
+        public Map.Entry<K,V> next() {
+            int p = nextPosition();
+            return new AbstractMap.SimpleImmutableEntry<K,V>(keyAt(p), valueAt(p));
+        }
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+        public int size() {
+            return FastFrozenHashMap.this.size();
+        }
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+        public int size() {
+            return FastFrozenHashMap.this.size();
+        }
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            Object key = e.getKey();
+            if (key == null)
+                return nullKeyPresent && valueEquals(nullValue, e.getValue());
+            int p = positionOf(key);
+            return p >= 0 && valueEquals(keyValues[(p<<1)+1], e.getValue());
+        }
+        public int size() {
+            return FastFrozenHashMap.this.size();
+        }
+    }
+
+    /**
+     * Mappings are serialized in iteration order and the map is
+     * rebuilt when it is read, since hash codes of keys may be
+     * different in another VM.
+     */
+    private Object writeReplace() {
+        Object[] kv = new Object[size() << 1];
+        for (int i = 0, n = length(); i < n; i++) {
+            int p = positionAt(i);
+            kv[i<<1] = keyAt(p);
+            kv[(i<<1)+1] = valueAt(p);
+        }
+        return new SerializedForm(kv, strategy, order != null, stringHashing);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("SerializedForm required");
+    }
+
+    /**
+     * Serialized form of the frozen map.
+     */
+    static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = -6230147391537209845L;
+
+        /**
+         * @serial keys and values in iteration order, alternating
+         */
+        final Object[] keyValues;
+        /**
+         * @serial hashing strategy or <tt>null</tt>
+         */
+        final HashingStrategy<Object> strategy;
+        /**
+         * @serial <tt>true</tt> to keep iteration order
+         */
+        final boolean ordered;
+        /**
+         * @serial <tt>true</tt> to hash keys with SipHash,
+         * its key is not serialized and chosen anew
+         */
+        final boolean stringHashing;
+
+        SerializedForm(Object[] keyValues, HashingStrategy<Object> strategy,
+            boolean ordered, boolean stringHashing) {
+            this.keyValues = keyValues;
+            this.strategy = strategy;
+            this.ordered = ordered;
+            this.stringHashing = stringHashing;
+        }
+
+        private Object readResolve() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return new FastFrozenHashMap<Object,Object>(keyValues, strategy, ordered,
+                stringHashing, random.nextLong(), random.nextLong());
+        }
+    }
+}
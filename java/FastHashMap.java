@@ -1,4 +1,9 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.nio.channels.*;
 import java.io.*;
 
 /**
@@ -181,11 +186,62 @@ public class FastHashMap<K,V>
     }
 
     /**
-     * Return improved hash for object o.
-    final static int hash(Object o) {
-        return o == null ? 0 : hash(o.hashCode());
+     * Returns improved hash of a not null key.  Unlike the static
+     * {@link #hash(int)} it depends on a random per-instance seed,
+     * so hashcodes that collide in the low bits can not be
+     * precomputed for all maps.  The mixing function is
+     * the finalizer of MurmurHash3.
+     *
+     * <p>Keys with equal hashcodes still collide whatever the seed,
+     * so once a hash chain gets longer than MAX_CHAIN_LENGTH
+     * <tt>String</tt> keys are hashed by SipHash with a random key
+     * instead of their <tt>hashCode</tt>.  Keys of a map with
+     * a {@link HashingStrategy} are hashed by the strategy,
+     * switching to its {@link HashingStrategy#keyedHashCode
+     * keyedHashCode} in the same way.
+     */
+    final int hash(Object key) {
+        int h = strategy != null ? (stringHashing ?
+            strategy.keyedHashCode(key, sipKey0, sipKey1) : strategy.hashCode(key)) :
+            stringHashing && key instanceof String ?
+            SipHash.hash(sipKey0, sipKey1, (String)key, false) : key.hashCode();
+        h ^= hashSeed;
+        h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+        h = (h ^ (h >>> 13)) * 0xC2B2AE35;
+        return h ^ (h >>> 16);
     }
+
+    /**
+     * Length of a hash chain found by put after which
+     * <tt>String</tt> keys and keys of a map with a strategy
+     * are switched to SipHash.
+     * It is far above chain lengths of a good hash function.
+     */
+    final static int MAX_CHAIN_LENGTH = 16;
+
+    /**
+     * Hash code and equality of keys,
+     * <tt>null</tt> if their own methods are used.
+     *
+     * @serial
+     */
+    final HashingStrategy<Object> strategy;
+
+    /**
+     * Random seed of the supplemental hash function.
+     */
+    transient int hashSeed = ThreadLocalRandom.current().nextInt();
+
+    /**
+     * <tt>true</tt> if <tt>String</tt> keys are hashed with SipHash,
+     * or keys of a map with a strategy by its keyedHashCode.
+     */
+    transient boolean stringHashing;
+
+    /**
+     * Random SipHash key, set when stringHashing is switched on.
      */
+    transient long sipKey0, sipKey1;
 
     /**
      * The number of key-value mappings contained in this map.
@@ -199,6 +255,28 @@ public class FastHashMap<K,V>
      */
     transient Object[] keyValueTable;
 
+    /**
+     * Full improved hashcodes of keys at each position, or
+     * <tt>null</tt> if only the bits stored in indexTable are used.
+     * See {@link #enableFullHashes enableFullHashes}.
+     */
+    transient int[] hashTable;
+
+    /**
+     * <tt>true</tt> if internal arrays may be shared with a fork,
+     * they are copied before the first modification.
+     * See {@link #fork fork}.
+     */
+    transient boolean sharedArrays;
+
+    /**
+     * Number of maps sharing internal arrays with this one,
+     * including it, while {@link #sharedArrays sharedArrays} is set.
+     * The last of them to be modified takes the arrays over
+     * instead of copying them.
+     */
+    transient AtomicInteger sharers;
+
     /**
      * 1 if keyValueTable contains keys and values,
      * 0 if only keys (to save memory in HashSet).
@@ -269,6 +347,140 @@ public class FastHashMap<K,V>
      */
     transient int modCount;
 
+    /**
+     * Locations of elements in indexTable kept for iterators
+     * and cursors removing elements, valid while
+     * <tt>locationsModCount == modCount</tt>.  See {@link Remover}.
+     */
+    transient int[] removalLocations;
+
+    /**
+     * Value of modCount for which removalLocations are valid.
+     */
+    transient int locationsModCount;
+
+    /**
+     * Version stamp of the single-writer/multi-reader mode,
+     * or <tt>null</tt> if this mode is not enabled.
+     * See {@link #enableConcurrentReads}.
+     */
+    transient StampedLock seqLock;
+
+    /**
+     * Write stamp of the current modification in single-writer/multi-reader
+     * mode, 0 if there is none.  Nested modifications (LinkedHashMap
+     * removes eldest entry from put) run under the same stamp.
+     * Only the writer thread may read it.
+     */
+    transient long writeStamp;
+
+    /**
+     * Thread running the current modification in single-writer/multi-reader
+     * mode, <tt>null</tt> if there is none.  Readers compare it with
+     * their own thread: they can never see their own thread here
+     * unless they set it themselves.
+     */
+    transient Thread writerThread;
+
+    /**
+     * <tt>true</tt> if resize moves hash bins to a new index incrementally.
+     * See {@link #enableIncrementalResize enableIncrementalResize}.
+     */
+    transient boolean incrementalResize;
+
+    /**
+     * Index of the previous capacity during incremental resize,
+     * <tt>null</tt> if no resize is in progress.  Lookups use it
+     * for hash bins which were not moved to indexTable yet,
+     * it is not modified.
+     */
+    transient int[] oldIndexTable;
+
+    /**
+     * Number of hash bins in oldIndexTable.
+     */
+    transient int oldHashLen;
+
+    /**
+     * Bit set of old hash bins which were moved to indexTable.
+     */
+    transient int[] movedBins;
+
+    /**
+     * Number of old hash bins which were not moved yet.
+     */
+    transient int binsToMove;
+
+    /**
+     * Next old hash bin to move in sequential order.
+     */
+    transient int nextBinToMove;
+
+    /**
+     * Number of old hash bins moved by each modification,
+     * enough to finish before the next resize.
+     */
+    transient int resizeStep;
+
+    /**
+     * Key/value array of the next incremental resize, filled a few
+     * positions at a time by insertions while the map is nearly full,
+     * <tt>null</tt> if there is none.  Positions below
+     * copiedPositions are copied and writes to them are mirrored.
+     */
+    transient Object[] grownKeyValueTable;
+
+    /**
+     * Hash array of the next incremental resize, filled together
+     * with grownKeyValueTable, <tt>null</tt> if there is none.
+     */
+    transient int[] grownHashTable;
+
+    /**
+     * Number of positions copied to grownKeyValueTable.
+     */
+    transient int copiedPositions;
+
+    /**
+     * Number of positions copied by each insertion,
+     * enough to finish before the map is full.
+     */
+    transient int copyStep;
+
+    /**
+     * Part of threshold (as a shift) left free when the copy
+     * of key/value array for incremental resize starts.
+     */
+    final static int GROW_AHEAD_SHIFT = 3;
+
+    /**
+     * Number of hash chains moved by put, see {@link #stats stats}.
+     */
+    transient int defragmentations;
+
+    /**
+     * Number of resize calls, see {@link #stats stats}.
+     */
+    transient int resizes;
+
+    /**
+     * Total time of resize calls in nanoseconds.
+     */
+    transient long resizeNanos;
+
+    /**
+     * Fraction of threshold below which this map is automatically
+     * trimmed after removals, 0 if disabled.
+     * See {@link #setLowWaterMark setLowWaterMark}.
+     */
+    transient float lowWaterMark;
+
+    /**
+     * Number of optimistic lookup attempts before a reader
+     * falls back to the read lock.
+     */
+    final static int OPTIMISTIC_TRIES = 4;
+
     /**
      * Constructs an empty <tt>HashMap</tt> with the default initial capacity
      * (16) and the default load factor (0.75).
@@ -283,6 +495,7 @@ public class FastHashMap<K,V>
      * thus saving some memory if withValues is false.
      */
     FastHashMap(boolean withValues) {
+        strategy = null;
         loadFactor = DEFAULT_LOAD_FACTOR;
         hashLen = DEFAULT_INITIAL_CAPACITY;
         threshold = (int)(hashLen * loadFactor);
@@ -309,6 +522,47 @@ public class FastHashMap<K,V>
      * thus saving some memory if withValues is false.
      */
     FastHashMap(int initialCapacity, float loadFactor, boolean withValues) {
+        this(initialCapacity, loadFactor, withValues, null);
+    }
+
+    /**
+     * Constructs an empty <tt>HashMap</tt> with the default initial
+     * capacity and load factor which hashes and compares keys
+     * with the specified strategy instead of their own methods.
+     *
+     * @param  strategy hashing strategy of keys
+     * @throws NullPointerException if strategy is null
+     */
+    public FastHashMap(HashingStrategy<? super K> strategy) {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, strategy);
+    }
+
+    /**
+     * Constructs an empty <tt>HashMap</tt> with the specified initial
+     * capacity and load factor which hashes and compares keys
+     * with the specified strategy instead of their own methods.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @param  strategy        hashing strategy of keys
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is greater than one or is too low
+     * @throws NullPointerException if strategy is null
+     */
+    public FastHashMap(int initialCapacity, float loadFactor,
+        HashingStrategy<? super K> strategy)
+    {
+        this(initialCapacity, loadFactor, true, Objects.requireNonNull(strategy));
+    }
+
+    /**
+     * Constructor to be used in HashSet, strategy may be null.
+     */
+    @SuppressWarnings("unchecked")
+    FastHashMap(int initialCapacity, float loadFactor, boolean withValues,
+        HashingStrategy<? super K> strategy)
+    {
+        this.strategy = (HashingStrategy<Object>)strategy;
         if (initialCapacity < 0)
             throw new IllegalArgumentException(
                 "Illegal initial capacity: " + initialCapacity);
@@ -381,12 +635,21 @@ public class FastHashMap<K,V>
      * and greater than current capacity (hashLen).
      */
     void resize(int newCapacity) {
+        long start = System.nanoTime();
+        resizes++;
+        removalLocations = null;
+        if (oldIndexTable != null)
+            finishResize();
+        if (incrementalResize && indexTable != null) {
+            startResize(newCapacity);
+            resizeNanos += System.nanoTime() - start;
+            return;
+        }
         // New storage allocation
         int newValueLen = (int)(newCapacity * loadFactor);
-        if (keyValueTable != null)
-            keyValueTable = Arrays.copyOf(keyValueTable, (newValueLen<<keyIndexShift)+1);
-        else
-            keyValueTable = new Object[(newValueLen<<keyIndexShift)+1];
+        Object[] newKeyValues = keyValueTable != null ?
+            Arrays.copyOf(keyValueTable, (newValueLen<<keyIndexShift)+1) :
+            new Object[(newValueLen<<keyIndexShift)+1];
         int[] newIndices = new int[newCapacity+newValueLen];
         if (indexTable != null) {
             int mask = AVAILABLE_BITS ^ (hashLen-1);
@@ -466,12 +729,269 @@ public class FastHashMap<K,V>
             for (int i = firstDeletedIndex; i >= 0;
                 i = (newIndices[newCapacity + i] = indexTable[hashLen + i]));
         }
+        // Publish new arrays together, after they are completely built
+        if (hashTable != null)
+            hashTable = Arrays.copyOf(hashTable, newValueLen);
+        keyValueTable = newKeyValues;
+        indexTable = newIndices;
         hashLen = newCapacity;
         threshold = newValueLen;
-        indexTable = newIndices;
+        resizeNanos += System.nanoTime() - start;
         // validate("Resize");
     }
 
+    /**
+     * Switches this map to incremental resize.  Normally resize
+     * rebuilds the whole index inside the <tt>put</tt> that caused it.
+     * In this mode keys and values are copied to the larger array
+     * a few positions per insertion while the last eighth of the
+     * array fills up, and writes to copied positions are repeated
+     * there; hash bins are moved to the new index a few at a time
+     * by the resizing and following modifications, while lookups
+     * check the old index for bins which were not moved yet.
+     * The <tt>put</tt> which starts the resize only allocates
+     * the new index (the link array of <tt>FastLinkedHashMap</tt>
+     * is still copied at once).  This bounds <tt>put</tt> latency
+     * of large maps at the cost of slightly slower operations
+     * near and during the resize.
+     *
+     * <p>This mode is inherited by clones but it is not serialized.
+     */
+    public void enableIncrementalResize() {
+        incrementalResize = true;
+    }
+
+    /**
+     * Makes this map keep the full 32-bit hash of every key in an
+     * additional int array.  The index stores only the hash bits
+     * above the hash bin number, so in large maps few of them are
+     * left and most keys of a hash chain are compared by
+     * <tt>equals</tt>; with full hashes <tt>equals</tt> is called
+     * almost only for the key that is looked up.  It pays off
+     * for keys with slow <tt>equals</tt> such as long strings
+     * sharing a prefix, at the cost of 4 bytes per entry.
+     *
+     * <p>This mode is inherited by clones but it is not serialized.
+     */
+    public void enableFullHashes() {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                enableFullHashes();
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        if (hashTable != null)
+            return;
+        dropGrownTables();
+        int[] hashes = new int[threshold];
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            Object key = keyValueTable[(i<<keyIndexShift)+1];
+            if (key != null)
+                hashes[i] = hash(key);
+        }
+        hashTable = hashes;
+    }
+
+    /**
+     * Starts incremental resize: allocates new arrays
+     * and leaves the old index for lookups.
+     *
+     * @param  newCapacity  must be power of two
+     * and greater than current capacity (hashLen).
+     */
+    private void startResize(int newCapacity) {
+        int newValueLen = (int)(newCapacity * loadFactor);
+        Object[] newKeyValues;
+        int[] newHashes = null;
+        if (grownKeyValueTable != null &&
+            grownKeyValueTable.length == (newValueLen<<keyIndexShift)+1) {
+            // Usually copied already by previous insertions
+            copyPositions(threshold);
+            newKeyValues = grownKeyValueTable;
+            newHashes = grownHashTable;
+        } else
+            newKeyValues = Arrays.copyOf(keyValueTable, (newValueLen<<keyIndexShift)+1);
+        dropGrownTables();
+        int[] newIndices = new int[newCapacity+newValueLen];
+        // Copy deleted list
+        for (int i = firstDeletedIndex; i >= 0;
+            i = (newIndices[newCapacity + i] = indexTable[hashLen + i]));
+        movedBins = new int[(hashLen+31) >> 5];
+        binsToMove = hashLen;
+        nextBinToMove = 0;
+        resizeStep = (hashLen + threshold - 1) / threshold + 1;
+        oldHashLen = hashLen;
+        // Publish new arrays together
+        if (hashTable != null)
+            hashTable = newHashes != null ? newHashes :
+                Arrays.copyOf(hashTable, newValueLen);
+        keyValueTable = newKeyValues;
+        oldIndexTable = indexTable;
+        indexTable = newIndices;
+        hashLen = newCapacity;
+        threshold = newValueLen;
+    }
+
+    /**
+     * Copies a few more positions to the key/value array
+     * of the next incremental resize, allocating it when the map
+     * becomes nearly full.  Called by insertions, so the copy is
+     * complete when the resize starts.
+     */
+    private void growStep() {
+        if (grownKeyValueTable == null) {
+            int reserve = threshold - size;
+            if (reserve > threshold >> GROW_AHEAD_SHIFT || reserve <= 0 ||
+                threshold < 1 << GROW_AHEAD_SHIFT)
+                return;
+            int newValueLen = (int)((hashLen<<1) * loadFactor);
+            grownKeyValueTable = new Object[(newValueLen<<keyIndexShift)+1];
+            grownKeyValueTable[0] = keyValueTable[0];
+            if (hashTable != null)
+                grownHashTable = new int[newValueLen];
+            copiedPositions = 0;
+            copyStep = (threshold + reserve - 1) / reserve + 1;
+        }
+        copyPositions(Math.min(copiedPositions + copyStep, threshold));
+    }
+
+    /**
+     * Copies positions up to <tt>end</tt> to the grown arrays.
+     */
+    private void copyPositions(int end) {
+        int start = copiedPositions;
+        if (start >= end)
+            return;
+        System.arraycopy(keyValueTable, (start<<keyIndexShift)+1,
+            grownKeyValueTable, (start<<keyIndexShift)+1,
+            (end-start)<<keyIndexShift);
+        if (grownHashTable != null)
+            System.arraycopy(hashTable, start, grownHashTable, start, end-start);
+        copiedPositions = end;
+    }
+
+    /**
+     * Repeats a write of i-th position (NULL_INDEX for null key)
+     * in the grown arrays if this position is already copied.
+     */
+    final void mirrorPosition(int i) {
+        if (i == NULL_INDEX) {
+            grownKeyValueTable[0] = keyValueTable[0];
+        } else if (i < copiedPositions) {
+            int j = (i<<keyIndexShift)+1;
+            grownKeyValueTable[j] = keyValueTable[j];
+            if (keyIndexShift > 0)
+                grownKeyValueTable[j+1] = keyValueTable[j+1];
+            if (grownHashTable != null)
+                grownHashTable[i] = hashTable[i];
+        }
+    }
+
+    /**
+     * Abandons the copy for the next incremental resize,
+     * called by operations which rearrange or reallocate arrays.
+     */
+    final void dropGrownTables() {
+        grownKeyValueTable = null;
+        grownHashTable = null;
+        copiedPositions = 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if old hash bin was moved to indexTable.
+     */
+    final boolean isMoved(int bin) {
+        return (movedBins[bin >>> 5] & (1 << bin)) != 0;
+    }
+
+    /**
+     * Moves old hash bin of the specified hash code if it was not
+     * moved yet, and a few more bins in sequential order.
+     * Called by modifications before they use indexTable.
+     *
+     * @param hc improved hashcode
+     */
+    private void moveBins(int hc) {
+        moveBin(hc & (oldHashLen-1));
+        for (int n = resizeStep; n > 0 && oldIndexTable != null; n--) {
+            while (isMoved(nextBinToMove))
+                nextBinToMove++;
+            moveBin(nextBinToMove);
+        }
+    }
+
+    /**
+     * Moves remaining old hash bins to indexTable.
+     */
+    final void finishResize() {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                finishResize();
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        if (sharedArrays)
+            unshare();
+        while (oldIndexTable != null) {
+            while (isMoved(nextBinToMove))
+                nextBinToMove++;
+            moveBin(nextBinToMove);
+        }
+    }
+
+    /**
+     * Moves all elements of old hash bin to indexTable.
+     * No CONTROL_NEXT pairs are created in indexTable during
+     * incremental resize: cell after the hash bin may belong
+     * to a bin which was not moved yet.
+     *
+     * @param bin old hash bin
+     */
+    private void moveBin(int bin) {
+        if (isMoved(bin))
+            return;
+        int[] oldIndices = oldIndexTable;
+        int oldLen = oldHashLen;
+        int index = oldIndices[bin];
+        int control = index & CONTROL_BITS;
+        if (control != CONTROL_EMPTY) {
+            int newMask = AVAILABLE_BITS ^ (hashLen-1);
+            int highBits = (hashLen-1) ^ (oldLen-1);
+            while (true) {
+                int position = index & (oldLen-1);
+                int newBin = bin | (index & highBits);
+                int head = indexTable[newBin];
+                int newIndex = position | (index & newMask);
+                if (head == 0) {
+                    indexTable[newBin] = newIndex | CONTROL_END;
+                } else {
+                    indexTable[hashLen + position] = head;
+                    indexTable[newBin] = newIndex | CONTROL_OVERFLOW;
+                }
+                if (control == CONTROL_OVERFLOW)
+                    index = oldIndices[oldLen + position];
+                else if (control == CONTROL_NEXT)
+                    index = oldIndices[(bin+1) & (oldLen-1)];
+                else // CONTROL_END or CONTROL_EMPTY after NEXT
+                    break;
+                control = index & CONTROL_BITS;
+            }
+        }
+        movedBins[bin >>> 5] |= 1 << bin;
+        if (--binsToMove == 0) {
+            oldIndexTable = null;
+            movedBins = null;
+        }
+    }
+
     /**
      * Index of null key.
      */
@@ -489,35 +1009,55 @@ public class FastHashMap<K,V>
      * @return index of key in array, -1 for null key or -2 if it was not found
      */
     final int positionOf(Object key) {
+        return positionOf(key, key == null ? 0 : hash(key));
+    }
+
+    /**
+     * Returns the index of key in internal arrays if it is present.
+     *
+     * @param key key
+     * @param hc improved hashcode of the key
+     * @return index of key in array, -1 for null key or -2 if it was not found
+     */
+    final int positionOf(Object key, int hc) {
         // Null special case
         if (key == null)
             return nullKeyPresent ? NULL_INDEX : NO_INDEX;
         // Check arrays lazy allocation
-        if (indexTable == null)
+        int[] indices = indexTable;
+        if (indices == null)
             return NO_INDEX;
+        int len = hashLen;
+        // Hash bin not moved by incremental resize yet?
+        if (oldIndexTable != null && !isMoved(hc & (oldHashLen-1))) {
+            indices = oldIndexTable;
+            len = oldHashLen;
+        }
         // Compute hash index
-        int hc = hash(key.hashCode());
-        int index = indexTable[hc & (hashLen-1)];
+        int index = indices[hc & (len-1)];
         // Empty?
         int control = index & CONTROL_BITS;
         if (control == CONTROL_EMPTY)
             return NO_INDEX;
         // Search
-        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        int mask = AVAILABLE_BITS ^ (len-1);
+        int[] hashes = hashTable;
         while (true) {
-            int position = index & (hashLen-1);
-            if ((index & mask) == (hc & mask)) {
+            int position = index & (len-1);
+            if ((index & mask) == (hc & mask) &&
+                (hashes == null || hashes[position] == hc)) {
                 Object key1 = keyValueTable[(position<<keyIndexShift)+1];
-                if (key == key1 || key.equals(key1))
+                if (key == key1 || (strategy == null ? key.equals(key1) :
+                    strategy.equals(key, key1)))
                     return position;
             }
             // Move forward
             if (control == CONTROL_END)
                 return NO_INDEX; // END is more frequent - check it first
             else if (control == CONTROL_OVERFLOW)
-                index = indexTable[hashLen+position];
+                index = indices[len+position];
             else if (control == CONTROL_NEXT)
-                index = indexTable[(hc+1) & (hashLen-1)];
+                index = indices[(hc+1) & (len-1)];
             else // CONTROL_EMPTY
                 return NO_INDEX;
             control = index & CONTROL_BITS;
@@ -543,43 +1083,199 @@ public class FastHashMap<K,V>
      */
     @SuppressWarnings("unchecked")
     public V get(Object key) {
+        // Single-writer/multi-reader mode
+        if (concurrentReader())
+            return (V)concurrentGet(key, null);
         // Null special case
         if (key == null)
             // HashSet (keyIndexShift==0) uses only containsKey
             return nullKeyPresent ? (V)keyValueTable[0] : null;
         // Check arrays lazy allocation
-        if (indexTable == null)
+        int[] indices = indexTable;
+        if (indices == null)
             return null;
+        int len = hashLen;
         // Compute hash index
-        int hc = hash(key.hashCode());
-        int index = indexTable[hc & (hashLen-1)];
+        int hc = hash(key);
+        // Hash bin not moved by incremental resize yet?
+        if (oldIndexTable != null && !isMoved(hc & (oldHashLen-1))) {
+            indices = oldIndexTable;
+            len = oldHashLen;
+        }
+        int index = indices[hc & (len-1)];
         // Empty?
         int control = index & CONTROL_BITS;
         if (control == CONTROL_EMPTY)
             return null;
         // Search
-        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        int mask = AVAILABLE_BITS ^ (len-1);
+        int[] hashes = hashTable;
         while (true) {
-            int position = index & (hashLen-1);
-            if ((index & mask) == (hc & mask)) {
+            int position = index & (len-1);
+            if ((index & mask) == (hc & mask) &&
+                (hashes == null || hashes[position] == hc)) {
                 // HashSet (keyIndexShift==0) uses only containsKey
                 Object key1 = keyValueTable[(position<<1)+1];
-                if (key == key1 || key.equals(key1))
+                if (key == key1 || (strategy == null ? key.equals(key1) :
+                    strategy.equals(key, key1)))
                     return (V)keyValueTable[(position<<1)+2];
             }
             // Move forward
             if (control == CONTROL_END)
                 return null; // END is more frequent - check it first
             else if (control == CONTROL_OVERFLOW)
-                index = indexTable[hashLen+position];
+                index = indices[len+position];
             else if (control == CONTROL_NEXT)
-                index = indexTable[(hc+1) & (hashLen-1)];
+                index = indices[(hc+1) & (len-1)];
             else // CONTROL_EMPTY
                 return null;
             control = index & CONTROL_BITS;
         }
     }
 
+    /**
+     * Lookup for readers that are not synchronized with the writer
+     * (see FastConcurrentHashMap and enableConcurrentReads).
+     * Every field is read only once and the chain walk is bounded
+     * by the table length, so a racing modification can only produce
+     * a wrong result or a RuntimeException, never an endless loop.
+     * The caller must validate the result and retry under a lock.
+     *
+     * @param key key
+     * @param hc improved hashcode of the key
+     * @param notFound value to return if key was not found
+     * @return value (DUMMY_VALUE in HashSet) or <tt>notFound</tt>
+     */
+    final Object optimisticGet(Object key, int hc, Object notFound) {
+        Object[] kv = keyValueTable;
+        int shift = keyIndexShift;
+        if (key == null)
+            return !nullKeyPresent ? notFound :
+                shift > 0 ? kv[0] : DUMMY_VALUE;
+        int[] indices = indexTable;
+        int len = hashLen;
+        if (indices == null || kv == null)
+            return notFound;
+        int[] oldIndices = oldIndexTable;
+        if (oldIndices != null) {
+            int oldLen = oldHashLen;
+            int bin = hc & (oldLen-1);
+            if ((movedBins[bin >>> 5] & (1 << bin)) == 0) {
+                indices = oldIndices;
+                len = oldLen;
+            }
+        }
+        int index = indices[hc & (len-1)];
+        int control = index & CONTROL_BITS;
+        if (control == CONTROL_EMPTY)
+            return notFound;
+        int mask = AVAILABLE_BITS ^ (len-1);
+        int[] hashes = hashTable;
+        for (int steps = indices.length; steps > 0; steps--) {
+            int position = index & (len-1);
+            if ((index & mask) == (hc & mask) &&
+                (hashes == null || hashes[position] == hc)) {
+                Object key1 = kv[(position<<shift)+1];
+                if (key == key1 || (strategy == null ? key.equals(key1) :
+                    strategy.equals(key, key1)))
+                    return shift > 0 ? kv[(position<<1)+2] : DUMMY_VALUE;
+            }
+            if (control == CONTROL_END)
+                return notFound;
+            else if (control == CONTROL_OVERFLOW)
+                index = indices[len+position];
+            else if (control == CONTROL_NEXT)
+                index = indices[(hc+1) & (len-1)];
+            else // CONTROL_EMPTY
+                return notFound;
+            control = index & CONTROL_BITS;
+        }
+        return notFound;
+    }
+
+    /**
+     * Switches this map to the single-writer/multi-reader mode.
+     *
+     * <p>In this mode one writer thread may modify the map while
+     * any number of reader threads call {@link #get get},
+     * {@link #getOrDefault getOrDefault},
+     * {@link #containsKey containsKey}, {@link #size size} and
+     * {@link #isEmpty isEmpty} without any external synchronization.
+     * Readers do not lock: they look the key up optimistically
+     * and validate a version stamp which every modification
+     * (including resize and defragmentation) changes;
+     * if a modification ran concurrently the lookup is retried,
+     * and after a few failed tries it is done under a read lock.
+     * Other methods (iteration, views, <tt>containsValue</tt>,
+     * <tt>equals</tt>...) are still reserved to the writer thread.
+     *
+     * <p>This method must be called before the map is published
+     * to reader threads.  Neither clones nor deserialized copies
+     * inherit this mode.
+     */
+    public void enableConcurrentReads() {
+        if (seqLock == null)
+            seqLock = new StampedLock();
+    }
+
+    /**
+     * Lookup in single-writer/multi-reader mode.
+     *
+     * @return value (DUMMY_VALUE in HashSet) or <tt>notFound</tt>
+     */
+    final Object concurrentGet(Object key, Object notFound) {
+        StampedLock lock = seqLock;
+        for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0L)
+                continue; // Write in progress
+            try {
+                // String hashing may be switched on by the writer
+                int hc = key == null ? 0 : hash(key);
+                Object value = optimisticGet(key, hc, notFound);
+                if (lock.validate(stamp))
+                    return value;
+            } catch (RuntimeException e) {
+                // Torn state was seen, try again
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return optimisticGet(key, key == null ? 0 : hash(key), notFound);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Start a modification in single-writer/multi-reader mode.
+     */
+    final void beginWrite() {
+        writeStamp = seqLock.writeLock();
+        writerThread = Thread.currentThread();
+    }
+
+    /**
+     * Finish a modification in single-writer/multi-reader mode.
+     */
+    final void endWrite() {
+        long stamp = writeStamp;
+        writeStamp = 0L;
+        writerThread = null;
+        seqLock.unlockWrite(stamp);
+    }
+
+    /**
+     * Returns <tt>true</tt> if a lookup must go through concurrentGet:
+     * the map is in single-writer/multi-reader mode and the current
+     * thread is not inside a modification.  Lookups nested in
+     * a modification see a consistent state and must not wait
+     * for the write lock held by their own thread.
+     */
+    final boolean concurrentReader() {
+        return seqLock != null && writerThread != Thread.currentThread();
+    }
+
     /**
      * Returns <tt>true</tt> if i-th array position
      * is not occupied (is in deleted elements list).
@@ -616,7 +1312,18 @@ public class FastHashMap<K,V>
      */
     @SuppressWarnings("unchecked")
     final V put(K key, V value, boolean searchForExistingKey) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return put(key, value, searchForExistingKey);
+            } finally {
+                endWrite();
+            }
+        }
         boolean callback = this instanceof FastLinkedHashMap;
+        if (sharedArrays)
+            unshare();
         // Null special case
         if (key == null) {
             Object oldValue;
@@ -625,6 +1332,8 @@ public class FastHashMap<K,V>
                     keyValueTable = new Object[(threshold<<keyIndexShift)+1];
                 oldValue = keyValueTable[0];
                 keyValueTable[0] = value;
+                if (grownKeyValueTable != null)
+                    mirrorPosition(NULL_INDEX);
             } else oldValue = nullKeyPresent ? DUMMY_VALUE : null;
             if (nullKeyPresent) {
                 if (callback) updateHook(NULL_INDEX);
@@ -635,8 +1344,19 @@ public class FastHashMap<K,V>
             }
             return (V)oldValue;
         }
-        //
-        int hc = hash(key.hashCode());
+        return put(key, hash(key), value, searchForExistingKey);
+    }
+
+    /**
+     * Put with already computed improved hashcode of not null key.
+     */
+    @SuppressWarnings("unchecked")
+    final V put(K key, int hc, V value, boolean searchForExistingKey) {
+        boolean callback = this instanceof FastLinkedHashMap;
+        if (sharedArrays)
+            unshare();
+        if (oldIndexTable != null)
+            moveBins(hc);
         int i = hc & (hashLen - 1);
         int head;
         if (indexTable != null) {
@@ -647,6 +1367,7 @@ public class FastHashMap<K,V>
             if (keyValueTable == null)
                 keyValueTable = new Object[(threshold<<keyIndexShift)+1];
         }
+        int[] hashes = hashTable;
         // Look if key is already in this map
         int depth = 1;
         int mask = AVAILABLE_BITS ^ (hashLen-1);
@@ -655,13 +1376,17 @@ public class FastHashMap<K,V>
             int index = head;
             while (true) {
                 int cur = index & (hashLen-1);
-                if ((index & mask) == (hc & mask)) {
+                if ((index & mask) == (hc & mask) &&
+                    (hashes == null || hashes[cur] == hc)) {
                     Object key1 = keyValueTable[(cur<<keyIndexShift)+1];
-                    if (key == key1 || key.equals(key1)) {
+                    if (key == key1 || (strategy == null ? key.equals(key1) :
+                        strategy.equals(key, key1))) {
                         Object oldValue;
                         if (keyIndexShift > 0) {
                             oldValue = keyValueTable[(cur<<keyIndexShift)+2];
                             keyValueTable[(cur<<keyIndexShift)+2] = value;
+                            if (grownKeyValueTable != null)
+                                mirrorPosition(cur);
                         } else oldValue = DUMMY_VALUE;
                         if (callback) updateHook(cur);
                         return (V)oldValue;
@@ -682,11 +1407,14 @@ public class FastHashMap<K,V>
         boolean defragment = depth > 2 && firstUnusedIndex+depth <= threshold;
         if (size >= threshold) {
             resize(hashLen<<1);
+            if (oldIndexTable != null)
+                moveBins(hc);
             i = hc & (hashLen - 1);
             mask = AVAILABLE_BITS ^ (hashLen-1);
             head = indexTable[i];
             control = head & CONTROL_BITS;
             defragment = false;
+            hashes = hashTable;
         }
         // Check if this cell is occupied by another hash bin
         if (control == CONTROL_EMPTY && head != 0) {
@@ -697,6 +1425,8 @@ public class FastHashMap<K,V>
             indexTable[hashLen + j2] = head | CONTROL_END; // & AVAILABLE_BITS)
             head = 0;
         }
+        if (incrementalResize)
+            growStep();
         // Find a place for new element
         int newIndex;
         if (firstDeletedIndex >= 0 && !defragment) {
@@ -710,6 +1440,7 @@ public class FastHashMap<K,V>
         }
         // Defragment
         if (defragment) {
+            defragmentations++;
             // Move to new continuous space
             int j = head;
             head = (j & ~(hashLen-1)) | firstUnusedIndex;
@@ -723,6 +1454,12 @@ public class FastHashMap<K,V>
                     keyValueTable[(firstUnusedIndex<<keyIndexShift)+2] = tmp;
                     keyValueTable[(k<<keyIndexShift)+2] = null;
                 }
+                if (hashes != null)
+                    hashes[firstUnusedIndex] = hashes[k];
+                if (grownKeyValueTable != null) {
+                    mirrorPosition(firstUnusedIndex);
+                    mirrorPosition(k);
+                }
                 int nextIndex, n;
                 if ((j & CONTROL_BITS) == CONTROL_END) {
                     nextIndex = -1;
@@ -754,9 +1491,14 @@ public class FastHashMap<K,V>
         keyValueTable[(newIndex<<keyIndexShift)+1] = key;
         if (keyIndexShift > 0)
             keyValueTable[(newIndex<<keyIndexShift)+2] = value;
+        if (hashes != null)
+            hashes[newIndex] = hc;
+        if (grownKeyValueTable != null)
+            mirrorPosition(newIndex);
         if (control == CONTROL_EMPTY) { // EMPTY is more frequent - check it first
             indexTable[i] = newIndex | (hc & mask) | CONTROL_END;
-        } else if (control == CONTROL_END && newIndex != 0 && indexTable[(i+1)&(hashLen-1)] == 0) {
+        } else if (control == CONTROL_END && newIndex != 0 &&
+            indexTable[(i+1)&(hashLen-1)] == 0 && oldIndexTable == null) {
             indexTable[i] = (head & AVAILABLE_BITS) | CONTROL_NEXT;
             indexTable[(i+1)&(hashLen-1)] = newIndex | (hc & mask); // | CONTROL_EMPTY;
         } else if (control == CONTROL_NEXT) {
@@ -774,10 +1516,629 @@ public class FastHashMap<K,V>
         size++;
         modCount++;
         if (callback) addHook(newIndex);
+        if (depth > MAX_CHAIN_LENGTH && !stringHashing &&
+            (strategy != null || key instanceof String))
+            enableStringHashing();
         // validate("Put "+key+" "+value);
         return null;
     }
 
+    /**
+     * Switches <tt>String</tt> keys (or keys of a map with a strategy)
+     * to SipHash with a new random key and rehashes all keys.  Called when put finds a hash chain so
+     * long that keys are likely to be chosen to collide.
+     * Positions of elements do not change.
+     */
+    private void enableStringHashing() {
+        if (oldIndexTable != null)
+            finishResize();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        sipKey0 = random.nextLong();
+        sipKey1 = random.nextLong();
+        stringHashing = true;
+        int[] hashes = new int[firstUnusedIndex];
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            Object key = keyValueTable[(i<<keyIndexShift)+1];
+            if (key != null)
+                hashes[i] = hash(key);
+        }
+        if (hashTable != null)
+            System.arraycopy(hashes, 0, hashTable, 0, firstUnusedIndex);
+        if (grownHashTable != null)
+            System.arraycopy(hashes, 0, grownHashTable, 0,
+                Math.min(copiedPositions, firstUnusedIndex));
+        Arrays.fill(indexTable, 0, hashLen + firstUnusedIndex, 0);
+        rebuildIndex(hashes);
+        // validate("String hashing");
+    }
+
+    /**
+     * Returns key of i-th array position (NULL_INDEX for null key).
+     */
+    @SuppressWarnings("unchecked")
+    final K keyAt(int i) {
+        return i == NULL_INDEX ? null : (K)keyValueTable[(i<<keyIndexShift)+1];
+    }
+
+    /**
+     * Returns value of i-th array position (NULL_INDEX for null key).
+     */
+    @SuppressWarnings("unchecked")
+    final V valueAt(int i) {
+        return (V)keyValueTable[(i<<keyIndexShift)+2];
+    }
+
+    /**
+     * Sets value of existing key at i-th array position.
+     */
+    private void setValueAt(int i, V value) {
+        if (sharedArrays)
+            unshare();
+        keyValueTable[(i<<keyIndexShift)+2] = value;
+        if (grownKeyValueTable != null)
+            mirrorPosition(i);
+        if (this instanceof FastLinkedHashMap)
+            updateHook(i);
+    }
+
+    /**
+     * Adds a key which is known to be absent, without looking for it.
+     */
+    private void insert(K key, int hc, V value) {
+        if (key == null)
+            put(null, value, false);
+        else
+            put(key, hc, value, false);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>defaultValue</tt> if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @param defaultValue the default mapping of the key
+     * @return the value or <tt>defaultValue</tt>
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        // Single-writer/multi-reader mode
+        if (concurrentReader())
+            return (V)concurrentGet(key, defaultValue);
+        int i = positionOf(key);
+        return i == NO_INDEX ? defaultValue : valueAt(i);
+    }
+
+    /**
+     * If the specified key is not already associated with a value
+     * (or is mapped to <tt>null</tt>) associates it with the given value.
+     * The key is looked up only once.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the specified key, or
+     *         <tt>null</tt> if there was no mapping for the key.
+     */
+    public V putIfAbsent(K key, V value) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return putIfAbsent(key, value);
+            } finally {
+                endWrite();
+            }
+        }
+        int hc = key == null ? 0 : hash(key);
+        int i = positionOf(key, hc);
+        if (i == NO_INDEX) {
+            insert(key, hc, value);
+            return null;
+        }
+        V oldValue = valueAt(i);
+        if (oldValue == null)
+            setValueAt(i, value);
+        else if (this instanceof FastLinkedHashMap)
+            updateHook(i);
+        return oldValue;
+    }
+
+    /**
+     * Replaces the entry for the specified key only if it is
+     * currently mapped to some value.  The key is looked up only once.
+     *
+     * @param key key with which the specified value is associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the specified key, or
+     *         <tt>null</tt> if there was no mapping for the key.
+     */
+    public V replace(K key, V value) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return replace(key, value);
+            } finally {
+                endWrite();
+            }
+        }
+        int i = positionOf(key);
+        if (i == NO_INDEX)
+            return null;
+        V oldValue = valueAt(i);
+        setValueAt(i, value);
+        return oldValue;
+    }
+
+    /**
+     * Replaces the entry for the specified key only if currently
+     * mapped to the specified value.  The key is looked up only once.
+     *
+     * @param key key with which the specified value is associated
+     * @param oldValue value expected to be associated with the specified key
+     * @param newValue value to be associated with the specified key
+     * @return <tt>true</tt> if the value was replaced
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return replace(key, oldValue, newValue);
+            } finally {
+                endWrite();
+            }
+        }
+        int i = positionOf(key);
+        if (i == NO_INDEX)
+            return false;
+        V v = valueAt(i);
+        if (v != oldValue && (v == null || !v.equals(oldValue)))
+            return false;
+        setValueAt(i, newValue);
+        return true;
+    }
+
+    /**
+     * Removes the entry for the specified key only if it is currently
+     * mapped to the specified value.  The key is looked up only once.
+     *
+     * @param key key with which the specified value is associated
+     * @param value value expected to be associated with the specified key
+     * @return <tt>true</tt> if the value was removed
+     */
+    public boolean remove(Object key, Object value) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return remove(key, value);
+            } finally {
+                endWrite();
+            }
+        }
+        int hc = key == null ? 0 : hash(key);
+        int i = positionOf(key, hc);
+        if (i == NO_INDEX)
+            return false;
+        V v = valueAt(i);
+        if (v != value && (v == null || !v.equals(value)))
+            return false;
+        removeKey(key, hc, i);
+        autoTrim();
+        return true;
+    }
+
+    /**
+     * If the specified key is not already associated with a value
+     * (or is mapped to <tt>null</tt>), attempts to compute its value using
+     * the given mapping function and enters it into this map unless
+     * <tt>null</tt>.  The key is looked up only once.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @return the current (existing or computed) value associated with
+     *         the specified key, or <tt>null</tt> if the computed value is null
+     * @throws ConcurrentModificationException if the mapping function
+     *         modified this map
+     */
+    public V computeIfAbsent(K key,
+        Function<? super K, ? extends V> mappingFunction)
+    {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return computeIfAbsent(key, mappingFunction);
+            } finally {
+                endWrite();
+            }
+        }
+        int hc = key == null ? 0 : hash(key);
+        int i = positionOf(key, hc);
+        if (i != NO_INDEX) {
+            V oldValue = valueAt(i);
+            if (oldValue != null) {
+                if (this instanceof FastLinkedHashMap)
+                    updateHook(i);
+                return oldValue;
+            }
+        }
+        int mc = modCount;
+        V value = mappingFunction.apply(key);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (value != null) {
+            if (i != NO_INDEX)
+                setValueAt(i, value);
+            else
+                insert(key, hc, value);
+        }
+        return value;
+    }
+
+    /**
+     * If the value for the specified key is present and not <tt>null</tt>,
+     * attempts to compute a new mapping given the key and its current
+     * mapped value.  If the function returns <tt>null</tt>,
+     * the mapping is removed.  The key is looked up only once.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the specified key,
+     *         or <tt>null</tt> if none
+     * @throws ConcurrentModificationException if the remapping function
+     *         modified this map
+     */
+    public V computeIfPresent(K key,
+        BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return computeIfPresent(key, remappingFunction);
+            } finally {
+                endWrite();
+            }
+        }
+        int hc = key == null ? 0 : hash(key);
+        int i = positionOf(key, hc);
+        if (i == NO_INDEX)
+            return null;
+        V oldValue = valueAt(i);
+        if (oldValue == null)
+            return null;
+        int mc = modCount;
+        V value = remappingFunction.apply(key, oldValue);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (value == null) {
+            removeKey(key, hc, i);
+            autoTrim();
+        } else
+            setValueAt(i, value);
+        return value;
+    }
+
+    /**
+     * Attempts to compute a mapping for the specified key and its current
+     * mapped value (or <tt>null</tt> if there is no current mapping).
+     * If the function returns <tt>null</tt>, the mapping is removed
+     * (or remains absent).  The key is looked up only once.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the specified key,
+     *         or <tt>null</tt> if none
+     * @throws ConcurrentModificationException if the remapping function
+     *         modified this map
+     */
+    public V compute(K key,
+        BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return compute(key, remappingFunction);
+            } finally {
+                endWrite();
+            }
+        }
+        int hc = key == null ? 0 : hash(key);
+        int i = positionOf(key, hc);
+        V oldValue = i == NO_INDEX ? null : valueAt(i);
+        int mc = modCount;
+        V value = remappingFunction.apply(key, oldValue);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (value == null) {
+            if (i != NO_INDEX) {
+                removeKey(key, hc, i);
+                autoTrim();
+            }
+        } else if (i != NO_INDEX)
+            setValueAt(i, value);
+        else
+            insert(key, hc, value);
+        return value;
+    }
+
+    /**
+     * If the specified key is not already associated with a value or is
+     * associated with <tt>null</tt>, associates it with the given value.
+     * Otherwise, replaces the associated value with the results of the given
+     * remapping function, or removes if the result is <tt>null</tt>.
+     * The key is looked up only once.
+     *
+     * @param key key with which the resulting value is to be associated
+     * @param value the value to be merged with the existing value
+     * @param remappingFunction the function to recompute a value if present
+     * @return the new value associated with the specified key,
+     *         or <tt>null</tt> if no value is associated with the key
+     * @throws NullPointerException if the value or remappingFunction is null
+     * @throws ConcurrentModificationException if the remapping function
+     *         modified this map
+     */
+    public V merge(K key, V value,
+        BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        if (value == null || remappingFunction == null)
+            throw new NullPointerException();
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return merge(key, value, remappingFunction);
+            } finally {
+                endWrite();
+            }
+        }
+        int hc = key == null ? 0 : hash(key);
+        int i = positionOf(key, hc);
+        if (i == NO_INDEX) {
+            insert(key, hc, value);
+            return value;
+        }
+        V oldValue = valueAt(i);
+        V newValue;
+        if (oldValue == null)
+            newValue = value;
+        else {
+            int mc = modCount;
+            newValue = remappingFunction.apply(oldValue, value);
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+        }
+        if (newValue == null) {
+            removeKey(key, hc, i);
+            autoTrim();
+        } else
+            setValueAt(i, newValue);
+        return newValue;
+    }
+
+    /**
+     * Performs the given action for each mapping in this map
+     * in iteration order.  Keys and values are read directly from
+     * the internal arrays, no entries or iterators are created.
+     *
+     * @param action the action to be performed for each mapping
+     * @throws NullPointerException if the action is null
+     * @throws ConcurrentModificationException if the action
+     *         modified this map
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i)) {
+            action.accept(keyAt(i), valueAt(i));
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * Replaces each value with the result of the given function
+     * applied to its mapping, in iteration order.  Values are
+     * replaced in place, this does not change access order
+     * of <tt>FastLinkedHashMap</tt>.
+     *
+     * @param function the function to compute new values
+     * @throws NullPointerException if the function is null
+     * @throws ConcurrentModificationException if the function
+     *         modified this map
+     */
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null)
+            throw new NullPointerException();
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                replaceAll(function);
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        int mc = modCount;
+        if (sharedArrays)
+            unshare();
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i)) {
+            V value = function.apply(keyAt(i), valueAt(i));
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+            keyValueTable[(i<<keyIndexShift)+2] = value;
+            if (grownKeyValueTable != null)
+                mirrorPosition(i);
+        }
+    }
+
+    /**
+     * Restores hashes of all keys from the index: hash bin number
+     * and high bits stored in the index are all that it needs.
+     * Negative elements of <tt>hashes</tt> are not overwritten.
+     */
+    private void restoreHashes(int[] hashes) {
+        if (oldIndexTable != null)
+            finishResize();
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        for (int i = 0; i < hashLen; i++) {
+            int index = indexTable[i];
+            if ((index & CONTROL_BITS) == CONTROL_EMPTY)
+                continue; // Empty or belongs to previous hash bin
+            while (true) {
+                int position = index & (hashLen-1);
+                if (hashes[position] >= 0)
+                    hashes[position] = (index & mask) | i;
+                int control = index & CONTROL_BITS;
+                if (control == CONTROL_OVERFLOW)
+                    index = indexTable[hashLen + position];
+                else if (control == CONTROL_NEXT)
+                    index = indexTable[(i+1) & (hashLen-1)];
+                else // CONTROL_END or CONTROL_EMPTY after NEXT
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Builds hash chains and deleted elements list for positions
+     * below firstUnusedIndex in a cleared indexTable.
+     *
+     * @param hashes hash of the key at each position
+     */
+    private void rebuildIndex(int[] hashes) {
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        firstDeletedIndex = -1;
+        for (int i = firstUnusedIndex-1; i >= 0; i--) {
+            if (keyValueTable[(i<<keyIndexShift)+1] == null) {
+                indexTable[hashLen + i] = firstDeletedIndex;
+                firstDeletedIndex = i;
+            } else {
+                int hc = hashes[i];
+                int j = hc & (hashLen-1);
+                int head = indexTable[j];
+                if (head == 0) {
+                    indexTable[j] = i | (hc & mask) | CONTROL_END;
+                } else {
+                    indexTable[hashLen + i] = head;
+                    indexTable[j] = i | (hc & mask) | CONTROL_OVERFLOW;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all elements of a collection view satisfying the filter.
+     * The filter is tested on every element first, so if it throws
+     * nothing is removed.  Then matching elements are cleared
+     * and the index is rebuilt once instead of unlinking
+     * every removed key from its hash chain.  Entries are tested
+     * through one reused entry moved from position to position,
+     * so the filter must not keep them.
+     *
+     * @param filter predicate for keys, values or entries
+     * @param iteratorType view the filter is applied to
+     * @return <tt>true</tt> if any elements were removed
+     */
+    @SuppressWarnings("unchecked")
+    final boolean removeIf(Predicate<?> filter, int iteratorType) {
+        if (filter == null)
+            throw new NullPointerException();
+        Predicate<Object> p = (Predicate<Object>)filter;
+        int mc = modCount;
+        int[] hashes = null; // -1 for removed positions
+        boolean removeNullKey = false;
+        PositionEntry entry = iteratorType == ENTRY_ITERATOR ?
+            new PositionEntry() : null;
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i)) {
+            if (entry != null)
+                entry.index = i;
+            boolean found = p.test(
+                iteratorType == KEY_ITERATOR ? keyAt(i) :
+                iteratorType == VALUE_ITERATOR ? valueAt(i) :
+                entry);
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+            if (found) {
+                if (i == NULL_INDEX)
+                    removeNullKey = true;
+                else {
+                    if (hashes == null)
+                        hashes = new int[firstUnusedIndex];
+                    hashes[i] = -1;
+                }
+            }
+        }
+        if (hashes != null)
+            removeMarked(hashes, removeNullKey);
+        else if (removeNullKey)
+            removeKey(null, NULL_INDEX);
+        else
+            return false;
+        autoTrim();
+        return true;
+    }
+
+    /**
+     * Removes elements marked by -1 in <tt>hashes</tt> array
+     * and rebuilds the index.  Hashes of remaining keys are
+     * restored from the index: hash bin number and
+     * high bits stored in the index are all that it needs.
+     */
+    private void removeMarked(int[] hashes, boolean removeNullKey) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                removeMarked(hashes, removeNullKey);
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        if (sharedArrays)
+            unshare();
+        if (removeNullKey) {
+            nullKeyPresent = false;
+            keyValueTable[0] = null;
+            if (grownKeyValueTable != null)
+                mirrorPosition(NULL_INDEX);
+            size--;
+            if (this instanceof FastLinkedHashMap)
+                removeHook(NULL_INDEX);
+        }
+        restoreHashes(hashes);
+        // Remove marked elements
+        for (int i = 0; i < firstUnusedIndex; i++)
+            if (hashes[i] < 0) {
+                keyValueTable[(i<<keyIndexShift)+1] = null;
+                if (keyIndexShift > 0)
+                    keyValueTable[(i<<keyIndexShift)+2] = null;
+                if (grownKeyValueTable != null)
+                    mirrorPosition(i);
+                size--;
+                if (this instanceof FastLinkedHashMap)
+                    removeHook(i);
+            }
+        Arrays.fill(indexTable, 0, hashLen + firstUnusedIndex, 0);
+        while (firstUnusedIndex > 0 &&
+            keyValueTable[((firstUnusedIndex-1)<<keyIndexShift)+1] == null)
+            firstUnusedIndex--;
+        rebuildIndex(hashes);
+        modCount++;
+        // validate("RemoveIf");
+    }
+
     /**
      * Removes the mapping for the specified key from this map if present.
      *
@@ -789,7 +2150,10 @@ public class FastHashMap<K,V>
      */
     public V remove(Object key) {
         V result = removeKey(key, NO_INDEX);
-        return result == NOT_FOUND ? null : result;
+        if (result == NOT_FOUND)
+            return null;
+        autoTrim();
+        return result;
     }
 
     /**
@@ -805,8 +2169,32 @@ public class FastHashMap<K,V>
      * @return NOT_FOUND or old value if index == NO_INDEX
      * if index != NO_INDEX return value is undefined (usually null)
      */
-    @SuppressWarnings("unchecked")
     final V removeKey(Object key, int index) {
+        return removeKey(key, key == null ? 0 : hash(key), index);
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @param hc improved hashcode of the key
+     * @param index index of element to delete or NO_INDEX
+     * @return NOT_FOUND or old value if index == NO_INDEX
+     * if index != NO_INDEX return value is undefined (usually null)
+     */
+    @SuppressWarnings("unchecked")
+    final V removeKey(Object key, int hc, int index) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                return removeKey(key, hc, index);
+            } finally {
+                endWrite();
+            }
+        }
+        if (sharedArrays)
+            unshare();
         // Null special case
         if (key == null) {
             if (nullKeyPresent) {
@@ -817,6 +2205,8 @@ public class FastHashMap<K,V>
                 if (keyIndexShift > 0) {
                     V oldValue = (V)keyValueTable[0];
                     keyValueTable[0] = null;
+                    if (grownKeyValueTable != null)
+                        mirrorPosition(NULL_INDEX);
                     return oldValue;
                 } else return (V)DUMMY_VALUE;
             } else return (V)NOT_FOUND;
@@ -825,7 +2215,8 @@ public class FastHashMap<K,V>
         if (indexTable == null)
             return (V)NOT_FOUND;
         // Compute hash index
-        int hc = hash(key.hashCode());
+        if (oldIndexTable != null)
+            moveBins(hc);
         int prev = -1;
         int curr = hc & (hashLen-1);
         // Check if this hash bin is empty
@@ -841,60 +2232,159 @@ public class FastHashMap<K,V>
                 boolean found;
                 if (index == NO_INDEX) {
                     Object o = keyValueTable[(j<<keyIndexShift)+1];
-                    found = key == o || key.equals(o);
+                    found = (hashTable == null || hashTable[j] == hc) &&
+                        (key == o || (strategy == null ? key.equals(o) :
+                        strategy.equals(key, o)));
                 } else
                     found = j == index;
                 if (found) {
-                    size--;
-                    if((i & CONTROL_BITS) == CONTROL_END) {
-                        if (prev >= 0)
-                            indexTable[prev] |= CONTROL_END; // (indexTable[prev] & AVAILABLE_BITS)
-                        else
-                            indexTable[curr] = 0;
-                    } else if((i & CONTROL_BITS) == CONTROL_OVERFLOW) {
-                        indexTable[curr] = indexTable[k];
-                    } else if ((i & CONTROL_BITS) == CONTROL_NEXT) {
-                        int c2 = (curr+1) & (hashLen-1);
-                        int i2 = indexTable[c2];
-                        indexTable[curr] = i2 | CONTROL_END; // & AVAILABLE_BITS
-                        indexTable[c2] = 0;
-                    } else { // CONTROL_EMPTY
-                        indexTable[prev] |= CONTROL_END; // (indexTable[prev] & AVAILABLE_BITS)
-                        indexTable[curr] = 0;
-                    }
-                    if (size == 0) {
-                        firstUnusedIndex = 0;
-                        firstDeletedIndex = -1;
-                    } else if (j == firstUnusedIndex-1) {
-                        firstUnusedIndex = j;
-                    } else {
-                        indexTable[k] = firstDeletedIndex;
-                        firstDeletedIndex = j;
-                    }
                     Object oldValue = index != NO_INDEX ? null :
                         keyIndexShift == 0 ? DUMMY_VALUE :
                         keyValueTable[(j<<keyIndexShift)+2];
-                    keyValueTable[(j<<keyIndexShift)+1] = null;
-                    if (keyIndexShift > 0)
-                        keyValueTable[(j<<keyIndexShift)+2] = null;
-                    modCount++;
-                    if (this instanceof FastLinkedHashMap)
-                        removeHook(j);
+                    unlink(i, j, curr, prev);
                     // validate("Remove "+key+", "+index);
                     return (V)oldValue;
                 }
             }
-            prev = curr;
-            if ((i & CONTROL_BITS) == CONTROL_END)
-                break; // END is more frequent - check it first
-            else if ((i & CONTROL_BITS) == CONTROL_OVERFLOW)
-                curr = k;
-            else if ((i & CONTROL_BITS) == CONTROL_NEXT)
-                curr = (curr+1) & (hashLen-1);
-            else break;
-            i = indexTable[curr];
+            prev = curr;
+            if ((i & CONTROL_BITS) == CONTROL_END)
+                break; // END is more frequent - check it first
+            else if ((i & CONTROL_BITS) == CONTROL_OVERFLOW)
+                curr = k;
+            else if ((i & CONTROL_BITS) == CONTROL_NEXT)
+                curr = (curr+1) & (hashLen-1);
+            else break;
+            i = indexTable[curr];
+        }
+        return (V)NOT_FOUND;
+    }
+
+    /**
+     * Removes element at j-th position from its hash chain
+     * and from the arrays.
+     *
+     * @param i index value of the element
+     * @param j position of the element
+     * @param curr location of the element in indexTable
+     * @param prev location of the previous element in
+     *        the hash chain or -1 for chain head
+     */
+    private void unlink(int i, int j, int curr, int prev) {
+        int k = hashLen + j;
+        size--;
+        if((i & CONTROL_BITS) == CONTROL_END) {
+            if (prev >= 0)
+                indexTable[prev] |= CONTROL_END; // (indexTable[prev] & AVAILABLE_BITS)
+            else
+                indexTable[curr] = 0;
+        } else if((i & CONTROL_BITS) == CONTROL_OVERFLOW) {
+            indexTable[curr] = indexTable[k];
+        } else if ((i & CONTROL_BITS) == CONTROL_NEXT) {
+            int c2 = (curr+1) & (hashLen-1);
+            int i2 = indexTable[c2];
+            indexTable[curr] = i2 | CONTROL_END; // & AVAILABLE_BITS
+            indexTable[c2] = 0;
+        } else { // CONTROL_EMPTY
+            indexTable[prev] |= CONTROL_END; // (indexTable[prev] & AVAILABLE_BITS)
+            indexTable[curr] = 0;
+        }
+        if (size == 0) {
+            firstUnusedIndex = 0;
+            firstDeletedIndex = -1;
+        } else if (j == firstUnusedIndex-1) {
+            firstUnusedIndex = j;
+        } else {
+            indexTable[k] = firstDeletedIndex;
+            firstDeletedIndex = j;
+        }
+        keyValueTable[(j<<keyIndexShift)+1] = null;
+        if (keyIndexShift > 0)
+            keyValueTable[(j<<keyIndexShift)+2] = null;
+        if (grownKeyValueTable != null)
+            mirrorPosition(j);
+        modCount++;
+        if (this instanceof FastLinkedHashMap)
+            removeHook(j);
+    }
+
+    /**
+     * Returns locations in indexTable of all elements:
+     * hash bin for chain heads, next cell for elements
+     * after CONTROL_NEXT, overflow cell of previous
+     * element in the chain for others.  They are collected
+     * only if the map was modified since the last call
+     * by other means than removeAt, reusing the array
+     * until the map is resized or rebuilt.
+     */
+    final int[] locations() {
+        if (oldIndexTable != null)
+            finishResize();
+        int[] locations = removalLocations;
+        if (locations != null && locationsModCount == modCount)
+            return locations;
+        if (locations == null || locations.length < firstUnusedIndex)
+            locations = new int[threshold];
+        for (int i = 0; i < hashLen; i++) {
+            int index = indexTable[i];
+            if ((index & CONTROL_BITS) == CONTROL_EMPTY)
+                continue; // Empty or belongs to previous hash bin
+            int curr = i;
+            while (true) {
+                int position = index & (hashLen-1);
+                locations[position] = curr;
+                int control = index & CONTROL_BITS;
+                if (control == CONTROL_OVERFLOW)
+                    curr = hashLen + position;
+                else if (control == CONTROL_NEXT)
+                    curr = (i+1) & (hashLen-1);
+                else // CONTROL_END or CONTROL_EMPTY after NEXT
+                    break;
+                index = indexTable[curr];
+            }
+        }
+        removalLocations = locations;
+        locationsModCount = modCount;
+        return locations;
+    }
+
+    /**
+     * Removes element at j-th position using its location
+     * in indexTable, without computing key hash code and
+     * looking for it in the hash chain.  Locations of elements
+     * which are moved in indexTable are updated.
+     *
+     * @param j position of the element
+     * @param locations element locations, see {@link #locations}
+     */
+    final void removeAt(int j, int[] locations) {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                removeAt(j, locations);
+            } finally {
+                endWrite();
+            }
+            return;
         }
-        return (V)NOT_FOUND;
+        if (sharedArrays)
+            unshare();
+        int curr = locations[j];
+        int i = indexTable[curr];
+        int prev;
+        if (curr >= hashLen)
+            prev = locations[curr - hashLen];
+        else if ((i & CONTROL_BITS) == CONTROL_EMPTY)
+            prev = (curr-1) & (hashLen-1);
+        else
+            prev = -1;
+        unlink(i, j, curr, prev);
+        int control = i & CONTROL_BITS;
+        if (control == CONTROL_OVERFLOW || control == CONTROL_NEXT)
+            locations[indexTable[curr] & (hashLen-1)] = curr;
+        if (locations == removalLocations)
+            locationsModCount = modCount;
+        // validate("RemoveAt "+j);
     }
 
     /**
@@ -902,10 +2392,26 @@ public class FastHashMap<K,V>
      * The map will be empty after this call returns.
      */
     public void clear() {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                clear();
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        if (sharedArrays)
+            unshare();
         if (indexTable != null)
             Arrays.fill(indexTable, 0, hashLen + firstUnusedIndex, 0);
         if (keyValueTable != null)
             Arrays.fill(keyValueTable, 0, (firstUnusedIndex<<keyIndexShift)+1, null);
+        oldIndexTable = null;
+        movedBins = null;
+        dropGrownTables();
+        removalLocations = null;
         size = 0;
         firstUnusedIndex = 0;
         firstDeletedIndex = -1;
@@ -913,6 +2419,204 @@ public class FastHashMap<K,V>
         nullKeyPresent = false;
     }
 
+    /**
+     * Moves all mappings to the beginning of internal arrays,
+     * closing holes left by removed ones, and rebuilds the index.
+     * Capacity is not changed.  This makes iteration faster after
+     * a lot of mappings were removed, and new mappings are
+     * appended in the order they are added.
+     */
+    public void compact() {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                compact();
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        if (indexTable != null && firstDeletedIndex >= 0)
+            rebuild(hashLen);
+    }
+
+    /**
+     * Compacts this map (see {@link #compact compact}) and reduces
+     * its capacity to the smallest one that holds all its mappings
+     * without resize, releasing memory after a lot of mappings
+     * were removed.  Capacity is never increased.
+     */
+    public void trimToSize() {
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                trimToSize();
+            } finally {
+                endWrite();
+            }
+            return;
+        }
+        if (indexTable == null)
+            return;
+        int n = Math.max(nullKeyPresent ? size-1 : size, 1);
+        int newCapacity = DEFAULT_INITIAL_CAPACITY;
+        while (newCapacity < hashLen && (int)(newCapacity * loadFactor) < n)
+            newCapacity <<= 1;
+        if (newCapacity < hashLen || firstDeletedIndex >= 0)
+            rebuild(newCapacity);
+    }
+
+    /**
+     * Enables automatic {@link #trimToSize trimToSize} when a removal
+     * makes the number of mappings less than <tt>lowWaterMark</tt>
+     * multiplied by the current capacity and load factor.
+     * Removals by iterators and cursors do not trim the map,
+     * it is checked by the next removal with other methods.
+     * This setting is not serialized.
+     *
+     * @param lowWaterMark fraction of the current threshold,
+     *        0 (default) disables automatic trimming
+     * @throws IllegalArgumentException if <tt>lowWaterMark</tt>
+     *         is not in [0, 0.5) range: higher values would
+     *         trim right after a resize
+     */
+    public void setLowWaterMark(float lowWaterMark) {
+        if (!(lowWaterMark >= 0 && lowWaterMark < .5f))
+            throw new IllegalArgumentException(
+                "Illegal low water mark: " + lowWaterMark);
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * Trims this map if it fell below low water mark.
+     */
+    private void autoTrim() {
+        if (size < lowWaterMark * threshold &&
+            hashLen > DEFAULT_INITIAL_CAPACITY)
+            trimToSize();
+    }
+
+    /**
+     * Moves all elements to the beginning of arrays in their
+     * current order and rebuilds the index with <tt>newCapacity</tt>
+     * hash bins.  Key hashes are restored from the old index.
+     *
+     * @param newCapacity power of two, not greater than hashLen
+     *        and large enough for all elements
+     */
+    void rebuild(int newCapacity) {
+        boolean callback = this instanceof FastLinkedHashMap;
+        if (sharedArrays)
+            unshare();
+        dropGrownTables();
+        removalLocations = null;
+        int[] hashes = new int[firstUnusedIndex];
+        restoreHashes(hashes);
+        // Slide elements down
+        int newIndex = 0;
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            Object key = keyValueTable[(i<<keyIndexShift)+1];
+            if (key == null) continue;
+            if (newIndex != i) {
+                keyValueTable[(newIndex<<keyIndexShift)+1] = key;
+                keyValueTable[(i<<keyIndexShift)+1] = null;
+                if (keyIndexShift > 0) {
+                    keyValueTable[(newIndex<<keyIndexShift)+2] =
+                        keyValueTable[(i<<keyIndexShift)+2];
+                    keyValueTable[(i<<keyIndexShift)+2] = null;
+                }
+                hashes[newIndex] = hashes[i];
+                if (hashTable != null)
+                    hashTable[newIndex] = hashTable[i];
+                if (callback) relocateHook(newIndex, i);
+            }
+            newIndex++;
+        }
+        // New storage allocation
+        if (newCapacity != hashLen) {
+            int newValueLen = (int)(newCapacity * loadFactor);
+            int[] newIndices = new int[newCapacity+newValueLen];
+            keyValueTable = Arrays.copyOf(keyValueTable, (newValueLen<<keyIndexShift)+1);
+            if (hashTable != null)
+                hashTable = Arrays.copyOf(hashTable, newValueLen);
+            indexTable = newIndices;
+            hashLen = newCapacity;
+            threshold = newValueLen;
+        } else
+            Arrays.fill(indexTable, 0, hashLen + firstUnusedIndex, 0);
+        firstUnusedIndex = newIndex;
+        rebuildIndex(hashes);
+        modCount++;
+        // validate("Rebuild");
+    }
+
+    /**
+     * Returns a copy of this map like {@link #clone clone} does,
+     * but deferring the copy of internal arrays: the fork shares them
+     * with this map until either of them is modified.  Until then the
+     * fork takes constant time and no memory for the mappings, and is
+     * a consistent snapshot of the map at the time of the call.
+     *
+     * <p>The first modification of either side copies all arrays at
+     * once, costing as much as <tt>clone</tt>.  The other side keeps
+     * the original arrays if it is modified after that copy is done,
+     * otherwise it copies them too.  So a fork does not shorten the
+     * pause of a writer which goes on modifying this map: it only
+     * moves the copy from the call into the next write.  It saves
+     * the copy when neither side is modified while the fork is used.
+     *
+     * <p>A fork can be passed to another thread as long as it is
+     * published safely, e.g. through an executor or a concurrent
+     * collection.  The keys and values themselves are not cloned.
+     *
+     * @return a copy of this map sharing its arrays until modified
+     */
+    public FastHashMap<K,V> fork() {
+        share();
+        return clone();
+    }
+
+    /**
+     * Marks internal arrays as shared before they are cloned.
+     */
+    final void share() {
+        if (!sharedArrays) {
+            sharers = new AtomicInteger(1);
+            sharedArrays = true;
+        }
+    }
+
+    /**
+     * Copies internal arrays shared with a fork before they are modified,
+     * unless all other sharers have already copied them.
+     */
+    void unshare() {
+        sharedArrays = false;
+        AtomicInteger s = sharers;
+        sharers = null;
+        // Others release the arrays only after copying them
+        if (s.get() == 1)
+            return;
+        copyShared();
+        s.decrementAndGet();
+    }
+
+    /**
+     * Replaces internal arrays by their copies.
+     */
+    void copyShared() {
+        if (indexTable != null)
+            indexTable = indexTable.clone();
+        if (keyValueTable != null)
+            keyValueTable = keyValueTable.clone();
+        if (hashTable != null)
+            hashTable = hashTable.clone();
+        if (movedBins != null)
+            movedBins = movedBins.clone();
+    }
+
     /**
      * Returns a shallow copy of this <tt>HashMap</tt> instance:
      * the keys and values themselves are not cloned.
@@ -926,17 +2630,59 @@ public class FastHashMap<K,V>
             that = (FastHashMap<K,V>)super.clone();
         } catch (CloneNotSupportedException e) {
         }
-        if (indexTable != null)
-            that.indexTable = Arrays.copyOf(indexTable, hashLen+threshold);
-        if (keyValueTable != null)
-            that.keyValueTable = Arrays.copyOf(keyValueTable, (threshold<<keyIndexShift)+1);
+        // Arrays shared with a fork are copied on write
+        if (sharedArrays)
+            sharers.incrementAndGet();
+        else {
+            if (indexTable != null)
+                that.indexTable = Arrays.copyOf(indexTable, hashLen+threshold);
+            if (keyValueTable != null)
+                that.keyValueTable = Arrays.copyOf(keyValueTable, (threshold<<keyIndexShift)+1);
+            if (hashTable != null)
+                that.hashTable = hashTable.clone();
+            // Old index is not modified and can be shared
+            if (movedBins != null)
+                that.movedBins = movedBins.clone();
+        }
+        // The copy for the next resize is not shared
+        that.grownKeyValueTable = null;
+        that.grownHashTable = null;
+        that.copiedPositions = 0;
+        that.removalLocations = null;
         that.keySet = null;
         that.values = null;
         that.entrySet = null;
         that.modCount = 0;
+        that.defragmentations = 0;
+        that.resizes = 0;
+        that.resizeNanos = 0L;
+        that.seqLock = null;
+        that.writeStamp = 0L;
+        that.writerThread = null;
         return that;
     }
 
+    /**
+     * Returns an immutable copy of this map with a layout optimized
+     * for reading: exact-sized arrays without deleted positions
+     * and hash chains stored contiguously.  It can be shared
+     * between threads without synchronization.  A copy of
+     * <tt>FastLinkedHashMap</tt> keeps its iteration order.
+     *
+     * @return an immutable copy of this map
+     * @see FastFrozenHashMap
+     */
+    public FastFrozenHashMap<K,V> freeze() {
+        Object[] kv = new Object[size << 1];
+        int n = 0;
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i)) {
+            kv[n++] = keyAt(i);
+            kv[n++] = valueAt(i);
+        }
+        return new FastFrozenHashMap<K,V>(kv, strategy, this instanceof FastLinkedHashMap,
+            stringHashing, sipKey0, sipKey1);
+    }
+
     /**
      * Returns the number of key-value mappings in this map.
      *
@@ -964,6 +2710,9 @@ public class FastHashMap<K,V>
      * key.
      */
     public boolean containsKey(Object key) {
+        // Single-writer/multi-reader mode
+        if (concurrentReader())
+            return concurrentGet(key, NOT_FOUND) != NOT_FOUND;
         return positionOf(key) != NO_INDEX;
     }
 
@@ -979,6 +2728,16 @@ public class FastHashMap<K,V>
         int mSize = m.size();
         if (mSize == 0)
             return;
+        // Single-writer/multi-reader mode
+        if (seqLock != null && writeStamp == 0L) {
+            beginWrite();
+            try {
+                putAll(m);
+            } finally {
+                endWrite();
+            }
+            return;
+        }
         if (mSize > threshold) {
             int newCapacity = hashLen;
             int newThreshold;
@@ -1084,11 +2843,43 @@ public class FastHashMap<K,V>
         return i < firstUnusedIndex ? i : NO_INDEX;
     }
 
+    /**
+     * Element removal by iterators and cursors.  First removals
+     * use removeKey which computes key hash code and walks its
+     * hash chain comparing positions, not keys.  After size/16
+     * of them locations of all elements in indexTable are
+     * collected in one pass over the index, which costs as much
+     * as those removals, and after that every removal takes
+     * constant time.  So removal takes amortized constant time
+     * if key hash codes do, without a back-link per element.
+     *
+     * <p>Locations take one int per array position, as much as
+     * overflow cells of the index.  Only one array is kept by the
+     * map and shared by all its iterators: it is valid while the
+     * map is modified by removeAt only, collected again into the
+     * same array otherwise, and released on resize, rebuild or clear.
+     */
+    abstract class Remover {
+        int removals;
+        final void removeElement(int index) {
+            if (index == NULL_INDEX) {
+                removeKey(null, index);
+                return;
+            }
+            if ((removalLocations == null || locationsModCount != modCount) &&
+                ++removals <= (size >> 4)) {
+                removeKey(keyValueTable[(index<<keyIndexShift)+1], index);
+                return;
+            }
+            removeAt(index, locations());
+        }
+    }
+
     /**
      * Generic iterator over this map.
      * value() method should return the real elements.
      */
-    final class HashIterator<E> implements Iterator<E> {
+    final class HashIterator<E> extends Remover implements Iterator<E> {
         boolean simpleOrder = !(FastHashMap.this instanceof FastLinkedHashMap<?,?>);
         int nextIndex = iterateFirst();
         int lastIndex = NO_INDEX;
@@ -1129,20 +2920,133 @@ public class FastHashMap<K,V>
                 throw new IllegalStateException();
             if (modCount != expectedModCount)
                 throw new ConcurrentModificationException();
-            removeKey(lastIndex == NULL_INDEX ? null :
-                keyValueTable[(lastIndex<<keyIndexShift)+1], lastIndex);
+            removeElement(lastIndex);
             lastIndex = NO_INDEX;
             expectedModCount = modCount;
         }
     }
 
+    /**
+     * Returns a spliterator over a collection view of this map.
+     * <tt>FastLinkedHashMap</tt> gets an iterator-based one
+     * to keep the linked order.
+     */
+    final <E> Spliterator<E> spliterator(Collection<E> view, int iteratorType) {
+        if (this instanceof FastLinkedHashMap)
+            return Spliterators.spliterator(view, iteratorType == VALUE_ITERATOR ?
+                Spliterator.ORDERED : Spliterator.ORDERED | Spliterator.DISTINCT);
+        return new HashSpliterator<E>(iteratorType, 0, -1, 0, 0, false);
+    }
+
+    /**
+     * Spliterator over array positions, it is split into
+     * ranges of positions from NULL_INDEX (or 0 if there is
+     * no null key) to firstUnusedIndex.  If there are no deleted
+     * elements every position in the range is occupied,
+     * so exact sizes of all parts are known.  Otherwise only
+     * the size of the whole map is known, and parts of split
+     * ranges get half of the estimate each.
+     */
+    final class HashSpliterator<E> implements Spliterator<E> {
+        final int iteratorType;
+        int index; // current position
+        int fence; // one past last position, -1 until first use
+        int est; // size estimate
+        int expectedModCount; // For fast-fail
+        boolean sized; // no deleted elements in range
+        boolean root = true; // not split, est is exact
+        HashSpliterator(int iteratorType, int origin, int fence,
+            int est, int expectedModCount, boolean sized) {
+            this.iteratorType = iteratorType;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+            this.sized = sized;
+        }
+        final int getFence() { // initialize on first use
+            int hi = fence;
+            if (hi < 0) {
+                index = nullKeyPresent ? NULL_INDEX : 0;
+                fence = hi = firstUnusedIndex;
+                est = size;
+                expectedModCount = modCount;
+                sized = firstDeletedIndex < 0;
+            }
+            return hi;
+        }
+        @SuppressWarnings("unchecked")
+        final E element(int i) {
+            switch (iteratorType) {
+                case KEY_ITERATOR:
+                    return (E)keyAt(i);
+                case ENTRY_ITERATOR:
+                    return (E)new Entry(i);
+                default: // VALUE_ITERATOR
+                    return (E)valueAt(i);
+            }
+        }
+        public Spliterator<E> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >> 1;
+            if (lo >= mid)
+                return null;
+            index = mid;
+            root = false;
+            int e = sized ? mid - lo : (est >>>= 1);
+            HashSpliterator<E> prefix = new HashSpliterator<E>(iteratorType,
+                lo, mid, e, expectedModCount, sized);
+            prefix.root = false;
+            return prefix;
+        }
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int hi = getFence();
+            while (index < hi) {
+                int i = index++;
+                if (!isEmpty(i)) {
+                    if (root)
+                        est--;
+                    action.accept(element(i));
+                    if (modCount != expectedModCount)
+                        throw new ConcurrentModificationException();
+                    return true;
+                }
+            }
+            return false;
+        }
+        public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int hi = getFence();
+            for (int i = index; i < hi; i++)
+                if (!isEmpty(i)) {
+                    action.accept(element(i));
+                    if (modCount != expectedModCount)
+                        throw new ConcurrentModificationException();
+                }
+            index = hi;
+            est = 0;
+        }
+        public long estimateSize() {
+            int hi = getFence();
+            return sized ? hi - index : est;
+        }
+        public int characteristics() {
+            getFence();
+            return (sized ? Spliterator.SIZED | Spliterator.SUBSIZED :
+                root ? Spliterator.SIZED : 0) |
+                (iteratorType == VALUE_ITERATOR ? 0 : Spliterator.DISTINCT);
+        }
+    }
+
     // Iterator types
     final static int KEY_ITERATOR = 0;
     final static int ENTRY_ITERATOR = 1;
     final static int VALUE_ITERATOR = 2;
 
     // For Server VM with -XX:+DoEscapeAnalysis
-    final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+    final class EntryIterator extends Remover implements Iterator<Map.Entry<K,V>> {
         boolean simpleOrder = !(FastHashMap.this instanceof FastLinkedHashMap<?,?>);
         int nextIndex = iterateFirst();
         int lastIndex = NO_INDEX;
@@ -1169,13 +3073,70 @@ public class FastHashMap<K,V>
                 throw new IllegalStateException();
             if (modCount != expectedModCount)
                 throw new ConcurrentModificationException();
-            removeKey(lastIndex == NULL_INDEX ? null :
-                keyValueTable[(lastIndex<<keyIndexShift)+1], lastIndex);
+            removeElement(lastIndex);
             lastIndex = NO_INDEX;
             expectedModCount = modCount;
         }
     }
 
+    /**
+     * Returns a cursor over the mappings of this map in the same order
+     * as <tt>entrySet().iterator()</tt>, but without creating an entry
+     * object for each mapping.  Like iterators, the cursor is fail-fast.
+     *
+     * @return a cursor positioned before the first mapping
+     */
+    public MapCursor<K,V> cursor() {
+        return new HashCursor();
+    }
+
+    final class HashCursor extends Remover implements MapCursor<K,V> {
+        int nextIndex = iterateFirst();
+        int index = NO_INDEX;
+        int expectedModCount = modCount; // For fast-fail
+        public final boolean advance() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (nextIndex == NO_INDEX || nextIndex >= firstUnusedIndex) {
+                index = nextIndex = NO_INDEX;
+                return false;
+            }
+            index = nextIndex;
+            nextIndex = iterateNext(index);
+            return true;
+        }
+        public final K key() {
+            if (index == NO_INDEX)
+                throw new IllegalStateException();
+            return keyAt(index);
+        }
+        public final V value() {
+            if (index == NO_INDEX)
+                throw new IllegalStateException();
+            return valueAt(index);
+        }
+        public final V setValue(V value) {
+            if (index == NO_INDEX)
+                throw new IllegalStateException();
+            V oldValue = valueAt(index);
+            if (sharedArrays)
+                unshare();
+            keyValueTable[(index<<keyIndexShift)+2] = value;
+            if (grownKeyValueTable != null)
+                mirrorPosition(index);
+            return oldValue;
+        }
+        public final void remove() {
+            if (index == NO_INDEX)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            removeElement(index);
+            index = NO_INDEX;
+            expectedModCount = modCount;
+        }
+    }
+
     private final class KeySet extends AbstractSet<K> {
         public Iterator<K> iterator() {
             return new HashIterator<K>(KEY_ITERATOR);
@@ -1190,7 +3151,26 @@ public class FastHashMap<K,V>
             return containsKey(o);
         }
         public boolean remove(Object o) {
-            return FastHashMap.this.removeKey(o, NO_INDEX) != NOT_FOUND;
+            if (FastHashMap.this.removeKey(o, NO_INDEX) == NOT_FOUND)
+                return false;
+            autoTrim();
+            return true;
+        }
+        public void forEach(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int mc = modCount;
+            for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i)) {
+                action.accept(keyAt(i));
+                if (mc != modCount)
+                    throw new ConcurrentModificationException();
+            }
+        }
+        public boolean removeIf(Predicate<? super K> filter) {
+            return FastHashMap.this.removeIf(filter, KEY_ITERATOR);
+        }
+        public Spliterator<K> spliterator() {
+            return FastHashMap.this.spliterator(this, KEY_ITERATOR);
         }
         public void clear() {
           FastHashMap.this.clear();
@@ -1248,8 +3228,15 @@ public class FastHashMap<K,V>
             if (v1 != v2 && (v1 == null || !v1.equals(v2)))
                 return false;
             removeKey(key, i);
+            autoTrim();
             return true;
         }
+        public boolean removeIf(Predicate<? super Map.Entry<K,V>> filter) {
+            return FastHashMap.this.removeIf(filter, ENTRY_ITERATOR);
+        }
+        public Spliterator<Map.Entry<K,V>> spliterator() {
+            return FastHashMap.this.spliterator(this, ENTRY_ITERATOR);
+        }
         public int size() {
             return size;
         }
@@ -1292,6 +3279,12 @@ public class FastHashMap<K,V>
         public boolean contains(Object o) {
             return containsValue(o);
         }
+        public boolean removeIf(Predicate<? super V> filter) {
+            return FastHashMap.this.removeIf(filter, VALUE_ITERATOR);
+        }
+        public Spliterator<V> spliterator() {
+            return FastHashMap.this.spliterator(this, VALUE_ITERATOR);
+        }
         public void clear() {
             FastHashMap.this.clear();
         }
@@ -1343,6 +3336,7 @@ public class FastHashMap<K,V>
 
         // Read in number of buckets and allocate the bucket array;
         hashLen = s.readInt();
+        hashSeed = ThreadLocalRandom.current().nextInt();
         keyIndexShift = 1;
         keyValueTable = new Object[(threshold<<keyIndexShift)+1];
         indexTable = new int[hashLen+threshold];
@@ -1363,6 +3357,238 @@ public class FastHashMap<K,V>
         }
     }
 
+    /**
+     * Writes a binary snapshot of this map to the channel.
+     * Unlike serialization it saves the hash index as is,
+     * so {@link #readSnapshot readSnapshot} restores the map
+     * without rehashing any key.
+     *
+     * <p>Since stored hashcode bits are reused, keys must have
+     * <tt>hashCode</tt> that does not change between JVM runs
+     * (like <tt>String</tt> or <tt>Integer</tt> have,
+     * but not enums or classes using identity hashcode).
+     * A map with a {@link HashingStrategy} has to be read
+     * with the same strategy.  Decoded keys are new objects,
+     * so maps with {@link HashingStrategy#IDENTITY IDENTITY}
+     * strategy can not be written.
+     *
+     * @param channel destination, for example a <tt>FileChannel</tt>
+     * @param keyCodec encoding of keys
+     * @param valueCodec encoding of values
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedOperationException if keys are compared
+     *         by identity
+     *
+     * @serialData Header ints: magic, version, flags (1 for sets,
+     *             2 for linked maps, 4 for access order),
+     *             <i>capacity</i> (the number of hash
+     *             buckets), threshold, load factor bits, size,
+     *             first unused array position, first deleted position,
+     *             null key flag, hash seed, <tt>String</tt> hashing flag,
+     *             SipHash key (4 ints, high first), length of index block;
+     *             then the index block (ints);
+     *             then the value of null key if it is present;
+     *             then for each array position its key and value,
+     *             or only <tt>null</tt> key if position is free;
+     *             then for linked maps positions of elements
+     *             in iteration order (-1 for <tt>null</tt> key).
+     */
+    public void writeSnapshot(WritableByteChannel channel,
+        SnapshotCodec<? super K> keyCodec, SnapshotCodec<? super V> valueCodec)
+        throws IOException
+    {
+        if (strategy == HashingStrategy.IDENTITY)
+            throw new UnsupportedOperationException(
+                "Identity hashes of keys can not be restored");
+        if (oldIndexTable != null)
+            finishResize();
+        SnapshotIO.Writer out = new SnapshotIO.Writer(channel);
+        int indexLength = indexTable == null ? 0 : hashLen + firstUnusedIndex;
+        out.writeInt(SnapshotIO.MAGIC);
+        out.writeInt(SnapshotIO.VERSION);
+        out.writeInt(snapshotFlags());
+        out.writeInt(hashLen);
+        out.writeInt(threshold);
+        out.writeInt(Float.floatToIntBits(loadFactor));
+        out.writeInt(size);
+        out.writeInt(firstUnusedIndex);
+        out.writeInt(firstDeletedIndex);
+        out.writeInt(nullKeyPresent ? 1 : 0);
+        out.writeInt(hashSeed);
+        out.writeInt(stringHashing ? 1 : 0);
+        out.writeInt((int)(sipKey0 >>> 32));
+        out.writeInt((int)sipKey0);
+        out.writeInt((int)(sipKey1 >>> 32));
+        out.writeInt((int)sipKey1);
+        out.writeInt(indexLength);
+        out.writeInts(indexTable, 0, indexLength);
+        if (nullKeyPresent && keyIndexShift > 0)
+            out.writeElement(valueAt(NULL_INDEX), valueCodec);
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            @SuppressWarnings("unchecked")
+            K key = (K)keyValueTable[(i<<keyIndexShift)+1];
+            out.writeElement(key, keyCodec);
+            if (key != null && keyIndexShift > 0)
+                out.writeElement(valueAt(i), valueCodec);
+        }
+        writeSnapshotOrder(out);
+        out.flush();
+    }
+
+    /**
+     * Returns the flags of a snapshot of this map.
+     */
+    int snapshotFlags() {
+        return keyIndexShift == 0 ? SnapshotIO.KEYS_ONLY : 0;
+    }
+
+    /**
+     * Writes iteration order of a linked map to its snapshot.
+     */
+    void writeSnapshotOrder(SnapshotIO.Writer out) throws IOException {
+    }
+
+    /**
+     * Reads iteration order written by writeSnapshotOrder,
+     * here it is skipped.
+     */
+    void readSnapshotOrder(SnapshotIO.Reader in, boolean written) throws IOException {
+        if (written)
+            for (int n = 0; n < size; n++)
+                in.readInt();
+    }
+
+    /**
+     * Reads a map written by {@link #writeSnapshot writeSnapshot}.
+     * Index and key/value arrays are loaded directly,
+     * no keys are rehashed.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param keyCodec decoding of keys
+     * @param valueCodec decoding of values
+     * @return restored map
+     * @throws IOException if an I/O error occurs
+     * or the data is not a map snapshot
+     */
+    public static <K,V> FastHashMap<K,V> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends K> keyCodec, SnapshotCodec<? extends V> valueCodec)
+        throws IOException
+    {
+        return readSnapshot(channel, keyCodec, valueCodec, true, null);
+    }
+
+    /**
+     * Reads a map with a {@link HashingStrategy} written by
+     * {@link #writeSnapshot writeSnapshot}.  The strategy is not
+     * saved in the snapshot, it must be the one of the written map.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param keyCodec decoding of keys
+     * @param valueCodec decoding of values
+     * @param strategy hashing strategy of the written map
+     * @return restored map
+     * @throws IOException if an I/O error occurs
+     * or the data is not a map snapshot
+     * @throws IllegalArgumentException if the strategy is
+     *         {@link HashingStrategy#IDENTITY IDENTITY}
+     */
+    public static <K,V> FastHashMap<K,V> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends K> keyCodec, SnapshotCodec<? extends V> valueCodec,
+        HashingStrategy<? super K> strategy)
+        throws IOException
+    {
+        return readSnapshot(channel, keyCodec, valueCodec, true,
+            Objects.requireNonNull(strategy));
+    }
+
+    /**
+     * Reads a map or a set (if <tt>withValues</tt> is false) snapshot.
+     */
+    static <K,V> FastHashMap<K,V> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends K> keyCodec, SnapshotCodec<? extends V> valueCodec,
+        boolean withValues, HashingStrategy<? super K> strategy)
+        throws IOException
+    {
+        return readSnapshot(channel, keyCodec, valueCodec, withValues, strategy, false);
+    }
+
+    /**
+     * Reads a snapshot into a <tt>FastLinkedHashMap</tt> if <tt>linked</tt>
+     * is true.  Linked order of the snapshot is skipped otherwise,
+     * a snapshot without it is linked in order of array positions.
+     */
+    static <K,V> FastHashMap<K,V> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends K> keyCodec, SnapshotCodec<? extends V> valueCodec,
+        boolean withValues, HashingStrategy<? super K> strategy, boolean linked)
+        throws IOException
+    {
+        if (strategy == HashingStrategy.IDENTITY)
+            throw new IllegalArgumentException(
+                "Identity hashes of decoded keys do not match the snapshot");
+        SnapshotIO.Reader in = new SnapshotIO.Reader(channel);
+        if (in.readInt() != SnapshotIO.MAGIC)
+            throw new StreamCorruptedException("Not a snapshot");
+        int version = in.readInt();
+        if (version != SnapshotIO.VERSION)
+            throw new StreamCorruptedException("Unsupported snapshot version " + version);
+        int flags = in.readInt();
+        if ((flags & SnapshotIO.KEYS_ONLY) != (withValues ? 0 : SnapshotIO.KEYS_ONLY))
+            throw new StreamCorruptedException(withValues ?
+                "Set snapshot can not be read as a map" :
+                "Map snapshot can not be read as a set");
+        int hashLen = in.readInt();
+        int threshold = in.readInt();
+        float loadFactor = Float.intBitsToFloat(in.readInt());
+        int size = in.readInt();
+        int firstUnusedIndex = in.readInt();
+        int firstDeletedIndex = in.readInt();
+        boolean nullKeyPresent = in.readInt() != 0;
+        int hashSeed = in.readInt();
+        boolean stringHashing = in.readInt() != 0;
+        long sipKey0 = (long)in.readInt() << 32 | (in.readInt() & 0xFFFFFFFFL);
+        long sipKey1 = (long)in.readInt() << 32 | (in.readInt() & 0xFFFFFFFFL);
+        int indexLength = in.readInt();
+        if (hashLen < DEFAULT_INITIAL_CAPACITY || hashLen > MAXIMUM_CAPACITY ||
+            (hashLen & (hashLen-1)) != 0 || !(loadFactor > 0) ||
+            threshold != (int)(hashLen * loadFactor) ||
+            firstUnusedIndex < 0 || firstUnusedIndex > threshold ||
+            firstDeletedIndex < -1 || firstDeletedIndex >= firstUnusedIndex ||
+            size < 0 || size > firstUnusedIndex + 1 ||
+            (indexLength != 0 && indexLength != hashLen + firstUnusedIndex) ||
+            (flags & ~(SnapshotIO.KEYS_ONLY | SnapshotIO.LINKED |
+                SnapshotIO.ACCESS_ORDER)) != 0)
+            throw new StreamCorruptedException("Invalid snapshot header");
+        FastHashMap<K,V> map = linked ?
+            new FastLinkedHashMap<K,V>(hashLen, loadFactor,
+                (flags & SnapshotIO.ACCESS_ORDER) != 0, withValues, strategy) :
+            new FastHashMap<K,V>(hashLen, loadFactor, withValues, strategy);
+        map.size = size;
+        map.firstUnusedIndex = firstUnusedIndex;
+        map.firstDeletedIndex = firstDeletedIndex;
+        map.nullKeyPresent = nullKeyPresent;
+        map.hashSeed = hashSeed;
+        map.stringHashing = stringHashing;
+        map.sipKey0 = sipKey0;
+        map.sipKey1 = sipKey1;
+        int shift = map.keyIndexShift;
+        map.keyValueTable = new Object[(threshold<<shift)+1];
+        if (indexLength > 0) {
+            map.indexTable = new int[hashLen+threshold];
+            in.readInts(map.indexTable, 0, indexLength);
+        }
+        if (nullKeyPresent && shift > 0)
+            map.keyValueTable[0] = in.readElement(valueCodec);
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            Object key = in.readElement(keyCodec);
+            if (key == null) continue;
+            map.keyValueTable[(i<<shift)+1] = key;
+            if (shift > 0)
+                map.keyValueTable[(i<<shift)+2] = in.readElement(valueCodec);
+        }
+        map.readSnapshotOrder(in, (flags & SnapshotIO.LINKED) != 0);
+        return map;
+    }
+
     final class Entry implements Map.Entry<K,V> {
         final int index;
         final K key;
@@ -1392,7 +3618,11 @@ public class FastHashMap<K,V>
                 keyValueTable[(index<<1)+1] == key) {
                 @SuppressWarnings("unchecked")
                 V oldValue = (V)keyValueTable[(index<<1)+2];
+                if (sharedArrays)
+                    unshare();
                 keyValueTable[(index<<1)+2] = value = newValue;
+                if (grownKeyValueTable != null)
+                    mirrorPosition(index);
                 return oldValue;
             }
             V oldValue = value;
@@ -1420,6 +3650,93 @@ public class FastHashMap<K,V>
         }
     }
 
+    /**
+     * Entry reading and writing the mapping at a position which
+     * can be moved, so one instance serves a whole traversal.
+     */
+    final class PositionEntry implements Map.Entry<K,V> {
+        int index;
+        public final K getKey() {
+            return keyAt(index);
+        }
+        public final V getValue() {
+            return valueAt(index);
+        }
+        public final V setValue(V newValue) {
+            V oldValue = valueAt(index);
+            if (sharedArrays)
+                unshare();
+            keyValueTable[(index<<keyIndexShift)+2] = newValue;
+            if (grownKeyValueTable != null)
+                mirrorPosition(index);
+            return oldValue;
+        }
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> that = (Map.Entry<?,?>)o;
+            return Objects.equals(getKey(), that.getKey()) &&
+                Objects.equals(getValue(), that.getValue());
+        }
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Returns statistics of the hash table structure: chain length
+     * histogram, kinds of chain heads, holes left by removals and
+     * counters of defragmentations and resizes since the map was
+     * created (or cloned, or deserialized).  It walks the whole index
+     * so it takes time proportional to capacity.  Incremental resize
+     * in progress is finished first.
+     *
+     * @return table statistics
+     */
+    public MapStats stats() {
+        if (oldIndexTable != null)
+            finishResize();
+        int[] chainLengths = new int[1];
+        int nextHeads = 0, overflowHeads = 0, endHeads = 0, deleted = 0;
+        if (indexTable != null) {
+            for (int i = 0; i < hashLen; i++) {
+                int index = indexTable[i];
+                int control = index & CONTROL_BITS;
+                int length = 0;
+                if (control == CONTROL_NEXT)
+                    nextHeads++;
+                else if (control == CONTROL_OVERFLOW)
+                    overflowHeads++;
+                else if (control == CONTROL_END)
+                    endHeads++;
+                while (control != CONTROL_EMPTY) { // Empty or previous bin
+                    length++;
+                    if (control == CONTROL_OVERFLOW)
+                        index = indexTable[hashLen + (index & (hashLen-1))];
+                    else if (control == CONTROL_NEXT)
+                        index = indexTable[(i+1) & (hashLen-1)];
+                    else // CONTROL_END
+                        break;
+                    control = index & CONTROL_BITS;
+                    if (control == CONTROL_EMPTY) // After NEXT
+                        length++;
+                }
+                if (length >= chainLengths.length)
+                    chainLengths = Arrays.copyOf(chainLengths, length+1);
+                chainLengths[length]++;
+            }
+            for (int i = firstDeletedIndex; i >= 0; i = indexTable[hashLen + i])
+                deleted++;
+        } else
+            chainLengths[0] = hashLen;
+        return new MapStats(hashLen, size, threshold, firstUnusedIndex,
+            deleted, chainLengths, nextHeads, overflowHeads, endHeads,
+            defragmentations, resizes, resizeNanos, stringHashing);
+    }
+
     // These methods are used when serializing HashSets
     int   capacity()     { return hashLen; }
     float loadFactor()   { return loadFactor; }
@@ -1433,7 +3750,19 @@ public class FastHashMap<K,V>
     /**
      * Internal self-test.
     void validate(String s) {
-        if (indexTable == null) return;
+        // Check the copy for the next incremental resize
+        if (grownKeyValueTable != null) {
+            if (grownKeyValueTable[0] != keyValueTable[0])
+                throw new RuntimeException("Null key value is not mirrored. "+s);
+            for (int i = 0; i < copiedPositions; i++) {
+                int j = (i<<keyIndexShift)+1;
+                if (grownKeyValueTable[j] != keyValueTable[j] ||
+                    (keyIndexShift > 0 && grownKeyValueTable[j+1] != keyValueTable[j+1]) ||
+                    (grownHashTable != null && grownHashTable[i] != hashTable[i]))
+                    throw new RuntimeException("Position "+i+" is not mirrored. "+s);
+            }
+        }
+        if (indexTable == null || oldIndexTable != null) return;
         // Check allocation
         if (threshold != (int)(hashLen*loadFactor))
             throw new RuntimeException("threshold ("+threshold+
@@ -1466,7 +3795,7 @@ public class FastHashMap<K,V>
             if (key == null)
                 throw new RuntimeException("Null (empty) key in hash bin "+i+". "+s);
             if (key != this) {
-                int hc = hash(key.hashCode());
+                int hc = hash(key);
                 if ((hc & (hashLen-1)) != i)
                     throw new RuntimeException("Key "+key+" is in wrong hash basket ("+
                         i+") must be "+(hc & (hashLen-1))+". "+s);
@@ -1484,7 +3813,7 @@ public class FastHashMap<K,V>
                     throw new RuntimeException("Next for "+i+" has wrong control bits. "+s);
                 key = keyValueTable[((index1 & (hashLen-1))<<keyIndexShift)+1];
                 if (key != this) {
-                    int hc = hash(key.hashCode());
+                    int hc = hash(key);
                     if ((hc & (hashLen-1)) != i)
                         throw new RuntimeException("Next key "+key+" is in wrong hash basket ("+
                             i+") must be "+(hc & (hashLen-1))+". "+s);
@@ -1503,7 +3832,7 @@ public class FastHashMap<K,V>
                 cur = index & (hashLen-1);
                 key = keyValueTable[(cur<<keyIndexShift)+1];
                 if (key != this) {
-                    int hc = hash(key.hashCode());
+                    int hc = hash(key);
                     if ((hc & (hashLen-1)) != i)
                         throw new RuntimeException("Overflow key "+key+" is in wrong hash basket ("+
                             i+") must be "+(hc & (hashLen-1))+". "+s);
@@ -1529,6 +3858,16 @@ public class FastHashMap<K,V>
         if (numberOfDeletedIndices != firstUnusedIndex - size + (nullKeyPresent ? 1 : 0))
             throw new RuntimeException("Deleted # ("+numberOfDeletedIndices+
                 ") must be "+(firstUnusedIndex - size)+", "+s);
+        if (hashTable != null) {
+            if (hashTable.length != threshold)
+                throw new RuntimeException("hashTable.length ("+hashTable.length+
+                    ") must be "+threshold+". "+s);
+            for (i = 0; i < firstUnusedIndex; i++) {
+                Object key = keyValueTable[(i<<keyIndexShift)+1];
+                if (key != null && key != this && hashTable[i] != hash(key))
+                    throw new RuntimeException("Wrong full hash of "+key+". "+s);
+            }
+        }
     }
      */
 
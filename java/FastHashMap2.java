@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 import java.io.*;
 
 public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
@@ -17,6 +19,11 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
     transient private Entry<K, V>[] overflowTable;
 
     transient int size = 0;
+
+    /**
+     * The number of times this map has been structurally modified.
+     */
+    transient int modCount;
     final float loadFactor;
     int threshold = 0;
 
@@ -32,15 +39,22 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
      * HashMap uses power-of-two length hash tables, that otherwise encounter
      * collisions for hashCodes that do not differ in lower bits. Note: Null
      * keys always map to hash 0, thus index 0.
+     *
+     * The random per-instance seed makes hashCodes colliding in the lower
+     * bits impossible to precompute, the mixer is MurmurHash3 finalizer.
      */
-    final static int hash(int h) {
-        // This function ensures that hashCodes that differ only by
-        // constant multiples at each bit position have a bounded
-        // number of collisions (approximately 8 at default load factor).
-        h ^= (h >>> 20) ^ (h >>> 12);
-        return h ^ (h >>> 7) ^ (h >>> 4);
+    final int hash(int h) {
+        h ^= hashSeed;
+        h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+        h = (h ^ (h >>> 13)) * 0xC2B2AE35;
+        return h ^ (h >>> 16);
     }
 
+    /**
+     * Random seed of the supplemental hash function.
+     */
+    transient private int hashSeed = ThreadLocalRandom.current().nextInt();
+
     transient private boolean nullKeyPresent = false;
     transient private V nullValue;
 
@@ -133,11 +147,20 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
             if (!nullKeyPresent) {
                 nullKeyPresent = true;
                 size++;
+                modCount++;
             }
             nullValue = value;
             return oldNullValue;
         }
 
+        return put(key, hash(key.hashCode()), value, true);
+    }
+
+    /**
+     * Put with already computed hashcode of not null key,
+     * without comparing keys if searchForExistingKey is false.
+     */
+    private V put(K key, int hc, V value, boolean searchForExistingKey) {
         // ... also lazy initialise key/value/index arrays there
         // ToDo: maybe we can somehow call resize() only when new key is added?
         if (size >= threshold)
@@ -149,7 +172,6 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
 
         //
         int mask = indices.length - 1;
-        int hc = hash(key.hashCode());
         int hcMask = ~mask & AVAILABLE_BITS;
         int i0 = hc & mask, i = i0;
         int hcBits = hc & hcMask;
@@ -169,6 +191,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
             kv[(i << 1) + 1] = value;
             indices[i] = hcBits | i0;
             size++;
+            modCount++;
             return null;
         }
 
@@ -180,12 +203,13 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
             kv[(i << 1) + 1] = value;
             indices[i] = hcBits | i0;
             size++;
+            modCount++;
             return null;
         }
 
         // OK, now we know that this hash bin is not empty => search
         while (true) {
-            if ((ci & hcMask) == hcBits) {
+            if (searchForExistingKey && (ci & hcMask) == hcBits) {
                 key1 = kv[i << 1];
                 if (key1 == key || key.equals(key1)) {
                     @SuppressWarnings("unchecked")
@@ -207,6 +231,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
         kv[newIndex << 1] = key;
         kv[(newIndex << 1) + 1] = value;
         size++;
+        modCount++;
         return null;
 
         // ToDo: overflowTable
@@ -358,16 +383,199 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
         }
     }
 
+    /**
+     * Index of null key.
+     */
+    private final static int NULL_INDEX = -1;
+
+    /**
+     * Index of not found key.
+     */
+    private final static int NO_INDEX = -2;
+
+    /**
+     * Returns the cell of key if it is present.
+     *
+     * @param key key
+     * @param hc improved hashcode of the key
+     * @return cell of key, NULL_INDEX for null key or NO_INDEX
+     */
+    private int positionOf(Object key, int hc) {
+        if (key == null)
+            return nullKeyPresent ? NULL_INDEX : NO_INDEX;
+        Object[] kv = keyValueTable;
+        if (kv == null)
+            return NO_INDEX;
+        int[] indices = indexTable;
+        int mask = indices.length - 1;
+        int hcMask = AVAILABLE_BITS & ~mask;
+        int i0 = hc & mask, i = i0;
+        Object key1 = kv[i << 1];
+        if (key == key1)
+            return i;
+        if (key1 == null)
+            return NO_INDEX;
+        int ci = indices[i];
+        if ((ci & FOREIGN) != 0)
+            return NO_INDEX;
+        int hcBits = hc & hcMask;
+        if ((ci & hcMask) == hcBits && key.equals(key1))
+            return i;
+        while ((i = ci & mask) != i0) {
+            ci = indices[i];
+            if ((ci & hcMask) == hcBits) {
+                key1 = kv[i << 1];
+                if (key == key1 || key.equals(key1))
+                    return i;
+            }
+        }
+        // ToDo: overflowTable
+        return NO_INDEX;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int i) {
+        return i == NULL_INDEX ? nullValue : (V) keyValueTable[(i << 1) + 1];
+    }
+
+    private void setValueAt(int i, V value) {
+        if (i == NULL_INDEX)
+            nullValue = value;
+        else
+            keyValueTable[(i << 1) + 1] = value;
+    }
+
+    /**
+     * Adds a key which is known to be absent, without comparing keys.
+     */
+    private void insert(K key, int hc, V value) {
+        if (key == null)
+            put(null, value);
+        else
+            put(key, hc, value, false);
+    }
+
+    public V getOrDefault(Object key, V defaultValue) {
+        return get(key, defaultValue);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        int hc = key == null ? 0 : hash(key.hashCode());
+        int i = positionOf(key, hc);
+        if (i == NO_INDEX) {
+            insert(key, hc, value);
+            return null;
+        }
+        V oldValue = valueAt(i);
+        if (oldValue == null)
+            setValueAt(i, value);
+        return oldValue;
+    }
+
+    public V computeIfAbsent(K key,
+            Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new NullPointerException();
+        int hc = key == null ? 0 : hash(key.hashCode());
+        int i = positionOf(key, hc);
+        if (i != NO_INDEX) {
+            V oldValue = valueAt(i);
+            if (oldValue != null)
+                return oldValue;
+        }
+        int mc = modCount;
+        V value = mappingFunction.apply(key);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (value != null) {
+            if (i != NO_INDEX)
+                setValueAt(i, value);
+            else
+                insert(key, hc, value);
+        }
+        return value;
+    }
+
+    public V computeIfPresent(K key,
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        int i = positionOf(key, key == null ? 0 : hash(key.hashCode()));
+        if (i == NO_INDEX)
+            return null;
+        V oldValue = valueAt(i);
+        if (oldValue == null)
+            return null;
+        int mc = modCount;
+        V value = remappingFunction.apply(key, oldValue);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (value == null)
+            removeKey(key, null);
+        else
+            setValueAt(i, value);
+        return value;
+    }
+
+    public V compute(K key,
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        int hc = key == null ? 0 : hash(key.hashCode());
+        int i = positionOf(key, hc);
+        V oldValue = i == NO_INDEX ? null : valueAt(i);
+        int mc = modCount;
+        V value = remappingFunction.apply(key, oldValue);
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+        if (value == null) {
+            if (i != NO_INDEX)
+                removeKey(key, null);
+        } else if (i != NO_INDEX)
+            setValueAt(i, value);
+        else
+            insert(key, hc, value);
+        return value;
+    }
+
+    public V merge(K key, V value,
+            BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null)
+            throw new NullPointerException();
+        int hc = key == null ? 0 : hash(key.hashCode());
+        int i = positionOf(key, hc);
+        if (i == NO_INDEX) {
+            insert(key, hc, value);
+            return value;
+        }
+        V oldValue = valueAt(i);
+        V newValue;
+        if (oldValue == null)
+            newValue = value;
+        else {
+            int mc = modCount;
+            newValue = remappingFunction.apply(oldValue, value);
+            if (mc != modCount)
+                throw new ConcurrentModificationException();
+        }
+        if (newValue == null)
+            removeKey(key, null);
+        else
+            setValueAt(i, newValue);
+        return newValue;
+    }
+
     public V remove(Object key) {
-        return remove(key, null);
+        return removeKey(key, null);
     }
 
-    private final V remove(Object key, V notFoundValue) {
+    private final V removeKey(Object key, V notFoundValue) {
         // null key is a special case
         if (key == null) {
             if (nullKeyPresent) {
                 V oldValue = nullValue;
                 size--;
+                modCount++;
                 nullKeyPresent = false;
                 nullValue = null;
                 return oldValue;
@@ -414,6 +622,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
                 indices[i] = indices[next] & ~FOREIGN;
             }
             size--;
+            modCount++;
             return oldValue;
         }
 
@@ -429,6 +638,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
                 kv[(next << 1) + 1] = null;
                 indices[i] = (ci & ~mask) | next2;
                 size--;
+                modCount++;
                 return oldValue;
             }
 
@@ -452,6 +662,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
      */
     public void clear() {
         size = 0;
+        modCount++;
         nullKeyPresent = false;
         nullValue = null;
         threshold = 0;
@@ -631,6 +842,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
                 nullKeyPresent = false;
                 nullValue = null;
                 size--;
+                modCount++;
             } else {
                 FastHashMap2.this.remove(keyValueTable[lastReturnedIndex]);
             }
@@ -640,6 +852,97 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
         }
     }
 
+    /**
+     * Returns a cursor over the mappings of this map, unlike
+     * <tt>entrySet().iterator()</tt> it does not create
+     * an entry object for each mapping.
+     *
+     * @return a cursor positioned before the first mapping
+     */
+    public MapCursor<K, V> cursor() {
+        return new HashCursor();
+    }
+
+    final class HashCursor implements MapCursor<K, V> {
+        // Key index in keyValueTable, -2 for null key, -4 before first
+        int position = -4;
+        boolean current = false;
+        int expectedModCount = modCount;
+
+        public final boolean advance() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            int i = position;
+            if (i == -4) {
+                if (nullKeyPresent) {
+                    position = -2;
+                    return current = true;
+                }
+                i = 0;
+            } else
+                i += 2;
+            Object[] kv = keyValueTable;
+            if (kv != null) {
+                int len = kv.length;
+                for (; i < len; i += 2)
+                    if (kv[i] != null) {
+                        position = i;
+                        return current = true;
+                    }
+            }
+            position = i;
+            return current = false;
+        }
+
+        public final K key() {
+            if (!current)
+                throw new IllegalStateException();
+            @SuppressWarnings("unchecked")
+            K key = position < 0 ? null : (K) keyValueTable[position];
+            return key;
+        }
+
+        public final V value() {
+            if (!current)
+                throw new IllegalStateException();
+            @SuppressWarnings("unchecked")
+            V value = position < 0 ? nullValue
+                    : (V) keyValueTable[position + 1];
+            return value;
+        }
+
+        public final V setValue(V value) {
+            V oldValue = value();
+            if (position < 0)
+                nullValue = value;
+            else
+                keyValueTable[position + 1] = value;
+            return oldValue;
+        }
+
+        public final void remove() {
+            if (!current)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            int p = position;
+            if (p < 0) {
+                removeKey(null, null);
+            } else {
+                int i = p >> 1;
+                int ci = indexTable[i];
+                int next = ci & (indexTable.length - 1);
+                removeKey(keyValueTable[p], null);
+                // Next element of the hash bin is moved to the
+                // removed head, check it unless it was already seen
+                if ((ci & FOREIGN) == 0 && next > i)
+                    position = p - 2;
+            }
+            current = false;
+            expectedModCount = modCount;
+        }
+    }
+
     final class KeyIterator extends HashIterator<K> {
         public final K next() {
             return super.nextKey();
@@ -786,7 +1089,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
 
         @SuppressWarnings("unchecked")
         public boolean remove(Object o) {
-            return FastHashMap2.this.remove(o, (V) DUMMY_VALUE) != DUMMY_VALUE;
+            return FastHashMap2.this.removeKey(o, (V) DUMMY_VALUE) != DUMMY_VALUE;
         }
 
         public void clear() {
@@ -892,6 +1195,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
 
         // Read in number of buckets
         int numBuckets = s.readInt();
+        hashSeed = ThreadLocalRandom.current().nextInt();
 
         // ToDo: init or resize...
         if (numBuckets > 0) {
@@ -927,6 +1231,7 @@ public class FastHashMap2<K, V> implements Cloneable, Serializable, Map<K, V> {
                 if (!nullKeyPresent) {
                     nullKeyPresent = true;
                     size++;
+                    modCount++;
                 }
                 nullValue = fm.nullValue;
             }
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.function.*;
+import java.nio.channels.*;
 import java.io.*;
 
 /**
@@ -66,7 +68,15 @@ public class FastHashSet<E>
 {
     static final long serialVersionUID = -5024744406713321676L;
 
-    private transient FastHashMap<E,Object> map;
+    transient FastHashMap<E,Object> map;
+
+    /**
+     * Hash code and equality of elements,
+     * <tt>null</tt> if their own methods are used.
+     *
+     * @serial
+     */
+    private HashingStrategy<? super E> strategy;
 
     /**
      * Constructs a new, empty set; the backing <tt>HashMap</tt> instance has
@@ -118,6 +128,39 @@ public class FastHashSet<E>
         map = new FastHashMap<E,Object>(initialCapacity, false);
     }
 
+    /**
+     * Constructs a new, empty set which hashes and compares elements
+     * with the specified strategy instead of their own methods;
+     * the backing <tt>HashMap</tt> instance has default initial
+     * capacity and load factor.
+     *
+     * @param      strategy   hashing strategy of elements
+     * @throws     NullPointerException if strategy is null
+     */
+    public FastHashSet(HashingStrategy<? super E> strategy) {
+        this(FastHashMap.DEFAULT_INITIAL_CAPACITY,
+             FastHashMap.DEFAULT_LOAD_FACTOR, strategy);
+    }
+
+    /**
+     * Constructs a new, empty set which hashes and compares elements
+     * with the specified strategy instead of their own methods;
+     * the backing <tt>HashMap</tt> instance has the specified
+     * initial capacity and load factor.
+     *
+     * @param      initialCapacity   the initial capacity of the hash map
+     * @param      loadFactor        the load factor of the hash map
+     * @param      strategy          hashing strategy of elements
+     * @throws     IllegalArgumentException if the initial capacity is less
+     *             than zero, or if the load factor is nonpositive
+     * @throws     NullPointerException if strategy is null
+     */
+    public FastHashSet(int initialCapacity, float loadFactor,
+        HashingStrategy<? super E> strategy) {
+        this.strategy = Objects.requireNonNull(strategy);
+        map = new FastHashMap<E,Object>(initialCapacity, loadFactor, false, strategy);
+    }
+
     /**
      * Constructs a new, empty linked hash set.  (This package private
      * constructor is only used by LinkedHashSet.) The backing
@@ -217,6 +260,49 @@ public class FastHashSet<E>
         map.clear();
     }
 
+    /**
+     * Reduces the capacity of this set to the smallest one
+     * that holds all its elements, see {@link FastHashMap#trimToSize}.
+     */
+    public void trimToSize() {
+        map.trimToSize();
+    }
+
+    /**
+     * Performs the given action for each element of this set
+     * without creating an iterator.
+     *
+     * @param action the action to be performed for each element
+     */
+    public void forEach(Consumer<? super E> action) {
+        map.keySet().forEach(action);
+    }
+
+    /**
+     * Removes all of the elements of this set that satisfy the given
+     * predicate.  The internal index is rebuilt once after all
+     * matching elements are removed.
+     *
+     * @param filter a predicate which returns <tt>true</tt>
+     *        for elements to be removed
+     * @return <tt>true</tt> if any elements were removed
+     */
+    public boolean removeIf(Predicate<? super E> filter) {
+        return map.keySet().removeIf(filter);
+    }
+
+    /**
+     * Creates a spliterator over the elements in this set.
+     * Unless this is a <tt>FastLinkedHashSet</tt> it is split
+     * by ranges of the internal array, so that parallel
+     * streams scale well.
+     *
+     * @return a spliterator over the elements in this set
+     */
+    public Spliterator<E> spliterator() {
+        return map.keySet().spliterator();
+    }
+
     /**
      * Returns a shallow copy of this <tt>HashSet</tt> instance:
      * the elements themselves are not cloned.
@@ -234,6 +320,84 @@ public class FastHashSet<E>
         return newSet;
     }
 
+    /**
+     * Returns a copy of this set which shares internal arrays
+     * with it until either of them is modified, deferring the copy
+     * of <tt>clone</tt> to that modification,
+     * see {@link FastHashMap#fork FastHashMap.fork}.
+     *
+     * @return a copy of this set sharing its arrays until modified
+     */
+    public FastHashSet<E> fork() {
+        map.share();
+        return clone();
+    }
+
+    /**
+     * Returns statistics of the backing hash table,
+     * see {@link FastHashMap#stats FastHashMap.stats}.
+     *
+     * @return table statistics
+     */
+    public MapStats stats() {
+        return map.stats();
+    }
+
+    /**
+     * Writes a binary snapshot of this set to the channel,
+     * see {@link FastHashMap#writeSnapshot FastHashMap.writeSnapshot}.
+     *
+     * @param channel destination, for example a <tt>FileChannel</tt>
+     * @param codec encoding of elements
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeSnapshot(WritableByteChannel channel,
+        SnapshotCodec<? super E> codec) throws IOException
+    {
+        map.writeSnapshot(channel, codec, null);
+    }
+
+    /**
+     * Reads a set written by {@link #writeSnapshot writeSnapshot}
+     * without rehashing its elements.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param codec decoding of elements
+     * @return restored set
+     * @throws IOException if an I/O error occurs
+     * or the data is not a set snapshot
+     */
+    public static <E> FastHashSet<E> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends E> codec) throws IOException
+    {
+        FastHashSet<E> set = new FastHashSet<E>();
+        set.map = FastHashMap.<E,Object>readSnapshot(channel, codec, null, false, null);
+        return set;
+    }
+
+    /**
+     * Reads a set with a {@link HashingStrategy} written by
+     * {@link #writeSnapshot writeSnapshot}, the strategy
+     * must be the one of the written set.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param codec decoding of elements
+     * @param strategy hashing strategy of the written set
+     * @return restored set
+     * @throws IOException if an I/O error occurs
+     * or the data is not a set snapshot
+     * @throws IllegalArgumentException if the strategy is
+     *         {@link HashingStrategy#IDENTITY IDENTITY}
+     */
+    public static <E> FastHashSet<E> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends E> codec, HashingStrategy<? super E> strategy)
+        throws IOException
+    {
+        FastHashSet<E> set = new FastHashSet<E>(strategy);
+        set.map = FastHashMap.<E,Object>readSnapshot(channel, codec, null, false, strategy);
+        return set;
+    }
+
     /**
      * Save the state of this <tt>HashSet</tt> instance to a stream (that is,
      * serialize it).
@@ -275,7 +439,7 @@ public class FastHashSet<E>
         float loadFactor = s.readFloat();
         map =  this instanceof FastLinkedHashSet<?> ?
                new FastLinkedHashMap<E,Object>(capacity, loadFactor, false, false) :
-               new FastHashMap<E,Object>(capacity, loadFactor, false);
+               new FastHashMap<E,Object>(capacity, loadFactor, false, strategy);
 
         // Read in size
         int size = s.readInt();
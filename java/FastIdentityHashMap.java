@@ -0,0 +1,133 @@
+import java.util.*;
+
+/**
+ * This class implements the <tt>Map</tt> interface with a hash table,
+ * using reference-equality in place of object-equality when comparing
+ * keys.  In other words, two keys <tt>k1</tt> and <tt>k2</tt> are
+ * considered equal if and only if <tt>(k1==k2)</tt>, and key hash codes
+ * are computed by <tt>System.identityHashCode</tt>, so <tt>equals</tt>
+ * and <tt>hashCode</tt> of keys are never called.
+ *
+ * <p><b>This class is <i>not</i> a general-purpose <tt>Map</tt>
+ * implementation!</b>  It is designed for the rare cases where
+ * reference-equality semantics are required: object graph
+ * traversal, serialization and cycle detection keeping
+ * the set of visited objects.  Like <tt>IdentityHashMap</tt>
+ * it compares values by reference in {@link #containsValue containsValue}
+ * and hashes them by identity in {@link #hashCode hashCode}.
+ *
+ * <p>Unlike <tt>java.util.IdentityHashMap</tt> it keeps keys and
+ * values in one array in insertion order and the hash index in
+ * an int array, so iteration is a sequential array read.
+ * Otherwise it behaves like {@link FastHashMap} with the
+ * {@link HashingStrategy#IDENTITY IDENTITY} hashing strategy
+ * and permits <tt>null</tt> keys and values.  Its binary snapshot
+ * can not be written: decoded keys would be new objects with other
+ * identity hash codes.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @author  Alex Yakovlev
+ * @see     IdentityHashMap
+ * @see     FastHashMap
+ */
+public class FastIdentityHashMap<K,V> extends FastHashMap<K,V> {
+
+    private static final long serialVersionUID = -4187635221957120478L;
+
+    /**
+     * Constructs an empty map with the default initial capacity
+     * and load factor (0.75).
+     */
+    public FastIdentityHashMap() {
+        super(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, HashingStrategy.IDENTITY);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity
+     * and the default load factor (0.75).
+     *
+     * @param  initialCapacity the initial capacity
+     * @throws IllegalArgumentException if the initial capacity is negative
+     */
+    public FastIdentityHashMap(int initialCapacity) {
+        super(initialCapacity, DEFAULT_LOAD_FACTOR, HashingStrategy.IDENTITY);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial capacity
+     * and load factor.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is greater than one or is too low
+     */
+    public FastIdentityHashMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor, HashingStrategy.IDENTITY);
+    }
+
+    /**
+     * Constructs a new map containing the key-value mappings
+     * in the specified map.
+     *
+     * @param  m the map whose mappings are to be placed into this map
+     * @throws NullPointerException if the specified map is null
+     */
+    public FastIdentityHashMap(Map<? extends K, ? extends V> m) {
+        this(Math.max((int) (m.size() / DEFAULT_LOAD_FACTOR) + 1,
+                      DEFAULT_INITIAL_CAPACITY));
+        putAll(m);
+    }
+
+    /**
+     * Tests whether the specified object reference is a value in this map.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map maps one or more keys to the
+     *         specified object reference
+     */
+    public boolean containsValue(Object value) {
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i))
+            if (valueAt(i) == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the hash code value for this map: the sum of
+     * <tt>System.identityHashCode(key) ^ System.identityHashCode(value)</tt>
+     * of all mappings, as <tt>IdentityHashMap</tt> computes it.
+     *
+     * @return the hash code value for this map
+     */
+    public int hashCode() {
+        int h = 0;
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i))
+            h += System.identityHashCode(keyAt(i)) ^
+                System.identityHashCode(valueAt(i));
+        return h;
+    }
+
+    /**
+     * Returns a copy of this map which shares internal arrays
+     * with it until either of them is modified.
+     *
+     * @return a copy of this map sharing its arrays until modified
+     * @see FastHashMap#fork
+     */
+    public FastIdentityHashMap<K,V> fork() {
+        return (FastIdentityHashMap<K,V>)super.fork();
+    }
+
+    /**
+     * Returns a shallow copy of this map:
+     * the keys and values themselves are not cloned.
+     *
+     * @return a shallow copy of this map
+     */
+    public FastIdentityHashMap<K,V> clone() {
+        return (FastIdentityHashMap<K,V>)super.clone();
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * Hash map with primitive <tt>int</tt> keys and <tt>int</tt> values.
+ *
+ * <p>Keys and values are stored in two <tt>int[]</tt> arrays,
+ * the hash index is the same as in {@link FastHashMap}.
+ * No objects are allocated per mapping.
+ *
+ * <p>Since there is no <tt>null</tt> for primitive values,
+ * methods that return a value return <tt>0</tt> when there is
+ * no mapping for the key; use {@link #containsKey containsKey}
+ * or {@link #get(int,int) get(key, defaultValue)} to distinguish
+ * these cases.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public class FastIntIntHashMap
+    extends FastIntKeyHashMap
+{
+    private static final long serialVersionUID = -4630158437416921703L;
+
+    /**
+     * Stored values, indexed by slot.
+     */
+    transient int[] valueTable;
+
+    /**
+     * Constructs an empty map with the default initial capacity
+     * and the default load factor (0.75).
+     */
+    public FastIntIntHashMap() {
+        this(FastHashMap.DEFAULT_INITIAL_CAPACITY, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and the default load factor (0.75).
+     *
+     * @param  initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public FastIntIntHashMap(int initialCapacity) {
+        this(initialCapacity, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and load factor.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is greater than one or is too low
+     */
+    public FastIntIntHashMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor);
+    }
+
+    void resizeValues(int length) {
+        if (valueTable != null)
+            valueTable = Arrays.copyOf(valueTable, length);
+        else
+            valueTable = new int[length];
+    }
+
+    void moveValue(int newSlot, int oldSlot) {
+        valueTable[newSlot] = valueTable[oldSlot];
+    }
+
+    void clearValues(int length) {
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>0</tt> if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value or <tt>0</tt>
+     */
+    public int get(int key) {
+        return get(key, 0);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>defaultValue</tt> if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @param defaultValue the value to return if key is not found
+     * @return the value or <tt>defaultValue</tt>
+     */
+    public int get(int key, int defaultValue) {
+        int slot = slotOf(key);
+        return slot == NO_SLOT ? defaultValue : valueTable[slot];
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>0</tt> if there was no mapping for <tt>key</tt>.
+     */
+    public int put(int key, int value) {
+        int slot = insertKey(key);
+        if (slot < 0) {
+            valueTable[~slot] = value;
+            return 0;
+        }
+        int oldValue = valueTable[slot];
+        valueTable[slot] = value;
+        return oldValue;
+    }
+
+    /**
+     * Adds <tt>delta</tt> to the value associated with the key,
+     * a missing mapping is treated as <tt>0</tt>.
+     * The key is looked up only once.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param delta value to add
+     * @return the new value associated with <tt>key</tt>
+     */
+    public int addTo(int key, int delta) {
+        int slot = insertKey(key);
+        if (slot < 0)
+            return valueTable[~slot] = delta;
+        return valueTable[slot] += delta;
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @param  key key whose mapping is to be removed from the map
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>0</tt> if there was no mapping for <tt>key</tt>.
+     */
+    public int remove(int key) {
+        int slot = removeKey(key);
+        return slot == NO_SLOT ? 0 : valueTable[slot];
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map maps one or more keys to the
+     *         specified value
+     */
+    public boolean containsValue(int value) {
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            if (valueTable[i] == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns a new array with all values contained in this map,
+     * in iteration order (the same as {@link #keys keys()} has).
+     *
+     * @return values of this map
+     */
+    public int[] values() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            result[n++] = valueTable[i];
+        return result;
+    }
+
+    /**
+     * Returns a copy of this map.
+     *
+     * @return a copy of this map
+     */
+    public FastIntIntHashMap clone() {
+        FastIntIntHashMap that = (FastIntIntHashMap)super.clone();
+        if (valueTable != null)
+            that.valueTable = Arrays.copyOf(valueTable, threshold+1);
+        return that;
+    }
+
+    /**
+     * Returns the hash code value for this map, the same as
+     * <tt>java.util.Map&lt;Integer,Integer&gt;</tt> with the same mappings has.
+     */
+    public int hashCode() {
+        int h = 0;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            h += keyAt(i) ^ valueTable[i];
+        return h;
+    }
+
+    /**
+     * Compares the specified object with this map for equality.
+     * Returns <tt>true</tt> if the given object is also
+     * a <tt>FastIntIntHashMap</tt> with the same mappings.
+     */
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof FastIntIntHashMap))
+            return false;
+        FastIntIntHashMap m = (FastIntIntHashMap)o;
+        if (m.size != size)
+            return false;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            int j = m.slotOf(keyAt(i));
+            if (j == NO_SLOT || m.valueTable[j] != valueTable[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a string representation of this map
+     * in the same format as <tt>java.util.AbstractMap</tt> does.
+     */
+    public String toString() {
+        if (size == 0)
+            return "{}";
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        boolean first = true;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            if (first)
+                first = false;
+            else
+                sb.append(", ");
+            sb.append(keyAt(i));
+            sb.append('=');
+            sb.append(valueTable[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Save the state of the map to a stream.
+     *
+     * @serialData The <i>size</i> (an int, the number of key-value
+     *             mappings), followed by the key (int) and value (int)
+     *             for each key-value mapping.
+     */
+    private void writeObject(ObjectOutputStream s)
+        throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            s.writeInt(keyAt(i));
+            s.writeInt(valueTable[i]);
+        }
+    }
+
+    /**
+     * Reconstitute the map from a stream.
+     */
+    private void readObject(ObjectInputStream s)
+         throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        int size = s.readInt();
+        for (int i = 0; i < size; i++) {
+            int key = s.readInt();
+            put(key, s.readInt());
+        }
+    }
+}
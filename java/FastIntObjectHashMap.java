@@ -0,0 +1,272 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * Hash map with primitive <tt>int</tt> keys and object values.
+ *
+ * <p>Keys are never boxed: they are stored in an <tt>int[]</tt> array,
+ * values in a parallel <tt>Object[]</tt> array, and the hash index
+ * is the same as in {@link FastHashMap}.  Compared to
+ * <tt>FastHashMap&lt;Integer,V&gt;</tt> it saves an <tt>Integer</tt>
+ * object per mapping and needs no allocation on <tt>get</tt>.
+ *
+ * <p>This map permits <tt>null</tt> values.  Any <tt>int</tt>
+ * (including <tt>0</tt>) is a valid key.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ *
+ * @param <V> the type of mapped values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public class FastIntObjectHashMap<V>
+    extends FastIntKeyHashMap
+{
+    private static final long serialVersionUID = 2968471022718436409L;
+
+    /**
+     * Stored values, indexed by slot.
+     */
+    transient Object[] valueTable;
+
+    /**
+     * Constructs an empty map with the default initial capacity
+     * and the default load factor (0.75).
+     */
+    public FastIntObjectHashMap() {
+        this(FastHashMap.DEFAULT_INITIAL_CAPACITY, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and the default load factor (0.75).
+     *
+     * @param  initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public FastIntObjectHashMap(int initialCapacity) {
+        this(initialCapacity, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and load factor.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is greater than one or is too low
+     */
+    public FastIntObjectHashMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor);
+    }
+
+    void resizeValues(int length) {
+        if (valueTable != null)
+            valueTable = Arrays.copyOf(valueTable, length);
+        else
+            valueTable = new Object[length];
+    }
+
+    void moveValue(int newSlot, int oldSlot) {
+        valueTable[newSlot] = valueTable[oldSlot];
+        valueTable[oldSlot] = null;
+    }
+
+    void clearValues(int length) {
+        Arrays.fill(valueTable, 0, length, null);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = slotOf(key);
+        return slot == NO_SLOT ? null : (V)valueTable[slot];
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        int slot = insertKey(key);
+        if (slot < 0) {
+            valueTable[~slot] = value;
+            return null;
+        }
+        V oldValue = (V)valueTable[slot];
+        valueTable[slot] = value;
+        return oldValue;
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @param  key key whose mapping is to be removed from the map
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = removeKey(key);
+        if (slot == NO_SLOT)
+            return null;
+        V oldValue = (V)valueTable[slot];
+        valueTable[slot] = null;
+        return oldValue;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map maps one or more keys to the
+     *         specified value
+     */
+    public boolean containsValue(Object value) {
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            Object o = valueTable[i];
+            if (o == value || o != null && o.equals(value))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new list with all values contained in this map,
+     * in iteration order.
+     *
+     * @return values of this map
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<V>(size);
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            result.add((V)valueTable[i]);
+        return result;
+    }
+
+    /**
+     * Returns a shallow copy of this map:
+     * the values themselves are not cloned.
+     *
+     * @return a shallow copy of this map
+     */
+    @SuppressWarnings("unchecked")
+    public FastIntObjectHashMap<V> clone() {
+        FastIntObjectHashMap<V> that = (FastIntObjectHashMap<V>)super.clone();
+        if (valueTable != null)
+            that.valueTable = Arrays.copyOf(valueTable, threshold+1);
+        return that;
+    }
+
+    /**
+     * Returns the hash code value for this map, the same as
+     * <tt>java.util.Map&lt;Integer,V&gt;</tt> with the same mappings has.
+     */
+    public int hashCode() {
+        int h = 0;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            Object value = valueTable[i];
+            h += keyAt(i) ^ (value == null ? 0 : value.hashCode());
+        }
+        return h;
+    }
+
+    /**
+     * Compares the specified object with this map for equality.
+     * Returns <tt>true</tt> if the given object is also
+     * a <tt>FastIntObjectHashMap</tt> with the same mappings.
+     */
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof FastIntObjectHashMap<?>))
+            return false;
+        FastIntObjectHashMap<?> m = (FastIntObjectHashMap<?>)o;
+        if (m.size != size)
+            return false;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            int j = m.slotOf(keyAt(i));
+            if (j == NO_SLOT)
+                return false;
+            Object v1 = valueTable[i];
+            Object v2 = m.valueTable[j];
+            if (v1 != v2 && (v1 == null || !v1.equals(v2)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a string representation of this map
+     * in the same format as <tt>java.util.AbstractMap</tt> does.
+     */
+    public String toString() {
+        if (size == 0)
+            return "{}";
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        boolean first = true;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            if (first)
+                first = false;
+            else
+                sb.append(", ");
+            Object value = valueTable[i];
+            sb.append(keyAt(i));
+            sb.append('=');
+            sb.append(value == this ? "(this Map)" : value);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Save the state of the map to a stream.
+     *
+     * @serialData The <i>size</i> (an int, the number of key-value
+     *             mappings), followed by the key (int) and value (Object)
+     *             for each key-value mapping.
+     */
+    private void writeObject(ObjectOutputStream s)
+        throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            s.writeInt(keyAt(i));
+            s.writeObject(valueTable[i]);
+        }
+    }
+
+    /**
+     * Reconstitute the map from a stream.
+     */
+    private void readObject(ObjectInputStream s)
+         throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        int size = s.readInt();
+        for (int i = 0; i < size; i++) {
+            int key = s.readInt();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            put(key, value);
+        }
+    }
+}
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.nio.channels.*;
+import java.io.*;
 
 /**
  * <p>Hash table and linked list implementation of the <tt>Map</tt> interface,
@@ -151,6 +153,35 @@ public class FastLinkedHashMap<K,V>
      */
     transient Entry headEntry;
 
+    /**
+     * <tt>true</tt> if access order is approximated
+     * by the CLOCK algorithm, see {@link #enableClockOrder}.
+     */
+    transient boolean clockOrder;
+
+    /**
+     * Reference bits of CLOCK order: bit <tt>i+1</tt> is set
+     * when element at index <tt>i</tt> is accessed.
+     */
+    transient long[] referenceBits;
+
+    /**
+     * Bits of elements in the tail segment of the list: bit <tt>i+1</tt>
+     * is set for index <tt>i</tt>, <tt>null</tt> if the list is not split.
+     * {@link FastLruCache} keeps its admission window there.
+     */
+    transient long[] segmentBits;
+
+    /**
+     * The eldest element of the tail segment, NO_INDEX if it is empty.
+     */
+    transient int segmentHead;
+
+    /**
+     * Number of elements in the tail segment.
+     */
+    transient int segmentSize;
+
     /**
      * Constructs an empty insertion-ordered <tt>LinkedHashMap</tt> instance
      * with the specified initial capacity and load factor.
@@ -218,6 +249,29 @@ public class FastLinkedHashMap<K,V>
         this.accessOrder = accessOrder;
     }
 
+    /**
+     * Constructs an empty <tt>LinkedHashMap</tt> instance with the
+     * specified initial capacity, load factor and ordering mode
+     * which hashes and compares keys with the specified strategy
+     * instead of their own methods.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @param  accessOrder     the ordering mode - <tt>true</tt> for
+     *         access-order, <tt>false</tt> for insertion-order
+     * @param  strategy        hashing strategy of keys
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is nonpositive
+     * @throws NullPointerException if strategy is null
+     */
+    public FastLinkedHashMap(int initialCapacity,
+        float loadFactor,
+        boolean accessOrder,
+        HashingStrategy<? super K> strategy) {
+        super(initialCapacity, loadFactor, true, Objects.requireNonNull(strategy));
+        this.accessOrder = accessOrder;
+    }
+
     /**
      * Constructor to be used in LinkedHashSet
      * it creates a new LinkedHashMap
@@ -232,6 +286,18 @@ public class FastLinkedHashMap<K,V>
         this.accessOrder = accessOrder;
     }
 
+    /**
+     * Constructor to be used in snapshot reading, strategy may be null.
+     */
+    FastLinkedHashMap(int initialCapacity,
+        float loadFactor,
+        boolean accessOrder,
+        boolean withValues,
+        HashingStrategy<? super K> strategy) {
+        super(initialCapacity, loadFactor, withValues, strategy);
+        this.accessOrder = accessOrder;
+    }
+
     /**
      * Returns the value to which the specified key is mapped,
      * or {@code null} if this map contains no mapping for the key.
@@ -249,6 +315,9 @@ public class FastLinkedHashMap<K,V>
      */
     @SuppressWarnings("unchecked")
     public V get(Object key) {
+        // Single-writer/multi-reader mode (insertion order only)
+        if (concurrentReader())
+            return (V)concurrentGet(key, null);
         int i = positionOf(key);
         if(i == NO_INDEX) return null;
         updateIndex(i);
@@ -257,6 +326,73 @@ public class FastLinkedHashMap<K,V>
             DUMMY_VALUE);
     }
 
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>defaultValue</tt> if this map contains no mapping for the key.
+     * In access-ordered map a found entry becomes the most recent one.
+     *
+     * @param key the key whose associated value is to be returned
+     * @param defaultValue the default mapping of the key
+     * @return the value or <tt>defaultValue</tt>
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        // Single-writer/multi-reader mode (insertion order only)
+        if (concurrentReader())
+            return (V)concurrentGet(key, defaultValue);
+        int i = positionOf(key);
+        if (i == NO_INDEX) return defaultValue;
+        updateIndex(i);
+        return valueAt(i);
+    }
+
+    /**
+     * Switches this map to the single-writer/multi-reader mode,
+     * see {@link FastHashMap#enableConcurrentReads}.
+     *
+     * @throws UnsupportedOperationException if this map is access-ordered:
+     *         its <tt>get</tt> modifies the map
+     */
+    public void enableConcurrentReads() {
+        if (accessOrder)
+            throw new UnsupportedOperationException(
+                "Access-ordered map cannot be read concurrently");
+        super.enableConcurrentReads();
+    }
+
+    /**
+     * Switches this access-ordered map to approximate access order
+     * maintained by the CLOCK (second chance) algorithm.
+     *
+     * <p>In exact access order every <tt>get</tt> unlinks the found
+     * element and links it at the end of the list, which is several
+     * random memory writes per read and a structural modification
+     * failing iterators.  In CLOCK order <tt>get</tt> only sets
+     * a reference bit of the element.  The head of the circular list
+     * serves as the clock hand: when a new element is inserted the hand
+     * passes referenced elements, clearing their bits, and stops at the
+     * first unreferenced one, which becomes the eldest entry given to
+     * {@link #removeEldestEntry removeEldestEntry}.  Each bit is cleared
+     * once per setting, so eviction takes amortized constant time.
+     *
+     * <p>Iteration goes from the eldest entry in this order: entries
+     * accessed since the hand passed them are not moved yet, so it is
+     * only an approximation of the least-recently-used order.  Like other
+     * modes this setting is not serialized but is kept by <tt>clone</tt>.
+     *
+     * @throws UnsupportedOperationException if this map is
+     *         insertion-ordered
+     */
+    public void enableClockOrder() {
+        if (!accessOrder)
+            throw new UnsupportedOperationException(
+                "Insertion-ordered map has no access order to approximate");
+        if (!clockOrder) {
+            referenceBits = new long[(threshold+64) >> 6];
+            clockOrder = true;
+        }
+    }
+
     /**
      * Removes all of the mappings from this map.
      * The map will be empty after this call returns.
@@ -265,6 +401,13 @@ public class FastLinkedHashMap<K,V>
         super.clear();
         headIndex = NO_INDEX;
         headEntry = null;
+        if (referenceBits != null)
+            Arrays.fill(referenceBits, 0L);
+        if (segmentBits != null) {
+            Arrays.fill(segmentBits, 0L);
+            segmentHead = NO_INDEX;
+            segmentSize = 0;
+        }
     }
 
     /**
@@ -276,6 +419,136 @@ public class FastLinkedHashMap<K,V>
           prevNext = Arrays.copyOf(prevNext, (threshold+1)<<1);
         else if (threshold > 0)
           prevNext = new int[(threshold+1)<<1];
+        if (referenceBits != null)
+          referenceBits = Arrays.copyOf(referenceBits, (threshold+64) >> 6);
+        if (segmentBits != null)
+          segmentBits = Arrays.copyOf(segmentBits, (threshold+64) >> 6);
+    }
+
+    /**
+     * Shrink linked list array together with other internal arrays.
+     */
+    void rebuild(int newCapacity) {
+        super.rebuild(newCapacity);
+        if (prevNext.length != (threshold+1)<<1)
+          prevNext = Arrays.copyOf(prevNext, (threshold+1)<<1);
+        if (referenceBits != null && referenceBits.length != (threshold+64) >> 6)
+          referenceBits = Arrays.copyOf(referenceBits, (threshold+64) >> 6);
+        if (segmentBits != null && segmentBits.length != (threshold+64) >> 6)
+          segmentBits = Arrays.copyOf(segmentBits, (threshold+64) >> 6);
+    }
+
+    /**
+     * Snapshots of linked maps are marked as such
+     * and keep the ordering mode.
+     */
+    int snapshotFlags() {
+        return super.snapshotFlags() | SnapshotIO.LINKED |
+            (accessOrder ? SnapshotIO.ACCESS_ORDER : 0);
+    }
+
+    /**
+     * Writes positions of elements in iteration order.
+     */
+    void writeSnapshotOrder(SnapshotIO.Writer out) throws IOException {
+        for (int i = iterateFirst(); i != NO_INDEX; i = iterateNext(i))
+            out.writeInt(i);
+    }
+
+    /**
+     * Links elements in the written order, or in order
+     * of array positions if the snapshot has none.
+     */
+    void readSnapshotOrder(SnapshotIO.Reader in, boolean written) throws IOException {
+        if (prevNext == null)
+            prevNext = new int[(threshold+1)<<1];
+        if (!written) {
+            if (nullKeyPresent)
+                insertIndex(NULL_INDEX);
+            for (int i = 0; i < firstUnusedIndex; i++)
+                if (!isEmpty(i))
+                    insertIndex(i);
+            return;
+        }
+        boolean[] linked = new boolean[firstUnusedIndex+1];
+        for (int n = 0; n < size; n++) {
+            int i = in.readInt();
+            if (i < NULL_INDEX || i >= firstUnusedIndex ||
+                linked[i+1] || isEmpty(i))
+                throw new StreamCorruptedException("Invalid linked order");
+            linked[i+1] = true;
+            insertIndex(i);
+        }
+    }
+
+    /**
+     * Reads a linked map written by {@link #writeSnapshot writeSnapshot}
+     * with the same iteration order and ordering mode.  A snapshot of
+     * a <tt>FastHashMap</tt> is read in its iteration order.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param keyCodec decoding of keys
+     * @param valueCodec decoding of values
+     * @return restored map
+     * @throws IOException if an I/O error occurs
+     * or the data is not a map snapshot
+     * @see FastHashMap#readSnapshot(ReadableByteChannel, SnapshotCodec, SnapshotCodec)
+     */
+    public static <K,V> FastLinkedHashMap<K,V> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends K> keyCodec, SnapshotCodec<? extends V> valueCodec)
+        throws IOException
+    {
+        return (FastLinkedHashMap<K,V>)FastHashMap.<K,V>readSnapshot(
+            channel, keyCodec, valueCodec, true, null, true);
+    }
+
+    /**
+     * Reads a linked map with a {@link HashingStrategy} written by
+     * {@link #writeSnapshot writeSnapshot}, the strategy
+     * must be the one of the written map.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param keyCodec decoding of keys
+     * @param valueCodec decoding of values
+     * @param strategy hashing strategy of the written map
+     * @return restored map
+     * @throws IOException if an I/O error occurs
+     * or the data is not a map snapshot
+     * @throws IllegalArgumentException if the strategy is
+     *         {@link HashingStrategy#IDENTITY IDENTITY}
+     */
+    public static <K,V> FastLinkedHashMap<K,V> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends K> keyCodec, SnapshotCodec<? extends V> valueCodec,
+        HashingStrategy<? super K> strategy)
+        throws IOException
+    {
+        return (FastLinkedHashMap<K,V>)FastHashMap.<K,V>readSnapshot(
+            channel, keyCodec, valueCodec, true, Objects.requireNonNull(strategy), true);
+    }
+
+    /**
+     * Returns a copy of this map with the same iteration order
+     * which shares internal arrays with it until either of them
+     * is modified.
+     *
+     * @return a copy of this map sharing its arrays until modified
+     * @see FastHashMap#fork
+     */
+    public FastLinkedHashMap<K,V> fork() {
+        return (FastLinkedHashMap<K,V>)super.fork();
+    }
+
+    /**
+     * Copies the linked list too.
+     */
+    void copyShared() {
+        super.copyShared();
+        if (prevNext != null)
+            prevNext = prevNext.clone();
+        if (referenceBits != null)
+            referenceBits = referenceBits.clone();
+        if (segmentBits != null)
+            segmentBits = segmentBits.clone();
     }
 
     /**
@@ -286,8 +559,12 @@ public class FastLinkedHashMap<K,V>
      */
     public FastLinkedHashMap<K,V> clone() {
         FastLinkedHashMap<K,V> that = (FastLinkedHashMap<K,V>)super.clone();
-        if (prevNext != null)
+        if (prevNext != null && !sharedArrays)
             that.prevNext = Arrays.copyOf(prevNext, (threshold+1)<<1);
+        if (referenceBits != null && !sharedArrays)
+            that.referenceBits = referenceBits.clone();
+        if (segmentBits != null && !sharedArrays)
+            that.segmentBits = segmentBits.clone();
         that.headEntry = null;
         return that;
     }
@@ -359,6 +636,13 @@ public class FastLinkedHashMap<K,V>
      */
     void addHook(int i) {
         insertIndex(i);
+        if (clockOrder)
+            advanceClock(i);
+        if (segmentBits != null) {
+            segmentBits[(i+1) >>> 6] |= 1L << (i+1);
+            if (segmentSize++ == 0)
+                segmentHead = i;
+        }
         //
         if(headEntry == null) {
             headEntry = new Entry(headIndex);
@@ -374,7 +658,16 @@ public class FastLinkedHashMap<K,V>
      * Here we remove its index from the linked list.
      */
     void removeHook(int i) {
+        if (inSegment(i)) {
+            segmentBits[(i+1) >>> 6] &= ~(1L << (i+1));
+            if (--segmentSize == 0)
+                segmentHead = NO_INDEX;
+            else if (segmentHead == i)
+                segmentHead = prevNext[(i<<1)+3];
+        }
         removeIndex(i);
+        if (referenceBits != null)
+            referenceBits[(i+1) >>> 6] &= ~(1L << (i+1));
     }
 
     /**
@@ -410,6 +703,21 @@ public class FastLinkedHashMap<K,V>
             headIndex = newIndex;
             headEntry = null;
         }
+        if (referenceBits != null) {
+            long bit = 1L << (oldIndex+1);
+            if ((referenceBits[(oldIndex+1) >>> 6] & bit) != 0) {
+                referenceBits[(oldIndex+1) >>> 6] &= ~bit;
+                referenceBits[(newIndex+1) >>> 6] |= 1L << (newIndex+1);
+            }
+        }
+        if (segmentBits != null) {
+            if (segmentHead == oldIndex)
+                segmentHead = newIndex;
+            if (inSegment(oldIndex)) {
+                segmentBits[(oldIndex+1) >>> 6] &= ~(1L << (oldIndex+1));
+                segmentBits[(newIndex+1) >>> 6] |= 1L << (newIndex+1);
+            }
+        }
     }
 
     // Iteration order based on the linked list.
@@ -463,14 +771,114 @@ public class FastLinkedHashMap<K,V>
 
     /**
      * Move specified index to the end of the list
-     * if accessOrder is true.
+     * if accessOrder is true, or mark it referenced
+     * in CLOCK order.
      *
      * @param  i  index
      */
     final void updateIndex(int i) {
-        if(accessOrder) {
+        if (clockOrder) {
+            long bit = 1L << (i+1);
+            if ((referenceBits[(i+1) >>> 6] & bit) == 0) {
+                if (sharedArrays)
+                    unshare();
+                referenceBits[(i+1) >>> 6] |= bit;
+            }
+        } else if(accessOrder)
+            moveToEnd(i);
+    }
+
+    /**
+     * Moves the clock hand (head of the list) past referenced
+     * elements, clearing their bits: they get a second chance
+     * and become the most recent ones.  The element just inserted
+     * is passed too, so after a full turn the hand stops
+     * at the former head.
+     *
+     * @param  inserted  index of the element just inserted
+     */
+    final void advanceClock(int inserted) {
+        for (int n = size; n > 0; n--) {
+            long bit = 1L << (headIndex+1);
+            if (headIndex != inserted &&
+                (referenceBits[(headIndex+1) >>> 6] & bit) == 0)
+                break;
+            referenceBits[(headIndex+1) >>> 6] &= ~bit;
+            headIndex = prevNext[(headIndex<<1)+3];
+            headEntry = null;
+        }
+    }
+
+    /**
+     * Move specified index to the end of the list
+     * whatever the ordering mode is.
+     *
+     * @param  i  index
+     */
+    final void moveToEnd(int i) {
+        if (sharedArrays)
+            unshare();
+        removeIndex(i);
+        insertIndex(i);
+        modCount++;
+    }
+
+    // Two segments of the list, used by FastLruCache.
+
+    /**
+     * Splits the list into two segments: existing elements
+     * stay in the head segment, new ones are added to the tail one.
+     */
+    final void enableSegments() {
+        if (segmentBits == null) {
+            segmentBits = new long[(threshold+64) >> 6];
+            segmentHead = NO_INDEX;
+            segmentSize = 0;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if specified index is in the tail segment.
+     */
+    final boolean inSegment(int i) {
+        return segmentBits != null &&
+            (segmentBits[(i+1) >>> 6] & (1L << (i+1))) != 0;
+    }
+
+    /**
+     * Moves the eldest element of the tail segment
+     * to the head segment, where it becomes the most recent one.
+     * The list is not relinked.
+     */
+    final void leaveSegment() {
+        int i = segmentHead;
+        segmentBits[(i+1) >>> 6] &= ~(1L << (i+1));
+        segmentHead = --segmentSize == 0 ? NO_INDEX : prevNext[(i<<1)+3];
+    }
+
+    /**
+     * Moves specified index to the end of its segment.
+     *
+     * @param  i  index
+     */
+    final void touchSegment(int i) {
+        if (inSegment(i)) {
+            if (segmentHead == i && segmentSize > 1)
+                segmentHead = prevNext[(i<<1)+3];
+            moveToEnd(i);
+        } else if (segmentHead == NO_INDEX) {
+            moveToEnd(i);
+        } else if (prevNext[(segmentHead<<1)+2] != i) {
+            if (sharedArrays)
+                unshare();
             removeIndex(i);
-            insertIndex(i);
+            // Link before the tail segment, the head one is not empty
+            int next = segmentHead;
+            int prev = prevNext[(next<<1)+2];
+            prevNext[(i<<1)+2] = prev;
+            prevNext[(i<<1)+3] = next;
+            prevNext[(prev<<1)+3] =
+            prevNext[(next<<1)+2] = i;
             modCount++;
         }
     }
@@ -503,6 +911,28 @@ public class FastLinkedHashMap<K,V>
             if (numberOfEntries != size)
                 throw new RuntimeException("numberOfEntries("+numberOfEntries+") != size("+size+"). "+s);
         }
+        if (referenceBits != null) {
+            for (int i = NULL_INDEX; i < (referenceBits.length << 6) - 1; i++)
+                if ((referenceBits[(i+1) >>> 6] & (1L << (i+1))) != 0 &&
+                    (i == NULL_INDEX ? !nullKeyPresent :
+                     i >= firstUnusedIndex || i >= threshold || isEmpty(i)))
+                    throw new RuntimeException("Reference bit of empty index "+i+". "+s);
+        }
+        if (segmentBits != null) {
+            // Tail segment is the end of the list
+            int inTail = 0;
+            boolean tail = false;
+            for (int i = headIndex, n = 0; n < size; i = prevNext[(i<<1)+3], n++) {
+                if (i == segmentHead)
+                    tail = true;
+                if (tail != inSegment(i))
+                    throw new RuntimeException("Segment bit of index "+i+" must be "+tail+". "+s);
+                if (tail)
+                    inTail++;
+            }
+            if (inTail != segmentSize || (segmentSize == 0) != (segmentHead == NO_INDEX))
+                throw new RuntimeException("segmentSize("+segmentSize+") != "+inTail+". "+s);
+        }
     }
      */
 }
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.nio.channels.*;
+import java.io.*;
 
 /**
  * <p>Hash table and linked list implementation of the <tt>Set</tt> interface,
@@ -145,4 +147,22 @@ public class FastLinkedHashSet<E>
             FastHashMap.DEFAULT_LOAD_FACTOR, true);
         addAll(c);
     }
+
+    /**
+     * Reads a linked set written by {@link #writeSnapshot writeSnapshot}
+     * with the same iteration order.
+     *
+     * @param channel source, for example a <tt>FileChannel</tt>
+     * @param codec decoding of elements
+     * @return restored set
+     * @throws IOException if an I/O error occurs
+     * or the data is not a set snapshot
+     */
+    public static <E> FastLinkedHashSet<E> readSnapshot(ReadableByteChannel channel,
+        SnapshotCodec<? extends E> codec) throws IOException
+    {
+        FastLinkedHashSet<E> set = new FastLinkedHashSet<E>();
+        set.map = FastHashMap.<E,Object>readSnapshot(channel, codec, null, false, null, true);
+        return set;
+    }
 }
@@ -0,0 +1,147 @@
+import java.util.*;
+
+/**
+ * Common part of hash maps with primitive <tt>long</tt> keys.
+ *
+ * <p>Keys are kept in a plain <tt>long[]</tt> array indexed by slot,
+ * the hash index is maintained by {@link FastPrimitiveKeyHashMap}.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public abstract class FastLongKeyHashMap
+    extends FastPrimitiveKeyHashMap
+{
+    private static final long serialVersionUID = 5197288420533187460L;
+
+    /**
+     * Stored keys, key of i-th array position is at i+1.
+     */
+    transient long[] keyTable;
+
+    FastLongKeyHashMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor);
+    }
+
+    /**
+     * Hashcode of the key: all 64 bits are mixed with the finalizer
+     * of 64-bit MurmurHash3 before truncation, so that keys which differ
+     * only in how bits are spread between the halves
+     * (like <tt>k&lt;&lt;32|k</tt>) do not collide.
+     */
+    final static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+
+    final void resizeKeys(int length) {
+        if (keyTable != null)
+            keyTable = Arrays.copyOf(keyTable, length);
+        else
+            keyTable = new long[length];
+    }
+
+    final boolean isKey(int slot, long key) {
+        return keyTable[slot] == key;
+    }
+
+    final boolean isEmptyKey(int slot) {
+        return keyTable[slot] == 0;
+    }
+
+    final void setKey(int slot, long key) {
+        keyTable[slot] = key;
+    }
+
+    final void moveKey(int newSlot, int oldSlot) {
+        keyTable[newSlot] = keyTable[oldSlot];
+        keyTable[oldSlot] = 0;
+    }
+
+    final void clearKeys(int length) {
+        Arrays.fill(keyTable, 0, length, 0);
+    }
+
+    /**
+     * Returns the slot of key if it is present.
+     *
+     * @param key key
+     * @return slot of key, or NO_SLOT if it was not found
+     */
+    final int slotOf(long key) {
+        return slotOf(key, hash(key));
+    }
+
+    /**
+     * Find or create a slot for the specified key.
+     *
+     * @param key key
+     * @return slot of existing key, or inverted (<tt>~slot</tt>)
+     * slot of a newly added key, which value must be set by the caller
+     */
+    final int insertKey(long key) {
+        return insertKey(key, hash(key));
+    }
+
+    /**
+     * Removes the specified key from index and key arrays.
+     * Value in the returned slot is left as is,
+     * caller must read and clear it.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @return slot of removed key, or NO_SLOT if it was not found
+     */
+    final int removeKey(long key) {
+        return removeKey(key, hash(key));
+    }
+
+    /**
+     * Returns key stored in the specified slot.
+     */
+    final long keyAt(int slot) {
+        return slot == ZERO_SLOT ? 0 : keyTable[slot];
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the
+     * specified key.
+     *
+     * @param   key   The key whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map contains a mapping for the specified
+     * key.
+     */
+    public boolean containsKey(long key) {
+        return slotOf(key) != NO_SLOT;
+    }
+
+    /**
+     * Returns a new array with all keys contained in this map,
+     * in iteration order.
+     *
+     * @return keys of this map
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            result[n++] = keyAt(i);
+        return result;
+    }
+
+    /**
+     * Returns a shallow copy of this map.
+     * Subclasses must copy their value arrays.
+     */
+    public FastLongKeyHashMap clone() {
+        FastLongKeyHashMap that = (FastLongKeyHashMap)super.clone();
+        if (keyTable != null)
+            that.keyTable = Arrays.copyOf(keyTable, threshold+1);
+        return that;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * Hash map with primitive <tt>long</tt> keys and <tt>long</tt> values.
+ *
+ * <p>Keys and values are stored in two <tt>long[]</tt> arrays,
+ * the hash index is the same as in {@link FastHashMap}.
+ * No objects are allocated per mapping.
+ *
+ * <p>Since there is no <tt>null</tt> for primitive values,
+ * methods that return a value return <tt>0</tt> when there is
+ * no mapping for the key; use {@link #containsKey containsKey}
+ * or {@link #get(long,long) get(key, defaultValue)} to distinguish
+ * these cases.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public class FastLongLongHashMap
+    extends FastLongKeyHashMap
+{
+    private static final long serialVersionUID = 3318790529173618452L;
+
+    /**
+     * Stored values, indexed by slot.
+     */
+    transient long[] valueTable;
+
+    /**
+     * Constructs an empty map with the default initial capacity
+     * and the default load factor (0.75).
+     */
+    public FastLongLongHashMap() {
+        this(FastHashMap.DEFAULT_INITIAL_CAPACITY, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and the default load factor (0.75).
+     *
+     * @param  initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public FastLongLongHashMap(int initialCapacity) {
+        this(initialCapacity, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and load factor.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is greater than one or is too low
+     */
+    public FastLongLongHashMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor);
+    }
+
+    void resizeValues(int length) {
+        if (valueTable != null)
+            valueTable = Arrays.copyOf(valueTable, length);
+        else
+            valueTable = new long[length];
+    }
+
+    void moveValue(int newSlot, int oldSlot) {
+        valueTable[newSlot] = valueTable[oldSlot];
+    }
+
+    void clearValues(int length) {
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>0</tt> if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value or <tt>0</tt>
+     */
+    public long get(long key) {
+        return get(key, 0);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or <tt>defaultValue</tt> if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @param defaultValue the value to return if key is not found
+     * @return the value or <tt>defaultValue</tt>
+     */
+    public long get(long key, long defaultValue) {
+        int slot = slotOf(key);
+        return slot == NO_SLOT ? defaultValue : valueTable[slot];
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>0</tt> if there was no mapping for <tt>key</tt>.
+     */
+    public long put(long key, long value) {
+        int slot = insertKey(key);
+        if (slot < 0) {
+            valueTable[~slot] = value;
+            return 0;
+        }
+        long oldValue = valueTable[slot];
+        valueTable[slot] = value;
+        return oldValue;
+    }
+
+    /**
+     * Adds <tt>delta</tt> to the value associated with the key,
+     * a missing mapping is treated as <tt>0</tt>.
+     * The key is looked up only once.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param delta value to add
+     * @return the new value associated with <tt>key</tt>
+     */
+    public long addTo(long key, long delta) {
+        int slot = insertKey(key);
+        if (slot < 0)
+            return valueTable[~slot] = delta;
+        return valueTable[slot] += delta;
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @param  key key whose mapping is to be removed from the map
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>0</tt> if there was no mapping for <tt>key</tt>.
+     */
+    public long remove(long key) {
+        int slot = removeKey(key);
+        return slot == NO_SLOT ? 0 : valueTable[slot];
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.
+     *
+     * @param value value whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map maps one or more keys to the
+     *         specified value
+     */
+    public boolean containsValue(long value) {
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            if (valueTable[i] == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns a new array with all values contained in this map,
+     * in iteration order (the same as {@link #keys keys()} has).
+     *
+     * @return values of this map
+     */
+    public long[] values() {
+        long[] result = new long[size];
+        int n = 0;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i))
+            result[n++] = valueTable[i];
+        return result;
+    }
+
+    /**
+     * Returns a copy of this map.
+     *
+     * @return a copy of this map
+     */
+    public FastLongLongHashMap clone() {
+        FastLongLongHashMap that = (FastLongLongHashMap)super.clone();
+        if (valueTable != null)
+            that.valueTable = Arrays.copyOf(valueTable, threshold+1);
+        return that;
+    }
+
+    /**
+     * Returns the hash code value for this map, the same as
+     * <tt>java.util.Map&lt;Long,Long&gt;</tt> with the same mappings has.
+     */
+    public int hashCode() {
+        int h = 0;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            long key = keyAt(i), value = valueTable[i];
+            h += (int)(key ^ (key >>> 32)) ^ (int)(value ^ (value >>> 32));
+        }
+        return h;
+    }
+
+    /**
+     * Compares the specified object with this map for equality.
+     * Returns <tt>true</tt> if the given object is also
+     * a <tt>FastLongLongHashMap</tt> with the same mappings.
+     */
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof FastLongLongHashMap))
+            return false;
+        FastLongLongHashMap m = (FastLongLongHashMap)o;
+        if (m.size != size)
+            return false;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            int j = m.slotOf(keyAt(i));
+            if (j == NO_SLOT || m.valueTable[j] != valueTable[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a string representation of this map
+     * in the same format as <tt>java.util.AbstractMap</tt> does.
+     */
+    public String toString() {
+        if (size == 0)
+            return "{}";
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        boolean first = true;
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            if (first)
+                first = false;
+            else
+                sb.append(", ");
+            sb.append(keyAt(i));
+            sb.append('=');
+            sb.append(valueTable[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Save the state of the map to a stream.
+     *
+     * @serialData The <i>size</i> (an int, the number of key-value
+     *             mappings), followed by the key (long) and value (long)
+     *             for each key-value mapping.
+     */
+    private void writeObject(ObjectOutputStream s)
+        throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        for (int i = iterateFirst(); i != NO_SLOT; i = iterateNext(i)) {
+            s.writeLong(keyAt(i));
+            s.writeLong(valueTable[i]);
+        }
+    }
+
+    /**
+     * Reconstitute the map from a stream.
+     */
+    private void readObject(ObjectInputStream s)
+         throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        int size = s.readInt();
+        for (int i = 0; i < size; i++) {
+            long key = s.readLong();
+            put(key, s.readLong());
+        }
+    }
+}
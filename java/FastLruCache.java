@@ -0,0 +1,616 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * A thread-safe cache bounded by the number or the total weight
+ * of its entries, evicting least recently used entries first.
+ *
+ * <p>Entries are kept in a {@link FastLinkedHashMap} in the
+ * single-writer/multi-reader mode (see
+ * {@link FastHashMap#enableConcurrentReads enableConcurrentReads}):
+ * modifications take a lock, while {@link #get get} looks keys
+ * up without any locking.  A hit changes the recency order of the
+ * linked list, so instead of doing it at once the key is recorded
+ * in a small striped buffer; the buffers are drained under the lock
+ * when one of them fills up or by the next modification, and the
+ * recorded accesses are replayed by moving their entries to the end
+ * of the list.  If the lock is busy the reader does not wait, and
+ * when a buffer is overrun some accesses are lost: the order is
+ * an approximation of LRU, as usual for concurrent caches.
+ *
+ * <p>With a weigher the cache is bounded by the sum of weights
+ * of its entries.  The weigher must return the same weight for a
+ * key and value every time, it is called on insertion and on removal.
+ * An entry heavier than the maximum weight is evicted at once.
+ *
+ * <p>Plain LRU keeps any entry until it becomes the eldest, so a scan
+ * of keys used once flushes the whole cache.  With
+ * {@link #enableFrequencyAdmission frequency admission} new entries
+ * are kept in a small window and then admitted to the main region
+ * only if they are used more often than the entry they would evict
+ * (W-TinyLFU policy).
+ *
+ * <p>Hit, miss and eviction counts are collected with low overhead
+ * and can be read at any time.
+ *
+ * <p>Like {@link java.util.concurrent.ConcurrentHashMap} this class
+ * does <em>not</em> allow <tt>null</tt> to be used as a key or value.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastLinkedHashMap
+ */
+public class FastLruCache<K,V> {
+
+    /**
+     * Number of keys in a read buffer, power of two.
+     */
+    static final int BUFFER_SIZE = 16;
+
+    /**
+     * Maximum number of read buffers, power of two.
+     */
+    static final int MAX_BUFFERS = 64;
+
+    /**
+     * Percent of the maximum weight given to the admission window.
+     */
+    static final int WINDOW_PERCENT = 1;
+
+    /**
+     * The entries in recency order, the eldest first.
+     * It is modified only under the lock.
+     */
+    final FastLinkedHashMap<K,V> map;
+
+    /**
+     * Guards modifications of the map and replay of read buffers.
+     */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Weight of an entry, <tt>null</tt> if every entry weighs 1.
+     */
+    final ToIntBiFunction<? super K, ? super V> weigher;
+
+    /**
+     * The maximum total weight.
+     */
+    final long maximumWeight;
+
+    /**
+     * The current total weight, modified under the lock.
+     */
+    volatile long weight;
+
+    /**
+     * Access frequencies, <tt>null</tt> unless frequency admission
+     * is enabled.  Used only under the lock.
+     */
+    FrequencySketch sketch;
+
+    /**
+     * Total weight of entries in the admission window
+     * (the tail segment of the map list), modified under the lock.
+     */
+    long windowWeight;
+
+    /**
+     * The maximum weight of the admission window.
+     */
+    long windowMaximum;
+
+    /**
+     * Keys of recent hits, striped by thread.
+     */
+    final AtomicReferenceArray<Object>[] readBuffers;
+
+    /**
+     * Number of keys ever written to each read buffer.
+     */
+    final AtomicLongArray readCounts;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs an empty cache holding at most the specified number
+     * of entries.
+     *
+     * @param  maximumSize the maximum number of entries
+     * @throws IllegalArgumentException if the maximum size is negative
+     */
+    public FastLruCache(int maximumSize) {
+        this(maximumSize, null, true);
+    }
+
+    /**
+     * Constructs an empty cache with entries weighed by the specified
+     * function, holding at most the specified total weight.
+     *
+     * @param  maximumWeight the maximum total weight of entries
+     * @param  weigher       weight of an entry, nonnegative
+     * @throws IllegalArgumentException if the maximum weight is negative
+     * @throws NullPointerException if the weigher is null
+     */
+    public FastLruCache(long maximumWeight,
+        ToIntBiFunction<? super K, ? super V> weigher)
+    {
+        this(maximumWeight, Objects.requireNonNull(weigher), true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FastLruCache(long maximumWeight,
+        ToIntBiFunction<? super K, ? super V> weigher, boolean dummy)
+    {
+        if (maximumWeight < 0)
+            throw new IllegalArgumentException("Illegal maximum weight: " + maximumWeight);
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        int initialCapacity = weigher == null ?
+            (int)Math.min(maximumWeight / FastHashMap.DEFAULT_LOAD_FACTOR + 1, 1 << 16) : 16;
+        map = new FastLinkedHashMap<K,V>(initialCapacity, FastHashMap.DEFAULT_LOAD_FACTOR);
+        map.enableConcurrentReads();
+        int buffers = 1;
+        while (buffers < MAX_BUFFERS &&
+            buffers < Runtime.getRuntime().availableProcessors() << 1)
+            buffers <<= 1;
+        readBuffers = (AtomicReferenceArray<Object>[]) new AtomicReferenceArray<?>[buffers];
+        for (int i = 0; i < buffers; i++)
+            readBuffers[i] = new AtomicReferenceArray<Object>(BUFFER_SIZE);
+        readCounts = new AtomicLongArray(buffers);
+    }
+
+    /**
+     * Enables W-TinyLFU admission.  New entries go to the admission
+     * window taking about {@value #WINDOW_PERCENT}% of the maximum
+     * weight, which is ordered by recency.  The eldest entry of the
+     * window moves to the main region if it is not full, otherwise it
+     * is compared with the eldest entry of the main region and the one
+     * used less often is evicted.  Frequencies are estimated by a small
+     * count-min sketch of 4-bit counters, halved periodically so that
+     * the history fades.  Existing entries stay in the main region.
+     */
+    public void enableFrequencyAdmission() {
+        lock.lock();
+        try {
+            if (sketch == null) {
+                drainReadBuffers();
+                sketch = new FrequencySketch(weigher == null ?
+                    (int)Math.min(maximumWeight, Integer.MAX_VALUE) : map.size());
+                windowMaximum = Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+                map.enableSegments();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Weight of an entry.
+     */
+    private long weigh(K key, V value) {
+        if (weigher == null)
+            return 1;
+        int w = weigher.applyAsInt(key, value);
+        if (w < 0)
+            throw new IllegalArgumentException("Negative weight: " + w);
+        return w;
+    }
+
+    /**
+     * Returns the value cached for the specified key,
+     * or <tt>null</tt> if there is none.  It does not block.
+     *
+     * @param  key the key whose associated value is to be returned
+     * @return the value or <tt>null</tt>
+     * @throws NullPointerException if the key is null
+     */
+    public V get(Object key) {
+        V value = map.get(Objects.requireNonNull(key));
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+            recordAccess(key);
+        }
+        return value;
+    }
+
+    /**
+     * Records a hit in the read buffer of this thread,
+     * drains the buffers if it is full and the lock is free.
+     */
+    private void recordAccess(Object key) {
+        int h = (int)Thread.currentThread().getId() * 0x9E3779B9;
+        int b = (h >>> 16) & (readBuffers.length - 1);
+        long n = readCounts.getAndIncrement(b);
+        readBuffers[b].lazySet((int)n & (BUFFER_SIZE-1), key);
+        if ((n & (BUFFER_SIZE-1)) == BUFFER_SIZE-1 && lock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replays recorded hits: moves their entries to the end
+     * of the recency list.  Called under the lock.
+     */
+    private void drainReadBuffers() {
+        for (AtomicReferenceArray<Object> buffer : readBuffers)
+            for (int i = 0; i < BUFFER_SIZE; i++) {
+                Object key = buffer.get(i);
+                if (key == null)
+                    continue;
+                buffer.lazySet(i, null);
+                int index = map.positionOf(key);
+                if (index >= 0) {
+                    if (sketch != null)
+                        sketch.increment(key);
+                    touch(index);
+                }
+            }
+    }
+
+    /**
+     * Makes entry at the specified index the most recent one
+     * in its region.  Called under the lock.
+     */
+    private void touch(int index) {
+        if (sketch != null)
+            map.touchSegment(index);
+        else
+            map.moveToEnd(index);
+    }
+
+    /**
+     * Removes entry at the specified index.  Called under the lock.
+     */
+    private void removeAt(int index) {
+        K key = map.keyAt(index);
+        long w = weigh(key, map.valueAt(index));
+        if (map.inSegment(index))
+            windowWeight -= w;
+        map.removeKey(key, index);
+        weight -= w;
+    }
+
+    /**
+     * Evicts the eldest entries while the total weight exceeds
+     * the maximum.  Called under the lock.
+     */
+    private void evict() {
+        // The window overflows by new entries, its eldest ones
+        // compete for the main region
+        while (sketch != null && windowWeight > windowMaximum) {
+            int candidate = map.segmentHead;
+            map.leaveSegment();
+            windowWeight -= weigh(map.keyAt(candidate), map.valueAt(candidate));
+            int victim = map.headIndex;
+            if (weight > maximumWeight && victim != candidate) {
+                evictions.increment();
+                removeAt(sketch.frequency(map.keyAt(candidate)) >
+                    sketch.frequency(map.keyAt(victim)) ? victim : candidate);
+            }
+        }
+        while (weight > maximumWeight && map.size() > 0) {
+            removeAt(map.headIndex);
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Caches the specified value for the specified key,
+     * it becomes the most recently used entry.
+     *
+     * @param  key   key with which the specified value is to be associated
+     * @param  value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws NullPointerException if the key or value is null
+     */
+    public V put(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        long w = weigh(key, value);
+        lock.lock();
+        try {
+            drainReadBuffers();
+            V oldValue = map.put(key, value);
+            int index = map.positionOf(key);
+            if (oldValue != null) {
+                // insertion-ordered map does not move updated keys
+                touch(index);
+                w -= weigh(key, oldValue);
+            } else if (sketch != null) {
+                sketch.ensureCapacity(map.size());
+                sketch.increment(key);
+            }
+            weight += w;
+            if (map.inSegment(index))
+                windowWeight += w;
+            if (weigh(key, value) > maximumWeight) {
+                // would flush the whole cache
+                removeAt(index);
+                evictions.increment();
+            }
+            evict();
+            return oldValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the value cached for the specified key, computing and
+     * caching it with the specified function if there is none.
+     * The function is called under the lock of the cache,
+     * so it should be short and must not modify this cache.
+     *
+     * @param  key the key
+     * @param  mappingFunction the function to compute a value
+     * @return the current (existing or computed) value, or <tt>null</tt>
+     *         if the computed value is null
+     * @throws NullPointerException if the key or function is null
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        V value = get(key);
+        if (value != null)
+            return value;
+        lock.lock();
+        try {
+            value = map.get(key);
+            if (value != null)
+                return value;
+            value = mappingFunction.apply(key);
+            if (value == null)
+                return null;
+            long w = weigh(key, value);
+            if (w > maximumWeight) {
+                evictions.increment();
+                return value;
+            }
+            drainReadBuffers();
+            map.put(key, value);
+            if (sketch != null) {
+                sketch.ensureCapacity(map.size());
+                sketch.increment(key);
+            }
+            weight += w;
+            if (map.inSegment(map.positionOf(key)))
+                windowWeight += w;
+            evict();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry for the specified key if present.
+     *
+     * @param  key key whose mapping is to be removed from the cache
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws NullPointerException if the key is null
+     */
+    public V remove(Object key) {
+        Objects.requireNonNull(key);
+        lock.lock();
+        try {
+            int index = map.positionOf(key);
+            if (index < 0)
+                return null;
+            V oldValue = map.valueAt(index);
+            removeAt(index);
+            return oldValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            drainReadBuffers();
+            map.clear();
+            weight = 0;
+            windowWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays pending recorded hits.  It is done automatically,
+     * this method makes the recency order exact for tests and
+     * for {@link #keys keys}.
+     */
+    public void cleanUp() {
+        lock.lock();
+        try {
+            drainReadBuffers();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the keys in recency order,
+     * the least recently used first.
+     *
+     * @return list of cached keys
+     */
+    public List<K> keys() {
+        lock.lock();
+        try {
+            drainReadBuffers();
+            return new ArrayList<K>(map.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached entries.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the total weight of cached entries,
+     * their number if there is no weigher.
+     */
+    public long weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the maximum total weight of cached entries.
+     */
+    public long maximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Returns the number of <tt>get</tt> calls which found a value.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of <tt>get</tt> calls which found nothing.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted by the size limit,
+     * not counting explicit removals.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Count-min sketch of access frequencies: four 4-bit counters
+     * per key chosen by differently seeded hashes, sixteen counters
+     * in a <tt>long</tt>.  The estimate is the minimal counter.
+     * After a number of increments proportional to the capacity
+     * all counters are halved, so old accesses count less.
+     */
+    static final class FrequencySketch {
+
+        /**
+         * Maximum table length, power of two.
+         */
+        static final int MAX_LENGTH = 1 << 24;
+
+        static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+        /**
+         * Per-sketch random seed of key hashes.
+         */
+        final int hashSeed = ThreadLocalRandom.current().nextInt();
+
+        long[] table;
+        int sampleSize;
+        int additions;
+
+        FrequencySketch(int capacity) {
+            ensureCapacity(capacity);
+        }
+
+        /**
+         * Grows the table to count at least <tt>capacity</tt>
+         * keys well, forgetting all frequencies.
+         */
+        void ensureCapacity(int capacity) {
+            int length = Integer.highestOneBit(
+                Math.min(Math.max(capacity, 16), MAX_LENGTH) - 1) << 1;
+            if (table == null || table.length < length) {
+                table = new long[length];
+                sampleSize = 10 * length;
+                additions = 0;
+            }
+        }
+
+        /**
+         * Counter number <tt>i</tt> of the key hash.
+         */
+        private int counter(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int)h & ((table.length << 4) - 1);
+        }
+
+        private int hash(Object key) {
+            int h = (key.hashCode() ^ hashSeed) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Returns the estimated number of accesses of the key, up to 15.
+         */
+        int frequency(Object key) {
+            int hash = hash(key);
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                int c = counter(hash, i);
+                min = Math.min(min, (int)(table[c >>> 4] >>> ((c & 15) << 2)) & 15);
+            }
+            return min;
+        }
+
+        /**
+         * Counts an access of the key.
+         */
+        void increment(Object key) {
+            int hash = hash(key);
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int c = counter(hash, i);
+                int shift = (c & 15) << 2;
+                if (((table[c >>> 4] >>> shift) & 15) != 15) {
+                    table[c >>> 4] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize)
+                reset();
+        }
+
+        /**
+         * Halves all counters.
+         */
+        void reset() {
+            for (int i = 0; i < table.length; i++)
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions >>>= 1;
+        }
+    }
+
+    public String toString() {
+        return "FastLruCache[size=" + size() + ", weight=" + weight +
+            "/" + maximumWeight + ", hits=" + hitCount() +
+            ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+}
@@ -0,0 +1,885 @@
+import java.util.*;
+import java.nio.*;
+
+/**
+ * Hash map with <tt>byte[]</tt> keys and values stored outside of the
+ * Java heap.
+ *
+ * <p>It uses the same index encoding as {@link FastHashMap}, but the
+ * index table, the table of record addresses and the key/value bytes
+ * are kept in direct <tt>ByteBuffer</tt>s, so garbage collector never
+ * scans or copies them no matter how much data the map holds.
+ * Each mapping is a record <tt>[key length, value length, array position,
+ * key bytes, value bytes]</tt> appended to a data chunk; lookups compare key bytes
+ * in place, without copying them to the heap.  Only <tt>get</tt>
+ * allocates: it returns a copy of the value.
+ *
+ * <p>Chunks grow from 64 Kb up to 1 Gb each, so the total amount
+ * of data is only limited by available native memory
+ * (see <tt>-XX:MaxDirectMemorySize</tt>).  A single record must
+ * fit into one chunk.  Removed and overwritten (with a value of different
+ * length) records leave garbage in the chunks; when garbage exceeds live
+ * data it is reclaimed by {@link #compact}, which can also be called
+ * explicitly.  It slides live records down in place, so it needs
+ * no memory besides the chunks.  Native memory of chunks emptied by it,
+ * by {@link #clear} or of the map itself is released when they are
+ * garbage collected.
+ *
+ * <p>Keys can be given either as <tt>byte[]</tt> or as <tt>ByteBuffer</tt>,
+ * in the latter case bytes between buffer position and limit are used
+ * and buffer position is not changed.
+ *
+ * <p><strong>Note that this implementation is not synchronized,
+ * not even for concurrent reads.</strong>
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public class FastOffHeapHashMap {
+
+    // Index encoding is shared with FastHashMap
+    final static int AVAILABLE_BITS   = FastHashMap.AVAILABLE_BITS;
+    final static int CONTROL_BITS     = FastHashMap.CONTROL_BITS;
+    final static int CONTROL_EMPTY    = FastHashMap.CONTROL_EMPTY;
+    final static int CONTROL_NEXT     = FastHashMap.CONTROL_NEXT;
+    final static int CONTROL_OVERFLOW = FastHashMap.CONTROL_OVERFLOW;
+    final static int CONTROL_END      = FastHashMap.CONTROL_END;
+
+    /**
+     * Slot of 'not found' and 'end of iteration'.
+     */
+    final static int NO_SLOT = -1;
+
+    /**
+     * Size of the first data chunk.
+     */
+    final static int INITIAL_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Maximum size of a data chunk, and thus of a single record.
+     */
+    final static int MAXIMUM_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * Record header: key length, value length and array position
+     * of the record, used by compact to tell live records.
+     */
+    final static int RECORD_HEADER = 12;
+
+    /**
+     * The number of key-value mappings contained in this map.
+     */
+    int size;
+
+    /**
+     * Array of complex indices, see FastHashMap.indexTable.
+     */
+    IntBuffer indexTable;
+
+    /**
+     * Record address of each array position, 0 marks a free position.
+     * Address is <tt>(chunk number + 1) &lt;&lt; 32 | offset in chunk</tt>.
+     */
+    LongBuffer addressTable;
+
+    /**
+     * Data chunks, only the last one is appended to.
+     * Limit of each other chunk is the end of its records.
+     */
+    ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+    /**
+     * Position of the first free byte in the last chunk.
+     */
+    int chunkPosition;
+
+    /**
+     * Total length of all records in chunks.
+     */
+    long usedBytes;
+
+    /**
+     * Total length of removed and overwritten records in chunks.
+     */
+    long wastedBytes;
+
+    /**
+     * Index of the first not occupied position in array.
+     * All elements starting with this index are free.
+     */
+    int firstUnusedIndex;
+
+    /**
+     * Index of first element in deleted list,
+     * or -1 if no elements are deleted.
+     */
+    int firstDeletedIndex = -1;
+
+    /**
+     * Number of hash baskets, power of 2.
+     */
+    int hashLen;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     */
+    int threshold;
+
+    /**
+     * The load factor for the hash table.
+     */
+    final float loadFactor;
+
+    /**
+     * Constructs an empty map with the default initial capacity
+     * and the default load factor (0.75).
+     */
+    public FastOffHeapHashMap() {
+        this(FastHashMap.DEFAULT_INITIAL_CAPACITY, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and the default load factor (0.75).
+     *
+     * @param  initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative.
+     */
+    public FastOffHeapHashMap(int initialCapacity) {
+        this(initialCapacity, FastHashMap.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Constructs an empty map with the specified initial
+     * capacity and load factor.
+     *
+     * @param  initialCapacity the initial capacity
+     * @param  loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *         or the load factor is greater than one or is too low
+     */
+    public FastOffHeapHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException(
+                "Illegal initial capacity: " + initialCapacity);
+        if (initialCapacity > FastHashMap.MAXIMUM_CAPACITY)
+            initialCapacity = FastHashMap.MAXIMUM_CAPACITY;
+        if (Float.isNaN(loadFactor))
+            throw new IllegalArgumentException(
+                "Illegal load factor: " + loadFactor);
+        this.loadFactor = loadFactor > FastHashMap.MAXIMUM_LOAD_FACTOR ?
+            FastHashMap.MAXIMUM_LOAD_FACTOR : loadFactor;
+        // Find a power of 2 >= initialCapacity
+        for (hashLen = FastHashMap.DEFAULT_INITIAL_CAPACITY;
+            hashLen < initialCapacity; hashLen <<= 1);
+        threshold = (int)(hashLen * loadFactor);
+        if (threshold < 1)
+            throw new IllegalArgumentException(
+                "Illegal load factor: " + loadFactor);
+    }
+
+    /**
+     * Hashcode of key bytes between position and limit,
+     * the same as <tt>Arrays.hashCode(byte[])</tt>
+     * improved with <tt>FastHashMap.hash</tt>.
+     */
+    final static int hash(ByteBuffer key) {
+        int h = 1;
+        for (int i = key.position(), limit = key.limit(); i < limit; i++)
+            h = 31*h + key.get(i);
+        return FastHashMap.hash(h);
+    }
+
+    static IntBuffer allocateInts(int length) {
+        if (length > Integer.MAX_VALUE >> 2)
+            throw new IllegalStateException("Capacity exceeded: " + length);
+        return ByteBuffer.allocateDirect(length << 2)
+            .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    static LongBuffer allocateLongs(int length) {
+        if (length > Integer.MAX_VALUE >> 3)
+            throw new IllegalStateException("Capacity exceeded: " + length);
+        return ByteBuffer.allocateDirect(length << 3)
+            .order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    final ByteBuffer chunkOf(long address) {
+        return chunks.get((int)(address >>> 32) - 1);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the record at the specified address
+     * has the same key bytes.
+     */
+    final boolean keyEquals(long address, ByteBuffer key) {
+        ByteBuffer chunk = chunkOf(address);
+        int p = (int)address;
+        int len = key.remaining();
+        if (chunk.getInt(p) != len)
+            return false;
+        p += RECORD_HEADER;
+        int q = key.position();
+        int i = 0;
+        if (key.order() == chunk.order())
+            for (; i+8 <= len; i += 8)
+                if (chunk.getLong(p+i) != key.getLong(q+i))
+                    return false;
+        for (; i < len; i++)
+            if (chunk.get(p+i) != key.get(q+i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Makes sure that a record of the specified length can be appended
+     * to the last chunk, allocating a new one if needed.
+     */
+    final void reserve(long recordLen) {
+        if (recordLen > MAXIMUM_CHUNK_SIZE)
+            throw new IllegalArgumentException(
+                "Record is too large: " + recordLen + " bytes");
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size()-1);
+        if (chunk == null || chunkPosition + recordLen > chunk.capacity()) {
+            if (chunk != null)
+                chunk.limit(chunkPosition);
+            int chunkSize = chunk == null ? INITIAL_CHUNK_SIZE :
+                Math.min(chunk.capacity() << 1, MAXIMUM_CHUNK_SIZE);
+            while (chunkSize < recordLen) chunkSize <<= 1;
+            chunks.add(ByteBuffer.allocateDirect(chunkSize));
+            chunkPosition = 0;
+        }
+    }
+
+    /**
+     * Appends a new record of the specified array position to the last chunk.
+     *
+     * @return address of the new record
+     */
+    final long append(ByteBuffer key, ByteBuffer value, int position) {
+        int keyLen = key.remaining();
+        int valueLen = value.remaining();
+        int recordLen = RECORD_HEADER + keyLen + valueLen;
+        reserve(recordLen);
+        ByteBuffer chunk = chunks.get(chunks.size()-1);
+        long address = ((long)chunks.size() << 32) | chunkPosition;
+        chunk.putInt(chunkPosition, keyLen);
+        chunk.putInt(chunkPosition+4, valueLen);
+        chunk.putInt(chunkPosition+8, position);
+        chunk.position(chunkPosition+RECORD_HEADER);
+        chunk.put(key.duplicate());
+        chunk.put(value.duplicate());
+        chunk.position(0);
+        chunkPosition += recordLen;
+        usedBytes += recordLen;
+        return address;
+    }
+
+    /**
+     * Marks the record at the specified address as garbage.
+     */
+    final void release(long address) {
+        ByteBuffer chunk = chunkOf(address);
+        int p = (int)address;
+        wastedBytes += RECORD_HEADER + chunk.getInt(p) + chunk.getInt(p+4);
+    }
+
+    /**
+     * Increase size of internal arrays.
+     *
+     * @param  newCapacity  must be power of two
+     * and greater than current capacity (hashLen).
+     */
+    final void resize(int newCapacity) {
+        // New storage allocation
+        int newValueLen = (int)(newCapacity * loadFactor);
+        LongBuffer newAddresses = allocateLongs(newValueLen);
+        if (addressTable != null) {
+            addressTable.clear();
+            addressTable.limit(firstUnusedIndex);
+            newAddresses.put(addressTable);
+            newAddresses.clear();
+        }
+        IntBuffer newIndices = allocateInts(newCapacity+newValueLen);
+        if (indexTable != null) {
+            int mask = AVAILABLE_BITS ^ (hashLen-1);
+            int newMask = AVAILABLE_BITS ^ (newCapacity-1);
+            for (int i = hashLen-1; i >= 0; i--) {
+                int j = indexTable.get(i);
+                if ((j & CONTROL_BITS) == CONTROL_EMPTY) continue;
+                if ((j & CONTROL_BITS) == CONTROL_NEXT) {
+                    int i2 = (i+1) & (hashLen-1);
+                    int j2 = indexTable.get(i2);
+                    int arrayIndex1 = j  & (hashLen-1);
+                    int arrayIndex2 = j2 & (hashLen-1);
+                    int newHashIndex1 = i | (j  & (newMask ^ mask));
+                    int newHashIndex2 = i | (j2 & (newMask ^ mask));
+                    if (newHashIndex1 == newHashIndex2) {
+                        newIndices.put(newHashIndex1,
+                            arrayIndex1 | (j  & newMask) | CONTROL_NEXT);
+                        newIndices.put((newHashIndex1+1)&(newCapacity-1),
+                            arrayIndex2 | (j2 & newMask)); // | CONTROL_EMPTY;
+                    } else {
+                        newIndices.put(newHashIndex1, arrayIndex1 | (j  & newMask) | CONTROL_END);
+                        newIndices.put(newHashIndex2, arrayIndex2 | (j2 & newMask) | CONTROL_END);
+                    }
+                } else { // CONTROL_OVERFLOW and CONTROL_END
+                    int next1i = -1, next1v = 0, next1n = 0;
+                    int next2i = -1, next2v = 0, next2n = 0;
+                    while (true) {
+                        int arrayIndex = j & (hashLen-1);
+                        int newHashIndex = i | (j & (newMask ^ mask));
+                        if (newHashIndex == i) {
+                            if (next1i >= 0) {
+                                newIndices.put(next1i, next1v | CONTROL_OVERFLOW);
+                                next1i = newCapacity + (next1v & (newCapacity-1));
+                                next1n++;
+                            } else next1i = newHashIndex;
+                            next1v = arrayIndex | (j & newMask);
+                        } else if (newHashIndex == i+hashLen) {
+                            if (next2i >= 0) {
+                                newIndices.put(next2i, next2v | CONTROL_OVERFLOW);
+                                next2i = newCapacity + (next2v & (newCapacity-1));
+                                next2n++;
+                            } else next2i = newHashIndex;
+                            next2v = arrayIndex | (j & newMask);
+                        } else {
+                            int newIndex = arrayIndex | (j & newMask);
+                            int oldIndex = newIndices.get(newHashIndex);
+                            if ((oldIndex & CONTROL_BITS) != CONTROL_EMPTY) {
+                                newIndices.put(newCapacity + arrayIndex, oldIndex);
+                                newIndex |= CONTROL_OVERFLOW;
+                            } else newIndex |= CONTROL_END;
+                            newIndices.put(newHashIndex, newIndex);
+                        }
+                        if ((j & CONTROL_BITS) == CONTROL_END) break;
+                        j = indexTable.get(hashLen+arrayIndex);
+                    }
+                    if (next1i >= 0) {
+                        if (next1n == 1 && i != hashLen-1 &&
+                            (next1v & (hashLen-1)) != 0 &&
+                            newIndices.get(i+1) == 0) {
+                            newIndices.put(i, newIndices.get(i) ^ CONTROL_OVERFLOW ^ CONTROL_NEXT);
+                            newIndices.put(i+1, next1v);
+                        } else
+                            newIndices.put(next1i, next1v | CONTROL_END);
+                    }
+                    if (next2i >= 0) {
+                        if (next2n == 1 && i != hashLen-1 &&
+                            (next2v & (hashLen-1)) != 0 &&
+                            newIndices.get(i+hashLen+1) == 0) {
+                            newIndices.put(i+hashLen, newIndices.get(i+hashLen) ^ CONTROL_OVERFLOW ^ CONTROL_NEXT);
+                            newIndices.put(i+hashLen+1, next2v);
+                        } else
+                            newIndices.put(next2i, next2v | CONTROL_END);
+                    }
+                }
+            }
+            // Copy deleted list
+            for (int i = firstDeletedIndex; i >= 0; i = indexTable.get(hashLen + i))
+                newIndices.put(newCapacity + i, indexTable.get(hashLen + i));
+        }
+        hashLen = newCapacity;
+        threshold = newValueLen;
+        indexTable = newIndices;
+        addressTable = newAddresses;
+    }
+
+    /**
+     * Returns the array position of key if it is present.
+     *
+     * @param key key bytes
+     * @return position of key, or NO_SLOT if it was not found
+     */
+    final int slotOf(ByteBuffer key) {
+        // Check arrays lazy allocation
+        if (indexTable == null)
+            return NO_SLOT;
+        // Compute hash index
+        int hc = hash(key);
+        int index = indexTable.get(hc & (hashLen-1));
+        // Empty?
+        int control = index & CONTROL_BITS;
+        if (control == CONTROL_EMPTY)
+            return NO_SLOT;
+        // Search
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        while (true) {
+            int position = index & (hashLen-1);
+            if ((index & mask) == (hc & mask) &&
+                keyEquals(addressTable.get(position), key))
+                return position;
+            // Move forward
+            if (control == CONTROL_END)
+                return NO_SLOT; // END is more frequent - check it first
+            else if (control == CONTROL_OVERFLOW)
+                index = indexTable.get(hashLen+position);
+            else if (control == CONTROL_NEXT)
+                index = indexTable.get((hc+1) & (hashLen-1));
+            else // CONTROL_EMPTY
+                return NO_SLOT;
+            control = index & CONTROL_BITS;
+        }
+    }
+
+    /**
+     * Find or create a slot for the specified key.
+     *
+     * @param key key bytes
+     * @return position of existing key, or inverted (<tt>~position</tt>)
+     * position of a newly added key, which address must be set by the caller
+     */
+    final int insertKey(ByteBuffer key) {
+        int hc = hash(key);
+        int i = hc & (hashLen - 1);
+        int head;
+        if (indexTable != null) {
+            head = indexTable.get(i);
+        } else {
+            head = 0;
+            indexTable = allocateInts(hashLen+threshold);
+            addressTable = allocateLongs(threshold);
+        }
+        // Look if key is already in this map
+        int depth = 1;
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        int control = head & CONTROL_BITS;
+        if (control != CONTROL_EMPTY) {
+            int index = head;
+            while (true) {
+                int cur = index & (hashLen-1);
+                if ((index & mask) == (hc & mask) &&
+                    keyEquals(addressTable.get(cur), key))
+                    return cur;
+                depth++;
+                if ((index & CONTROL_BITS) == CONTROL_END)
+                    break;
+                else if ((index & CONTROL_BITS) == CONTROL_OVERFLOW)
+                    index = indexTable.get(hashLen+cur);
+                else if ((index & CONTROL_BITS) == CONTROL_NEXT)
+                    index = indexTable.get((i+1) & (hashLen-1));
+                else // CONTROL_EMPTY
+                    break;
+            }
+        }
+        // Resize if needed
+        boolean defragment = depth > 2 && firstUnusedIndex+depth <= threshold;
+        if (size >= threshold) {
+            resize(hashLen<<1);
+            i = hc & (hashLen - 1);
+            mask = AVAILABLE_BITS ^ (hashLen-1);
+            head = indexTable.get(i);
+            control = head & CONTROL_BITS;
+            defragment = false;
+        }
+        // Check if this cell is occupied by another hash bin
+        if (control == CONTROL_EMPTY && head != 0) {
+            int i2 = (hc-1) & (hashLen-1);
+            int head2 = indexTable.get(i2);
+            int j2 = head2 & (hashLen-1);
+            indexTable.put(i2, (head2 & AVAILABLE_BITS) | CONTROL_OVERFLOW);
+            indexTable.put(hashLen + j2, head | CONTROL_END);
+            head = 0;
+        }
+        // Find a place for new element
+        int newIndex;
+        if (firstDeletedIndex >= 0 && !defragment) {
+            // First reuse deleted positions
+            newIndex = firstDeletedIndex;
+            firstDeletedIndex = indexTable.get(hashLen+firstDeletedIndex);
+        } else {
+            newIndex = firstUnusedIndex;
+            firstUnusedIndex++;
+        }
+        // Defragment
+        if (defragment) {
+            // Move to new continuous space
+            int j = head;
+            head = (j & ~(hashLen-1)) | firstUnusedIndex;
+            while (true) {
+                int k = j & (hashLen - 1);
+                long address = addressTable.get(k);
+                addressTable.put(firstUnusedIndex, address);
+                addressTable.put(k, 0L);
+                chunkOf(address).putInt((int)address + 8, firstUnusedIndex);
+                int nextIndex, n;
+                if ((j & CONTROL_BITS) == CONTROL_END) {
+                    nextIndex = -1;
+                    n = 0;
+                } else if ((j & CONTROL_BITS) == CONTROL_OVERFLOW) {
+                    nextIndex = hashLen+k;
+                    n = indexTable.get(nextIndex);
+                } else if ((j & CONTROL_BITS) == CONTROL_NEXT) {
+                    nextIndex = (i+1) & (hashLen-1);
+                    n = indexTable.get(nextIndex) | CONTROL_END;
+                    indexTable.put(nextIndex, 0);
+                    head = (head & AVAILABLE_BITS) | CONTROL_OVERFLOW;
+                    control = CONTROL_OVERFLOW;
+                } else { // CONTROL_EMPTY
+                    nextIndex = -1;
+                    n = 0;
+                }
+                indexTable.put(hashLen+k, firstDeletedIndex);
+                firstDeletedIndex = k;
+                firstUnusedIndex++;
+                if (nextIndex < 0) break;
+                j = n;
+                indexTable.put(hashLen + firstUnusedIndex - 1,
+                    (j & ~(hashLen-1)) | firstUnusedIndex);
+            }
+        }
+        // Insert it
+        if (control == CONTROL_EMPTY) { // EMPTY is more frequent - check it first
+            indexTable.put(i, newIndex | (hc & mask) | CONTROL_END);
+        } else if (control == CONTROL_END && newIndex != 0 && indexTable.get((i+1)&(hashLen-1)) == 0) {
+            indexTable.put(i, (head & AVAILABLE_BITS) | CONTROL_NEXT);
+            indexTable.put((i+1)&(hashLen-1), newIndex | (hc & mask)); // | CONTROL_EMPTY;
+        } else if (control == CONTROL_NEXT) {
+            int i2 = (i+1) & (hashLen-1);
+            int head2 = indexTable.get(i2);
+            indexTable.put(i2, 0);
+            indexTable.put(hashLen + (head & (hashLen-1)), head2 | CONTROL_END);
+            indexTable.put(hashLen + newIndex, (head & AVAILABLE_BITS) | CONTROL_OVERFLOW);
+            indexTable.put(i, newIndex | (hc & mask) | CONTROL_OVERFLOW);
+        } else { // CONTROL_OVERFLOW and CONTROL_END
+            indexTable.put(hashLen + newIndex, head);
+            indexTable.put(i, newIndex | (hc & mask) | CONTROL_OVERFLOW);
+        }
+        //
+        size++;
+        return ~newIndex;
+    }
+
+    /**
+     * Removes the specified key from index and address table.
+     *
+     * @param key key bytes
+     * @return address of removed record, or 0 if it was not found
+     */
+    final long removeKey(ByteBuffer key) {
+        // Lazy array allocation check
+        if (indexTable == null)
+            return 0L;
+        // Compute hash index
+        int hc = hash(key);
+        int prev = -1;
+        int curr = hc & (hashLen-1);
+        // Check if this hash bin is empty
+        int i = indexTable.get(curr);
+        if ((i & CONTROL_BITS) == CONTROL_EMPTY)
+            return 0L;
+        // Search
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        while (true) {
+            int j = i & (hashLen-1);
+            int k = hashLen + j;
+            long address = addressTable.get(j);
+            if ((hc & mask) == (i & mask) && keyEquals(address, key)) {
+                size--;
+                if((i & CONTROL_BITS) == CONTROL_END) {
+                    if (prev >= 0)
+                        indexTable.put(prev, indexTable.get(prev) | CONTROL_END);
+                    else
+                        indexTable.put(curr, 0);
+                } else if((i & CONTROL_BITS) == CONTROL_OVERFLOW) {
+                    indexTable.put(curr, indexTable.get(k));
+                } else if ((i & CONTROL_BITS) == CONTROL_NEXT) {
+                    int c2 = (curr+1) & (hashLen-1);
+                    int i2 = indexTable.get(c2);
+                    indexTable.put(curr, i2 | CONTROL_END);
+                    indexTable.put(c2, 0);
+                } else { // CONTROL_EMPTY
+                    indexTable.put(prev, indexTable.get(prev) | CONTROL_END);
+                    indexTable.put(curr, 0);
+                }
+                if (size == 0) {
+                    firstUnusedIndex = 0;
+                    firstDeletedIndex = -1;
+                } else if (j == firstUnusedIndex-1) {
+                    firstUnusedIndex = j;
+                } else {
+                    indexTable.put(k, firstDeletedIndex);
+                    firstDeletedIndex = j;
+                }
+                addressTable.put(j, 0L);
+                return address;
+            }
+            prev = curr;
+            if ((i & CONTROL_BITS) == CONTROL_END)
+                break; // END is more frequent - check it first
+            else if ((i & CONTROL_BITS) == CONTROL_OVERFLOW)
+                curr = k;
+            else if ((i & CONTROL_BITS) == CONTROL_NEXT)
+                curr = (curr+1) & (hashLen-1);
+            else break;
+            i = indexTable.get(curr);
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     *
+     * @return <tt>true</tt> if this map contains no key-value mappings
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the
+     * specified key.
+     *
+     * @param   key   The key whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map contains a mapping for the specified
+     * key.
+     */
+    public boolean containsKey(byte[] key) {
+        return slotOf(ByteBuffer.wrap(key)) != NO_SLOT;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the
+     * bytes remaining in the specified buffer.
+     *
+     * @param   key   The key whose presence in this map is to be tested
+     * @return <tt>true</tt> if this map contains a mapping for the specified
+     * key.
+     */
+    public boolean containsKey(ByteBuffer key) {
+        return slotOf(key) != NO_SLOT;
+    }
+
+    /**
+     * Returns a copy of the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value or {@code null}
+     */
+    public byte[] get(byte[] key) {
+        return get(ByteBuffer.wrap(key));
+    }
+
+    /**
+     * Returns a copy of the value to which the bytes remaining
+     * in the specified buffer are mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value or {@code null}
+     */
+    public byte[] get(ByteBuffer key) {
+        int slot = slotOf(key);
+        if (slot == NO_SLOT)
+            return null;
+        return valueAt(addressTable.get(slot));
+    }
+
+    /**
+     * Returns a copy of the value of the record at the specified address.
+     */
+    final byte[] valueAt(long address) {
+        ByteBuffer chunk = chunkOf(address).duplicate();
+        int p = (int)address;
+        byte[] value = new byte[chunk.getInt(p+4)];
+        chunk.position(p + RECORD_HEADER + chunk.getInt(p));
+        chunk.get(value);
+        return value;
+    }
+
+    /**
+     * Returns a copy of the key of the record at the specified address.
+     */
+    final byte[] keyAt(long address) {
+        ByteBuffer chunk = chunkOf(address).duplicate();
+        int p = (int)address;
+        byte[] key = new byte[chunk.getInt(p)];
+        chunk.position(p + RECORD_HEADER);
+        chunk.get(key);
+        return key;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.  Both arrays are copied into native memory.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return <tt>true</tt> if there was no mapping for <tt>key</tt>.
+     * @throws IllegalArgumentException if the record does not fit into
+     *         a data chunk
+     */
+    public boolean put(byte[] key, byte[] value) {
+        return put(ByteBuffer.wrap(key), ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Associates bytes remaining in <tt>value</tt> buffer with
+     * bytes remaining in <tt>key</tt> buffer.  Buffer positions
+     * are not changed.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return <tt>true</tt> if there was no mapping for <tt>key</tt>.
+     * @throws IllegalArgumentException if the record does not fit into
+     *         a data chunk
+     */
+    public boolean put(ByteBuffer key, ByteBuffer value) {
+        if (wastedBytes >= INITIAL_CHUNK_SIZE && wastedBytes > usedBytes - wastedBytes)
+            compact();
+        // Allocate memory first so that a failure leaves the map intact
+        reserve((long)RECORD_HEADER + key.remaining() + value.remaining());
+        int slot = insertKey(key);
+        if (slot < 0) {
+            addressTable.put(~slot, append(key, value, ~slot));
+            return true;
+        }
+        long address = addressTable.get(slot);
+        ByteBuffer chunk = chunkOf(address);
+        int p = (int)address;
+        if (chunk.getInt(p+4) == value.remaining()) {
+            // Same length - overwrite in place
+            chunk.position(p + RECORD_HEADER + chunk.getInt(p));
+            chunk.put(value.duplicate());
+            chunk.position(0);
+        } else {
+            long newAddress = append(key, value, slot);
+            release(address);
+            addressTable.put(slot, newAddress);
+        }
+        return false;
+    }
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     *
+     * @param  key key whose mapping is to be removed from the map
+     * @return <tt>true</tt> if there was a mapping for <tt>key</tt>.
+     */
+    public boolean remove(byte[] key) {
+        return remove(ByteBuffer.wrap(key));
+    }
+
+    /**
+     * Removes the mapping for the bytes remaining in the specified buffer
+     * from this map if present.
+     *
+     * @param  key key whose mapping is to be removed from the map
+     * @return <tt>true</tt> if there was a mapping for <tt>key</tt>.
+     */
+    public boolean remove(ByteBuffer key) {
+        long address = removeKey(key);
+        if (address == 0L)
+            return false;
+        release(address);
+        return true;
+    }
+
+    /**
+     * Returns a new list with copies of all keys contained in this map.
+     *
+     * @return keys of this map
+     */
+    public List<byte[]> keys() {
+        List<byte[]> result = new ArrayList<byte[]>(size);
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            long address = addressTable.get(i);
+            if (address != 0L)
+                result.add(keyAt(address));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes occupied by records in native memory,
+     * including garbage not yet reclaimed by {@link #compact}.
+     *
+     * @return number of bytes used by records
+     */
+    public long dataSize() {
+        return usedBytes;
+    }
+
+    /**
+     * Slides live records down to the beginning of the chunks, reclaiming
+     * space of removed and overwritten ones, and drops chunks left empty.
+     * Records are moved in address order, so a record is never copied
+     * over one not moved yet.  The index is not changed.
+     * This is called automatically by <tt>put</tt> when there is
+     * more garbage than live data.
+     */
+    public void compact() {
+        int last = chunks.size() - 1;
+        if (last < 0)
+            return;
+        int[] fills = new int[last+1];
+        for (int s = 0; s < last; s++)
+            fills[s] = chunks.get(s).limit();
+        fills[last] = chunkPosition;
+        int d = 0, dstPos = 0;
+        ByteBuffer dst = chunks.get(0);
+        dst.limit(dst.capacity());
+        usedBytes = 0;
+        wastedBytes = 0;
+        for (int s = 0; s <= last; s++) {
+            ByteBuffer src = chunks.get(s);
+            for (int p = 0; p < fills[s]; ) {
+                int len = RECORD_HEADER + src.getInt(p) + src.getInt(p+4);
+                int slot = src.getInt(p+8);
+                if (slot < firstUnusedIndex &&
+                    addressTable.get(slot) == (((long)(s+1) << 32) | p)) {
+                    // A chunk before this one may be too small for it
+                    while (dstPos + len > dst.capacity()) {
+                        dst.limit(dstPos);
+                        dst = chunks.get(++d);
+                        dst.limit(dst.capacity());
+                        dstPos = 0;
+                    }
+                    if (d != s || dstPos != p) {
+                        ByteBuffer record = src.duplicate();
+                        record.limit(p + len);
+                        record.position(p);
+                        dst.position(dstPos);
+                        dst.put(record);
+                        dst.position(0);
+                        addressTable.put(slot, ((long)(d+1) << 32) | dstPos);
+                    }
+                    dstPos += len;
+                    usedBytes += len;
+                }
+                p += len;
+            }
+        }
+        chunks.subList(d+1, last+1).clear();
+        chunkPosition = dstPos;
+    }
+
+    /**
+     * Removes all of the mappings from this map and releases data chunks.
+     * The map will be empty after this call returns.
+     */
+    public void clear() {
+        for (int i = 0; i < hashLen + firstUnusedIndex && indexTable != null; i++)
+            indexTable.put(i, 0);
+        for (int i = 0; i < firstUnusedIndex; i++)
+            addressTable.put(i, 0L);
+        chunks.clear();
+        chunkPosition = 0;
+        usedBytes = 0;
+        wastedBytes = 0;
+        size = 0;
+        firstUnusedIndex = 0;
+        firstDeletedIndex = -1;
+    }
+}
@@ -0,0 +1,591 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.io.*;
+
+/**
+ * An immutable map indexed by a minimal perfect hash function,
+ * for large read-only lookup tables.  It is built from any map by
+ * {@link #build build}, usually a <tt>FastHashMap</tt> filled
+ * at startup.
+ *
+ * <p>A minimal perfect hash function maps <i>n</i> keys it was built
+ * for to distinct numbers from 0 to <i>n</i>-1, so keys and values
+ * are stored in exact-sized arrays without any chains: a lookup
+ * computes one position and calls <tt>equals</tt> at most once,
+ * to reject keys which are not in the map.  The function is built
+ * BBHash-style: a cascade of bit arrays about twice as long as the
+ * number of keys still placed at each level; a key which does not
+ * collide with another one at a level sets its bit there, and its
+ * position is the number of bits set before it.  The index costs
+ * about 3.5 bits per key (bit arrays and rank table) instead of
+ * two ints per key of a <tt>FastHashMap</tt> index.
+ *
+ * <p>The keys are hashed into 64 bits: <tt>String</tt> keys by
+ * their chars, other keys by their 32-bit <tt>hashCode</tt>.  Keys
+ * with equal hashes can not be told apart by any level, they are
+ * kept in a small hash map which is checked after the last level.
+ * Keys are hashed and compared by the {@link HashingStrategy}
+ * of a <tt>FastHashMap</tt> it is built from if it has one.
+ *
+ * <p>All fields are final, so an instance is safely published to
+ * other threads and can be read by any number of them without
+ * synchronization.  All modification methods throw
+ * <tt>UnsupportedOperationException</tt>.  Mappings are iterated
+ * in the order of their hash positions.  <tt>null</tt> keys and
+ * values are permitted.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastFrozenHashMap
+ */
+public final class FastPerfectHashMap<K,V>
+    extends AbstractMap<K,V>
+    implements Serializable
+{
+    private static final long serialVersionUID = -4465170216628950376L;
+
+    /**
+     * Length of level bit arrays relative to the number
+     * of keys placed at the level.  Larger values need fewer
+     * levels and less time to build but more bits per key.
+     */
+    static final double GAMMA = 2.0;
+
+    /**
+     * Maximum number of levels, keys which are not placed by them
+     * go to the overflow map.
+     */
+    static final int MAX_LEVELS = 32;
+
+    /**
+     * Number of successive levels placing no key after which
+     * remaining keys are assumed to have equal hashes.
+     */
+    static final int MAX_STALLS = 4;
+
+    /**
+     * Number of bit words per rank table entry.
+     */
+    static final int RANK_WORDS = 8;
+
+    /**
+     * Hash code and equality of keys, <tt>null</tt> for their own methods.
+     */
+    final HashingStrategy<Object> strategy;
+
+    /**
+     * Seed of the hash function.
+     */
+    final long hashSeed;
+
+    /**
+     * Bit arrays of all levels.
+     */
+    final long[] bits;
+
+    /**
+     * First word of each level in bits.
+     */
+    final int[] levelStart;
+
+    /**
+     * Number of bits of each level, a multiple of 64.
+     */
+    final int[] levelSize;
+
+    /**
+     * Number of bits set before every RANK_WORDS words of bits.
+     */
+    final int[] ranks;
+
+    /**
+     * Keys and values at each position, alternating.
+     */
+    final Object[] keyValues;
+
+    /**
+     * Positions of keys not placed by the levels,
+     * <tt>null</tt> if there are none.
+     */
+    final FastHashMap<Object,Integer> overflow;
+
+    /**
+     * <tt>true</tt> if there is a mapping for null key.
+     */
+    final boolean nullKeyPresent;
+
+    /**
+     * Value of null key.
+     */
+    final Object nullValue;
+
+    /**
+     * Builds an immutable map with the same mappings as the specified map.
+     * If it is a <tt>FastHashMap</tt> with a {@link HashingStrategy}
+     * keys are hashed and compared by this strategy.
+     *
+     * @param  m the map whose mappings are to be placed into this map
+     * @return an immutable map with the mappings of <tt>m</tt>
+     * @throws NullPointerException if the specified map is null
+     */
+    public static <K,V> FastPerfectHashMap<K,V> build(Map<? extends K, ? extends V> m) {
+        Object[] kv = new Object[m.size() << 1];
+        int n = 0;
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            kv[n++] = e.getKey();
+            kv[n++] = e.getValue();
+        }
+        if (n != kv.length)
+            throw new ConcurrentModificationException();
+        return new FastPerfectHashMap<K,V>(kv,
+            m instanceof FastHashMap<?,?> ? ((FastHashMap<?,?>)m).strategy : null);
+    }
+
+    /**
+     * Builds the map.
+     *
+     * @param kv keys and values, alternating
+     * @param strategy hashing strategy or <tt>null</tt>
+     */
+    FastPerfectHashMap(Object[] kv, HashingStrategy<Object> strategy) {
+        this.strategy = strategy;
+        this.hashSeed = ThreadLocalRandom.current().nextLong();
+        boolean hasNull = false;
+        Object nullValue = null;
+        int n = 0;
+        for (int i = 0; i < kv.length; i += 2)
+            if (kv[i] == null) {
+                hasNull = true;
+                nullValue = kv[i+1];
+            } else
+                n++;
+        // Hashes of not null keys and indices of those not placed yet
+        long[] hashes = new long[n];
+        int[] remaining = new int[n];
+        for (int i = 0, j = 0; i < kv.length; i += 2)
+            if (kv[i] != null) {
+                remaining[j] = j;
+                hashes[j++] = hash(kv[i]);
+            }
+        // Build levels
+        List<long[]> levels = new ArrayList<long[]>();
+        int left = n, stalls = 0;
+        while (left > 0 && levels.size() < MAX_LEVELS && stalls < MAX_STALLS) {
+            int level = levels.size();
+            int size = (int)Math.min(((long)Math.ceil(left * GAMMA) + 63) & ~63L,
+                Integer.MAX_VALUE & ~63);
+            long[] seen = new long[size >>> 6];
+            long[] collided = new long[size >>> 6];
+            for (int j = 0; j < left; j++) {
+                int p = position(hashes[remaining[j]], level, size);
+                if ((seen[p >>> 6] & (1L << p)) != 0)
+                    collided[p >>> 6] |= 1L << p;
+                else
+                    seen[p >>> 6] |= 1L << p;
+            }
+            int newLeft = 0;
+            for (int j = 0; j < left; j++) {
+                int p = position(hashes[remaining[j]], level, size);
+                if ((collided[p >>> 6] & (1L << p)) != 0)
+                    remaining[newLeft++] = remaining[j];
+            }
+            for (int w = 0; w < seen.length; w++)
+                seen[w] &= ~collided[w];
+            // A few keys can collide by chance at a level,
+            // keys with equal hashes never separate
+            stalls = newLeft == left ? stalls + 1 : 0;
+            levels.add(seen);
+            left = newLeft;
+        }
+        // Trailing levels with no keys are useless
+        while (stalls-- > 0)
+            levels.remove(levels.size() - 1);
+        // Concatenate levels and build rank table
+        int words = 0;
+        int[] levelStart = new int[levels.size()];
+        int[] levelSize = new int[levels.size()];
+        for (int l = 0; l < levels.size(); l++) {
+            levelStart[l] = words;
+            levelSize[l] = levels.get(l).length << 6;
+            words += levels.get(l).length;
+        }
+        long[] bits = new long[words];
+        for (int l = 0; l < levels.size(); l++)
+            System.arraycopy(levels.get(l), 0, bits, levelStart[l], levels.get(l).length);
+        int[] ranks = new int[words / RANK_WORDS + 1];
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            if (w % RANK_WORDS == 0)
+                ranks[w / RANK_WORDS] = count;
+            count += Long.bitCount(bits[w]);
+        }
+        this.bits = bits;
+        this.levelStart = levelStart;
+        this.levelSize = levelSize;
+        this.ranks = ranks;
+        // Place keys and values
+        Object[] keyValues = new Object[n << 1];
+        FastHashMap<Object,Integer> overflow = null;
+        int overflowIndex = count;
+        for (int i = 0, j = 0; i < kv.length; i += 2) {
+            Object key = kv[i];
+            if (key == null)
+                continue;
+            int p = indexOf(hashes[j++]);
+            if (p < 0) {
+                if (overflow == null)
+                    overflow = strategy == null ? new FastHashMap<Object,Integer>() :
+                        new FastHashMap<Object,Integer>(strategy);
+                p = overflowIndex++;
+                overflow.put(key, p);
+            }
+            keyValues[p<<1] = key;
+            keyValues[(p<<1)+1] = kv[i+1];
+        }
+        this.keyValues = keyValues;
+        this.overflow = overflow;
+        this.nullKeyPresent = hasNull;
+        this.nullValue = nullValue;
+    }
+
+    /**
+     * 64-bit hash of a not null key.
+     */
+    final long hash(Object key) {
+        long h;
+        if (strategy != null)
+            h = strategy.hashCode(key);
+        else if (key instanceof String) {
+            // FNV-1a over chars
+            String s = (String)key;
+            h = 0xCBF29CE484222325L;
+            for (int i = 0; i < s.length(); i++)
+                h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        } else
+            h = key.hashCode();
+        return mix(h ^ hashSeed);
+    }
+
+    /**
+     * The finalizer of 64-bit MurmurHash3.
+     */
+    static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Bit of a hash in a level of the specified size.
+     */
+    static int position(long hash, int level, int size) {
+        long h = mix(hash + (level + 1) * 0x9E3779B97F4A7C15L);
+        return (int)(((h >>> 32) * size) >>> 32);
+    }
+
+    /**
+     * Number of bits set before the specified bit.
+     */
+    final int rank(long bit) {
+        int w = (int)(bit >>> 6);
+        int r = ranks[w / RANK_WORDS];
+        for (int i = w - w % RANK_WORDS; i < w; i++)
+            r += Long.bitCount(bits[i]);
+        return r + Long.bitCount(bits[w] & ((1L << bit) - 1));
+    }
+
+    /**
+     * Position of a hash placed by the levels or -1.
+     */
+    final int indexOf(long hash) {
+        for (int l = 0; l < levelSize.length; l++) {
+            long bit = ((long)levelStart[l] << 6) + position(hash, l, levelSize[l]);
+            if ((bits[(int)(bit >>> 6)] & (1L << bit)) != 0)
+                return rank(bit);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of a not null key or -1.
+     */
+    final int positionOf(Object key) {
+        int p = indexOf(hash(key));
+        if (p < 0) {
+            if (overflow == null)
+                return -1;
+            Integer q = overflow.get(key);
+            return q == null ? -1 : q;
+        }
+        Object key1 = keyValues[p<<1];
+        return key == key1 || (strategy == null ? key.equals(key1) :
+            strategy.equals(key, key1)) ? p : -1;
+    }
+
+    /**
+     * Returns the number of bits used by the index:
+     * level bits, rank table and overflow positions.
+     */
+    final long indexBits() {
+        return ((long)bits.length << 6) + ((long)ranks.length << 5) +
+            (overflow == null ? 0 : (long)overflow.size() << 6);
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     */
+    public int size() {
+        return (keyValues.length >> 1) + (nullKeyPresent ? 1 : 0);
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    public boolean isEmpty() {
+        return keyValues.length == 0 && !nullKeyPresent;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null)
+            return (V)nullValue;
+        int p = positionOf(key);
+        return p < 0 ? null : (V)keyValues[(p<<1)+1];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        if (key == null)
+            return nullKeyPresent ? (V)nullValue : defaultValue;
+        int p = positionOf(key);
+        return p < 0 ? defaultValue : (V)keyValues[(p<<1)+1];
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains a mapping for the
+     * specified key.
+     */
+    public boolean containsKey(Object key) {
+        return key == null ? nullKeyPresent : positionOf(key) >= 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.
+     */
+    public boolean containsValue(Object value) {
+        if (nullKeyPresent && Objects.equals(nullValue, value))
+            return true;
+        for (int i = 1; i < keyValues.length; i += 2)
+            if (Objects.equals(keyValues[i], value))
+                return true;
+        return false;
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Throws <tt>UnsupportedOperationException</tt>: the map is immutable.
+     */
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Index of null key in iteration.
+     */
+    final static int NULL_INDEX = -1;
+
+    @SuppressWarnings("unchecked")
+    final K keyAt(int p) {
+        return p == NULL_INDEX ? null : (K)keyValues[p<<1];
+    }
+
+    @SuppressWarnings("unchecked")
+    final V valueAt(int p) {
+        return p == NULL_INDEX ? (V)nullValue : (V)keyValues[(p<<1)+1];
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        for (int p = nullKeyPresent ? NULL_INDEX : 0; p < keyValues.length >> 1; p++)
+            action.accept(keyAt(p), valueAt(p));
+    }
+
+    /**
+     * Views, created on demand.
+     */
+    private transient Set<K> keySet;
+    private transient Collection<V> values;
+    private transient Set<Map.Entry<K,V>> entrySet;
+
+    /**
+     * Returns an unmodifiable {@link Set} view of the keys
+     * contained in this map.
+     */
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null ? ks : (keySet = new KeySet()));
+    }
+
+    /**
+     * Returns an unmodifiable {@link Collection} view of the values
+     * contained in this map.
+     */
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return (vs != null ? vs : (values = new Values()));
+    }
+
+    /**
+     * Returns an unmodifiable {@link Set} view of the mappings
+     * contained in this map.
+     */
+    public Set<Map.Entry<K,V>> entrySet() {
+        Set<Map.Entry<K,V>> es = entrySet;
+        return (es != null ? es : (entrySet = new EntrySet()));
+    }
+
+    abstract class PositionIterator<E> implements Iterator<E> {
+        int next = nullKeyPresent ? NULL_INDEX : 0;
+
+        public final boolean hasNext() {
+            return next < keyValues.length >> 1;
+        }
+
+        final int nextPosition() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return next++;
+        }
+    }
+
+    final class KeyIterator extends PositionIterator<K> {
+        public K next() {
+            return keyAt(nextPosition());
+        }
+    }
+
+    final class ValueIterator extends PositionIterator<V> {
+        public V next() {
+            return valueAt(nextPosition());
+        }
+    }
+
+    final class EntryIterator extends PositionIterator<Map.Entry<K,V>> {
+        public Map.Entry<K,V> next() {
+            int p = nextPosition();
+            return new AbstractMap.SimpleImmutableEntry<K,V>(keyAt(p), valueAt(p));
+        }
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+        public int size() {
+            return FastPerfectHashMap.this.size();
+        }
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+        public int size() {
+            return FastPerfectHashMap.this.size();
+        }
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry<?,?>))
+                return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            Object key = e.getKey();
+            if (key == null)
+                return nullKeyPresent && Objects.equals(nullValue, e.getValue());
+            int p = positionOf(key);
+            return p >= 0 && Objects.equals(keyValues[(p<<1)+1], e.getValue());
+        }
+        public int size() {
+            return FastPerfectHashMap.this.size();
+        }
+    }
+
+    /**
+     * Mappings are serialized and the hash function is rebuilt
+     * when they are read, since hash codes of keys may be
+     * different in another VM.
+     */
+    private Object writeReplace() {
+        Object[] kv = Arrays.copyOf(keyValues, keyValues.length + (nullKeyPresent ? 2 : 0));
+        if (nullKeyPresent)
+            kv[kv.length - 1] = nullValue;
+        return new SerializedForm(kv, strategy);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("SerializedForm required");
+    }
+
+    /**
+     * Serialized form of the map.
+     */
+    static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 2874591130957329117L;
+
+        /**
+         * @serial keys and values, alternating
+         */
+        final Object[] keyValues;
+        /**
+         * @serial hashing strategy or <tt>null</tt>
+         */
+        final HashingStrategy<Object> strategy;
+
+        SerializedForm(Object[] keyValues, HashingStrategy<Object> strategy) {
+            this.keyValues = keyValues;
+            this.strategy = strategy;
+        }
+
+        private Object readResolve() {
+            return new FastPerfectHashMap<Object,Object>(keyValues, strategy);
+        }
+    }
+}
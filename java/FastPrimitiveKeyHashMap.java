@@ -0,0 +1,629 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * Index engine of hash maps with primitive keys.
+ *
+ * <p>It uses the same <tt>indexTable</tt> encoding as {@link FastHashMap}
+ * (<tt>CONTROL_NEXT</tt>/<tt>CONTROL_OVERFLOW</tt>/<tt>CONTROL_END</tt>
+ * control bits plus stored hashcode bits), but keys are kept
+ * in a plain primitive array instead of interleaved <tt>Object[]</tt>,
+ * so no boxing is needed and each mapping costs only a few words.
+ * Keys are passed to the engine as <tt>long</tt> together with their
+ * hashcode, subclasses store them and compare stored keys.
+ *
+ * <p>Entries are addressed by <i>slot</i>: slot 0 is reserved for
+ * the key <tt>0</tt> (like the <tt>null</tt> key in <tt>FastHashMap</tt>),
+ * array index <tt>i</tt> lives in slot <tt>i+1</tt>.
+ * Subclasses keep their keys and values in arrays indexed by slot.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap
+ */
+public abstract class FastPrimitiveKeyHashMap
+    implements Cloneable, Serializable
+{
+    private static final long serialVersionUID = 6021794508346213275L;
+
+    // Index encoding is shared with FastHashMap
+    final static int AVAILABLE_BITS   = FastHashMap.AVAILABLE_BITS;
+    final static int CONTROL_BITS     = FastHashMap.CONTROL_BITS;
+    final static int CONTROL_EMPTY    = FastHashMap.CONTROL_EMPTY;
+    final static int CONTROL_NEXT     = FastHashMap.CONTROL_NEXT;
+    final static int CONTROL_OVERFLOW = FastHashMap.CONTROL_OVERFLOW;
+    final static int CONTROL_END      = FastHashMap.CONTROL_END;
+
+    /**
+     * Slot of the zero key.
+     */
+    final static int ZERO_SLOT = 0;
+
+    /**
+     * Slot of 'not found' and 'end of iteration'.
+     */
+    final static int NO_SLOT = -1;
+
+    /**
+     * True if this map contains zero key.
+     * Zero in key array marks an empty cell,
+     * so zero key is handled as a special case.
+     */
+    transient boolean zeroKeyPresent;
+
+    /**
+     * The number of key-value mappings contained in this map.
+     */
+    transient int size;
+
+    /**
+     * Array of complex indices, see FastHashMap.indexTable.
+     */
+    transient int[] indexTable;
+
+    /**
+     * Index of the first not occupied position in array.
+     * All elements starting with this index are free.
+     */
+    transient int firstUnusedIndex;
+
+    /**
+     * Index of first element in deleted list,
+     * or -1 if no elements are deleted.
+     */
+    transient int firstDeletedIndex = -1;
+
+    /**
+     * Number of hash baskets, power of 2.
+     */
+    transient int hashLen;
+
+    /**
+     * The next size value at which to resize (capacity * load factor).
+     * @serial
+     */
+    int threshold;
+
+    /**
+     * The load factor for the hash table.
+     * @serial
+     */
+    final float loadFactor;
+
+    /**
+     * The number of times this map has been structurally modified.
+     */
+    transient int modCount;
+
+    FastPrimitiveKeyHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException(
+                "Illegal initial capacity: " + initialCapacity);
+        if (initialCapacity > FastHashMap.MAXIMUM_CAPACITY)
+            initialCapacity = FastHashMap.MAXIMUM_CAPACITY;
+        if (Float.isNaN(loadFactor))
+            throw new IllegalArgumentException(
+                "Illegal load factor: " + loadFactor);
+        this.loadFactor = loadFactor > FastHashMap.MAXIMUM_LOAD_FACTOR ?
+            FastHashMap.MAXIMUM_LOAD_FACTOR : loadFactor;
+        // Find a power of 2 >= initialCapacity
+        for (hashLen = FastHashMap.DEFAULT_INITIAL_CAPACITY;
+            hashLen < initialCapacity; hashLen <<= 1);
+        threshold = (int)(hashLen * loadFactor);
+        if (threshold < 1)
+            throw new IllegalArgumentException(
+                "Illegal load factor: " + loadFactor);
+    }
+
+    /**
+     * (Re)allocate key storage so that it can hold
+     * <tt>length</tt> slots, keeping existing keys.
+     */
+    abstract void resizeKeys(int length);
+
+    /**
+     * Returns <tt>true</tt> if the key stored in
+     * the specified (non-zero) slot is equal to <tt>key</tt>.
+     */
+    abstract boolean isKey(int slot, long key);
+
+    /**
+     * Returns <tt>true</tt> if no key is stored in
+     * the specified (non-zero) slot.
+     */
+    abstract boolean isEmptyKey(int slot);
+
+    /**
+     * Stores key in the specified slot, <tt>0</tt> clears it.
+     */
+    abstract void setKey(int slot, long key);
+
+    /**
+     * Move key from one slot to another (during defragmentation)
+     * and clear the old one.
+     */
+    abstract void moveKey(int newSlot, int oldSlot);
+
+    /**
+     * Clear keys in slots <tt>[0, length)</tt>.
+     */
+    abstract void clearKeys(int length);
+
+    /**
+     * (Re)allocate value storage so that it can hold
+     * <tt>length</tt> slots, keeping existing values.
+     */
+    abstract void resizeValues(int length);
+
+    /**
+     * Move value from one slot to another (during defragmentation)
+     * and clear the old one.
+     */
+    abstract void moveValue(int newSlot, int oldSlot);
+
+    /**
+     * Clear values in slots <tt>[0, length)</tt>.
+     */
+    abstract void clearValues(int length);
+
+    /**
+     * Increase size of internal arrays.
+     *
+     * @param  newCapacity  must be power of two
+     * and greater than current capacity (hashLen).
+     */
+    final void resize(int newCapacity) {
+        // New storage allocation
+        int newValueLen = (int)(newCapacity * loadFactor);
+        resizeKeys(newValueLen+1);
+        resizeValues(newValueLen+1);
+        int[] newIndices = new int[newCapacity+newValueLen];
+        if (indexTable != null) {
+            int mask = AVAILABLE_BITS ^ (hashLen-1);
+            int newMask = AVAILABLE_BITS ^ (newCapacity-1);
+            for (int i = hashLen-1; i >= 0; i--) {
+                int j = indexTable[i];
+                if ((j & CONTROL_BITS) == CONTROL_EMPTY) continue;
+                if ((j & CONTROL_BITS) == CONTROL_NEXT) {
+                    int i2 = (i+1) & (hashLen-1);
+                    int j2 = indexTable[i2];
+                    int arrayIndex1 = j  & (hashLen-1);
+                    int arrayIndex2 = j2 & (hashLen-1);
+                    int newHashIndex1 = i | (j  & (newMask ^ mask));
+                    int newHashIndex2 = i | (j2 & (newMask ^ mask));
+                    if (newHashIndex1 == newHashIndex2) {
+                        newIndices[newHashIndex1] =
+                            arrayIndex1 | (j  & newMask) | CONTROL_NEXT;
+                        newIndices[(newHashIndex1+1)&(newCapacity-1)] =
+                            arrayIndex2 | (j2 & newMask); // | CONTROL_EMPTY;
+                    } else {
+                        newIndices[newHashIndex1] = arrayIndex1 | (j  & newMask) | CONTROL_END;
+                        newIndices[newHashIndex2] = arrayIndex2 | (j2 & newMask) | CONTROL_END;
+                    }
+                } else { // CONTROL_OVERFLOW and CONTROL_END
+                    int next1i = -1, next1v = 0, next1n = 0;
+                    int next2i = -1, next2v = 0, next2n = 0;
+                    while (true) {
+                        int arrayIndex = j & (hashLen-1);
+                        int newHashIndex = i | (j & (newMask ^ mask));
+                        if (newHashIndex == i) {
+                            if (next1i >= 0) {
+                                newIndices[next1i] = next1v | CONTROL_OVERFLOW;
+                                next1i = newCapacity + (next1v & (newCapacity-1));
+                                next1n++;
+                            } else next1i = newHashIndex;
+                            next1v = arrayIndex | (j & newMask);
+                        } else if (newHashIndex == i+hashLen) {
+                            if (next2i >= 0) {
+                                newIndices[next2i] = next2v | CONTROL_OVERFLOW;
+                                next2i = newCapacity + (next2v & (newCapacity-1));
+                                next2n++;
+                            } else next2i = newHashIndex;
+                            next2v = arrayIndex | (j & newMask);
+                        } else {
+                            int newIndex = arrayIndex | (j & newMask);
+                            int oldIndex = newIndices[newHashIndex];
+                            if ((oldIndex & CONTROL_BITS) != CONTROL_EMPTY) {
+                                newIndices[newCapacity + arrayIndex] = oldIndex;
+                                newIndex |= CONTROL_OVERFLOW;
+                            } else newIndex |= CONTROL_END;
+                            newIndices[newHashIndex] = newIndex;
+                        }
+                        if ((j & CONTROL_BITS) == CONTROL_END) break;
+                        j = indexTable[hashLen+arrayIndex];
+                    }
+                    if (next1i >= 0) {
+                        if (next1n == 1 && i != hashLen-1 &&
+                            (next1v & (hashLen-1)) != 0 &&
+                            newIndices[i+1] == 0) {
+                            newIndices[i] ^= CONTROL_OVERFLOW ^ CONTROL_NEXT;
+                            newIndices[i+1] = next1v;
+                        } else
+                            newIndices[next1i] = next1v | CONTROL_END;
+                    }
+                    if (next2i >= 0) {
+                        if (next2n == 1 && i != hashLen-1 &&
+                            (next2v & (hashLen-1)) != 0 &&
+                            newIndices[i+hashLen+1] == 0) {
+                            newIndices[i+hashLen] ^= CONTROL_OVERFLOW ^ CONTROL_NEXT;
+                            newIndices[i+hashLen+1] = next2v;
+                        } else
+                            newIndices[next2i] = next2v | CONTROL_END;
+                    }
+                }
+            }
+            // Copy deleted list
+            for (int i = firstDeletedIndex; i >= 0;
+                i = (newIndices[newCapacity + i] = indexTable[hashLen + i]));
+        }
+        hashLen = newCapacity;
+        threshold = newValueLen;
+        indexTable = newIndices;
+    }
+
+    /**
+     * Lazy allocation of arrays of the initial capacity.
+     */
+    final void allocate() {
+        indexTable = new int[hashLen+threshold];
+        resizeKeys(threshold+1);
+        resizeValues(threshold+1);
+    }
+
+    /**
+     * Returns the slot of key if it is present.
+     *
+     * @param key key
+     * @param hc hashcode of key
+     * @return slot of key, or NO_SLOT if it was not found
+     */
+    final int slotOf(long key, int hc) {
+        // Zero special case
+        if (key == 0)
+            return zeroKeyPresent ? ZERO_SLOT : NO_SLOT;
+        // Check arrays lazy allocation
+        if (indexTable == null)
+            return NO_SLOT;
+        // Compute hash index
+        int index = indexTable[hc & (hashLen-1)];
+        // Empty?
+        int control = index & CONTROL_BITS;
+        if (control == CONTROL_EMPTY)
+            return NO_SLOT;
+        // Search
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        while (true) {
+            int position = index & (hashLen-1);
+            if ((index & mask) == (hc & mask) && isKey(position+1, key))
+                return position+1;
+            // Move forward
+            if (control == CONTROL_END)
+                return NO_SLOT; // END is more frequent - check it first
+            else if (control == CONTROL_OVERFLOW)
+                index = indexTable[hashLen+position];
+            else if (control == CONTROL_NEXT)
+                index = indexTable[(hc+1) & (hashLen-1)];
+            else // CONTROL_EMPTY
+                return NO_SLOT;
+            control = index & CONTROL_BITS;
+        }
+    }
+
+    /**
+     * Find or create a slot for the specified key.
+     *
+     * @param key key
+     * @param hc hashcode of key
+     * @return slot of existing key, or inverted (<tt>~slot</tt>)
+     * slot of a newly added key, which value must be set by the caller
+     */
+    final int insertKey(long key, int hc) {
+        // Zero special case
+        if (key == 0) {
+            if (indexTable == null)
+                allocate();
+            if (zeroKeyPresent)
+                return ZERO_SLOT;
+            zeroKeyPresent = true;
+            size++;
+            modCount++;
+            return ~ZERO_SLOT;
+        }
+        //
+        int i = hc & (hashLen - 1);
+        int head;
+        if (indexTable != null) {
+            head = indexTable[i];
+        } else {
+            head = 0;
+            allocate();
+        }
+        // Look if key is already in this map
+        int depth = 1;
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        int control = head & CONTROL_BITS;
+        if (control != CONTROL_EMPTY) {
+            int index = head;
+            while (true) {
+                int cur = index & (hashLen-1);
+                if ((index & mask) == (hc & mask) && isKey(cur+1, key))
+                    return cur+1;
+                depth++;
+                if ((index & CONTROL_BITS) == CONTROL_END)
+                    break;
+                else if ((index & CONTROL_BITS) == CONTROL_OVERFLOW)
+                    index = indexTable[hashLen+cur];
+                else if ((index & CONTROL_BITS) == CONTROL_NEXT)
+                    index = indexTable[(i+1) & (hashLen-1)];
+                else // CONTROL_EMPTY
+                    break;
+            }
+        }
+        // Resize if needed
+        boolean defragment = depth > 2 && firstUnusedIndex+depth <= threshold;
+        if (size >= threshold) {
+            resize(hashLen<<1);
+            i = hc & (hashLen - 1);
+            mask = AVAILABLE_BITS ^ (hashLen-1);
+            head = indexTable[i];
+            control = head & CONTROL_BITS;
+            defragment = false;
+        }
+        // Check if this cell is occupied by another hash bin
+        if (control == CONTROL_EMPTY && head != 0) {
+            int i2 = (hc-1) & (hashLen-1);
+            int head2 = indexTable[i2];
+            int j2 = head2 & (hashLen-1);
+            indexTable[i2] = (head2 & AVAILABLE_BITS) | CONTROL_OVERFLOW;
+            indexTable[hashLen + j2] = head | CONTROL_END;
+            head = 0;
+        }
+        // Find a place for new element
+        int newIndex;
+        if (firstDeletedIndex >= 0 && !defragment) {
+            // First reuse deleted positions
+            newIndex = firstDeletedIndex;
+            firstDeletedIndex = indexTable[hashLen+firstDeletedIndex];
+            modCount++;
+        } else {
+            newIndex = firstUnusedIndex;
+            firstUnusedIndex++;
+        }
+        // Defragment
+        if (defragment) {
+            // Move to new continuous space
+            int j = head;
+            head = (j & ~(hashLen-1)) | firstUnusedIndex;
+            while (true) {
+                int k = j & (hashLen - 1);
+                moveKey(firstUnusedIndex+1, k+1);
+                moveValue(firstUnusedIndex+1, k+1);
+                int nextIndex, n;
+                if ((j & CONTROL_BITS) == CONTROL_END) {
+                    nextIndex = -1;
+                    n = 0;
+                } else if ((j & CONTROL_BITS) == CONTROL_OVERFLOW) {
+                    nextIndex = hashLen+k;
+                    n = indexTable[nextIndex];
+                } else if ((j & CONTROL_BITS) == CONTROL_NEXT) {
+                    nextIndex = (i+1) & (hashLen-1);
+                    n = indexTable[nextIndex] | CONTROL_END;
+                    indexTable[nextIndex] = 0;
+                    head = (head & AVAILABLE_BITS) | CONTROL_OVERFLOW;
+                    control = CONTROL_OVERFLOW;
+                } else { // CONTROL_EMPTY
+                    nextIndex = -1;
+                    n = 0;
+                }
+                indexTable[hashLen+k] = firstDeletedIndex;
+                firstDeletedIndex = k;
+                firstUnusedIndex++;
+                if (nextIndex < 0) break;
+                j = n;
+                indexTable[hashLen + firstUnusedIndex - 1] =
+                    (j & ~(hashLen-1)) | firstUnusedIndex;
+            }
+        }
+        // Insert it
+        setKey(newIndex+1, key);
+        if (control == CONTROL_EMPTY) { // EMPTY is more frequent - check it first
+            indexTable[i] = newIndex | (hc & mask) | CONTROL_END;
+        } else if (control == CONTROL_END && newIndex != 0 && indexTable[(i+1)&(hashLen-1)] == 0) {
+            indexTable[i] = (head & AVAILABLE_BITS) | CONTROL_NEXT;
+            indexTable[(i+1)&(hashLen-1)] = newIndex | (hc & mask); // | CONTROL_EMPTY;
+        } else if (control == CONTROL_NEXT) {
+            int i2 = (i+1) & (hashLen-1);
+            int head2 = indexTable[i2];
+            indexTable[i2] = 0;
+            indexTable[hashLen + (head & (hashLen-1))] = head2 | CONTROL_END;
+            indexTable[hashLen + newIndex] = (head & AVAILABLE_BITS) | CONTROL_OVERFLOW;
+            indexTable[i] = newIndex | (hc & mask) | CONTROL_OVERFLOW;
+        } else { // CONTROL_OVERFLOW and CONTROL_END
+            indexTable[hashLen + newIndex] = head;
+            indexTable[i] = newIndex | (hc & mask) | CONTROL_OVERFLOW;
+        }
+        //
+        size++;
+        modCount++;
+        return ~(newIndex+1);
+    }
+
+    /**
+     * Removes the specified key from index and key arrays.
+     * Value in the returned slot is left as is,
+     * caller must read and clear it.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @param hc hashcode of key
+     * @return slot of removed key, or NO_SLOT if it was not found
+     */
+    final int removeKey(long key, int hc) {
+        // Zero special case
+        if (key == 0) {
+            if (!zeroKeyPresent)
+                return NO_SLOT;
+            zeroKeyPresent = false;
+            size--;
+            modCount++;
+            return ZERO_SLOT;
+        }
+        // Lazy array allocation check
+        if (indexTable == null)
+            return NO_SLOT;
+        // Compute hash index
+        int prev = -1;
+        int curr = hc & (hashLen-1);
+        // Check if this hash bin is empty
+        int i = indexTable[curr];
+        if ((i & CONTROL_BITS) == CONTROL_EMPTY)
+            return NO_SLOT;
+        // Search
+        int mask = AVAILABLE_BITS ^ (hashLen-1);
+        while (true) {
+            int j = i & (hashLen-1);
+            int k = hashLen + j;
+            if ((hc & mask) == (i & mask) && isKey(j+1, key)) {
+                size--;
+                if((i & CONTROL_BITS) == CONTROL_END) {
+                    if (prev >= 0)
+                        indexTable[prev] |= CONTROL_END;
+                    else
+                        indexTable[curr] = 0;
+                } else if((i & CONTROL_BITS) == CONTROL_OVERFLOW) {
+                    indexTable[curr] = indexTable[k];
+                } else if ((i & CONTROL_BITS) == CONTROL_NEXT) {
+                    int c2 = (curr+1) & (hashLen-1);
+                    int i2 = indexTable[c2];
+                    indexTable[curr] = i2 | CONTROL_END;
+                    indexTable[c2] = 0;
+                } else { // CONTROL_EMPTY
+                    indexTable[prev] |= CONTROL_END;
+                    indexTable[curr] = 0;
+                }
+                if (size == 0) {
+                    firstUnusedIndex = 0;
+                    firstDeletedIndex = -1;
+                } else if (j == firstUnusedIndex-1) {
+                    firstUnusedIndex = j;
+                } else {
+                    indexTable[k] = firstDeletedIndex;
+                    firstDeletedIndex = j;
+                }
+                setKey(j+1, 0);
+                modCount++;
+                return j+1;
+            }
+            prev = curr;
+            if ((i & CONTROL_BITS) == CONTROL_END)
+                break; // END is more frequent - check it first
+            else if ((i & CONTROL_BITS) == CONTROL_OVERFLOW)
+                curr = k;
+            else if ((i & CONTROL_BITS) == CONTROL_NEXT)
+                curr = (curr+1) & (hashLen-1);
+            else break;
+            i = indexTable[curr];
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Returns <tt>true</tt> if slot is not occupied.
+     */
+    final boolean isEmptySlot(int slot) {
+        return slot == ZERO_SLOT ? !zeroKeyPresent : isEmptyKey(slot);
+    }
+
+    /**
+     * Returns the first occupied slot or NO_SLOT.
+     */
+    final int iterateFirst() {
+        if (size == 0) return NO_SLOT;
+        if (zeroKeyPresent) return ZERO_SLOT;
+        return iterateNext(ZERO_SLOT);
+    }
+
+    /**
+     * Returns the next occupied slot or NO_SLOT.
+     */
+    final int iterateNext(int slot) {
+        do slot++; while (slot <= firstUnusedIndex && isEmptyKey(slot));
+        return slot <= firstUnusedIndex ? slot : NO_SLOT;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     *
+     * @return <tt>true</tt> if this map contains no key-value mappings
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    public void clear() {
+        if (indexTable != null)
+            Arrays.fill(indexTable, 0, hashLen + firstUnusedIndex, 0);
+        if (indexTable != null) {
+            clearKeys(firstUnusedIndex+1);
+            clearValues(firstUnusedIndex+1);
+        }
+        size = 0;
+        firstUnusedIndex = 0;
+        firstDeletedIndex = -1;
+        modCount++;
+        zeroKeyPresent = false;
+    }
+
+    /**
+     * Returns a shallow copy of this map.
+     * Subclasses must copy their key and value arrays.
+     */
+    public FastPrimitiveKeyHashMap clone() {
+        FastPrimitiveKeyHashMap that = null;
+        try {
+            that = (FastPrimitiveKeyHashMap)super.clone();
+        } catch (CloneNotSupportedException e) {
+        }
+        if (indexTable != null)
+            that.indexTable = Arrays.copyOf(indexTable, hashLen+threshold);
+        that.modCount = 0;
+        return that;
+    }
+
+    /**
+     * Save the state of the map to a stream.
+     *
+     * @serialData The <i>capacity</i> (the number of hash buckets)
+     *             is emitted (int), subclasses then write the mappings.
+     */
+    private void writeObject(ObjectOutputStream s)
+        throws IOException
+    {
+        s.defaultWriteObject();
+        s.writeInt(hashLen);
+    }
+
+    /**
+     * Reconstitute the map from a stream.
+     */
+    private void readObject(ObjectInputStream s)
+         throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        hashLen = s.readInt();
+        firstDeletedIndex = -1;
+    }
+}
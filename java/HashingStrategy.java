@@ -0,0 +1,116 @@
+import java.util.*;
+
+/**
+ * Hash code and equality of keys used by a map instead of their own
+ * <tt>hashCode</tt> and <tt>equals</tt> methods.  It lets a map
+ * look keys up by content of arrays, ignoring case of strings or by
+ * some of their fields without wrapping every key in another object.
+ *
+ * <p>Methods are never called with <tt>null</tt> keys: the map
+ * handles them itself.  Identical keys are always considered equal,
+ * and as usual equal keys must have equal hash codes.
+ *
+ * <p>A map with a strategy is serializable only if the strategy is,
+ * of predefined strategies of this interface only
+ * {@link #IDENTITY IDENTITY} is.
+ *
+ * @param <K> the type of keys
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap#FastHashMap(HashingStrategy)
+ * @see     FastHashSet#FastHashSet(HashingStrategy)
+ */
+public interface HashingStrategy<K> {
+
+    /**
+     * Returns hash code of a key.
+     *
+     * @param key key, not <tt>null</tt>
+     * @return hash code
+     */
+    int hashCode(K key);
+
+    /**
+     * Compares two keys.
+     *
+     * @param key1 key, not <tt>null</tt>
+     * @param key2 key, not <tt>null</tt>
+     * @return <tt>true</tt> if keys are equal
+     */
+    boolean equals(K key1, K key2);
+
+    /**
+     * Returns hash code of a key which depends on a random 128-bit
+     * key, so keys colliding for it can not be chosen in advance.
+     * A map switches to it when it finds a hash chain so long that
+     * keys are likely to be chosen to collide on {@link #hashCode
+     * hashCode}.  Equal keys must have equal keyed hash codes too.
+     *
+     * <p>The default implementation ignores the random key and returns
+     * <tt>hashCode(key)</tt>; {@link #BYTES BYTES} and
+     * {@link #CASE_INSENSITIVE CASE_INSENSITIVE} hash key contents
+     * with SipHash.
+     *
+     * @param key key, not <tt>null</tt>
+     * @param k0 first half of the random key
+     * @param k1 second half of the random key
+     * @return keyed hash code
+     */
+    default int keyedHashCode(K key, long k0, long k1) {
+        return hashCode(key);
+    }
+
+    /**
+     * Byte arrays compared by content.
+     */
+    HashingStrategy<byte[]> BYTES = new HashingStrategy<byte[]>() {
+        public int hashCode(byte[] key) {
+            return Arrays.hashCode(key);
+        }
+        public boolean equals(byte[] key1, byte[] key2) {
+            return Arrays.equals(key1, key2);
+        }
+        public int keyedHashCode(byte[] key, long k0, long k1) {
+            return SipHash.hash(k0, k1, key);
+        }
+    };
+
+    /**
+     * Strings compared ignoring case
+     * as <tt>String.equalsIgnoreCase</tt> does.
+     */
+    HashingStrategy<String> CASE_INSENSITIVE = new HashingStrategy<String>() {
+        public int hashCode(String key) {
+            int h = 0;
+            for (int i = 0; i < key.length(); i++)
+                h = 31*h + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+            return h;
+        }
+        public boolean equals(String key1, String key2) {
+            return key1.equalsIgnoreCase(key2);
+        }
+        public int keyedHashCode(String key, long k0, long k1) {
+            return SipHash.hash(k0, k1, key, true);
+        }
+    };
+
+    /**
+     * Reference equality and <tt>System.identityHashCode</tt>,
+     * see {@link FastIdentityHashMap}.
+     */
+    HashingStrategy<Object> IDENTITY = Identity.INSTANCE;
+
+    /**
+     * Serializable singleton of {@link #IDENTITY IDENTITY} strategy.
+     */
+    enum Identity implements HashingStrategy<Object> {
+        INSTANCE;
+
+        public int hashCode(Object key) {
+            return System.identityHashCode(key);
+        }
+        public boolean equals(Object key1, Object key2) {
+            return key1 == key2;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Cursor over the mappings of a map: unlike
+ * <tt>entrySet().iterator()</tt> it does not create
+ * an entry object for each mapping, the same cursor
+ * gives access to the key and value of the current one.
+ *
+ * <p>A new cursor is positioned before the first mapping,
+ * {@link #advance advance} moves it to the next one.
+ * Typical usage:
+ * <pre>
+ *   MapCursor&lt;K,V&gt; c = map.cursor();
+ *   while (c.advance())
+ *       out.write(c.key(), c.value());
+ * </pre>
+ *
+ * <p>Cursors are fail-fast just like iterators: if the map is
+ * structurally modified other than through the cursor's own
+ * {@link #remove remove} method <tt>advance</tt> and <tt>remove</tt>
+ * throw <tt>ConcurrentModificationException</tt>.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap#cursor
+ * @see     FastHashMap2#cursor
+ */
+public interface MapCursor<K,V> {
+
+    /**
+     * Moves the cursor to the next mapping.
+     *
+     * @return <tt>false</tt> if there are no more mappings
+     * @throws java.util.ConcurrentModificationException if the map
+     *         was structurally modified not through this cursor
+     */
+    boolean advance();
+
+    /**
+     * Returns the key of the current mapping.
+     *
+     * @return the current key
+     * @throws IllegalStateException if there is no current mapping
+     */
+    K key();
+
+    /**
+     * Returns the value of the current mapping.
+     *
+     * @return the current value
+     * @throws IllegalStateException if there is no current mapping
+     */
+    V value();
+
+    /**
+     * Replaces the value of the current mapping.
+     *
+     * @param value new value
+     * @return old value
+     * @throws IllegalStateException if there is no current mapping
+     */
+    V setValue(V value);
+
+    /**
+     * Removes the current mapping from the map,
+     * after this there is no current mapping until
+     * the next <tt>advance</tt>.
+     *
+     * @throws IllegalStateException if there is no current mapping
+     * @throws java.util.ConcurrentModificationException if the map
+     *         was structurally modified not through this cursor
+     */
+    void remove();
+}
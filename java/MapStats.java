@@ -0,0 +1,198 @@
+import java.util.*;
+
+/**
+ * Snapshot of the hash table structure of a map, returned by
+ * {@link FastHashMap#stats FastHashMap.stats}.  It helps to tell
+ * a bad key <tt>hashCode</tt> (long chains) from too many holes
+ * left by removals or a wrong load factor (frequent resizes).
+ *
+ * <p>Hash bins are heads of hash chains in the index.
+ * A chain head is marked by how the next element is found:
+ * in the neighbour bin (<i>next</i>), in the overflow
+ * cell of the head (<i>overflow</i>) or there is no next
+ * element (<i>end</i>).
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap#stats
+ */
+public final class MapStats {
+
+    final int capacity;
+    final int size;
+    final int threshold;
+    final int usedPositions;
+    final int deleted;
+    final int[] chainLengths;
+    final int nextHeads;
+    final int overflowHeads;
+    final int endHeads;
+    final int defragmentations;
+    final int resizes;
+    final long resizeNanos;
+    final boolean stringHashing;
+
+    MapStats(int capacity, int size, int threshold,
+        int usedPositions, int deleted, int[] chainLengths,
+        int nextHeads, int overflowHeads, int endHeads,
+        int defragmentations, int resizes, long resizeNanos,
+        boolean stringHashing)
+    {
+        this.capacity = capacity;
+        this.size = size;
+        this.threshold = threshold;
+        this.usedPositions = usedPositions;
+        this.deleted = deleted;
+        this.chainLengths = chainLengths;
+        this.nextHeads = nextHeads;
+        this.overflowHeads = overflowHeads;
+        this.endHeads = endHeads;
+        this.defragmentations = defragmentations;
+        this.resizes = resizes;
+        this.resizeNanos = resizeNanos;
+        this.stringHashing = stringHashing;
+    }
+
+    /**
+     * Returns the number of hash bins.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of mappings including <tt>null</tt> key,
+     * which is not stored in the hash table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of key/value positions allocated,
+     * the map is resized when size reaches it.
+     */
+    public int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the number of key/value positions ever used
+     * since the last resize or compaction, including holes.
+     */
+    public int usedPositions() {
+        return usedPositions;
+    }
+
+    /**
+     * Returns the number of holes: positions in the deleted list
+     * which will be reused by following insertions.
+     */
+    public int deleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns the fraction of used positions which are holes.
+     * Iteration has to skip them, so if it is high
+     * {@link FastHashMap#compact compact} may help.
+     */
+    public double holeRatio() {
+        return usedPositions == 0 ? 0 : (double)deleted / usedPositions;
+    }
+
+    /**
+     * Returns the histogram of hash chain lengths:
+     * element <i>k</i> is the number of hash bins with <i>k</i> keys,
+     * element 0 is the number of empty bins.
+     */
+    public int[] chainLengths() {
+        return chainLengths.clone();
+    }
+
+    /**
+     * Returns the length of the longest hash chain.
+     */
+    public int maxChainLength() {
+        return chainLengths.length - 1;
+    }
+
+    /**
+     * Returns the average number of keys compared by a successful
+     * lookup if every key is looked up once.
+     */
+    public double averageProbes() {
+        long keys = 0, probes = 0;
+        for (int k = 1; k < chainLengths.length; k++) {
+            keys += (long)k * chainLengths[k];
+            probes += (long)k * (k+1) / 2 * chainLengths[k];
+        }
+        return keys == 0 ? 0 : (double)probes / keys;
+    }
+
+    /**
+     * Returns the number of chains whose second key
+     * is stored in the neighbour hash bin.
+     */
+    public int nextHeads() {
+        return nextHeads;
+    }
+
+    /**
+     * Returns the number of chains whose second key
+     * is linked through the overflow cell.
+     */
+    public int overflowHeads() {
+        return overflowHeads;
+    }
+
+    /**
+     * Returns the number of chains with a single key.
+     */
+    public int endHeads() {
+        return endHeads;
+    }
+
+    /**
+     * Returns the number of hash chains moved to the end of the
+     * key/value array by insertions to keep them contiguous.
+     */
+    public int defragmentations() {
+        return defragmentations;
+    }
+
+    /**
+     * Returns the number of times the map has grown.
+     */
+    public int resizes() {
+        return resizes;
+    }
+
+    /**
+     * Returns the total time spent in resizes, in nanoseconds.
+     * With incremental resize it does not include hash bins
+     * moved by following operations.
+     */
+    public long resizeNanos() {
+        return resizeNanos;
+    }
+
+    /**
+     * Returns <tt>true</tt> if <tt>String</tt> keys, or keys of a map
+     * with a strategy, were switched to SipHash because of a too long
+     * hash chain.
+     */
+    public boolean stringHashing() {
+        return stringHashing;
+    }
+
+    public String toString() {
+        return "capacity=" + capacity + ", size=" + size +
+            ", threshold=" + threshold + ", deleted=" + deleted +
+            "/" + usedPositions + ", chainLengths=" +
+            Arrays.toString(chainLengths) + ", heads next/overflow/end=" +
+            nextHeads + "/" + overflowHeads + "/" + endHeads +
+            ", defragmentations=" + defragmentations +
+            ", resizes=" + resizes + " (" + resizeNanos + " ns)" +
+            (stringHashing ? ", string hashing" : "");
+    }
+}
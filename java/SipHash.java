@@ -0,0 +1,96 @@
+/**
+ * SipHash-1-3 with a 128-bit key, folded to 32 bits.  Maps hash
+ * keys with it instead of their <tt>hashCode</tt> once they find
+ * hash chains so long that keys are likely to be chosen to collide:
+ * without the random key such collisions can not be precomputed.
+ *
+ * @author  Alex Yakovlev
+ * @see     HashingStrategy#keyedHashCode
+ */
+final class SipHash {
+
+    private SipHash() {
+    }
+
+    /**
+     * Hash of UTF-16 chars of a string (4 chars per block).
+     * With <tt>ignoreCase</tt> chars are folded to upper and then
+     * to lower case, as <tt>String.equalsIgnoreCase</tt> compares them.
+     */
+    static int hash(long k0, long k1, String s, boolean ignoreCase) {
+        long v0 = k0 ^ 0x736F6D6570736575L;
+        long v1 = k1 ^ 0x646F72616E646F6DL;
+        long v2 = k0 ^ 0x6C7967656E657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+        int len = s.length();
+        // Last block contains remaining chars and length in bytes
+        for (int i = 0; i <= len; i += 4) {
+            long m;
+            if (i + 4 <= len) {
+                m = charAt(s, i, ignoreCase) | charAt(s, i+1, ignoreCase) << 16 |
+                    charAt(s, i+2, ignoreCase) << 32 | charAt(s, i+3, ignoreCase) << 48;
+            } else {
+                m = (long)(len << 1) << 56;
+                for (int j = i; j < len; j++)
+                    m |= charAt(s, j, ignoreCase) << ((j - i) << 4);
+            }
+            v3 ^= m;
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+        }
+        return finish(v0, v1, v2, v3);
+    }
+
+    /**
+     * Hash of bytes (8 bytes per block).
+     */
+    static int hash(long k0, long k1, byte[] b) {
+        long v0 = k0 ^ 0x736F6D6570736575L;
+        long v1 = k1 ^ 0x646F72616E646F6DL;
+        long v2 = k0 ^ 0x6C7967656E657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+        int len = b.length;
+        // Last block contains remaining bytes and length
+        for (int i = 0; i <= len; i += 8) {
+            long m = 0L;
+            if (i + 8 <= len) {
+                for (int j = 0; j < 8; j++)
+                    m |= (b[i+j] & 0xFFL) << (j << 3);
+            } else {
+                m = (long)len << 56;
+                for (int j = i; j < len; j++)
+                    m |= (b[j] & 0xFFL) << ((j - i) << 3);
+            }
+            v3 ^= m;
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+        }
+        return finish(v0, v1, v2, v3);
+    }
+
+    private static long charAt(String s, int i, boolean ignoreCase) {
+        char c = s.charAt(i);
+        return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+    }
+
+    /**
+     * Finalization rounds of SipHash-1-3.
+     */
+    private static int finish(long v0, long v1, long v2, long v3) {
+        v2 ^= 0xFF;
+        for (int r = 0; r < 3; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        long h = v0 ^ v1 ^ v2 ^ v3;
+        return (int)(h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,122 @@
+import java.nio.*;
+import java.nio.charset.*;
+import java.io.*;
+
+/**
+ * Binary encoding of keys or values in map snapshots,
+ * see {@link FastHashMap#writeSnapshot FastHashMap.writeSnapshot}.
+ *
+ * <p>Each element is written as its length followed by the bytes
+ * produced by {@link #encode encode}, so the codec does not have
+ * to store the length itself.  <tt>null</tt> elements are handled
+ * by the snapshot format and never passed to a codec.
+ *
+ * @param <T> the type of encoded elements
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap#writeSnapshot
+ * @see     FastHashMap#readSnapshot
+ */
+public interface SnapshotCodec<T> {
+
+    /**
+     * Writes the element into the buffer starting at its position.
+     * If there is not enough space <tt>BufferOverflowException</tt>
+     * should be thrown (as <tt>ByteBuffer.put</tt> methods do),
+     * the element will be encoded once more into a larger buffer.
+     *
+     * @param value element to encode, not <tt>null</tt>
+     * @param buffer destination buffer
+     */
+    void encode(T value, ByteBuffer buffer);
+
+    /**
+     * Reads the element from all bytes remaining in the buffer.
+     *
+     * @param buffer source buffer, its limit is the end of the element
+     * @return decoded element
+     */
+    T decode(ByteBuffer buffer);
+
+    /**
+     * UTF-8 encoded strings.
+     */
+    SnapshotCodec<String> STRING = new SnapshotCodec<String>() {
+        final Charset UTF8 = Charset.forName("UTF-8");
+        public void encode(String value, ByteBuffer buffer) {
+            buffer.put(value.getBytes(UTF8));
+        }
+        public String decode(ByteBuffer buffer) {
+            return UTF8.decode(buffer).toString();
+        }
+    };
+
+    /**
+     * Byte arrays written as is.
+     */
+    SnapshotCodec<byte[]> BYTES = new SnapshotCodec<byte[]>() {
+        public void encode(byte[] value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+        public byte[] decode(ByteBuffer buffer) {
+            byte[] value = new byte[buffer.remaining()];
+            buffer.get(value);
+            return value;
+        }
+    };
+
+    /**
+     * 4-byte integers.
+     */
+    SnapshotCodec<Integer> INTEGER = new SnapshotCodec<Integer>() {
+        public void encode(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+        public Integer decode(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    /**
+     * 8-byte long integers.
+     */
+    SnapshotCodec<Long> LONG = new SnapshotCodec<Long>() {
+        public void encode(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+        public Long decode(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+    /**
+     * Any <tt>Serializable</tt> object written with
+     * <tt>ObjectOutputStream</tt>.  This is a fallback
+     * which is much slower than specialized codecs.
+     */
+    SnapshotCodec<Object> SERIALIZABLE = new SnapshotCodec<Object>() {
+        public void encode(Object value, ByteBuffer buffer) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(value);
+                out.close();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            buffer.put(bytes.toByteArray());
+        }
+        public Object decode(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            try {
+                return new ObjectInputStream(
+                    new ByteArrayInputStream(bytes)).readObject();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    };
+}
@@ -0,0 +1,164 @@
+import java.nio.*;
+import java.nio.channels.*;
+import java.io.*;
+
+/**
+ * Buffered channel input and output of map snapshots.
+ *
+ * <p>A snapshot is a header of ints, raw blocks of ints
+ * and elements: element length (int, -1 for <tt>null</tt>)
+ * followed by the bytes produced by a {@link SnapshotCodec}.
+ * All numbers are big-endian.
+ *
+ * @author  Alex Yakovlev
+ * @see     FastHashMap#writeSnapshot
+ */
+final class SnapshotIO {
+
+    /**
+     * First int of a snapshot.
+     */
+    final static int MAGIC = 0x46484D53;
+
+    /**
+     * Format version, second int of a snapshot.
+     */
+    final static int VERSION = 2;
+
+    /**
+     * Flag of a set snapshot, third int of a snapshot.
+     */
+    final static int KEYS_ONLY = 1;
+
+    /**
+     * Flag of a linked map snapshot, followed by its iteration order.
+     */
+    final static int LINKED = 2;
+
+    /**
+     * Flag of an access-ordered linked map snapshot.
+     */
+    final static int ACCESS_ORDER = 4;
+
+    /**
+     * Initial size of I/O buffer, it grows if an element does not fit.
+     */
+    final static int BUFFER_SIZE = 1 << 16;
+
+    private SnapshotIO() {
+    }
+
+    static final class Writer {
+        final WritableByteChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        void writeInt(int value) throws IOException {
+            if (buffer.remaining() < 4)
+                flush();
+            buffer.putInt(value);
+        }
+
+        void writeInts(int[] values, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (buffer.remaining() < 4)
+                    flush();
+                int n = Math.min(length, buffer.remaining() >> 2);
+                buffer.asIntBuffer().put(values, offset, n);
+                buffer.position(buffer.position() + (n << 2));
+                offset += n;
+                length -= n;
+            }
+        }
+
+        <T> void writeElement(T value, SnapshotCodec<T> codec) throws IOException {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            while (true) {
+                if (buffer.remaining() < 4)
+                    flush();
+                int start = buffer.position();
+                buffer.position(start + 4);
+                try {
+                    codec.encode(value, buffer);
+                    buffer.putInt(start, buffer.position() - start - 4);
+                    return;
+                } catch (BufferOverflowException e) {
+                    buffer.position(start);
+                    if (start > 0)
+                        flush();
+                    else
+                        buffer = ByteBuffer.allocateDirect(buffer.capacity() << 1);
+                }
+            }
+        }
+    }
+
+    static final class Reader {
+        final ReadableByteChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        /**
+         * Makes at least <tt>length</tt> bytes available in the buffer.
+         */
+        void require(int length) throws IOException {
+            if (buffer.remaining() >= length)
+                return;
+            if (length > buffer.capacity()) {
+                ByteBuffer newBuffer = ByteBuffer.allocateDirect(
+                    Math.max(length, buffer.capacity() << 1));
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            } else
+                buffer.compact();
+            while (buffer.position() < length)
+                if (channel.read(buffer) < 0)
+                    throw new EOFException("Unexpected end of snapshot");
+            buffer.flip();
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        void readInts(int[] values, int offset, int length) throws IOException {
+            while (length > 0) {
+                require(4);
+                int n = Math.min(length, buffer.remaining() >> 2);
+                buffer.asIntBuffer().get(values, offset, n);
+                buffer.position(buffer.position() + (n << 2));
+                offset += n;
+                length -= n;
+            }
+        }
+
+        <T> T readElement(SnapshotCodec<T> codec) throws IOException {
+            int length = readInt();
+            if (length < 0)
+                return null;
+            require(length);
+            ByteBuffer element = buffer.slice();
+            element.limit(length);
+            buffer.position(buffer.position() + length);
+            return codec.decode(element);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastBigHashMapTest {
+
+  @Test public void test () {
+    FastBigHashMap<String,Integer> map = new FastBigHashMap<String,Integer> ();
+    assertTrue(map.isEmpty());
+    assertNull(map.put("a", 1));
+    assertEquals(Integer.valueOf(1), map.put("a", 2));
+    assertNull(map.put(null, 3));
+    assertNull(map.put("b", null));
+    assertEquals(3, map.size());
+    assertEquals(3L, map.mappingCount());
+    assertEquals(Integer.valueOf(3), map.get(null));
+    assertTrue(map.containsKey("b"));
+    assertTrue(map.containsValue(null));
+    assertFalse(map.containsKey("c"));
+    assertNull(map.remove("b"));
+    assertNull(map.remove("c"));
+    assertEquals(2, map.size());
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertNull(map.get("a"));
+  }
+
+  @Test public void testSplit () {
+    FastBigHashMap<Integer,Integer> map = new FastBigHashMap<Integer,Integer> (0.75f, 64);
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 200000; i++) {
+      Integer key = rnd.nextInt(20000);
+      switch (rnd.nextInt(4)) {
+        case 0:
+          assertEquals(check.remove(key), map.remove(key));
+          break;
+        case 1:
+          assertEquals(check.get(key), map.get(key));
+          break;
+        default:
+          assertEquals(check.put(key, i), map.put(key, i));
+      }
+      assertEquals(check.size(), map.mappingCount());
+    }
+    assertEquals(check, map);
+    assertEquals(map, check);
+    assertEquals(check.hashCode(), map.hashCode());
+    // chunks were split, directory holds each one in adjacent slots
+    assertTrue(map.chunks() > check.size() / 64);
+    assertEquals(1 << map.globalDepth, map.directory.length);
+    for (int i = 0; i < map.directory.length; i++) {
+      assertTrue(map.directory[i].size() < 64);
+      assertTrue(map.localDepth[i] <= map.globalDepth);
+      int span = 1 << (map.globalDepth - map.localDepth[i]);
+      assertSame(map.directory[i], map.directory[i & -span]);
+    }
+  }
+
+  @Test public void testIterator () {
+    FastBigHashMap<Integer,Integer> map = new FastBigHashMap<Integer,Integer> (0.75f, 16);
+    for (int i = 0; i < 1000; i++)
+      map.put(i, -i);
+    map.put(null, 0);
+    int n = 0;
+    for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); n++) {
+      Integer key = it.next();
+      if (key == null || key % 2 == 0)
+        it.remove();
+    }
+    assertEquals(1001, n);
+    assertEquals(500, map.size());
+    assertFalse(map.containsKey(null));
+    for (Map.Entry<Integer,Integer> e : map.entrySet())
+      e.setValue(e.getKey());
+    for (int i = 1; i < 1000; i += 2)
+      assertEquals(i, (int)map.get(i));
+    assertTrue(map.entrySet().remove(new AbstractMap.SimpleEntry<Integer,Integer> (1, 1)));
+    assertFalse(map.entrySet().remove(new AbstractMap.SimpleEntry<Integer,Integer> (3, 1)));
+    assertEquals(499, map.size());
+    final int[] count = new int[1];
+    map.forEach((k, v) -> count[0]++);
+    assertEquals(499, count[0]);
+  }
+
+  @Test(expected=ConcurrentModificationException.class)
+  public void testSplitDuringIteration () {
+    FastBigHashMap<Integer,Integer> map = new FastBigHashMap<Integer,Integer> (0.75f, 16);
+    for (int i = 0; i < 100; i++)
+      map.put(i, i);
+    Iterator<Integer> it = map.keySet().iterator();
+    for (int i = 100; i < 1000; i++)
+      map.put(i, i);
+    it.next();
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastBigHashMap<Integer,String> map = new FastBigHashMap<Integer,String> (0.75f, 32);
+    for (int i = 0; i < 1000; i++)
+      map.put(i, "a" + i);
+    map.put(null, null);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    @SuppressWarnings("unchecked")
+    FastBigHashMap<Integer,String> copy = (FastBigHashMap<Integer,String>)
+      new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    assertEquals(map, copy);
+    assertEquals(32, copy.chunkSize);
+    assertTrue(copy.chunks() > 1000 / 32);
+    assertTrue(copy.containsKey(null));
+  }
+}
@@ -0,0 +1,199 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastConcurrentHashMapTest {
+
+  @Test public void testBasic () {
+    ConcurrentMap<String,String> map = new FastConcurrentHashMap<String,String> ();
+    assertTrue(map.isEmpty());
+    assertEquals(null, map.put("a", "1"));
+    assertEquals("1", map.put("a", "2"));
+    assertEquals("2", map.putIfAbsent("a", "3"));
+    assertEquals(null, map.putIfAbsent("b", "3"));
+    assertEquals(2, map.size());
+    assertFalse(map.replace("a", "1", "4"));
+    assertTrue(map.replace("a", "2", "4"));
+    assertEquals("4", map.replace("a", "5"));
+    assertEquals(null, map.replace("c", "5"));
+    assertFalse(map.containsKey("c"));
+    assertTrue(map.containsValue("5"));
+    assertFalse(map.remove("a", "4"));
+    assertTrue(map.remove("a", "5"));
+    assertEquals("3", map.remove("b"));
+    assertTrue(map.isEmpty());
+  }
+
+  @Test public void testComputeRandom () {
+    FastConcurrentHashMap<String,Integer> map = new FastConcurrentHashMap<String,Integer> ();
+    Map<String,Integer> check = new ConcurrentHashMap<String,Integer> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      String key = "k" + rnd.nextInt(1000);
+      final int v = rnd.nextInt(10);
+      switch (rnd.nextInt(7)) {
+        case 0:
+          assertEquals(check.merge(key, v, (a, b) -> a + b == 7 ? null : a + b),
+                       map.merge(key, v, (a, b) -> a + b == 7 ? null : a + b));
+          break;
+        case 1:
+          assertEquals(check.compute(key, (k, a) -> v == 0 ? null : v),
+                       map.compute(key, (k, a) -> v == 0 ? null : v));
+          break;
+        case 2:
+          assertEquals(check.computeIfAbsent(key, k -> v == 0 ? null : v),
+                       map.computeIfAbsent(key, k -> v == 0 ? null : v));
+          break;
+        case 3:
+          assertEquals(check.computeIfPresent(key, (k, a) -> v == 0 ? null : a + v),
+                       map.computeIfPresent(key, (k, a) -> v == 0 ? null : a + v));
+          break;
+        case 4:
+          assertEquals(check.replace(key, v, v + 1), map.replace(key, v, v + 1));
+          break;
+        case 5:
+          assertEquals(check.remove(key, v), map.remove(key, v));
+          break;
+        default:
+          assertEquals(check.getOrDefault(key, -1), map.getOrDefault(key, -1));
+      }
+    }
+    assertEquals(check, map);
+  }
+
+  @Test public void testComputeSingleProbe () {
+    FastConcurrentHashMap<FastHashMapTest.CountingKey,Integer> map =
+      new FastConcurrentHashMap<FastHashMapTest.CountingKey,Integer> ();
+    for (int i = 0; i < 1000; i++)
+      map.put(new FastHashMapTest.CountingKey(i), i);
+    // One hashCode selects the segment, one the bucket inside it
+    FastHashMapTest.CountingKey.hashCodes = 0;
+    for (int i = 0; i < 2000; i++)
+      map.merge(new FastHashMapTest.CountingKey(i), 1, Integer::sum);
+    assertEquals(4000, FastHashMapTest.CountingKey.hashCodes);
+    assertEquals(Integer.valueOf(6), map.get(new FastHashMapTest.CountingKey(5)));
+    assertEquals(Integer.valueOf(1), map.get(new FastHashMapTest.CountingKey(1500)));
+    FastHashMapTest.CountingKey.hashCodes = 0;
+    for (int i = 0; i < 2000; i++) {
+      map.computeIfAbsent(new FastHashMapTest.CountingKey(i), k -> 0);
+      map.replace(new FastHashMapTest.CountingKey(i), 1);
+      map.remove(new FastHashMapTest.CountingKey(i), 1);
+    }
+    assertEquals(12000, FastHashMapTest.CountingKey.hashCodes);
+    assertTrue(map.isEmpty());
+  }
+
+  @Test(expected=NullPointerException.class)
+  public void testNullKey () {
+    new FastConcurrentHashMap<String,String> ().put(null, "a");
+  }
+
+  @Test(expected=NullPointerException.class)
+  public void testNullValue () {
+    new FastConcurrentHashMap<String,String> ().put("a", null);
+  }
+
+  @Test public void testViews () {
+    FastConcurrentHashMap<Integer,Integer> map = new FastConcurrentHashMap<Integer,Integer> ();
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+    for (int i = 0; i < 1000; i++) {
+      map.put(i, -i);
+      check.put(i, -i);
+    }
+    assertEquals(check, map);
+    assertEquals(map, check);
+    assertEquals(check.hashCode(), map.hashCode());
+    // Small Integer keys must not end up in one segment
+    int used = 0;
+    for (int i = 0; i < map.segments.length; i++)
+      if (map.segments[i].map.size() > 0)
+        used++;
+    assertEquals(map.segments.length, used);
+    //
+    for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); )
+      if (it.next() % 2 == 0)
+        it.remove();
+    assertEquals(500, map.size());
+    for (Map.Entry<Integer,Integer> e : map.entrySet())
+      e.setValue(e.getKey());
+    for (int i = 1; i < 1000; i += 2)
+      assertEquals(i, (int)map.get(i));
+    assertFalse(map.containsKey(2));
+  }
+
+  @Test public void testConcurrentWriters () throws InterruptedException {
+    final FastConcurrentHashMap<Integer,Integer> map = new FastConcurrentHashMap<Integer,Integer> ();
+    final int threads = 4, n = 50000;
+    Thread[] t = new Thread[threads];
+    for (int j = 0; j < threads; j++) {
+      final int base = j * n;
+      t[j] = new Thread() {
+        public void run() {
+          for (int i = 0; i < n; i++)
+            map.put(base + i, i);
+          for (int i = 0; i < n; i += 2)
+            map.remove(base + i);
+        }
+      };
+      t[j].start();
+    }
+    for (int j = 0; j < threads; j++)
+      t[j].join();
+    assertEquals(threads * n / 2, map.size());
+    for (int j = 0; j < threads; j++)
+      for (int i = 0; i < n; i++)
+        assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(j * n + i));
+  }
+
+  @Test public void testOptimisticReaders () throws InterruptedException {
+    final FastConcurrentHashMap<Integer,Integer> map = new FastConcurrentHashMap<Integer,Integer> (0, .75f, 2);
+    final int n = 20000;
+    for (int i = 0; i < n; i += 2)
+      map.put(i, i);
+    final boolean[] failed = new boolean[1];
+    final Thread writer = new Thread() {
+      public void run() {
+        // Odd keys come and go, forcing resizes and defragmentation
+        for (int round = 0; round < 5; round++) {
+          for (int i = 1; i < n; i += 2)
+            map.put(i, i);
+          for (int i = 1; i < n; i += 2)
+            map.remove(i);
+        }
+      }
+    };
+    Thread reader = new Thread() {
+      public void run() {
+        while (writer.isAlive())
+          for (int i = 0; i < n; i += 2)
+            if (!Integer.valueOf(i).equals(map.get(i)))
+              failed[0] = true;
+      }
+    };
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+    assertFalse(failed[0]);
+    assertEquals(n / 2, map.size());
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastConcurrentHashMap<String,String> map = new FastConcurrentHashMap<String,String> ();
+    for (int i = 0; i < 100; i++)
+      map.put("k"+i, "v"+i);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    ObjectInputStream ois = new ObjectInputStream(
+      new ByteArrayInputStream(bos.toByteArray()));
+    @SuppressWarnings("unchecked")
+    FastConcurrentHashMap<String,String> read = (FastConcurrentHashMap<String,String>)ois.readObject();
+    ois.close();
+    assertEquals(map, read);
+    assertEquals(map.segments.length, read.segments.length);
+  }
+}
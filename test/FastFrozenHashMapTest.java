@@ -0,0 +1,170 @@
+import java.util.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastFrozenHashMapTest {
+
+  @Test public void test () {
+    FastHashMap<Integer,String> map = new FastHashMap<Integer,String> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      Integer key = rnd.nextInt(100) == 0 ? null : rnd.nextInt(5000);
+      if (rnd.nextInt(3) == 0)
+        map.remove(key);
+      else
+        map.put(key, "v" + i);
+    }
+    FastFrozenHashMap<Integer,String> frozen = map.freeze();
+    assertEquals(map, frozen);
+    assertEquals(frozen, map);
+    assertEquals(map.hashCode(), frozen.hashCode());
+    assertEquals(map.size(), frozen.size());
+    for (int i = -10; i < 5010; i++) {
+      assertEquals(map.get(i), frozen.get(i));
+      assertEquals(map.containsKey(i), frozen.containsKey(i));
+    }
+    assertEquals(map.containsKey(null), frozen.containsKey(null));
+    assertEquals(map.get(null), frozen.get(null));
+    assertEquals("x", frozen.getOrDefault(-1, "x"));
+    assertEquals(new HashSet<String> (map.values()), new HashSet<String> (frozen.values()));
+    assertTrue(frozen.containsValue(map.values().iterator().next()));
+    assertFalse(frozen.containsValue("x"));
+    // Chains are contiguous: positions follow hash bins
+    int bins = frozen.binStart.length - 1;
+    assertEquals(Integer.bitCount(bins), 1);
+    assertTrue(bins >= frozen.hashes.length && bins < 2 * Math.max(frozen.hashes.length, 1));
+    assertEquals(frozen.hashes.length, frozen.binStart[bins]);
+    for (int b = 0; b < bins; b++)
+      for (int p = frozen.binStart[b]; p < frozen.binStart[b+1]; p++)
+        assertEquals(b, frozen.hashes[p] & (bins-1));
+    // Not modified by the original map
+    map.clear();
+    assertFalse(frozen.isEmpty());
+  }
+
+  @Test public void testImmutable () {
+    FastHashMap<String,String> map = new FastHashMap<String,String> ();
+    map.put("a", "b");
+    FastFrozenHashMap<String,String> frozen = map.freeze();
+    try {
+      frozen.put("c", "d");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.remove("a");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.keySet().iterator().remove();
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.entrySet().iterator().next().setValue("c");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.computeIfAbsent("c", k -> "d");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      frozen.clear();
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    assertEquals(Collections.singletonMap("a", "b"), frozen);
+  }
+
+  @Test public void testEmpty () {
+    FastFrozenHashMap<String,String> frozen = new FastHashMap<String,String> ().freeze();
+    assertTrue(frozen.isEmpty());
+    assertNull(frozen.get("a"));
+    assertFalse(frozen.keySet().iterator().hasNext());
+    assertEquals(Collections.emptyMap(), frozen);
+  }
+
+  @Test public void testLinked () {
+    FastLinkedHashMap<String,Integer> map = new FastLinkedHashMap<String,Integer> ();
+    for (int i = 100; i >= 0; i--)
+      map.put("k" + i, i);
+    map.put(null, -1);
+    map.put("first", 0);
+    map.remove("k50");
+    FastFrozenHashMap<String,Integer> frozen = map.freeze();
+    assertEquals(new ArrayList<String> (map.keySet()), new ArrayList<String> (frozen.keySet()));
+    assertEquals(new ArrayList<Integer> (map.values()), new ArrayList<Integer> (frozen.values()));
+    final List<String> keys = new ArrayList<String> ();
+    frozen.forEach((k, v) -> keys.add(k));
+    assertEquals(new ArrayList<String> (map.keySet()), keys);
+    assertEquals(Integer.valueOf(-1), frozen.get(null));
+  }
+
+  @Test public void testHashingStrategy () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> (HashingStrategy.CASE_INSENSITIVE);
+    map.put("Hello", 1);
+    FastFrozenHashMap<String,Integer> frozen = map.freeze();
+    assertEquals(Integer.valueOf(1), frozen.get("HELLO"));
+    assertTrue(frozen.containsKey("hello"));
+    FastFrozenHashMap<Object,Integer> identity = new FastIdentityHashMap<Object,Integer> (
+      Collections.singletonMap((Object)new String("a"), 1)).freeze();
+    assertFalse(identity.containsKey("a"));
+    FastIdentityHashMap<Object,Object> source = new FastIdentityHashMap<Object,Object> ();
+    for (int i = 0; i < 10; i++)
+      source.put(new String("k" + i), new String("v" + i));
+    source.put(null, new String("v"));
+    FastFrozenHashMap<Object,Object> frozen2 = source.freeze();
+    assertEquals(source.hashCode(), frozen2.hashCode());
+    assertEquals(new IdentityHashMap<Object,Object> (source).hashCode(), frozen2.hashCode());
+    assertFalse(frozen2.containsValue("v1"));
+    assertTrue(frozen2.containsValue(source.get(null)));
+  }
+
+  @Test public void testCollidingStrings () throws IOException, ClassNotFoundException {
+    List<String> keys = FastHashMapTest.collidingStrings(12);
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    for (int i = 0; i < keys.size(); i++)
+      map.put(keys.get(i), i);
+    assertTrue(map.stringHashing);
+    FastFrozenHashMap<String,Integer> frozen = map.freeze();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(frozen);
+    oos.close();
+    @SuppressWarnings("unchecked")
+    FastFrozenHashMap<String,Integer> copy = (FastFrozenHashMap<String,Integer>)
+      new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    for (FastFrozenHashMap<String,Integer> m : Arrays.asList(frozen, copy)) {
+      assertTrue(m.stringHashing);
+      int longest = 0;
+      for (int b = 0; b + 1 < m.binStart.length; b++)
+        longest = Math.max(longest, m.binStart[b+1] - m.binStart[b]);
+      assertTrue(longest < FastHashMap.MAX_CHAIN_LENGTH);
+      for (int i = 0; i < keys.size(); i++)
+        assertEquals(Integer.valueOf(i), m.get(keys.get(i)));
+    }
+    assertEquals(map, copy);
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastLinkedHashMap<Integer,String> map = new FastLinkedHashMap<Integer,String> ();
+    for (int i = 0; i < 100; i++)
+      map.put(99 - i, "a" + i);
+    map.put(null, null);
+    FastFrozenHashMap<Integer,String> frozen = map.freeze();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(frozen);
+    oos.close();
+    @SuppressWarnings("unchecked")
+    FastFrozenHashMap<Integer,String> copy = (FastFrozenHashMap<Integer,String>)
+      new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    assertEquals(frozen, copy);
+    assertEquals(new ArrayList<Integer> (map.keySet()), new ArrayList<Integer> (copy.keySet()));
+    assertTrue(copy.containsKey(null));
+  }
+}
@@ -470,4 +470,71 @@ public class FastHashMap2Test {
 	    assertFalse(ik.hasNext());
 	}
     }
+
+    @Test
+    public void computeTest() {
+	FastHashMap2<String, Integer> map = new FastHashMap2<String, Integer>();
+	Map<String, Integer> check = new HashMap<String, Integer>();
+	Random rnd = new Random(1);
+	for (int i = 0; i < 100000; i++) {
+	    String key = rnd.nextInt(50) == 0 ? null : "k" + rnd.nextInt(1000);
+	    final int v = rnd.nextInt(10);
+	    switch (rnd.nextInt(6)) {
+	    case 0:
+		assertEquals(check.merge(key, v, (a, b) -> a + b == 7 ? null : a + b),
+			map.merge(key, v, (a, b) -> a + b == 7 ? null : a + b));
+		break;
+	    case 1:
+		assertEquals(check.compute(key, (k, a) -> v == 0 ? null : v),
+			map.compute(key, (k, a) -> v == 0 ? null : v));
+		break;
+	    case 2:
+		assertEquals(check.computeIfAbsent(key, k -> v == 0 ? null : v),
+			map.computeIfAbsent(key, k -> v == 0 ? null : v));
+		break;
+	    case 3:
+		assertEquals(check.computeIfPresent(key, (k, a) -> v == 0 ? null : a + v),
+			map.computeIfPresent(key, (k, a) -> v == 0 ? null : a + v));
+		break;
+	    case 4:
+		assertEquals(check.putIfAbsent(key, v), map.putIfAbsent(key, v));
+		break;
+	    default:
+		assertEquals(check.getOrDefault(key, -1), map.getOrDefault(key, -1));
+	    }
+	    assertEquals(check.size(), map.size());
+	}
+	assertEquals(check, map);
+    }
+
+    @Test
+    public void cursorTest() {
+	Random rnd = new Random(1);
+	for (int n = 1; n < 200; n++) {
+	    FastHashMap2<Integer, Integer> map = new FastHashMap2<Integer, Integer>();
+	    Map<Integer, Integer> check = new HashMap<Integer, Integer>();
+	    for (int i = 0; i < n; i++) {
+		Integer key = rnd.nextInt(n) == 0 ? null : rnd.nextInt(4 * n) << 8;
+		map.put(key, i);
+		check.put(key, i);
+	    }
+	    Set<Integer> keys = new HashSet<Integer>(check.keySet());
+	    Set<Integer> seen = new HashSet<Integer>();
+	    MapCursor<Integer, Integer> c = map.cursor();
+	    while (c.advance()) {
+		Integer key = c.key();
+		assertTrue(seen.add(key));
+		assertEquals(check.get(key), c.value());
+		if (rnd.nextBoolean()) {
+		    c.remove();
+		    check.remove(key);
+		} else {
+		    assertEquals(check.put(key, -1), c.setValue(-1));
+		}
+	    }
+	    assertFalse(c.advance());
+	    assertEquals(keys, seen);
+	    assertEquals(check, map);
+	}
+    }
 }
@@ -1,5 +1,7 @@
 import java.util.*;
 import java.io.*;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.*;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -572,4 +574,1036 @@ public class FastHashMapTest {
     assertEquals(map1, map2);
     assertEquals(map2, map1);
   }
+
+  @Test public void testConcurrentReads () throws InterruptedException {
+    final FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.enableConcurrentReads();
+    final int n = 20000;
+    for (int i = 0; i < n; i += 2)
+      map.put(i, i);
+    map.put(null, -1);
+    final boolean[] failed = new boolean[1];
+    final Thread writer = new Thread() {
+      public void run() {
+        // Odd keys come and go, forcing resizes and defragmentation
+        for (int round = 0; round < 5; round++) {
+          for (int i = 1; i < n; i += 2)
+            map.put(i, i);
+          for (int i = 1; i < n; i += 2)
+            map.remove(i);
+          map.clear();
+          for (int i = 0; i < n; i += 2)
+            map.put(i, i);
+          map.put(null, -1);
+        }
+      }
+    };
+    Thread[] readers = new Thread[4];
+    for (int j = 0; j < readers.length; j++) {
+      readers[j] = new Thread() {
+        public void run() {
+          while (writer.isAlive())
+            for (int i = 0; i < n; i++) {
+              Integer value = map.get(i);
+              if (value != null && value != i)
+                failed[0] = true;
+              if (map.containsKey(-i-1))
+                failed[0] = true;
+            }
+        }
+      };
+      readers[j].start();
+    }
+    writer.start();
+    writer.join();
+    for (int j = 0; j < readers.length; j++)
+      readers[j].join();
+    assertFalse(failed[0]);
+    assertEquals(n / 2 + 1, map.size());
+    assertEquals(-1, (int)map.get(null));
+    for (int i = 0; i < n; i++)
+      assertEquals(i % 2 == 0 ? Integer.valueOf(i) : null, map.get(i));
+    // Clone is a plain map
+    assertEquals(null, map.clone().seqLock);
+  }
+
+  @Test public void testConcurrentReadsDuringWrites () throws InterruptedException {
+    testConcurrentReadsDuringWrites(new FastHashMap<Integer,Integer> ());
+    testConcurrentReadsDuringWrites(new FastLinkedHashMap<Integer,Integer> ());
+    FastHashMap<Integer,Integer> incremental = new FastHashMap<Integer,Integer> ();
+    incremental.enableIncrementalResize();
+    testConcurrentReadsDuringWrites(incremental);
+  }
+
+  static void testConcurrentReadsDuringWrites (final FastHashMap<Integer,Integer> map)
+    throws InterruptedException
+  {
+    map.enableConcurrentReads();
+    final int n = 4000;
+    // Even keys are always present
+    for (int i = 0; i < n; i += 2)
+      map.put(i, i);
+    final AtomicInteger errors = new AtomicInteger();
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread[] readers = new Thread[4];
+    for (int j = 0; j < readers.length; j++) {
+      readers[j] = new Thread() {
+        public void run() {
+          while (!done.get())
+            for (int i = 0; i < n; i += 2) {
+              try {
+                if (!Integer.valueOf(i).equals(map.get(i)))
+                  errors.incrementAndGet();
+                if (!map.containsKey(i))
+                  errors.incrementAndGet();
+                if (map.getOrDefault(i, -1) != i)
+                  errors.incrementAndGet();
+              } catch (RuntimeException e) {
+                errors.incrementAndGet();
+              }
+            }
+        }
+      };
+      readers[j].start();
+    }
+    // Odd keys come and go, forcing resizes, defragmentation and rebuilds
+    for (int round = 0; round < 30; round++) {
+      for (int i = 1; i < n * 8; i += 2)
+        map.put(i, i);
+      for (int i = 1; i < n * 8; i += 2)
+        map.remove(i);
+      map.trimToSize();
+      for (int i = 1; i < n; i += 4)
+        map.put(i, i);
+      map.compact();
+    }
+    done.set(true);
+    for (int j = 0; j < readers.length; j++)
+      readers[j].join();
+    assertEquals(0, errors.get());
+  }
+
+  @Test(expected=UnsupportedOperationException.class)
+  public void testConcurrentReadsAccessOrder () {
+    new FastLinkedHashMap<String,String>(16, .75f, true).enableConcurrentReads();
+  }
+
+  @Test public void testSnapshot () throws IOException {
+    FastHashMap<String,String> map = new FastHashMap<String,String> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      String key = "k" + rnd.nextInt(3000);
+      if (rnd.nextInt(3) == 0) map.remove(key);
+      else map.put(key, i % 7 == 0 ? null : "v" + i);
+    }
+    map.put(null, "null");
+    char[] large = new char[100000];
+    Arrays.fill(large, 'x');
+    map.put("large", new String(large));
+    File file = File.createTempFile("snapshot", ".bin");
+    try {
+      FileChannel out = new FileOutputStream(file).getChannel();
+      map.writeSnapshot(out, SnapshotCodec.STRING, SnapshotCodec.STRING);
+      out.close();
+      FileChannel in = new FileInputStream(file).getChannel();
+      FastHashMap<String,String> copy =
+        FastHashMap.readSnapshot(in, SnapshotCodec.STRING, SnapshotCodec.STRING);
+      in.close();
+      assertEquals(map, copy);
+      assertEquals(new ArrayList<String>(map.keySet()),
+                   new ArrayList<String>(copy.keySet()));
+      // Restored index is fully functional
+      for (int i = 0; i < 10000; i++) {
+        String key = "k" + rnd.nextInt(5000);
+        if (rnd.nextInt(3) == 0)
+          assertEquals(map.remove(key), copy.remove(key));
+        else
+          assertEquals(map.put(key, "w" + i), copy.put(key, "w" + i));
+      }
+      assertEquals(map, copy);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void testSnapshotEmpty () throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new FastHashMap<Integer,Long>().writeSnapshot(
+      Channels.newChannel(bytes), SnapshotCodec.INTEGER, SnapshotCodec.LONG);
+    FastHashMap<Integer,Long> copy = FastHashMap.readSnapshot(
+      Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+      SnapshotCodec.INTEGER, SnapshotCodec.LONG);
+    assertEquals(0, copy.size());
+    copy.put(1, 2L);
+    assertEquals(Long.valueOf(2L), copy.get(1));
+  }
+
+  @Test(expected=StreamCorruptedException.class)
+  public void testSnapshotOfSet () throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    FastHashSet<Integer> set = new FastHashSet<Integer>();
+    set.add(1);
+    set.writeSnapshot(Channels.newChannel(bytes), SnapshotCodec.INTEGER);
+    FastHashMap.readSnapshot(
+      Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+      SnapshotCodec.INTEGER, SnapshotCodec.INTEGER);
+  }
+
+  @Test public void testComputeRandom () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    Map<String,Integer> check = new HashMap<String,Integer> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      String key = rnd.nextInt(50) == 0 ? null : "k" + rnd.nextInt(1000);
+      final int v = rnd.nextInt(10);
+      switch (rnd.nextInt(9)) {
+        case 0:
+          assertEquals(check.merge(key, v, (a, b) -> a + b == 7 ? null : a + b),
+                       map.merge(key, v, (a, b) -> a + b == 7 ? null : a + b));
+          break;
+        case 1:
+          assertEquals(check.compute(key, (k, a) -> v == 0 ? null : v),
+                       map.compute(key, (k, a) -> v == 0 ? null : v));
+          break;
+        case 2:
+          assertEquals(check.computeIfAbsent(key, k -> v == 0 ? null : v),
+                       map.computeIfAbsent(key, k -> v == 0 ? null : v));
+          break;
+        case 3:
+          assertEquals(check.computeIfPresent(key, (k, a) -> v == 0 ? null : a + v),
+                       map.computeIfPresent(key, (k, a) -> v == 0 ? null : a + v));
+          break;
+        case 4:
+          assertEquals(check.putIfAbsent(key, v == 0 ? null : v),
+                       map.putIfAbsent(key, v == 0 ? null : v));
+          break;
+        case 5:
+          assertEquals(check.remove(key), map.remove(key));
+          break;
+        case 6:
+          assertEquals(check.replace(key, v == 0 ? null : v),
+                       map.replace(key, v == 0 ? null : v));
+          break;
+        case 7:
+          if (rnd.nextBoolean())
+            assertEquals(check.replace(key, v, v + 1), map.replace(key, v, v + 1));
+          else
+            assertEquals(check.remove(key, v), map.remove(key, v));
+          break;
+        default:
+          assertEquals(check.getOrDefault(key, -1), map.getOrDefault(key, -1));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertEquals(check, map);
+  }
+
+  static final class CountingKey {
+    static int hashCodes, equalsCalls;
+    final int id;
+    CountingKey (int id) { this.id = id; }
+    public int hashCode () { hashCodes++; return id; }
+    public boolean equals (Object o) {
+      equalsCalls++;
+      return o instanceof CountingKey && ((CountingKey)o).id == id;
+    }
+  }
+
+  @Test public void testComputeSingleProbe () {
+    FastHashMap<CountingKey,Integer> map = new FastHashMap<CountingKey,Integer> ();
+    for (int i = 0; i < 1000; i++)
+      map.put(new CountingKey(i), i);
+    CountingKey.hashCodes = 0;
+    for (int i = 0; i < 2000; i++)
+      map.merge(new CountingKey(i), 1, Integer::sum);
+    assertEquals(2000, CountingKey.hashCodes);
+    assertEquals(Integer.valueOf(6), map.get(new CountingKey(5)));
+    assertEquals(Integer.valueOf(1), map.get(new CountingKey(1500)));
+  }
+
+  @Test(expected=ConcurrentModificationException.class)
+  public void testComputeModification () {
+    FastHashMap<String,String> map = new FastHashMap<String,String> ();
+    map.computeIfAbsent("a", k -> map.put("b", "b"));
+  }
+
+  @Test public void testForEach () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    for (int i = 0; i < 100; i++)
+      map.put("k" + i, i);
+    map.put(null, -1);
+    for (int i = 0; i < 100; i += 3)
+      map.remove("k" + i);
+    final List<String> keys = new ArrayList<String> ();
+    final List<Integer> values = new ArrayList<Integer> ();
+    map.forEach((k, v) -> { keys.add(k); values.add(v); });
+    assertEquals(new ArrayList<String> (map.keySet()), keys);
+    assertEquals(new ArrayList<Integer> (map.values()), values);
+    map.replaceAll((k, v) -> k == null ? null : v * 2);
+    assertNull(map.get(null));
+    assertTrue(map.containsKey(null));
+    assertEquals(Integer.valueOf(2), map.get("k1"));
+    assertEquals(67, map.size());
+  }
+
+  @Test public void testRemoveIfEntries () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    for (int i = 0; i < 100; i++)
+      map.put("k" + i, i);
+    map.put(null, -1);
+    final Set<Object> entries = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean> ());
+    assertTrue(map.entrySet().removeIf(e -> {
+      entries.add(e);
+      if (e.getKey() == null)
+        e.setValue(-2);
+      else if (e.getValue() % 2 != 0)
+        assertEquals(new AbstractMap.SimpleEntry<String,Integer> (e.getKey(), e.getValue()), e);
+      return e.getValue() % 2 == 0;
+    }));
+    assertEquals(1, entries.size());
+    assertEquals(50, map.size());
+    assertFalse(map.containsKey(null));
+    assertEquals(Integer.valueOf(7), map.get("k7"));
+    assertFalse(map.containsKey("k8"));
+  }
+
+  @Test public void testRemoveIfRandom () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    Map<String,Integer> check = new HashMap<String,Integer> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      String key = rnd.nextInt(50) == 0 ? null : "k" + rnd.nextInt(1000);
+      final int v = rnd.nextInt(10);
+      switch (rnd.nextInt(100)) {
+        case 0:
+          assertEquals(check.keySet().removeIf(k -> k == null || k.hashCode() % 7 == v),
+                       map.keySet().removeIf(k -> k == null || k.hashCode() % 7 == v));
+          break;
+        case 1:
+          assertEquals(check.values().removeIf(x -> x == v),
+                       map.values().removeIf(x -> x == v));
+          break;
+        case 2:
+          assertEquals(check.entrySet().removeIf(e -> e.getValue() < v),
+                       map.entrySet().removeIf(e -> e.getValue() < v));
+          break;
+        default:
+          if (rnd.nextInt(3) == 0)
+            assertEquals(check.remove(key), map.remove(key));
+          else
+            assertEquals(check.put(key, v), map.put(key, v));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertEquals(check, map);
+    for (String key: check.keySet())
+      assertEquals(check.get(key), map.get(key));
+  }
+
+  @Test public void testRemoveIfOneBasket () {
+    int n = 6;
+    for (int i = 0; i < (1<<n); i++) {
+      FastHashMap<ZeroHash,String> m = new FastHashMap<ZeroHash,String>();
+      for(int j = 0; j < n; j++)
+        m.put(new ZeroHash(j), ""+j);
+      m.remove(new ZeroHash(n/2));
+      final int mask = i;
+      m.keySet().removeIf(k -> (mask & (1 << k.n)) == 0);
+      for(int j = 0; j < n; j++)
+        assertEquals((i & (1<<j)) != 0 && j != n/2, m.containsKey(new ZeroHash(j)));
+      for(int j = 0; j < n; j++)
+        m.put(new ZeroHash(j), ""+j);
+      assertEquals(n, m.size());
+      for(int j = 0; j < n; j++)
+        assertEquals(""+j, m.get(new ZeroHash(j)));
+    }
+  }
+
+  @Test public void testRemoveIfException () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 10; i++)
+      map.put(i, i);
+    try {
+      map.keySet().removeIf(k -> { if (k == 5) throw new IllegalStateException(); return true; });
+      fail();
+    } catch (IllegalStateException e) {
+      // Nothing is removed
+    }
+    assertEquals(10, map.size());
+  }
+
+  @Test(expected=ConcurrentModificationException.class)
+  public void testForEachModification () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 10; i++)
+      map.put(i, i);
+    map.forEach((k, v) -> map.remove(k));
+  }
+
+  static int countSplits (Spliterator<?> s) {
+    Spliterator<?> prefix = s.trySplit();
+    int n = prefix == null ? 0 : countSplits(prefix);
+    if (prefix == null || s.estimateSize() < 4) {
+      final int[] count = new int[1];
+      s.forEachRemaining(x -> count[0]++);
+      return n + count[0];
+    }
+    return n + countSplits(s);
+  }
+
+  @Test public void testSpliterator () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 10000; i++)
+      map.put(i, i);
+    map.put(null, 0);
+    Spliterator<Integer> s = map.keySet().spliterator();
+    // Hash chain defragmentation in put may have left holes,
+    // the whole map is sized anyway
+    assertTrue(s.hasCharacteristics(Spliterator.SIZED | Spliterator.DISTINCT));
+    assertEquals(10001, s.getExactSizeIfKnown());
+    assertTrue(s.tryAdvance(k -> {}));
+    assertEquals(10000, s.getExactSizeIfKnown());
+    s = map.keySet().spliterator();
+    Spliterator<Integer> prefix = s.trySplit();
+    if (prefix.hasCharacteristics(Spliterator.SUBSIZED))
+      assertEquals(10001, prefix.estimateSize() + s.estimateSize());
+    assertEquals(10001, countSplits(map.values().spliterator()));
+    assertEquals(10001, countSplits(map.entrySet().spliterator()));
+    //
+    for (int i = 0; i < 10000; i += 3)
+      map.remove(i);
+    s = map.keySet().spliterator();
+    assertTrue(s.hasCharacteristics(Spliterator.SIZED));
+    assertFalse(s.hasCharacteristics(Spliterator.SUBSIZED));
+    assertEquals(6667, s.getExactSizeIfKnown());
+    assertTrue(s.tryAdvance(k -> {}));
+    assertEquals(6666, s.getExactSizeIfKnown());
+    prefix = s.trySplit();
+    assertFalse(s.hasCharacteristics(Spliterator.SIZED));
+    assertFalse(prefix.hasCharacteristics(Spliterator.SIZED));
+    s = map.keySet().spliterator();
+    assertEquals(6667, countSplits(s));
+    assertEquals(6667, map.keySet().stream().toArray().length);
+    assertEquals(map.keySet(), map.keySet().parallelStream()
+      .collect(java.util.stream.Collectors.toSet()));
+    long sum = 0;
+    for (Integer v: map.values())
+      sum += v == null ? 0 : v;
+    assertEquals(sum, map.values().parallelStream().mapToLong(v -> v).sum());
+    assertEquals(map.size(), map.entrySet().parallelStream().count());
+  }
+
+  @Test(expected=ConcurrentModificationException.class)
+  public void testSpliteratorModification () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 10; i++)
+      map.put(i, i);
+    map.keySet().spliterator().forEachRemaining(k -> map.remove(k));
+  }
+
+  @Test public void testCursor () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 100; i++)
+      map.put(i, i);
+    map.put(null, -1);
+    List<Integer> keys = new ArrayList<Integer> (map.keySet());
+    MapCursor<Integer,Integer> c = map.cursor();
+    int n = 0;
+    while (c.advance()) {
+      assertEquals(keys.get(n++), c.key());
+      if (c.key() == null || c.key() % 2 == 0)
+        c.remove();
+      else
+        assertEquals(c.key(), c.setValue(c.value() * 10));
+    }
+    assertEquals(101, n);
+    assertFalse(c.advance());
+    assertEquals(50, map.size());
+    for (int i = 0; i < 100; i++)
+      assertEquals(i % 2 == 0 ? null : Integer.valueOf(i * 10), map.get(i));
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void testCursorRemoveTwice () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.put(1, 1);
+    MapCursor<Integer,Integer> c = map.cursor();
+    c.advance();
+    c.remove();
+    c.remove();
+  }
+
+  @Test(expected=ConcurrentModificationException.class)
+  public void testCursorModification () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.put(1, 1);
+    map.put(2, 2);
+    MapCursor<Integer,Integer> c = map.cursor();
+    c.advance();
+    map.remove(2);
+    c.advance();
+  }
+
+  @Test public void testIteratorRemoveRandom () {
+    Random rnd = new Random(1);
+    for (int n = 1; n < 3000; n = n * 3 / 2 + 1) {
+      FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+      Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+      for (int i = 0; i < n; i++) {
+        Integer key = rnd.nextInt(n) == 0 ? null : rnd.nextInt(2 * n) << (rnd.nextInt(3) * 8);
+        map.put(key, i);
+        check.put(key, i);
+        if (rnd.nextInt(5) == 0) {
+          key = rnd.nextInt(2 * n);
+          map.remove(key);
+          check.remove(key);
+        }
+      }
+      for (int pass = 0; pass < 3; pass++) {
+        if (pass == 1) {
+          MapCursor<Integer,Integer> c = map.cursor();
+          while (c.advance())
+            if (rnd.nextInt(3) == 0) {
+              check.remove(c.key());
+              c.remove();
+            }
+        } else {
+          Iterator<Map.Entry<Integer,Integer>> i = pass == 0 ?
+            map.entrySet().iterator() : null;
+          Iterator<Integer> ik = pass == 2 ? map.keySet().iterator() : null;
+          while (i != null ? i.hasNext() : ik.hasNext()) {
+            Integer key = i != null ? i.next().getKey() : ik.next();
+            if (rnd.nextInt(3) == 0) {
+              check.remove(key);
+              if (i != null) i.remove(); else ik.remove();
+            }
+          }
+        }
+        assertEquals(check.size(), map.size());
+        assertEquals(check, map);
+        for (Integer key: check.keySet())
+          assertEquals(check.get(key), map.get(key));
+      }
+      for (int i = 0; i < n; i++) {
+        Integer key = rnd.nextInt(2 * n);
+        assertEquals(check.put(key, i), map.put(key, i));
+      }
+      assertEquals(check, map);
+    }
+  }
+
+  @Test public void testIteratorRemoveLocations () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 10000; i++)
+      map.put(i, i);
+    for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); )
+      if (it.next() % 2 == 0)
+        it.remove();
+    int[] locations = map.removalLocations;
+    assertNotNull(locations);
+    // Following iterators use the same locations from the first removal
+    MapCursor<Integer,Integer> c = map.cursor();
+    while (c.advance())
+      if (c.key() % 3 == 0)
+        c.remove();
+    assertSame(locations, map.removalLocations);
+    // Other modifications make them to be collected again in the same array
+    map.put(-1, -1);
+    for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); )
+      if (it.next() % 5 == 0)
+        it.remove();
+    assertSame(locations, map.removalLocations);
+    assertEquals(2667, map.size());
+    for (int i = -1; i < 10000; i++)
+      assertEquals(i % 2 != 0 && i % 3 != 0 && i % 5 != 0 ? Integer.valueOf(i) : null, map.get(i));
+    map.compact();
+    assertNull(map.removalLocations);
+    map.keySet().removeIf(k -> k % 7 == 0);
+    for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); it.remove())
+      it.next();
+    assertTrue(map.isEmpty());
+    map.clear();
+    assertNull(map.removalLocations);
+  }
+
+  @Test public void testIteratorRemoveOneBasket () {
+    int n = 6;
+    for (int i = 0; i < (1<<n); i++) {
+      FastHashMap<ZeroHash,String> m = new FastHashMap<ZeroHash,String>();
+      for(int j = 0; j < n; j++)
+        m.put(new ZeroHash(j), ""+j);
+      for (Iterator<ZeroHash> ik = m.keySet().iterator(); ik.hasNext(); )
+        if ((i & (1 << ik.next().n)) == 0)
+          ik.remove();
+      for(int j = 0; j < n; j++)
+        assertEquals((i & (1<<j)) != 0, m.containsKey(new ZeroHash(j)));
+      for(int j = 0; j < n; j++)
+        m.put(new ZeroHash(j), ""+j);
+      for(int j = 0; j < n; j++)
+        assertEquals(""+j, m.remove(new ZeroHash(j)));
+      assertTrue(m.isEmpty());
+    }
+  }
+
+  @Test public void testTrimToSize () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+    for (int i = 0; i < 100000; i++) {
+      map.put(i * 7, i);
+      check.put(i * 7, i);
+    }
+    map.put(null, -1);
+    check.put(null, -1);
+    int capacity = map.capacity();
+    for (int i = 0; i < 100000; i++)
+      if (i % 100 != 0) {
+        map.remove(i * 7);
+        check.remove(i * 7);
+      }
+    List<Integer> order = new ArrayList<Integer> (map.keySet());
+    map.compact();
+    assertEquals(capacity, map.capacity());
+    assertEquals(order, new ArrayList<Integer> (map.keySet()));
+    map.trimToSize();
+    assertEquals(2048, map.capacity());
+    assertEquals(order, new ArrayList<Integer> (map.keySet()));
+    assertEquals(check, map);
+    for (Integer key: check.keySet())
+      assertEquals(check.get(key), map.get(key));
+    for (int i = 0; i < 1000; i++)
+      assertEquals(check.put(i, i), map.put(i, i));
+    assertEquals(check, map);
+    map.clear();
+    map.trimToSize();
+    assertEquals(4, map.capacity());
+    map.put(1, 1);
+    assertEquals(Integer.valueOf(1), map.get(1));
+  }
+
+  @Test public void testLowWaterMark () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.setLowWaterMark(.25f);
+    for (int i = 0; i < 10000; i++)
+      map.put(i, i);
+    assertEquals(16384, map.capacity());
+    for (int i = 0; i < 10000; i++)
+      if (i % 10 != 0)
+        map.remove(i);
+    assertTrue(map.capacity() <= 4096);
+    assertEquals(1000, map.size());
+    for (int i = 0; i < 10000; i++)
+      assertEquals(i % 10 == 0 ? Integer.valueOf(i) : null, map.get(i));
+    map.keySet().removeIf(k -> k >= 100);
+    assertEquals(16, map.capacity());
+    assertEquals(10, map.size());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testIllegalLowWaterMark () {
+    new FastHashMap<Integer,Integer> ().setLowWaterMark(.5f);
+  }
+
+  @Test public void testIncrementalResize () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.enableIncrementalResize();
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+    Random rnd = new Random(1);
+    int migrations = 0;
+    for (int i = 0; i < 200000; i++) {
+      Integer key = rnd.nextInt(100) == 0 ? null : rnd.nextInt(50000) * 17;
+      int r = rnd.nextInt(10);
+      if (r < 6)
+        assertEquals(check.put(key, i), map.put(key, i));
+      else if (r < 8)
+        assertEquals(check.remove(key), map.remove(key));
+      else
+        assertEquals(check.get(key), map.get(key));
+      if (map.oldIndexTable != null) {
+        migrations++;
+        assertEquals(check.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertTrue(migrations > 0);
+    assertEquals(check, map);
+    for (Integer key: check.keySet())
+      assertEquals(check.get(key), map.get(key));
+  }
+
+  @Test public void testIncrementalResizeWork () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.enableIncrementalResize();
+    int resizes = 0;
+    for (int i = 0; i < 300000; i++) {
+      Object[] grown = map.grownKeyValueTable;
+      int copied = map.copiedPositions;
+      int threshold = map.threshold;
+      int binsToMove = map.oldIndexTable == null ? 0 : map.binsToMove;
+      map.put(i, i);
+      if (map.threshold != threshold && threshold >= 8) {
+        // Keys and values were copied by previous insertions
+        assertSame(grown, map.keyValueTable);
+        assertEquals(threshold, copied);
+        resizes++;
+      } else if (map.grownKeyValueTable != null) {
+        // A few positions per insertion
+        assertTrue(map.copiedPositions - (grown == null ? 0 : copied) <= map.copyStep);
+        assertTrue(threshold < 1024 || map.copyStep <= 10);
+      }
+      // A few hash bins per insertion
+      if (binsToMove > 0)
+        assertTrue(binsToMove - (map.oldIndexTable == null ? 0 : map.binsToMove) <=
+          map.resizeStep + 1);
+    }
+    assertTrue(resizes >= 14);
+    for (int i = 0; i < 300000; i++)
+      assertEquals(Integer.valueOf(i), map.get(i));
+  }
+
+  @Test public void testIncrementalResizeLookups () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    map.enableIncrementalResize();
+    map.enableConcurrentReads();
+    int n = 0;
+    while (n < 10000 || map.oldIndexTable == null)
+      map.put(n, n++);
+    // Resize has just started: most bins are still in the old index
+    FastHashMap<Integer,Integer> copy = map.clone();
+    for (int i = 0; i < n; i++) {
+      assertEquals(Integer.valueOf(i), map.get(i));
+      assertTrue(map.containsKey(i));
+      assertEquals(Integer.valueOf(i), copy.get(i));
+    }
+    assertNull(map.get(-1));
+    // Iterator removal moves the remaining bins before using the index
+    for (Iterator<Integer> i = map.keySet().iterator(); i.hasNext();)
+      if (i.next() % 3 == 0)
+        i.remove();
+    assertNull(map.oldIndexTable);
+    assertNotNull(copy.oldIndexTable);
+    for (int i = 0; i < n; i++) {
+      assertEquals(i % 3 == 0 ? null : Integer.valueOf(i), map.get(i));
+      assertEquals(Integer.valueOf(i), copy.put(i, -i));
+    }
+    assertEquals(n, copy.size());
+    assertEquals(Integer.valueOf(-1), copy.get(1));
+  }
+
+  /**
+   * Returns <tt>2^n</tt> different strings with the same hashCode.
+   */
+  static List<String> collidingStrings (int n) {
+    List<String> list = new ArrayList<String> ();
+    list.add("");
+    for (int i = 0; i < n; i++) {
+      List<String> next = new ArrayList<String> ();
+      for (String s: list) {
+        next.add(s + "Aa");
+        next.add(s + "BB");
+      }
+      list = next;
+    }
+    return list;
+  }
+
+  @Test public void testHashSeed () {
+    Set<Integer> hashes = new HashSet<Integer> ();
+    for (int i = 0; i < 10; i++)
+      hashes.add(new FastHashMap<String,String> ().hash("key"));
+    assertTrue(hashes.size() > 1);
+  }
+
+  @Test public void testCollidingStrings () throws IOException {
+    List<String> keys = collidingStrings(12);
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    for (int i = 0; i < keys.size(); i++) {
+      assertNull(map.put(keys.get(i), i));
+      if (i < FastHashMap.MAX_CHAIN_LENGTH)
+        assertFalse(map.stringHashing);
+    }
+    assertTrue(map.stringHashing);
+    Set<Integer> hashes = new HashSet<Integer> ();
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(Integer.valueOf(i), map.get(keys.get(i)));
+      hashes.add(map.hash(keys.get(i)));
+    }
+    assertTrue(hashes.size() > keys.size() - 10);
+    for (int i = 0; i < keys.size(); i += 2)
+      assertEquals(Integer.valueOf(i), map.remove(keys.get(i)));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    map.writeSnapshot(Channels.newChannel(bytes),
+      SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    FastHashMap<String,Integer> copy = FastHashMap.readSnapshot(
+      Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+      SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    FastHashMap<String,Integer> clone = map.clone();
+    for (int i = 0; i < keys.size(); i++) {
+      Integer value = i % 2 == 0 ? null : Integer.valueOf(i);
+      assertEquals(value, map.get(keys.get(i)));
+      assertEquals(value, copy.get(keys.get(i)));
+      assertEquals(value, clone.get(keys.get(i)));
+    }
+    assertEquals(map, copy);
+    assertEquals(map, new FastHashMap<String,Integer> (map));
+  }
+
+  @Test public void testCollidingStrategyKeys () {
+    // "0?" and "1 " have the same hashCode and no case
+    List<String> keys = new ArrayList<String> ();
+    for (String s: collidingStrings(12))
+      keys.add("key" + s.replace("Aa", "0?").replace("BB", "1 "));
+    FastHashMap<String,Integer> map =
+      new FastHashMap<String,Integer> (HashingStrategy.CASE_INSENSITIVE);
+    for (int i = 0; i < keys.size(); i++) {
+      assertNull(map.put(keys.get(i), i));
+      if (i < FastHashMap.MAX_CHAIN_LENGTH)
+        assertFalse(map.stringHashing);
+    }
+    assertTrue(map.stringHashing);
+    Set<Integer> hashes = new HashSet<Integer> ();
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      assertEquals(Integer.valueOf(i), map.get(key.toUpperCase(Locale.ROOT)));
+      assertEquals(map.hash(key), map.hash(key.toUpperCase(Locale.ROOT)));
+      hashes.add(map.hash(key));
+    }
+    assertTrue(hashes.size() > keys.size() - 10);
+    FastHashMap<byte[],Integer> bytes =
+      new FastHashMap<byte[],Integer> (HashingStrategy.BYTES);
+    for (int i = 0; i < keys.size(); i++)
+      bytes.put(keys.get(i).getBytes(), i);
+    assertTrue(bytes.stringHashing);
+    for (int i = 0; i < keys.size(); i++)
+      assertEquals(Integer.valueOf(i), bytes.get(keys.get(i).getBytes()));
+  }
+
+  /**
+   * Keys compared by absolute value, serializable.
+   */
+  static final class AbsStrategy implements HashingStrategy<Integer>, Serializable {
+    private static final long serialVersionUID = 0L;
+    public int hashCode (Integer key) {
+      return Math.abs(key);
+    }
+    public boolean equals (Integer key1, Integer key2) {
+      return Math.abs(key1) == Math.abs(key2);
+    }
+  }
+
+  @Test public void testHashingStrategy () throws IOException, ClassNotFoundException {
+    FastHashMap<byte[],Integer> bytes =
+      new FastHashMap<byte[],Integer> (HashingStrategy.BYTES);
+    for (int i = 0; i < 1000; i++)
+      bytes.put(Integer.toString(i).getBytes("UTF-8"), i);
+    for (int i = 0; i < 1000; i++)
+      assertEquals(Integer.valueOf(i), bytes.get(Integer.toString(i).getBytes("UTF-8")));
+    assertEquals(Integer.valueOf(5), bytes.remove(new byte[] {'5'}));
+    assertFalse(bytes.containsKey(new byte[] {'5'}));
+    assertEquals(999, bytes.size());
+    FastHashMap<String,Integer> headers =
+      new FastHashMap<String,Integer> (HashingStrategy.CASE_INSENSITIVE);
+    headers.put("Content-Type", 1);
+    assertEquals(Integer.valueOf(1), headers.put("content-type", 2));
+    assertEquals(Integer.valueOf(2), headers.get("CONTENT-TYPE"));
+    assertEquals(Integer.valueOf(2), headers.remove("Content-type"));
+    assertTrue(headers.isEmpty());
+    // Serialized with the strategy
+    FastHashMap<Integer,Integer> map =
+      new FastHashMap<Integer,Integer> (16, .5f, new AbsStrategy());
+    for (int i = -500; i < 500; i++)
+      map.put(i, i);
+    assertEquals(501, map.size());
+    assertEquals(Integer.valueOf(499), map.get(-499));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    @SuppressWarnings("unchecked")
+    FastHashMap<Integer,Integer> copy = (FastHashMap<Integer,Integer>)
+      new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    assertEquals(Integer.valueOf(7), copy.get(-7));
+    assertEquals(501, copy.size());
+    // Snapshot read with the strategy
+    bos = new ByteArrayOutputStream();
+    map.writeSnapshot(Channels.newChannel(bos), SnapshotCodec.INTEGER, SnapshotCodec.INTEGER);
+    copy = FastHashMap.readSnapshot(
+      Channels.newChannel(new ByteArrayInputStream(bos.toByteArray())),
+      SnapshotCodec.INTEGER, SnapshotCodec.INTEGER, new AbsStrategy());
+    assertEquals(Integer.valueOf(7), copy.get(-7));
+    assertEquals(Integer.valueOf(8), copy.put(8, 0));
+  }
+
+  /**
+   * Key with a constant hashCode.
+   */
+  static final class BadHash {
+    final int value;
+    BadHash (int value) {
+      this.value = value;
+    }
+    public int hashCode () {
+      return 1;
+    }
+    public boolean equals (Object o) {
+      return o instanceof BadHash && ((BadHash)o).value == value;
+    }
+  }
+
+  static void checkStats (MapStats stats, int keys) {
+    int[] lengths = stats.chainLengths();
+    int bins = 0, elements = 0;
+    for (int k = 0; k < lengths.length; k++) {
+      bins += lengths[k];
+      elements += k * lengths[k];
+    }
+    assertEquals(stats.capacity(), bins);
+    assertEquals(keys, elements);
+    assertEquals(bins - lengths[0],
+      stats.nextHeads() + stats.overflowHeads() + stats.endHeads());
+    assertEquals(lengths.length > 1 ? lengths[1] : 0, stats.endHeads());
+    assertEquals(stats.usedPositions() - stats.deleted(), keys);
+  }
+
+  @Test public void testStats () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    MapStats stats = map.stats();
+    assertEquals(0, stats.size());
+    assertEquals(0, stats.maxChainLength());
+    checkStats(stats, 0);
+    for (int i = 0; i < 1000; i++)
+      map.put(i, i);
+    map.put(null, 0);
+    stats = map.stats();
+    checkStats(stats, 1000);
+    assertEquals(1001, stats.size());
+    assertEquals(9, stats.resizes());
+    assertEquals(2048, stats.capacity());
+    for (int i = 0; i < 1000; i += 4)
+      map.remove(i);
+    stats = map.stats();
+    checkStats(stats, 750);
+    assertEquals(stats.deleted() / (double)stats.usedPositions(), stats.holeRatio(), 0);
+    // removing the last used position shrinks the used range instead of leaving a hole
+    assertEquals(750, stats.usedPositions() - stats.deleted());
+    assertTrue(stats.deleted() >= 249);
+    map.compact();
+    assertEquals(0, map.stats().deleted());
+    assertEquals(0, map.clone().stats().resizes());
+    // One chain
+    FastHashMap<BadHash,Integer> bad = new FastHashMap<BadHash,Integer> (256, .75f);
+    for (int i = 0; i < 100; i++)
+      bad.put(new BadHash(i), i);
+    stats = bad.stats();
+    checkStats(stats, 100);
+    assertEquals(100, stats.maxChainLength());
+    assertEquals(stats.capacity() - 1, stats.chainLengths()[0]);
+    assertEquals(50.5, stats.averageProbes(), 1e-9);
+    assertTrue(stats.defragmentations() > 0);
+    assertFalse(stats.stringHashing());
+  }
+
+  @Test public void testFullHashes () {
+    FastHashMap<CountingKey,Integer> map = new FastHashMap<CountingKey,Integer> ();
+    for (int i = 0; i < 1000; i++)
+      map.put(new CountingKey(i), i);
+    map.enableFullHashes();
+    for (int i = 1000; i < 100000; i++)
+      map.put(new CountingKey(i), i);
+    // Distinct hashcodes: only the key looked up is compared
+    CountingKey.equalsCalls = 0;
+    for (int i = 100000; i < 200000; i++)
+      assertNull(map.get(new CountingKey(i)));
+    assertEquals(0, CountingKey.equalsCalls);
+    for (int i = 0; i < 100000; i += 2)
+      assertEquals(Integer.valueOf(i), map.remove(new CountingKey(i)));
+    assertEquals(50000, CountingKey.equalsCalls);
+    CountingKey.equalsCalls = 0;
+    map.compact();
+    FastHashMap<CountingKey,Integer> copy = map.clone();
+    for (int i = 1; i < 100000; i += 2) {
+      assertEquals(Integer.valueOf(i), map.get(new CountingKey(i)));
+      assertTrue(copy.containsKey(new CountingKey(i)));
+    }
+    assertEquals(100000, CountingKey.equalsCalls);
+    // Random operations with all kinds of index changes
+    FastHashMap<Integer,Integer> m = new FastHashMap<Integer,Integer> ();
+    m.enableFullHashes();
+    m.setLowWaterMark(.2f);
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      Integer key = rnd.nextInt(100) == 0 ? null : rnd.nextInt(i / 1000 % 2 == 0 ? 20000 : 200);
+      int r = rnd.nextInt(10);
+      if (r < 5)
+        assertEquals(check.put(key, i), m.put(key, i));
+      else if (r < 8)
+        assertEquals(check.remove(key), m.remove(key));
+      else
+        assertEquals(check.get(key), m.get(key));
+    }
+    assertEquals(check, m);
+    for (Integer key: check.keySet())
+      assertEquals(check.get(key), m.get(key));
+  }
+
+  @Test public void testFork () {
+    FastHashMap<Integer,Integer> map = new FastHashMap<Integer,Integer> ();
+    for (int i = 0; i < 1000; i++)
+      map.put(i, i);
+    map.put(null, -1);
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> (map);
+    FastHashMap<Integer,Integer> fork = map.fork();
+    assertSame(map.keyValueTable, fork.keyValueTable);
+    assertEquals(check, fork);
+    // Every kind of modification of the map leaves the fork intact
+    map.put(1000, 0);
+    assertNotSame(map.keyValueTable, fork.keyValueTable);
+    FastHashMap<Integer,Integer> fork2 = map.fork();
+    map.remove(5);
+    map.put(null, 0);
+    map.entrySet().iterator().next().setValue(7);
+    map.replaceAll((k, v) -> -v);
+    for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); ) {
+      Integer key = it.next();
+      if (key != null && key % 3 == 0)
+        it.remove();
+    }
+    map.compact();
+    assertEquals(check, fork);
+    assertEquals(1002, fork2.size());
+    assertEquals(Integer.valueOf(5), fork2.get(5));
+    assertEquals(Integer.valueOf(-1), fork2.get(null));
+    FastHashMap<Integer,Integer> fork3 = map.fork();
+    Map<Integer,Integer> check3 = new HashMap<Integer,Integer> (map);
+    map.clear();
+    assertEquals(check3, fork3);
+    // Modifications of the fork leave the map intact
+    map.put(1, 1);
+    FastHashMap<Integer,Integer> fork4 = map.fork();
+    Object[] kv = map.keyValueTable;
+    fork4.put(2, 2);
+    fork4.remove(1);
+    // Only the side modified first copies the arrays
+    map.put(3, 3);
+    assertSame(kv, map.keyValueTable);
+    map.remove(3);
+    assertEquals(Collections.singletonMap(1, 1), map);
+    assertEquals(Collections.singletonMap(2, 2), fork4);
+    // Fork during incremental resize
+    FastHashMap<Integer,Integer> inc = new FastHashMap<Integer,Integer> ();
+    inc.enableIncrementalResize();
+    inc.enableFullHashes();
+    int n = 0;
+    while (n < 10000 || inc.oldIndexTable == null)
+      inc.put(n, n++);
+    FastHashMap<Integer,Integer> incFork = inc.fork();
+    for (int i = 0; i < n; i += 2)
+      inc.remove(i);
+    for (int i = n; i < 2 * n; i++)
+      inc.put(i, i);
+    assertEquals(n, incFork.size());
+    for (int i = 0; i < n; i++)
+      assertEquals(Integer.valueOf(i), incFork.get(i));
+    assertNull(incFork.get(n));
+  }
 }
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.io.*;
+import java.nio.channels.*;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -59,4 +61,71 @@ public class FastHashSetTest {
     assertEquals("5", i.next());
     assertFalse(i.hasNext());
   }
+
+  @Test public void testSnapshot () throws IOException {
+    FastHashSet<String> set = new FastHashSet<String> ();
+    for (int i = 0; i < 1000; i++)
+      set.add("e" + i);
+    for (int i = 0; i < 1000; i += 3)
+      set.remove("e" + i);
+    set.add(null);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    set.writeSnapshot(Channels.newChannel(bytes), SnapshotCodec.STRING);
+    FastHashSet<String> copy = FastHashSet.readSnapshot(
+      Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+      SnapshotCodec.STRING);
+    assertEquals(set, copy);
+    assertTrue(copy.contains(null));
+    assertTrue(copy.contains("e1"));
+    assertFalse(copy.contains("e0"));
+    assertTrue(copy.add("e0"));
+    assertTrue(copy.remove("e2"));
+  }
+
+  @Test public void testRemoveIf () {
+    FastHashSet<Integer> set = new FastHashSet<Integer> ();
+    for (int i = 0; i < 1000; i++)
+      set.add(i);
+    set.add(null);
+    assertTrue(set.removeIf(i -> i == null || i % 3 != 0));
+    assertFalse(set.removeIf(i -> i == 1));
+    assertEquals(334, set.size());
+    final int[] sum = new int[1];
+    set.forEach(i -> sum[0] += i);
+    assertEquals(166833, sum[0]);
+    for (int i = 0; i < 1000; i++)
+      assertEquals(i % 3 == 0, set.contains(i));
+    assertFalse(set.contains(null));
+  }
+
+  @Test public void testHashingStrategy () throws IOException {
+    FastHashSet<String> set = new FastHashSet<String> (HashingStrategy.CASE_INSENSITIVE);
+    assertTrue(set.add("Accept"));
+    assertFalse(set.add("ACCEPT"));
+    assertTrue(set.contains("accept"));
+    assertTrue(set.add(null));
+    assertEquals(2, set.size());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    set.writeSnapshot(Channels.newChannel(bytes), SnapshotCodec.STRING);
+    FastHashSet<String> copy = FastHashSet.readSnapshot(
+      Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+      SnapshotCodec.STRING, HashingStrategy.CASE_INSENSITIVE);
+    assertTrue(copy.contains("aCCEPT"));
+    assertTrue(copy.remove("accepT"));
+    assertTrue(set.clone().remove("ACCEPT"));
+  }
+
+  @Test public void testFork () {
+    FastHashSet<String> set = new FastHashSet<String> ();
+    for (int i = 0; i < 100; i++)
+      set.add("a" + i);
+    FastHashSet<String> fork = set.fork();
+    set.remove("a1");
+    set.add("b");
+    assertEquals(100, fork.size());
+    assertTrue(fork.contains("a1"));
+    assertFalse(fork.contains("b"));
+    fork.clear();
+    assertEquals(100, set.size());
+  }
 }
@@ -0,0 +1,104 @@
+import java.util.*;
+import java.io.*;
+import java.nio.channels.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastIdentityHashMapTest {
+
+  @Test public void test () {
+    FastIdentityHashMap<String,Integer> map = new FastIdentityHashMap<String,Integer> ();
+    String a1 = new String("a");
+    String a2 = new String("a");
+    assertNull(map.put(a1, 1));
+    assertNull(map.put(a2, 2));
+    assertEquals(2, map.size());
+    assertEquals(Integer.valueOf(1), map.get(a1));
+    assertEquals(Integer.valueOf(2), map.get(a2));
+    assertNull(map.get("a" + map.size()));
+    assertFalse(map.containsKey(new String("a")));
+    assertFalse(map.containsValue(new Object()));
+    assertTrue(map.containsValue(map.get(a1)));
+    assertEquals(Integer.valueOf(1), map.remove(a1));
+    assertNull(map.remove(new String("a")));
+    map.put(null, 3);
+    assertEquals(Integer.valueOf(3), map.get(null));
+    assertEquals(Arrays.asList(null, a2), new ArrayList<String> (map.keySet()));
+  }
+
+  @Test public void testRandom () {
+    FastIdentityHashMap<Object,Integer> map = new FastIdentityHashMap<Object,Integer> ();
+    Map<Object,Integer> check = new IdentityHashMap<Object,Integer> ();
+    Object[] keys = new Object[1000];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = i % 2 == 0 ? new String("k" + i / 2) : new Object();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      Object key = keys[rnd.nextInt(keys.length)];
+      Integer value = i; // Values are compared by reference too
+      switch (rnd.nextInt(3)) {
+        case 0:
+          assertEquals(check.put(key, value), map.put(key, value));
+          break;
+        case 1:
+          assertEquals(check.remove(key), map.remove(key));
+          break;
+        default:
+          assertEquals(check.get(key), map.get(key));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertEquals(check, map);
+    assertEquals(check.hashCode(), map.hashCode());
+    assertEquals(check, map.clone());
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastIdentityHashMap<String,String> map = new FastIdentityHashMap<String,String> ();
+    for (int i = 0; i < 100; i++) {
+      map.put(new String("k" + i), "a" + i);
+      map.put(new String("k" + i), "b" + i);
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    @SuppressWarnings("unchecked")
+    FastIdentityHashMap<String,String> copy = (FastIdentityHashMap<String,String>)
+      new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    assertEquals(200, copy.size());
+    assertSame(HashingStrategy.IDENTITY, copy.strategy);
+    for (Map.Entry<String,String> e: copy.entrySet())
+      assertEquals(e.getValue(), copy.get(e.getKey()));
+    assertNull(copy.get("k1"));
+  }
+
+  @Test public void testSnapshot () throws IOException {
+    FastIdentityHashMap<String,Integer> map = new FastIdentityHashMap<String,Integer> ();
+    for (int i = 0; i < 100; i++)
+      map.put(new String("k" + i), i);
+    try {
+      map.writeSnapshot(Channels.newChannel(new ByteArrayOutputStream()),
+        SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    // A snapshot of keys compared by equals can not be read by identity
+    FastHashMap<String,Integer> equal = new FastHashMap<String,Integer> (map);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    equal.writeSnapshot(Channels.newChannel(bytes), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    try {
+      FastHashMap.readSnapshot(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+        SnapshotCodec.STRING, SnapshotCodec.INTEGER, HashingStrategy.IDENTITY);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    FastHashSet<String> set = new FastHashSet<String> (HashingStrategy.IDENTITY);
+    set.add("a");
+    try {
+      set.writeSnapshot(Channels.newChannel(new ByteArrayOutputStream()), SnapshotCodec.STRING);
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+  }
+}
@@ -0,0 +1,79 @@
+import java.util.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastIntIntHashMapTest {
+
+  @Test public void testBasic () {
+    FastIntIntHashMap map = new FastIntIntHashMap ();
+    assertEquals(0, map.get(5));
+    assertEquals(-1, map.get(5, -1));
+    assertEquals(0, map.put(5, 50));
+    assertEquals(0, map.put(0, 10));
+    assertEquals(50, map.put(5, 55));
+    assertEquals(2, map.size());
+    assertEquals(55, map.get(5));
+    assertEquals(10, map.get(0));
+    assertTrue(map.containsValue(10));
+    assertFalse(map.containsValue(50));
+    assertEquals(10, map.remove(0));
+    assertEquals(0, map.remove(0));
+    assertFalse(map.containsKey(0));
+    assertEquals("{5=55}", map.toString());
+  }
+
+  @Test public void testAddTo () {
+    FastIntIntHashMap map = new FastIntIntHashMap ();
+    for (int i = 0; i < 1000; i++)
+      map.addTo(i % 37, i);
+    assertEquals(37, map.size());
+    int sum = 0;
+    for (int v : map.values())
+      sum += v;
+    assertEquals(999*1000/2, sum);
+  }
+
+  @Test public void testRandom () {
+    FastIntIntHashMap map = new FastIntIntHashMap (0, 1f);
+    Map<Integer,Integer> check = new HashMap<Integer,Integer> ();
+    Random rnd = new Random(2);
+    for (int i = 0; i < 100000; i++) {
+      int key = rnd.nextInt(2000) << 20;
+      switch (rnd.nextInt(3)) {
+        case 0:
+          Integer old = check.put(key, i);
+          assertEquals(old == null ? 0 : (int)old, map.put(key, i));
+          break;
+        case 1:
+          old = check.remove(key);
+          assertEquals(old == null ? 0 : (int)old, map.remove(key));
+          break;
+        default:
+          assertEquals(check.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertEquals(check.hashCode(), map.hashCode());
+    FastIntIntHashMap clone = map.clone();
+    assertEquals(map, clone);
+    clone.addTo(clone.keys()[0], 1);
+    assertFalse(map.equals(clone));
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastIntIntHashMap map = new FastIntIntHashMap ();
+    for (int i = 0; i < 100; i++)
+      map.put(i*i, i);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    ObjectInputStream ois = new ObjectInputStream(
+      new ByteArrayInputStream(bos.toByteArray()));
+    FastIntIntHashMap read = (FastIntIntHashMap)ois.readObject();
+    ois.close();
+    assertEquals(map, read);
+    assertEquals(9, read.get(81));
+  }
+}
@@ -0,0 +1,101 @@
+import java.util.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastIntObjectHashMapTest {
+
+  @Test public void testZeroKey () {
+    FastIntObjectHashMap<String> map = new FastIntObjectHashMap<String> ();
+    assertEquals(0, map.size());
+    assertFalse(map.containsKey(0));
+    assertEquals(null, map.get(0));
+    assertEquals(null, map.put(0, "zero"));
+    assertEquals(1, map.size());
+    assertTrue(map.containsKey(0));
+    assertEquals("zero", map.get(0));
+    assertEquals("zero", map.put(0, null));
+    assertEquals(1, map.size());
+    assertTrue(map.containsKey(0));
+    assertTrue(map.containsValue(null));
+    assertEquals(null, map.remove(0));
+    assertFalse(map.containsKey(0));
+    assertEquals(0, map.size());
+  }
+
+  @Test public void testRandom () {
+    FastIntObjectHashMap<String> map = new FastIntObjectHashMap<String> ();
+    Map<Integer,String> check = new HashMap<Integer,String> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      int key = rnd.nextInt(1000) * 65536 - 32768000;
+      switch (rnd.nextInt(3)) {
+        case 0:
+          assertEquals(check.put(key, "v"+i), map.put(key, "v"+i));
+          break;
+        case 1:
+          assertEquals(check.remove(key), map.remove(key));
+          break;
+        default:
+          assertEquals(check.get(key), map.get(key));
+          assertEquals(check.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertEquals(check.hashCode(), map.hashCode());
+    int[] keys = map.keys();
+    List<String> values = map.values();
+    assertEquals(check.size(), keys.length);
+    for (int i = 0; i < keys.length; i++)
+      assertEquals(check.get(keys[i]), values.get(i));
+  }
+
+  @Test public void testOrder () {
+    FastIntObjectHashMap<String> map = new FastIntObjectHashMap<String> ();
+    map.put(3, "c");
+    map.put(1, "a");
+    map.put(0, "z");
+    map.put(2, "b");
+    assertEquals("{0=z, 3=c, 1=a, 2=b}", map.toString());
+    map.remove(1);
+    assertArrayEquals(new int[] {0, 3, 2}, map.keys());
+    map.clear();
+    assertEquals("{}", map.toString());
+    assertEquals(null, map.get(3));
+  }
+
+  @Test public void testClone () {
+    FastIntObjectHashMap<String> map = new FastIntObjectHashMap<String> ();
+    map.put(1, "a");
+    FastIntObjectHashMap<String> clone = map.clone();
+    clone.put(1, "b");
+    map.put(2, "c");
+    assertEquals("a", map.get(1));
+    assertEquals("b", clone.get(1));
+    assertFalse(clone.containsKey(2));
+    clone.put(1, "a");
+    clone.put(2, "c");
+    assertEquals(map, clone);
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastIntObjectHashMap<String> map = new FastIntObjectHashMap<String> ();
+    for (int i = -50; i < 50; i++)
+      map.put(i*7, "x"+i);
+    map.remove(14);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    ObjectInputStream ois = new ObjectInputStream(
+      new ByteArrayInputStream(bos.toByteArray()));
+    @SuppressWarnings("unchecked")
+    FastIntObjectHashMap<String> read = (FastIntObjectHashMap<String>)ois.readObject();
+    ois.close();
+    assertEquals(map, read);
+    assertEquals(null, read.get(14));
+    assertEquals("x0", read.get(0));
+    read.put(14, "y");
+    assertEquals(map.size()+1, read.size());
+  }
+}
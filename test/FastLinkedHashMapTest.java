@@ -1,5 +1,6 @@
 import java.util.*;
 import java.io.*;
+import java.nio.channels.*;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -343,4 +344,301 @@ public class FastLinkedHashMapTest {
       assertFalse(iv.hasNext());
     }
   }
+
+  @Test public void testComputeAccessOrder () {
+    FastLinkedHashMap<String,Integer> map =
+      new FastLinkedHashMap<String,Integer> (16, .75f, true);
+    map.put("a", 1);
+    map.put("b", 2);
+    map.put("c", 3);
+    assertEquals(Integer.valueOf(1), map.getOrDefault("a", 0));
+    assertEquals(Integer.valueOf(0), map.getOrDefault("x", 0));
+    assertEquals("[b, c, a]", map.keySet().toString());
+    map.merge("b", 10, Integer::sum);
+    assertEquals("[c, a, b]", map.keySet().toString());
+    assertEquals(Integer.valueOf(12), map.get("b"));
+    map.computeIfAbsent("d", k -> 4);
+    map.putIfAbsent("c", 0);
+    assertEquals("[a, b, d, c]", map.keySet().toString());
+    map.compute("a", (k, v) -> null);
+    assertEquals("[b, d, c]", map.keySet().toString());
+    assertEquals(3, map.size());
+  }
+
+  @Test public void testBulkOperationsOrder () {
+    FastLinkedHashMap<String,Integer> map =
+      new FastLinkedHashMap<String,Integer> (16, .75f, true);
+    for (int i = 0; i < 10; i++)
+      map.put("k" + i, i);
+    map.get("k0");
+    map.get("k5");
+    final StringBuilder sb = new StringBuilder();
+    map.forEach((k, v) -> sb.append(v));
+    assertEquals("1234678905", sb.toString());
+    map.replaceAll((k, v) -> v + 1);
+    assertEquals("[k1, k2, k3, k4, k6, k7, k8, k9, k0, k5]", map.keySet().toString());
+    assertTrue(map.values().removeIf(v -> v % 2 == 0));
+    assertEquals("[k2, k4, k6, k8, k0]", map.keySet().toString());
+    assertTrue(map.entrySet().removeIf(e -> e.getKey().equals("k2")));
+    assertFalse(map.keySet().removeIf(k -> k.equals("k2")));
+    map.put("k2", 3);
+    map.get("k4");
+    assertEquals("[k6, k8, k0, k2, k4]", map.keySet().toString());
+    assertEquals(Integer.valueOf(7), map.get("k6"));
+  }
+
+  @Test public void testSpliteratorOrder () {
+    FastLinkedHashMap<Integer,Integer> map = new FastLinkedHashMap<Integer,Integer> ();
+    for (int i = 1000; i > 0; i--)
+      map.put(i, i);
+    assertTrue(map.keySet().spliterator().hasCharacteristics(Spliterator.ORDERED));
+    assertEquals(new ArrayList<Integer> (map.keySet()), map.keySet().parallelStream()
+      .collect(java.util.stream.Collectors.toList()));
+  }
+
+  @Test public void testCursor () {
+    FastLinkedHashMap<String,Integer> map =
+      new FastLinkedHashMap<String,Integer> (16, .75f, true);
+    for (int i = 0; i < 5; i++)
+      map.put("k" + i, i);
+    map.get("k0");
+    StringBuilder sb = new StringBuilder();
+    MapCursor<String,Integer> c = map.cursor();
+    while (c.advance()) {
+      sb.append(c.key());
+      if (c.value() % 2 == 0)
+        c.remove();
+      else
+        c.setValue(c.value() + 10);
+    }
+    assertEquals("k1k2k3k4k0", sb.toString());
+    assertEquals("{k1=11, k3=13}", map.toString());
+  }
+
+  @Test public void testTrimToSize () {
+    FastLinkedHashMap<Integer,Integer> map =
+      new FastLinkedHashMap<Integer,Integer> (16, .75f, true);
+    for (int i = 0; i < 1000; i++)
+      map.put(i, i);
+    for (int i = 0; i < 1000; i += 2)
+      map.get(i);
+    for (int i = 0; i < 1000; i++)
+      if (i % 50 != 1 && i % 50 != 0)
+        map.remove(i);
+    map.put(null, 0);
+    List<Integer> order = new ArrayList<Integer> (map.keySet());
+    map.trimToSize();
+    assertEquals(order, new ArrayList<Integer> (map.keySet()));
+    map.get(1);
+    map.put(2000, 0);
+    order.remove(Integer.valueOf(1));
+    order.add(1);
+    order.add(2000);
+    assertEquals(order, new ArrayList<Integer> (map.keySet()));
+  }
+
+  @Test public void testIncrementalResize () {
+    FastLinkedHashMap<Integer,Integer> map =
+      new FastLinkedHashMap<Integer,Integer> (16, .75f, true);
+    map.enableIncrementalResize();
+    List<Integer> order = new ArrayList<Integer> ();
+    for (int i = 0; i < 5000; i++) {
+      map.put(i, i);
+      order.add(i);
+      if (i % 7 == 0) {
+        map.get(i / 2);
+        order.remove(Integer.valueOf(i / 2));
+        order.add(i / 2);
+      }
+      if (i % 11 == 0) {
+        map.remove(i / 3);
+        order.remove(Integer.valueOf(i / 3));
+      }
+    }
+    assertEquals(order, new ArrayList<Integer> (map.keySet()));
+    for (Integer key: order)
+      assertEquals(key, map.get(key));
+  }
+
+  @Test public void testHashingStrategy () {
+    FastLinkedHashMap<String,Integer> map = new FastLinkedHashMap<String,Integer> (
+      16, .75f, true, HashingStrategy.CASE_INSENSITIVE);
+    map.put("a", 1);
+    map.put("B", 2);
+    map.put("c", 3);
+    assertEquals(Integer.valueOf(1), map.get("A"));
+    assertEquals(Integer.valueOf(2), map.put("b", 4));
+    assertEquals(Arrays.asList("c", "a", "B"), new ArrayList<String> (map.keySet()));
+  }
+
+  @Test public void testFork () {
+    FastLinkedHashMap<Integer,Integer> map = new FastLinkedHashMap<Integer,Integer> (16, .75f, true);
+    for (int i = 0; i < 100; i++)
+      map.put(i, i);
+    List<Integer> order = new ArrayList<Integer> (map.keySet());
+    FastLinkedHashMap<Integer,Integer> fork = map.fork();
+    // Access order get modifies the linked list
+    assertEquals(Integer.valueOf(0), map.get(0));
+    map.remove(50);
+    map.put(100, 100);
+    assertEquals(order, new ArrayList<Integer> (fork.keySet()));
+    fork.get(99);
+    assertEquals(Integer.valueOf(99), new ArrayList<Integer> (fork.keySet()).get(99));
+    assertEquals(Integer.valueOf(100), new ArrayList<Integer> (map.keySet()).get(99));
+  }
+
+  static byte[] snapshot (FastHashMap<String,Integer> map) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    map.writeSnapshot(Channels.newChannel(bytes), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    return bytes.toByteArray();
+  }
+
+  static ReadableByteChannel channel (byte[] bytes) {
+    return Channels.newChannel(new ByteArrayInputStream(bytes));
+  }
+
+  @Test public void testSnapshot () throws IOException {
+    FastLinkedHashMap<String,Integer> map = new FastLinkedHashMap<String,Integer> ();
+    for (int i = 0; i < 1000; i++)
+      map.put("k" + (i * 7919 % 1000), i);
+    for (int i = 0; i < 1000; i += 3)
+      map.remove("k" + i);
+    map.put(null, -1);
+    map.put("k0", 0);
+    byte[] bytes = snapshot(map);
+    FastLinkedHashMap<String,Integer> copy = FastLinkedHashMap.readSnapshot(
+      channel(bytes), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    assertEquals(map, copy);
+    assertEquals(new ArrayList<String> (map.keySet()), new ArrayList<String> (copy.keySet()));
+    assertFalse(copy.accessOrder);
+    copy.remove("k1");
+    copy.put("k1", 1);
+    assertEquals("k1", new ArrayList<String> (copy.keySet()).get(copy.size() - 1));
+    // Read as an unordered map
+    FastHashMap<String,Integer> plain = FastHashMap.readSnapshot(
+      channel(bytes), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    assertFalse(plain instanceof FastLinkedHashMap);
+    assertEquals(map, plain);
+    // Unordered snapshot is linked in its iteration order
+    copy = FastLinkedHashMap.readSnapshot(
+      channel(snapshot(plain)), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    assertEquals(new ArrayList<String> (plain.keySet()), new ArrayList<String> (copy.keySet()));
+    // Access order is kept
+    FastLinkedHashMap<String,Integer> lru =
+      new FastLinkedHashMap<String,Integer> (16, .75f, true);
+    for (int i = 0; i < 10; i++)
+      lru.put("k" + i, i);
+    lru.get("k3");
+    copy = FastLinkedHashMap.readSnapshot(
+      channel(snapshot(lru)), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+    assertTrue(copy.accessOrder);
+    assertEquals(new ArrayList<String> (lru.keySet()), new ArrayList<String> (copy.keySet()));
+    copy.get("k0");
+    assertEquals("k0", new ArrayList<String> (copy.keySet()).get(9));
+    // Linked set
+    FastLinkedHashSet<String> set = new FastLinkedHashSet<String> ();
+    for (int i = 20; i > 0; i--)
+      set.add("e" + i);
+    set.remove("e7");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    set.writeSnapshot(Channels.newChannel(out), SnapshotCodec.STRING);
+    FastLinkedHashSet<String> setCopy =
+      FastLinkedHashSet.readSnapshot(channel(out.toByteArray()), SnapshotCodec.STRING);
+    assertEquals(new ArrayList<String> (set), new ArrayList<String> (setCopy));
+  }
+
+  @Test(expected=StreamCorruptedException.class)
+  public void testSnapshotInvalidOrder () throws IOException {
+    FastLinkedHashMap<String,Integer> map = new FastLinkedHashMap<String,Integer> ();
+    map.put("a", 1);
+    map.put("b", 2);
+    byte[] bytes = snapshot(map);
+    // Last int is the position of "b", make it a duplicate of "a"
+    bytes[bytes.length - 1] = 0;
+    FastLinkedHashMap.readSnapshot(channel(bytes), SnapshotCodec.STRING, SnapshotCodec.INTEGER);
+  }
+
+  static class ClockCache extends FastLinkedHashMap<Integer,Integer> {
+    private static final long serialVersionUID = 0L;
+    final int maxSize;
+    ClockCache (int maxSize) {
+      super(16, .75f, true);
+      this.maxSize = maxSize;
+      enableClockOrder();
+    }
+    protected boolean removeEldestEntry(Map.Entry<Integer,Integer> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  @Test public void testClockOrder () {
+    ClockCache map = new ClockCache(4);
+    for (int i = 0; i < 4; i++)
+      map.put(i, i);
+    // reads do not move entries nor fail iterators
+    Iterator<Integer> it = map.keySet().iterator();
+    assertEquals(Integer.valueOf(3), map.get(3));
+    assertEquals(Integer.valueOf(0), map.get(0));
+    assertEquals(Integer.valueOf(0), it.next());
+    assertEquals(Arrays.asList(0, 1, 2, 3), new ArrayList<Integer> (map.keySet()));
+    // hand passes referenced 0, evicts 1
+    map.put(4, 4);
+    assertEquals(Arrays.asList(2, 3, 4, 0), new ArrayList<Integer> (map.keySet()));
+    // referenced 3 gets a second chance, 2 does not
+    map.put(5, 5);
+    assertEquals(Arrays.asList(3, 4, 0, 5), new ArrayList<Integer> (map.keySet()));
+    map.put(6, 6);
+    assertEquals(Arrays.asList(0, 5, 6, 3), new ArrayList<Integer> (map.keySet()));
+    // all referenced: full turn, then the eldest goes
+    for (int k : Arrays.asList(0, 5, 6, 3))
+      map.get(k);
+    map.put(null, 7);
+    assertEquals(Arrays.asList(5, 6, 3, null), new ArrayList<Integer> (map.keySet()));
+    map.remove(5);
+    map.put(8, 8);
+    map.get(6);
+    map.put(9, 9);
+    assertEquals(Arrays.asList(null, 8, 9, 6), new ArrayList<Integer> (map.keySet()));
+    assertEquals(Integer.valueOf(7), map.get(null));
+    map.put(10, 10);
+    map.put(11, 11);
+    assertEquals(Arrays.asList(6, 10, null, 11), new ArrayList<Integer> (map.keySet()));
+    try {
+      new FastLinkedHashMap<Integer,Integer> ().enableClockOrder();
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+  }
+
+  @Test public void testClockOrderRandom () {
+    ClockCache map = new ClockCache(500);
+    FastLinkedHashMap<Integer,Integer> fork = null;
+    Random rnd = new Random(1);
+    int hits = 0;
+    for (int i = 0; i < 200000; i++) {
+      int key = (int)Math.abs(rnd.nextGaussian() * 300);
+      if (map.get(key) != null)
+        hits++;
+      else
+        map.put(key, key);
+      if (rnd.nextInt(100) == 0)
+        map.remove(rnd.nextInt(1000));
+      if (i == 100000)
+        fork = map.fork();
+      if (i % 50000 == 0)
+        map.trimToSize();
+      assertTrue(map.size() <= 500);
+    }
+    assertTrue(hits > 150000);
+    assertEquals(500, fork.size());
+    for (Map.Entry<Integer,Integer> e : map.entrySet())
+      assertEquals(e.getKey(), e.getValue());
+    for (Map.Entry<Integer,Integer> e : fork.entrySet())
+      assertEquals(e.getKey(), e.getValue());
+    map.clear();
+    for (int i = 0; i < 1000; i++)
+      map.put(i, i);
+    assertEquals(500, map.size());
+    assertEquals(Integer.valueOf(500), map.keySet().iterator().next());
+  }
 }
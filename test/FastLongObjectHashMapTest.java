@@ -0,0 +1,69 @@
+import java.util.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastLongObjectHashMapTest {
+
+  @Test public void testRandom () {
+    FastLongObjectHashMap<String> map = new FastLongObjectHashMap<String> ();
+    Map<Long,String> check = new HashMap<Long,String> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      long key = (long)rnd.nextInt(1000) << 32 | rnd.nextInt(3);
+      switch (rnd.nextInt(3)) {
+        case 0:
+          assertEquals(check.put(key, "v"+i), map.put(key, "v"+i));
+          break;
+        case 1:
+          assertEquals(check.remove(key), map.remove(key));
+          break;
+        default:
+          assertEquals(check.get(key), map.get(key));
+          assertEquals(check.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    assertEquals(check.hashCode(), map.hashCode());
+    long[] keys = map.keys();
+    List<String> values = map.values();
+    assertEquals(check.size(), keys.length);
+    for (int i = 0; i < keys.length; i++)
+      assertEquals(check.get(keys[i]), values.get(i));
+  }
+
+  @Test public void testHalves () {
+    Set<Integer> hashes = new HashSet<Integer> ();
+    FastLongObjectHashMap<String> map = new FastLongObjectHashMap<String> ();
+    for (long k = 1; k <= 10000; k++) {
+      hashes.add(FastLongKeyHashMap.hash(k << 32 | k));
+      map.put(k << 32 | k, "v"+k);
+    }
+    assertTrue(hashes.size() > 9990);
+    assertEquals(10000, map.size());
+    for (long k = 1; k <= 10000; k++)
+      assertEquals("v"+k, map.get(k << 32 | k));
+    assertEquals(null, map.get(1L << 32));
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastLongObjectHashMap<String> map = new FastLongObjectHashMap<String> ();
+    for (int i = -50; i < 50; i++)
+      map.put(i*7L << 40, "x"+i);
+    map.remove(14L << 40);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(map);
+    oos.close();
+    ObjectInputStream ois = new ObjectInputStream(
+      new ByteArrayInputStream(bos.toByteArray()));
+    @SuppressWarnings("unchecked")
+    FastLongObjectHashMap<String> read = (FastLongObjectHashMap<String>)ois.readObject();
+    ois.close();
+    assertEquals(map, read);
+    assertEquals(null, read.get(14L << 40));
+    assertEquals("x0", read.get(0));
+    read.put(14L << 40, "y");
+    assertEquals(map.size()+1, read.size());
+  }
+}
@@ -0,0 +1,264 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastLruCacheTest {
+
+  @Test public void testLruOrder () {
+    FastLruCache<Integer,String> cache = new FastLruCache<Integer,String> (3);
+    cache.put(1, "a");
+    cache.put(2, "b");
+    cache.put(3, "c");
+    assertEquals("a", cache.get(1));
+    cache.put(4, "d");
+    assertEquals(3, cache.size());
+    assertNull(cache.get(2));
+    assertEquals(Arrays.asList(3, 1, 4), cache.keys());
+    cache.put(3, "C");
+    assertEquals(Arrays.asList(1, 4, 3), cache.keys());
+    cache.put(5, "e");
+    assertEquals(Arrays.asList(4, 3, 5), cache.keys());
+    assertEquals("C", cache.get(3));
+    assertEquals(2, cache.evictionCount());
+    assertEquals(3, cache.weight());
+    assertEquals("C", cache.remove(3));
+    assertNull(cache.remove(3));
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.weight());
+    assertEquals(2, cache.evictionCount());
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.weight());
+  }
+
+  @Test public void testManyHits () {
+    FastLruCache<Integer,Integer> cache = new FastLruCache<Integer,Integer> (100);
+    for (int i = 0; i < 100; i++)
+      cache.put(i, i);
+    // keys are recorded in buffers and replayed in batches
+    for (int j = 0; j < 10; j++)
+      for (int i = 0; i < 50; i++)
+        assertEquals(Integer.valueOf(i), cache.get(i));
+    cache.cleanUp();
+    for (int i = 100; i < 150; i++)
+      cache.put(i, i);
+    for (int i = 0; i < 50; i++)
+      assertEquals(Integer.valueOf(i), cache.get(i));
+    for (int i = 50; i < 100; i++)
+      assertNull(cache.get(i));
+    assertEquals(550, cache.hitCount());
+    assertEquals(50, cache.missCount());
+    assertEquals(50, cache.evictionCount());
+  }
+
+  @Test public void testWeight () {
+    FastLruCache<String,String> cache = new FastLruCache<String,String> (10,
+      (k, v) -> v.length());
+    cache.put("a", "xxxx");
+    cache.put("b", "xxxx");
+    assertEquals(8, cache.weight());
+    cache.put("c", "xxx");
+    assertEquals(7, cache.weight());
+    assertNull(cache.get("a"));
+    cache.put("b", "x");
+    assertEquals(4, cache.weight());
+    cache.put("d", "xxxxxxxxxxxx");
+    assertNull(cache.get("d"));
+    assertEquals(4, cache.weight());
+    assertEquals(2, cache.evictionCount());
+    assertEquals("yyy", cache.computeIfAbsent("e", k -> "yyy"));
+    assertEquals("yyy", cache.computeIfAbsent("e", k -> "zzz"));
+    assertNull(cache.computeIfAbsent("f", k -> null));
+    assertEquals(7, cache.weight());
+    assertEquals(Arrays.asList("c", "b", "e"), cache.keys());
+  }
+
+  @Test public void testNulls () {
+    FastLruCache<String,String> cache = new FastLruCache<String,String> (10);
+    try {
+      cache.put(null, "a");
+      fail();
+    } catch (NullPointerException e) {
+    }
+    try {
+      cache.put("a", null);
+      fail();
+    } catch (NullPointerException e) {
+    }
+    try {
+      cache.get(null);
+      fail();
+    } catch (NullPointerException e) {
+    }
+    try {
+      new FastLruCache<String,String> (-1);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test public void testConcurrent () throws Exception {
+    testConcurrent(false);
+    testConcurrent(true);
+  }
+
+  void testConcurrent (boolean admission) throws Exception {
+    final FastLruCache<Integer,Integer> cache = new FastLruCache<Integer,Integer> (500);
+    if (admission)
+      cache.enableFrequencyAdmission();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable> ();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] = new Thread(() -> {
+        try {
+          Random rnd = new Random(seed);
+          for (int i = 0; i < 200000; i++) {
+            int key = rnd.nextInt(1000);
+            Integer value = cache.get(key);
+            if (value == null)
+              cache.put(key, -key);
+            else
+              assertEquals(-key, value.intValue());
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertNull(error.get());
+    assertTrue(cache.size() <= 500);
+    assertEquals(cache.size(), cache.weight());
+    assertEquals(cache.size(), cache.keys().size());
+    assertEquals(800000, cache.hitCount() + cache.missCount());
+    assertTrue(cache.evictionCount() > 0);
+  }
+
+  @Test public void testReadersDuringEviction () throws Exception {
+    testReadersDuringEviction(false);
+    testReadersDuringEviction(true);
+  }
+
+  void testReadersDuringEviction (boolean admission) throws Exception {
+    final FastLruCache<Integer,Long> cache = new FastLruCache<Integer,Long> (1000);
+    if (admission)
+      cache.enableFrequencyAdmission();
+    final int keys = 20000;
+    final AtomicInteger wrong = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable> ();
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      final int seed = t;
+      readers[t] = new Thread(() -> {
+        try {
+          Random rnd = new Random(seed);
+          while (!done.get()) {
+            int key = rnd.nextInt(keys);
+            Long value = cache.get(key);
+            // value keeps its key in the high half
+            if (value != null && value >>> 32 != key)
+              wrong.incrementAndGet();
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      });
+      readers[t].start();
+    }
+    // The only writer keeps evicting
+    Random rnd = new Random(5);
+    for (int i = 0; i < 1000000; i++) {
+      int key = rnd.nextInt(keys);
+      if (rnd.nextInt(5) == 0)
+        cache.remove(key);
+      else
+        cache.put(key, ((long)key << 32) | i);
+    }
+    done.set(true);
+    for (Thread reader : readers)
+      reader.join();
+    assertNull(error.get());
+    assertEquals(0, wrong.get());
+    assertTrue(cache.evictionCount() > 0);
+    assertTrue(cache.hitCount() > 0);
+    assertEquals(cache.size(), cache.weight());
+  }
+
+  static int hotHits (FastLruCache<Integer,Integer> cache) {
+    int hits = 0;
+    for (int i = 0; i < 20000; i++) {
+      Integer hot = i % 50;
+      if (cache.get(hot) != null) {
+        if (i >= 10000)
+          hits++;
+      } else
+        cache.put(hot, hot);
+      Integer scan = 1000 + i;
+      if (cache.get(scan) == null)
+        cache.put(scan, scan);
+    }
+    return hits;
+  }
+
+  @Test public void testFrequencyAdmission () {
+    FastLruCache<Integer,Integer> lru = new FastLruCache<Integer,Integer> (90);
+    // each hot key is evicted by 99 other keys before its next access
+    assertEquals(0, hotHits(lru));
+    FastLruCache<Integer,Integer> tinyLfu = new FastLruCache<Integer,Integer> (90);
+    tinyLfu.enableFrequencyAdmission();
+    assertTrue(hotHits(tinyLfu) > 9900);
+    assertEquals(90, tinyLfu.size());
+    assertEquals(90, tinyLfu.weight());
+    // scanned keys are rejected from the window
+    List<Integer> keys = tinyLfu.keys();
+    assertTrue(keys.get(89) >= 1000);
+    for (int i = 0; i < 50; i++)
+      assertTrue(keys.contains(i));
+    assertEquals(49, tinyLfu.remove(49).intValue());
+    assertEquals(89, tinyLfu.weight());
+    tinyLfu.clear();
+    assertEquals(0, tinyLfu.size());
+    for (int i = 0; i < 200; i++)
+      tinyLfu.put(i, i);
+    assertEquals(90, tinyLfu.size());
+  }
+
+  @Test public void testFrequencyAdmissionWeight () {
+    FastLruCache<Integer,String> cache = new FastLruCache<Integer,String> (1000,
+      (k, v) -> v.length());
+    Map<Integer,String> all = new HashMap<Integer,String> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      int key = (int)Math.abs(rnd.nextGaussian() * 200);
+      if (i == 5000)
+        cache.enableFrequencyAdmission();
+      int op = rnd.nextInt(10);
+      if (op < 6) {
+        String value = cache.get(key);
+        if (value != null)
+          assertEquals(all.get(key), value);
+        else
+          cache.computeIfAbsent(key, k -> all.get(k));
+      } else if (op < 9) {
+        String value = "v" + key + "xxxxxxxxxxxxxxxxxxxx".substring(rnd.nextInt(20));
+        all.put(key, value);
+        cache.put(key, value);
+      } else
+        cache.remove(key);
+      if (i % 1000 == 0) {
+        long weight = 0;
+        for (Integer k : cache.keys())
+          weight += all.get(k).length();
+        assertEquals(weight, cache.weight());
+        assertTrue(weight <= 1000);
+      }
+    }
+    assertTrue(cache.hitCount() > 0);
+  }
+}
@@ -0,0 +1,125 @@
+import java.util.*;
+import java.nio.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastOffHeapHashMapTest {
+
+  static byte[] bytes (String s) {
+    return s.getBytes();
+  }
+
+  @Test public void testBasic () {
+    FastOffHeapHashMap map = new FastOffHeapHashMap ();
+    assertEquals(0, map.size());
+    assertNull(map.get(bytes("a")));
+    assertTrue(map.put(bytes("a"), bytes("1")));
+    assertTrue(map.put(bytes(""), bytes("empty")));
+    assertFalse(map.put(bytes("a"), bytes("2")));
+    assertEquals(2, map.size());
+    assertArrayEquals(bytes("2"), map.get(bytes("a")));
+    assertArrayEquals(bytes("empty"), map.get(new byte[0]));
+    assertTrue(map.containsKey(ByteBuffer.wrap(bytes("xax"), 1, 1)));
+    assertFalse(map.containsKey(bytes("b")));
+    assertFalse(map.put(bytes("a"), bytes("longer value")));
+    assertArrayEquals(bytes("longer value"), map.get(bytes("a")));
+    assertTrue(map.remove(bytes("a")));
+    assertFalse(map.remove(bytes("a")));
+    assertNull(map.get(bytes("a")));
+    assertEquals(1, map.size());
+    map.clear();
+    assertEquals(0, map.size());
+    assertNull(map.get(new byte[0]));
+    assertEquals(0, map.dataSize());
+  }
+
+  @Test public void testByteBuffer () {
+    FastOffHeapHashMap map = new FastOffHeapHashMap ();
+    ByteBuffer key = ByteBuffer.allocateDirect(16);
+    key.putLong(1L).putLong(2L).flip();
+    ByteBuffer value = ByteBuffer.wrap(bytes("value"));
+    assertTrue(map.put(key, value));
+    assertEquals(0, key.position());
+    assertEquals(0, value.position());
+    byte[] heapKey = new byte[16];
+    key.duplicate().get(heapKey);
+    assertArrayEquals(bytes("value"), map.get(heapKey));
+    key.order(ByteOrder.LITTLE_ENDIAN);
+    assertArrayEquals(bytes("value"), map.get(key));
+  }
+
+  @Test public void testRandom () {
+    FastOffHeapHashMap map = new FastOffHeapHashMap ();
+    Map<String,String> check = new HashMap<String,String> ();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 200000; i++) {
+      String key = "key" + rnd.nextInt(2000);
+      switch (rnd.nextInt(3)) {
+        case 0:
+          String value = "value" + i + (rnd.nextBoolean() ? "" : "x");
+          assertEquals(check.put(key, value) == null, map.put(bytes(key), bytes(value)));
+          break;
+        case 1:
+          assertEquals(check.remove(key) != null, map.remove(bytes(key)));
+          break;
+        default:
+          String v = check.get(key);
+          byte[] b = map.get(bytes(key));
+          assertEquals(v, b == null ? null : new String(b));
+      }
+      assertEquals(check.size(), map.size());
+    }
+    Set<String> keys = new HashSet<String> ();
+    for (byte[] key: map.keys())
+      keys.add(new String(key));
+    assertEquals(check.keySet(), keys);
+    // Garbage is reclaimed automatically
+    assertTrue(map.dataSize() < 4 * 2000 * 30);
+    map.compact();
+    for (Map.Entry<String,String> e: check.entrySet())
+      assertArrayEquals(bytes(e.getValue()), map.get(bytes(e.getKey())));
+  }
+
+  @Test public void testCompactInPlace () {
+    FastOffHeapHashMap map = new FastOffHeapHashMap ();
+    Map<String,byte[]> check = new HashMap<String,byte[]> ();
+    Random rnd = new Random(1);
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < 2000; i++) {
+        String key = "k" + rnd.nextInt(3000);
+        // Some records do not fit into first chunks
+        byte[] value = new byte[rnd.nextInt(50) == 0 ?
+          FastOffHeapHashMap.INITIAL_CHUNK_SIZE + rnd.nextInt(1000) : rnd.nextInt(100)];
+        rnd.nextBytes(value);
+        if (rnd.nextInt(3) == 0) {
+          assertEquals(check.remove(key) != null, map.remove(bytes(key)));
+        } else {
+          assertEquals(check.put(key, value) == null, map.put(bytes(key), value));
+        }
+      }
+      List<ByteBuffer> chunks = new ArrayList<ByteBuffer> (map.chunks);
+      map.compact();
+      // No chunks are allocated, emptied ones are dropped
+      assertTrue(map.chunks.size() <= chunks.size());
+      for (int i = 0; i < map.chunks.size(); i++)
+        assertSame(chunks.get(i), map.chunks.get(i));
+      long live = 0;
+      for (Map.Entry<String,byte[]> e: check.entrySet()) {
+        assertArrayEquals(e.getValue(), map.get(bytes(e.getKey())));
+        live += FastOffHeapHashMap.RECORD_HEADER + e.getKey().length() + e.getValue().length;
+      }
+      assertEquals(live, map.dataSize());
+      assertEquals(check.size(), map.size());
+    }
+  }
+
+  @Test public void testLargeRecords () {
+    FastOffHeapHashMap map = new FastOffHeapHashMap ();
+    byte[] value = new byte[FastOffHeapHashMap.INITIAL_CHUNK_SIZE * 3];
+    value[value.length - 1] = 42;
+    for (int i = 0; i < 10; i++)
+      map.put(new byte[] {(byte)i}, value);
+    for (int i = 0; i < 10; i++)
+      assertArrayEquals(value, map.get(new byte[] {(byte)i}));
+  }
+}
@@ -0,0 +1,115 @@
+import java.util.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class FastPerfectHashMapTest {
+
+  @Test public void test () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> ();
+    Random rnd = new Random(1);
+    while (map.size() < 100000)
+      map.put(Long.toString(rnd.nextLong(), 36), rnd.nextInt());
+    map.put(null, 7);
+    FastPerfectHashMap<String,Integer> perfect = FastPerfectHashMap.build(map);
+    assertEquals(map.size(), perfect.size());
+    assertEquals(map, perfect);
+    assertEquals(perfect, map);
+    assertEquals(map.hashCode(), perfect.hashCode());
+    for (String key : map.keySet())
+      assertEquals(map.get(key), perfect.get(key));
+    assertEquals(Integer.valueOf(7), perfect.get(null));
+    for (int i = 0; i < 10000; i++) {
+      String key = "missing" + i;
+      assertNull(perfect.get(key));
+      assertFalse(perfect.containsKey(key));
+    }
+    // A few bits per key instead of a few ints
+    assertNull(perfect.overflow);
+    assertTrue(perfect.indexBits() < 4 * 100000);
+    // Positions of levels are exactly 0..n-1
+    boolean[] used = new boolean[100000];
+    for (String key : map.keySet())
+      if (key != null) {
+        int p = perfect.indexOf(perfect.hash(key));
+        assertFalse(used[p]);
+        used[p] = true;
+      }
+  }
+
+  @Test public void testEqualHashes () {
+    FastHashMap<Object,Integer> map = new FastHashMap<Object,Integer> ();
+    for (int i = 0; i < 1000; i++)
+      map.put(i, i);
+    // Equal hashcodes never separate: they go to the overflow map
+    for (int i = 0; i < 10; i++)
+      map.put(new FastHashMapTest.BadHash(i), -i);
+    FastPerfectHashMap<Object,Integer> perfect = FastPerfectHashMap.build(map);
+    assertEquals(map, perfect);
+    assertTrue(perfect.overflow.size() >= 9);
+    for (int i = 0; i < 10; i++)
+      assertEquals(Integer.valueOf(-i), perfect.get(new FastHashMapTest.BadHash(i)));
+    assertNull(perfect.get(new FastHashMapTest.BadHash(10)));
+    assertNull(perfect.get(1000));
+  }
+
+  @Test public void testSmall () {
+    FastPerfectHashMap<String,String> empty = FastPerfectHashMap.build(new FastHashMap<String,String> ());
+    assertTrue(empty.isEmpty());
+    assertNull(empty.get("a"));
+    assertFalse(empty.entrySet().iterator().hasNext());
+    FastPerfectHashMap<String,String> one = FastPerfectHashMap.build(Collections.singletonMap("a", "b"));
+    assertEquals(Collections.singletonMap("a", "b"), one);
+    assertEquals("b", one.get("a"));
+    assertNull(one.get("b"));
+    assertEquals("c", one.getOrDefault("b", "c"));
+    assertTrue(one.containsValue("b"));
+    assertTrue(one.entrySet().contains(new AbstractMap.SimpleEntry<String,String> ("a", "b")));
+  }
+
+  @Test public void testImmutable () {
+    FastPerfectHashMap<String,String> map = FastPerfectHashMap.build(Collections.singletonMap("a", "b"));
+    try {
+      map.put("c", "d");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      map.remove("a");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      map.entrySet().iterator().next().setValue("c");
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    assertEquals("b", map.get("a"));
+  }
+
+  @Test public void testHashingStrategy () {
+    FastHashMap<String,Integer> map = new FastHashMap<String,Integer> (HashingStrategy.CASE_INSENSITIVE);
+    for (int i = 0; i < 100; i++)
+      map.put("Key" + i, i);
+    FastPerfectHashMap<String,Integer> perfect = FastPerfectHashMap.build(map);
+    assertEquals(Integer.valueOf(5), perfect.get("KEY5"));
+    assertNull(perfect.get("KEY100"));
+  }
+
+  @Test public void testReadWrite () throws IOException, ClassNotFoundException {
+    FastHashMap<Integer,String> map = new FastHashMap<Integer,String> ();
+    for (int i = 0; i < 1000; i++)
+      map.put(i, "a" + i);
+    map.put(null, null);
+    FastPerfectHashMap<Integer,String> perfect = FastPerfectHashMap.build(map);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(perfect);
+    oos.close();
+    @SuppressWarnings("unchecked")
+    FastPerfectHashMap<Integer,String> copy = (FastPerfectHashMap<Integer,String>)
+      new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    assertEquals(map, copy);
+    assertTrue(copy.containsKey(null));
+  }
+}
@@ -19,7 +19,18 @@ object Tests {
     suite.addTest(new JUnit4TestAdapter(classOf[FastHashSetTest]))
     suite.addTest(new JUnit4TestAdapter(classOf[FastLinkedHashMapTest]))
     suite.addTest(new JUnit4TestAdapter(classOf[FastLinkedHashSetTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastIdentityHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastBigHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastFrozenHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastPerfectHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastLruCacheTest]))
     suite.addTest(new JUnit4TestAdapter(classOf[FastHashMap2Test]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastIntObjectHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastLongObjectHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastIntIntHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastLongLongHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastConcurrentHashMapTest]))
+    suite.addTest(new JUnit4TestAdapter(classOf[FastOffHeapHashMapTest]))
     // Google tests
     suite.addTest(MapTestSuiteBuilder
         .using(new TestStringMapGenerator() {